@@ -1,5 +1,7 @@
 package com.aiplus.bi.alarm;
 
+import com.aiplus.bi.alarm.core.AlarmAggregator;
+import com.aiplus.bi.alarm.core.AlarmDispatcher;
 import com.aiplus.bi.log.JSchSLF4JLogger;
 import org.apache.commons.cli.*;
 import org.eclipse.jetty.server.Server;
@@ -10,6 +12,7 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 启动入口类.
@@ -20,6 +23,8 @@ public class AlarmBootstrap {
 
     private static final String CMD_OPT_CONF = "conf";
 
+    private static final long DISPATCHER_SHUTDOWN_SECONDS = 60;
+
     static {
         JSchSLF4JLogger.initJSchLogger();
     }
@@ -48,12 +53,26 @@ public class AlarmBootstrap {
             conf.loadFromClasspath();
         }
 
+        final AlarmAggregator aggregator = new AlarmAggregator(conf);
+        final AlarmDispatcher dispatcher = new AlarmDispatcher(conf, aggregator);
+        // 停止服务的时候处理完已经接收的告警，再发送还没有结束的窗口的摘要
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                dispatcher.shutdown(DISPATCHER_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+                aggregator.shutdown(DISPATCHER_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
         URI baseUri = UriBuilder.fromUri("http://0.0.0.0").port(conf.getAlarmHttpPort()).build();
         ResourceConfig config = new ResourceConfig()
                 .registerInstances(new AbstractBinder() {
                     @Override
                     protected void configure() {
                         bind(conf).to(Configuration.class);
+                        bind(dispatcher).to(AlarmDispatcher.class);
+                        bind(aggregator).to(AlarmAggregator.class);
                     }
                 })
                 .packages(false, new String[]{"com.aiplus.bi.alarm.resource"})
@@ -21,10 +21,24 @@ public interface AlarmConfigurable {
 
     String ALARM_MAIL_USERAUTH = "alarm.mail.useAuth";
 
+    String ALARM_MAIL_POOL_SIZE = "alarm.mail.pool.size";
+
+    String ALARM_MAIL_POOL_MAX_MESSAGES = "alarm.mail.pool.max.messages";
+
+    String ALARM_MAIL_POOL_VALIDATE_IDLE_MS = "alarm.mail.pool.validate.idle.ms";
+
+    String ALARM_MAIL_POOL_MAX_IDLE_MS = "alarm.mail.pool.max.idle.ms";
+
     String ALARM_MAIL_ERROR_CONTINUE_DOWNLOAD_REMOTE_FILE = "alarm.mail.error.continue.downloadRemoteFile";
 
     String ALARM_MAIL_BODY_FORMAT_FILE = "alarm.mail.body.format.file";
 
+    String ALARM_MAIL_BODY_MAX_ROWS = "alarm.mail.body.max.rows";
+
+    String ALARM_MAIL_BODY_MAX_CHARS = "alarm.mail.body.max.chars";
+
+    String ALARM_MAIL_ATTACHMENT_COMPRESS_BYTES = "alarm.mail.attachment.compress.bytes";
+
     String ALARM_JSCH_KNOWN_HOST = "alarm.jsch.known.host";
 
     String ALARM_JSCH_IDENTITY = "alarm.jsch.identity";
@@ -37,9 +51,25 @@ public interface AlarmConfigurable {
 
     String ALARM_JSCH_CHANNEL_TIMEOUT = "alarm.jsch.channel.timeout";
 
+    String ALARM_JSCH_SESSION_IDLE = "alarm.jsch.session.idle";
+
+    String ALARM_JSCH_SERVER_ALIVE_INTERVAL = "alarm.jsch.server.alive.interval";
+
+    String ALARM_JSCH_PARALLEL_CHANNELS = "alarm.jsch.parallel.channels";
+
     String ALARM_TMP_DIR = "alarm.tmp.dir";
 
     String ALARM_ENGINE_TYPE = "alarm.engine.type";
 
+    String ALARM_DISPATCH_WORKERS = "alarm.dispatch.workers";
+
+    String ALARM_DISPATCH_QUEUE_SIZE = "alarm.dispatch.queue.size";
+
+    String ALARM_DISPATCH_MAX_RETAINED = "alarm.dispatch.max.retained";
+
+    String ALARM_AGGREGATE_WINDOW_SECONDS = "alarm.aggregate.window.seconds";
+
+    String ALARM_AGGREGATE_MAX_FINGERPRINTS = "alarm.aggregate.max.fingerprints";
+
     String UNKNOWN = "UNKNOWN";
 }
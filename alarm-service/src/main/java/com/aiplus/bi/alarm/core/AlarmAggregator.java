@@ -0,0 +1,337 @@
+package com.aiplus.bi.alarm.core;
+
+import com.aiplus.bi.alarm.AlarmConfigurable;
+import com.aiplus.bi.alarm.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 告警的去重和聚合.
+ * <p>
+ * 按照告警的级别、主题模板（主题中的数字替换成#）和收件人计算指纹. 一个指纹的第一条告警立即发送，发送成功以后开始一个时间窗口，
+ * 窗口内相同指纹的告警不再单独发送，返回{@link AlarmResponse#CODE_SUPPRESSED}，窗口结束的时候合并成一封摘要邮件发送.
+ * 发送失败的告警不开始窗口，之后相同的告警还会单独发送. 只聚合消息类型的告警，远程文件的报表不聚合.
+ * 同时跟踪的指纹数量有上限，超过的时候淘汰最久没有收到告警的指纹，被淘汰的指纹立即发送摘要.
+ *
+ * @author dev
+ */
+public class AlarmAggregator implements AlarmConfigurable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmAggregator.class);
+
+    private static final int DEFAULT_WINDOW_SECONDS = 300;
+
+    private static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+
+    /**
+     * 摘要中最多列出的告警数量，超过的只计数.
+     */
+    private static final int MAX_DIGEST_ENTRIES = 50;
+
+    private static final int MAX_DIGEST_BODY_LENGTH = 500;
+
+    private static final String MESSAGE_TYPE = "message";
+
+    private final Configuration conf;
+
+    private final long windowMillis;
+
+    private final Map<String, Window> windows;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * 开始停止以后不再开始新的窗口，告警直接发送. 在windows的锁中读写.
+     */
+    private boolean shutdown;
+
+    public AlarmAggregator(Configuration conf) {
+        this.conf = conf;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(conf.getInt(ALARM_AGGREGATE_WINDOW_SECONDS, DEFAULT_WINDOW_SECONDS));
+        final int maxFingerprints = Math.max(1, conf.getInt(ALARM_AGGREGATE_MAX_FINGERPRINTS, DEFAULT_MAX_FINGERPRINTS));
+        this.windows = new LinkedHashMap<String, Window>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                if (size() <= maxFingerprints) {
+                    return false;
+                }
+                scheduleDigest(eldest.getValue(), 0);
+                return true;
+            }
+        };
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "alarm-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 停止的时候所有窗口的摘要都会立即发送，不需要再等待延迟的任务
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * 在告警引擎前面加上去重，窗口为0的时候不去重.
+     *
+     * @param alarmType 告警的类型
+     * @param engine    实际发送告警的引擎
+     * @return 去重的引擎
+     */
+    public AlarmEngine decorate(final String alarmType, final AlarmEngine engine) {
+        if (windowMillis <= 0) {
+            return engine;
+        }
+        return request -> {
+            final AlarmEngine.Executor executor = engine.accept(request);
+            if (!MESSAGE_TYPE.equals(request.getType())) {
+                return executor;
+            }
+            final String fingerprint = fingerprint(alarmType, request);
+            // 异步提交的告警在执行的时候才判断是否重复，和实际发送的顺序一致
+            return () -> {
+                final long start = System.currentTimeMillis();
+                if (suppress(fingerprint, request)) {
+                    return AlarmResponse.suppressed(start).message("Duplicate alarm suppressed, it will be sent in a digest.");
+                }
+                AlarmResponse response = executor.execute();
+                if (AlarmResponse.CODE_SUCCESSFUL.equals(response.getCode())) {
+                    open(fingerprint, alarmType, request);
+                }
+                return response;
+            };
+        };
+    }
+
+    /**
+     * @return 窗口内已经有相同的告警的时候返回true，告警记录到摘要中；没有窗口的时候返回false，告警需要单独发送
+     */
+    private boolean suppress(String fingerprint, AlarmRequest request) {
+        synchronized (windows) {
+            Window window = windows.get(fingerprint);
+            if (null == window) {
+                return false;
+            }
+            window.add(request);
+            return true;
+        }
+    }
+
+    /**
+     * 告警发送成功以后开始窗口，同时发送的相同告警已经开始了窗口的时候保留原来的窗口.
+     */
+    private void open(String fingerprint, String alarmType, AlarmRequest request) {
+        synchronized (windows) {
+            if (shutdown || windows.containsKey(fingerprint)) {
+                return;
+            }
+            Window window = new Window(fingerprint, alarmType, request);
+            windows.put(fingerprint, window);
+            scheduleDigest(window, windowMillis);
+        }
+    }
+
+    private void scheduleDigest(final Window window, long delayMillis) {
+        try {
+            scheduler.schedule(() -> closeWindow(window), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 停止以后不会再开始新的窗口，这里只是防止并发的时候淘汰窗口抛出异常
+            LOGGER.warn("Aggregator is shut down, drop digest of " + window.suppressed + " suppressed alarm(s) [" + window.fingerprint + "]");
+        }
+    }
+
+    private void closeWindow(Window window) {
+        synchronized (windows) {
+            // 被淘汰的窗口已经从Map中移除，不能移除同一个指纹后来的窗口
+            windows.remove(window.fingerprint, window);
+            if (window.closed) {
+                return;
+            }
+            window.closed = true;
+        }
+        if (window.suppressed == 0) {
+            return;
+        }
+        try {
+            AlarmResponse response = AlarmEngineFactory.getInstance().createEngine(window.alarmType, conf)
+                    .accept(window.createDigest()).execute();
+            LOGGER.info("Send digest of " + window.suppressed + " suppressed alarm(s) [" + window.fingerprint + "]: " + response.getMessage());
+        } catch (AlarmException | RuntimeException e) {
+            LOGGER.error("Send alarm digest failed: " + window.fingerprint, e);
+        }
+    }
+
+    /**
+     * 停止的时候立即发送所有窗口的摘要.
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        List<Window> opened;
+        synchronized (windows) {
+            shutdown = true;
+            opened = new ArrayList<>(windows.values());
+        }
+        for (Window window : opened) {
+            scheduleDigest(window, 0);
+        }
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(timeout, unit)) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    static String fingerprint(String alarmType, AlarmRequest request) {
+        StringBuilder fingerprint = new StringBuilder(alarmType.toUpperCase()).append('|')
+                .append(null == request.getLevel() ? "" : request.getLevel().toUpperCase()).append('|');
+        // 主题模板：连续的数字（日期、时间、id等）替换成一个#，连续的空白替换成一个空格
+        String subject = null == request.getSubject() ? "" : request.getSubject().trim();
+        boolean inDigits = false;
+        boolean inSpaces = false;
+        for (int i = 0; i < subject.length(); i++) {
+            char c = subject.charAt(i);
+            if (Character.isDigit(c)) {
+                if (!inDigits) {
+                    fingerprint.append('#');
+                }
+                inDigits = true;
+                inSpaces = false;
+            } else if (Character.isWhitespace(c)) {
+                if (!inSpaces) {
+                    fingerprint.append(' ');
+                }
+                inSpaces = true;
+                inDigits = false;
+            } else {
+                fingerprint.append(c);
+                inDigits = false;
+                inSpaces = false;
+            }
+        }
+        fingerprint.append('|');
+        if (null != request.getToAddress()) {
+            String[] recipients = new String[request.getToAddress().length];
+            for (int i = 0; i < recipients.length; i++) {
+                recipients[i] = request.getToAddress()[i].trim().toLowerCase();
+            }
+            Arrays.sort(recipients);
+            fingerprint.append(String.join(",", recipients));
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * 一个指纹的时间窗口.
+     */
+    private static class Window {
+
+        private final String fingerprint;
+
+        private final String alarmType;
+
+        private final AlarmRequest first;
+
+        private final long openTime = System.currentTimeMillis();
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        private int suppressed;
+
+        private boolean closed;
+
+        Window(String fingerprint, String alarmType, AlarmRequest first) {
+            this.fingerprint = fingerprint;
+            this.alarmType = alarmType;
+            this.first = first;
+        }
+
+        void add(AlarmRequest request) {
+            suppressed++;
+            if (entries.size() < MAX_DIGEST_ENTRIES) {
+                entries.add(new Entry(request));
+            }
+        }
+
+        AlarmRequest createDigest() {
+            AlarmRequest digest = new AlarmRequest();
+            digest.setLevel(first.getLevel());
+            digest.setToAddress(first.getToAddress());
+            digest.setUser(first.getUser());
+            digest.setHost(first.getHost());
+            digest.setSubject("[DIGEST x" + suppressed + "] " + first.getSubject());
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            StringBuilder body = new StringBuilder("<p>").append(suppressed).append(" similar alarm(s) suppressed since ")
+                    .append(format.format(new Date(openTime))).append(":</p><table border=\"1\" cellspacing=\"0\" cellpadding=\"4\">")
+                    .append("<tr><th>Time</th><th>Host</th><th>User</th><th>Subject</th><th>Body</th></tr>");
+            for (Entry entry : entries) {
+                body.append("<tr><td>").append(format.format(new Date(entry.time))).append("</td><td>").append(escape(entry.host))
+                        .append("</td><td>").append(escape(entry.user)).append("</td><td>").append(escape(entry.subject))
+                        .append("</td><td>").append(escape(entry.body)).append("</td></tr>");
+            }
+            body.append("</table>");
+            if (suppressed > entries.size()) {
+                body.append("<p>... ").append(suppressed - entries.size()).append(" more.</p>");
+            }
+            digest.setBody(body.toString());
+            return digest;
+        }
+
+        private static String abbreviate(String text) {
+            if (null == text || text.length() <= MAX_DIGEST_BODY_LENGTH) {
+                return text;
+            }
+            return text.substring(0, MAX_DIGEST_BODY_LENGTH) + "...";
+        }
+
+        private static String escape(String text) {
+            if (null == text) {
+                return "";
+            }
+            StringBuilder escaped = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '<':
+                        escaped.append("&lt;");
+                        break;
+                    case '>':
+                        escaped.append("&gt;");
+                        break;
+                    case '&':
+                        escaped.append("&amp;");
+                        break;
+                    case '"':
+                        escaped.append("&quot;");
+                        break;
+                    default:
+                        escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+
+    /**
+     * 被抑制的一条告警，只保留摘要需要的信息，内容截断以后保存.
+     */
+    private static class Entry {
+
+        private final long time = System.currentTimeMillis();
+
+        private final String host;
+
+        private final String user;
+
+        private final String subject;
+
+        private final String body;
+
+        Entry(AlarmRequest request) {
+            this.host = request.getHost();
+            this.user = request.getUser();
+            this.subject = request.getSubject();
+            this.body = Window.abbreviate(request.getBody());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.aiplus.bi.alarm.core;
+
+import com.aiplus.bi.alarm.AlarmConfigurable;
+import com.aiplus.bi.alarm.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步处理告警的调度器.
+ * <p>
+ * 告警提交到固定数量的工作线程中处理，HTTP的请求线程只负责入队. 等待队列是有界的，队列满的时候直接拒绝，调用方应该稍后重试.
+ * 处理结果按照提交的顺序保留最近的{@value #DEFAULT_MAX_RETAINED}个（可配置），更早的结果会被淘汰.
+ *
+ * @author dev
+ */
+public class AlarmDispatcher implements AlarmConfigurable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmDispatcher.class);
+
+    private static final int DEFAULT_WORKERS = 4;
+
+    private static final int DEFAULT_QUEUE_SIZE = 200;
+
+    private static final int DEFAULT_MAX_RETAINED = 10000;
+
+    private final Configuration conf;
+
+    private final AlarmAggregator aggregator;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, AlarmStatus> statuses;
+
+    public AlarmDispatcher(Configuration conf, AlarmAggregator aggregator) {
+        this.conf = conf;
+        this.aggregator = aggregator;
+        int workers = Math.max(1, conf.getInt(ALARM_DISPATCH_WORKERS, DEFAULT_WORKERS));
+        AtomicInteger threadNum = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, conf.getInt(ALARM_DISPATCH_QUEUE_SIZE, DEFAULT_QUEUE_SIZE))), r -> {
+            Thread thread = new Thread(r, "alarm-dispatcher-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        final int maxRetained = Math.max(1, conf.getInt(ALARM_DISPATCH_MAX_RETAINED, DEFAULT_MAX_RETAINED));
+        this.statuses = new LinkedHashMap<String, AlarmStatus>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AlarmStatus> eldest) {
+                return size() > maxRetained;
+            }
+        };
+    }
+
+    /**
+     * 提交一个告警，立即返回.
+     *
+     * @param alarmType 告警的类型
+     * @param request   告警请求
+     * @return 告警的处理状态，等待队列已满的时候返回null
+     */
+    public AlarmStatus submit(String alarmType, AlarmRequest request) {
+        AlarmStatus status = new AlarmStatus(UUID.randomUUID().toString());
+        // 先校验告警类型，不支持的类型直接抛出异常返回给调用方
+        AlarmEngine engine = aggregator.decorate(alarmType, AlarmEngineFactory.getInstance().createEngine(alarmType, conf));
+        synchronized (statuses) {
+            statuses.put(status.getId(), status);
+        }
+        try {
+            executor.execute(() -> process(engine, request, status));
+        } catch (RejectedExecutionException e) {
+            synchronized (statuses) {
+                statuses.remove(status.getId());
+            }
+            LOGGER.warn("Alarm queue is full, reject alarm: " + request.getSubject());
+            return null;
+        }
+        return status;
+    }
+
+    /**
+     * 查询告警的处理状态.
+     *
+     * @param id 提交的时候返回的id
+     * @return 处理状态，不存在或者已经淘汰的时候返回null
+     */
+    public AlarmStatus getStatus(String id) {
+        synchronized (statuses) {
+            return statuses.get(id);
+        }
+    }
+
+    private void process(AlarmEngine engine, AlarmRequest request, AlarmStatus status) {
+        long start = System.currentTimeMillis();
+        status.running();
+        AlarmResponse response;
+        try {
+            response = engine.accept(request).execute();
+        } catch (AlarmException | RuntimeException e) {
+            LOGGER.error("Alarm engine process has some exception, alarm id: " + status.getId(), e);
+            response = AlarmResponse.failure(start).message(e.getMessage());
+        }
+        status.done(response);
+    }
+
+    /**
+     * 停止接收新的告警，等待已经提交的告警处理完.
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, unit)) {
+            LOGGER.warn("Alarm dispatcher not terminated in " + timeout + " " + unit + ", " + executor.getQueue().size() + " alarm(s) dropped.");
+            executor.shutdownNow();
+        }
+    }
+}
@@ -17,7 +17,13 @@ public class AlarmEngineFactory implements AlarmConfigurable {
     }
 
     public AlarmEngine createEngine(Configuration conf) {
-        String alarmType = conf.get(AlarmConfigurable.ALARM_ENGINE_TYPE, AlarmConfigurable.UNKNOWN);
+        return createEngine(conf.get(AlarmConfigurable.ALARM_ENGINE_TYPE, AlarmConfigurable.UNKNOWN), conf);
+    }
+
+    /**
+     * 创建指定类型的告警引擎，不需要修改共享的配置，可以在多个线程中同时调用.
+     */
+    public AlarmEngine createEngine(String alarmType, Configuration conf) {
         AlarmEngine engine;
         switch (alarmType.toUpperCase()) {
             case "MAIL": {
@@ -14,6 +14,11 @@ public class AlarmResponse implements Serializable {
 
     public static final String CODE_FAILURE = "99999";
 
+    /**
+     * 重复的告警没有单独发送，记录在摘要中，摘要在时间窗口结束的时候发送.
+     */
+    public static final String CODE_SUPPRESSED = "00001";
+
     private String code;
 
     private String message;
@@ -37,6 +42,10 @@ public class AlarmResponse implements Serializable {
         return create(CODE_FAILURE, start);
     }
 
+    public static AlarmResponse suppressed(long start) {
+        return create(CODE_SUPPRESSED, start);
+    }
+
     public static AlarmResponse create(String code, long start) {
         return new AlarmResponse(code, start);
     }
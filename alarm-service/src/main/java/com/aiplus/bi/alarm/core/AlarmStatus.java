@@ -0,0 +1,69 @@
+package com.aiplus.bi.alarm.core;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 异步提交的告警的处理状态.
+ *
+ * @author dev
+ */
+public class AlarmStatus implements Serializable {
+
+    public static final String STATE_QUEUED = "QUEUED";
+
+    public static final String STATE_RUNNING = "RUNNING";
+
+    public static final String STATE_DONE = "DONE";
+
+    public static final String STATE_FAILED = "FAILED";
+
+    public static final String STATE_SUPPRESSED = "SUPPRESSED";
+
+    private final String id;
+
+    private final Date submitTime;
+
+    private volatile String state = STATE_QUEUED;
+
+    /**
+     * 处理结束以后的结果，处理结束之前为null.
+     */
+    private volatile AlarmResponse response;
+
+    AlarmStatus(String id) {
+        this.id = id;
+        this.submitTime = new Date();
+    }
+
+    void running() {
+        this.state = STATE_RUNNING;
+    }
+
+    void done(AlarmResponse response) {
+        this.response = response;
+        if (AlarmResponse.CODE_SUCCESSFUL.equals(response.getCode())) {
+            this.state = STATE_DONE;
+        } else if (AlarmResponse.CODE_SUPPRESSED.equals(response.getCode())) {
+            this.state = STATE_SUPPRESSED;
+        } else {
+            this.state = STATE_FAILED;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Date getSubmitTime() {
+        return submitTime;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public AlarmResponse getResponse() {
+        return response;
+    }
+}
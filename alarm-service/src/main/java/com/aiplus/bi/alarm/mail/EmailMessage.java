@@ -182,8 +182,8 @@ public class EmailMessage {
         props.put("mail.smtp.starttls.enable", this.tls);
         props.put("mail.smtp.ssl.trust", this.mailHost);
 
-        final JavaxMailSender sender = this.creator.createSender(props);
-        final Message message = sender.createMessage();
+        final SmtpTransportPool pool = this.creator.getTransportPool(props);
+        final Message message = pool.createMessage();
 
         final InternetAddress from = new InternetAddress(this.fromAddress, false);
         message.setFrom(from);
@@ -213,46 +213,26 @@ public class EmailMessage {
             message.setContent(this.body.toString(), this.mimeType);
         }
 
-        retryConnectToSMTPServer(sender);
-        retrySendMessage(sender, message);
-        sender.close();
+        retrySendMessage(pool, message);
     }
 
-    private void connectToSMTPServer(final JavaxMailSender s) throws MessagingException {
-        if (this.usesAuth) {
-            s.connect(this.mailHost, this.mailPort, this.mailUser, this.mailPassword);
-        } else {
-            s.connect();
-        }
-    }
-
-    private void retryConnectToSMTPServer(final JavaxMailSender s) throws MessagingException {
-        int attempt;
-        for (attempt = 0; attempt < MAX_EMAIL_RETRY_COUNT; attempt++) {
-            try {
-                connectToSMTPServer(s);
-                return;
-            } catch (final Exception e) {
-                this.logger.error("Connecting to SMTP server failed, attempt: " + attempt, e);
-            }
-        }
-        s.close();
-        throw new MessagingException("Failed to connect to SMTP server after "
-                + attempt + " attempts.");
-    }
-
-    private void retrySendMessage(final JavaxMailSender s, final Message message)
+    private void retrySendMessage(final SmtpTransportPool pool, final Message message)
             throws MessagingException {
         int attempt;
         for (attempt = 0; attempt < MAX_EMAIL_RETRY_COUNT; attempt++) {
+            // a failed connection is closed and the next attempt borrows another one
+            final SmtpTransportPool.PooledTransport transport = pool.borrow(MAIL_TIMEOUT);
+            boolean broken = true;
             try {
-                s.sendMessage(message, message.getRecipients(Message.RecipientType.TO));
+                transport.sendMessage(message);
+                broken = false;
                 return;
             } catch (final Exception e) {
                 this.logger.error("Sending email messages failed, attempt: " + attempt, e);
+            } finally {
+                pool.release(transport, broken);
             }
         }
-        s.close();
         throw new MessagingException("Failed to send email messages after "
                 + attempt + " attempts.");
     }
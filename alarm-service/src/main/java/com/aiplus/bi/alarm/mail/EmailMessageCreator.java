@@ -1,8 +1,8 @@
 package com.aiplus.bi.alarm.mail;
 
+import com.aiplus.bi.alarm.AlarmConfigurable;
 import com.aiplus.bi.alarm.Configuration;
 
-import javax.mail.NoSuchProviderException;
 import java.util.Properties;
 
 
@@ -11,6 +11,11 @@ import java.util.Properties;
  */
 public class EmailMessageCreator {
 
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final int DEFAULT_POOL_MAX_MESSAGES = 100;
+    private static final int DEFAULT_POOL_VALIDATE_IDLE_MS = 5000;
+    private static final int DEFAULT_POOL_MAX_IDLE_MS = 60000;
+
     private final String mailHost;
     private final int mailPort;
     private final String mailUser;
@@ -18,6 +23,7 @@ public class EmailMessageCreator {
     private final String mailSender;
     private final String tls;
     private final boolean usesAuth;
+    private final SmtpTransportPool.Settings poolSettings;
 
     public EmailMessageCreator(final Configuration conf) {
         this.mailHost = conf.getAlarmMailSmtpHost();
@@ -27,6 +33,11 @@ public class EmailMessageCreator {
         this.mailSender = conf.getAlarmMailSender();
         this.tls = conf.getAlarmMailTls();
         this.usesAuth = conf.isAlarmMailUseAuth();
+        this.poolSettings = new SmtpTransportPool.Settings(
+                conf.getInt(AlarmConfigurable.ALARM_MAIL_POOL_SIZE, DEFAULT_POOL_SIZE),
+                conf.getInt(AlarmConfigurable.ALARM_MAIL_POOL_MAX_MESSAGES, DEFAULT_POOL_MAX_MESSAGES),
+                conf.getInt(AlarmConfigurable.ALARM_MAIL_POOL_VALIDATE_IDLE_MS, DEFAULT_POOL_VALIDATE_IDLE_MS),
+                conf.getInt(AlarmConfigurable.ALARM_MAIL_POOL_MAX_IDLE_MS, DEFAULT_POOL_MAX_IDLE_MS));
     }
 
     public EmailMessage createMessage() {
@@ -37,7 +48,11 @@ public class EmailMessageCreator {
         return message;
     }
 
-    public JavaxMailSender createSender(final Properties props) throws NoSuchProviderException {
-        return new JavaxMailSender(props);
+    /**
+     * Shared by every message sent to the same SMTP server, so that connections are reused.
+     */
+    public SmtpTransportPool getTransportPool(final Properties props) {
+        return SmtpTransportPool.getPool(props, this.mailHost, this.mailPort, this.mailUser, this.mailPassword, this.usesAuth,
+                this.poolSettings);
     }
 }
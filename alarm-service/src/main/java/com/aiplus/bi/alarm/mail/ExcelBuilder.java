@@ -48,7 +48,7 @@ public class ExcelBuilder {
             SXSSFSheet sheet = swb.createSheet(remoteFile.getSheetName());
             while ((line = reader.readLine()) != null) {
                 SXSSFRow row = sheet.createRow(i);
-                String[] cells = i == 0 ? line.split("\\|") : line.split("\\001");
+                String[] cells = HtmlTableBuilder.splitLine(line, i == 0 ? '|' : '\001');
                 for (int j = 0; j < cells.length; j++) {
                     row.createCell(j).setCellValue(cells[j]);
                 }
@@ -12,6 +12,8 @@ public class HtmlTableBuilder {
 
     private StringBuilder table = new StringBuilder();
 
+    private int rows;
+
     public HtmlTableBuilder(int border, int cellSpacing, int cellPadding) {
         table.append(TAG_START_BEGIN)
                 .append("table").append(BLANK_SPACE)
@@ -29,6 +31,20 @@ public class HtmlTableBuilder {
         return appendRow(cells, false);
     }
 
+    /**
+     * 当前已经生成的HTML长度，用来控制邮件正文的大小.
+     */
+    public int length() {
+        return table.length();
+    }
+
+    /**
+     * 已经添加的行数，包括表头.
+     */
+    public int getRows() {
+        return rows;
+    }
+
     public String build() {
         table.append(TAG_STOP_BEGIN).append("table").append(TAG_END);
         return table.toString();
@@ -41,11 +57,67 @@ public class HtmlTableBuilder {
         String cellTag = isHeader ? "th" : "td";
         table.append(TAG_START_BEGIN).append("tr").append(TAG_END);
         for (String header : cells) {
-            table.append(TAG_START_BEGIN).append(cellTag).append(TAG_END)
-                    .append(header)
-                    .append(TAG_STOP_BEGIN).append(cellTag).append(TAG_END);
+            table.append(TAG_START_BEGIN).append(cellTag).append(TAG_END);
+            appendEscaped(header);
+            table.append(TAG_STOP_BEGIN).append(cellTag).append(TAG_END);
         }
         table.append(TAG_STOP_BEGIN).append("tr").append(TAG_END);
+        rows++;
         return this;
     }
+
+    /**
+     * 单元格的内容按照文本显示，转义HTML的特殊字符.
+     */
+    private void appendEscaped(String text) {
+        if (null == text) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    table.append("&lt;");
+                    break;
+                case '>':
+                    table.append("&gt;");
+                    break;
+                case '&':
+                    table.append("&amp;");
+                    break;
+                case '"':
+                    table.append("&quot;");
+                    break;
+                default:
+                    table.append(c);
+            }
+        }
+    }
+
+    /**
+     * 按照单个字符切分一行数据，不使用正则表达式. 和{@link String#split(String)}不同，末尾的空字段也会保留，列数和表头一致.
+     *
+     * @param line      一行数据
+     * @param separator 分隔符
+     * @return 切分后的字段
+     */
+    public static String[] splitLine(String line, char separator) {
+        int count = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == separator) {
+                count++;
+            }
+        }
+        String[] cells = new String[count];
+        int start = 0;
+        int index = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == separator) {
+                cells[index++] = line.substring(start, i);
+                start = i + 1;
+            }
+        }
+        cells[index] = line.substring(start);
+        return cells;
+    }
 }
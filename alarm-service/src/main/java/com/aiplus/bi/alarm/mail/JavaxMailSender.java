@@ -18,7 +18,12 @@ public class JavaxMailSender {
 
     public JavaxMailSender(final Properties props)
             throws NoSuchProviderException {
-        this.session = Session.getInstance(props, null);
+        this(Session.getInstance(props, null));
+    }
+
+    public JavaxMailSender(final Session session)
+            throws NoSuchProviderException {
+        this.session = session;
         this.t = (SMTPTransport) this.session.getTransport(PROTOCOL);
     }
 
@@ -40,6 +45,14 @@ public class JavaxMailSender {
         this.t.sendMessage(message, recipients);
     }
 
+    /**
+     * Checks whether the connection is still usable. SMTPTransport.isConnected() already sends NOOP
+     * and closes the connection when the server does not answer with 250.
+     */
+    public boolean noop() {
+        return this.t.isConnected();
+    }
+
     public void close() throws MessagingException {
         this.t.close();
     }
@@ -11,11 +11,16 @@ import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import static com.aiplus.bi.alarm.AlarmConfigurable.*;
 
@@ -30,12 +35,33 @@ public class RemoteFileMailAlarmExecutor extends MailAlarmExecutor {
 
     private static final int DEFAULT_SFTP_PORT = 22;
 
-    private static final int DEFAULT_SFTP_SESSION_TIMEOUT = 30000;
+    private static final int DEFAULT_PARALLEL_CHANNELS = 4;
 
-    private static final int DEFAULT_SFTP_CHANNEL_TIMEOUT = 30000;
+    /**
+     * 并行下载的线程，每个请求最多使用{@link com.aiplus.bi.alarm.AlarmConfigurable#ALARM_JSCH_PARALLEL_CHANNELS}-1个.
+     */
+    private static final ExecutorService DOWNLOAD_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "sftp-download");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private static final String NEW_LINE = "\r\n";
 
+    private static final int DEFAULT_BODY_MAX_ROWS = 1000;
+
+    private static final int DEFAULT_BODY_MAX_CHARS = 2 * 1024 * 1024;
+
+    static final int LINE_EOF = -1;
+
+    static final int LINE_COMPLETE = 0;
+
+    static final int LINE_TRUNCATED = 1;
+
+    private static final String TRUNCATED_MARK = "...";
+
+    private static final int DEFAULT_ATTACHMENT_COMPRESS_BYTES = 1024 * 1024;
+
     public RemoteFileMailAlarmExecutor(AlarmRequest request, EmailMessageCreator emailMessageCreator, Configuration conf) {
         super(request, emailMessageCreator, conf);
     }
@@ -53,68 +79,31 @@ public class RemoteFileMailAlarmExecutor extends MailAlarmExecutor {
         // Normal flow.
         switch (request.getRemoteType()) {
             case REMOTE_TYPE_SFTP: {
-                // list files.
-                Map<RemoteFileAlarmRequest.RemoteFile, String> localFiles = new HashMap<>(remoteFiles.length);
-                // type if sftp, then download files with sftp.
-                JSch jSch = new JSch();
-
-                Session session = null;
-                ChannelSftp channel = null;
-                File tmpDir;
+                Map<RemoteFileAlarmRequest.RemoteFile, String> localFiles;
+                // mkdir a tmp dir for download files.
+                String tmpDirName = UUID.randomUUID().toString();
+                String userTmpDir = conf.get(ALARM_TMP_DIR, System.getProperty("java.io.tmpdir"));
+                File tmpDir = new File(userTmpDir + "/" + tmpDirName);
                 try {
-                    // set known host when non-use password to login.
-                    jSch.setKnownHosts(conf.get(ALARM_JSCH_KNOWN_HOST, System.getProperty("user.home") + "/.ssh/known_hosts"));
-                    jSch.addIdentity(conf.get(ALARM_JSCH_IDENTITY, System.getProperty("user.home") + "/.ssh/id_rsa"));
-                    session = jSch.getSession(conf.get(ALARM_JSCH_KNOWN_USER, request.getUser()),
-                            request.getHost(),
-                            conf.getInt(ALARM_JSCH_KNOWN_HOST_PORT, DEFAULT_SFTP_PORT));
-                    // set first login tips, exp: ask | yes | no
-                    session.setConfig("StrictHostKeyChecking", "no");
-                    // connect session with timeout.
-                    session.connect(conf.getInt(ALARM_JSCH_SESSION_TIMEOUT, DEFAULT_SFTP_SESSION_TIMEOUT));
-                    LOGGER.info("SFTP session is connected. Open channel next...");
-                    // create sftp channel
-                    channel = (ChannelSftp) session.openChannel("sftp");
-                    // connect channel with timeout.
-                    channel.connect(conf.getInt(ALARM_JSCH_CHANNEL_TIMEOUT, DEFAULT_SFTP_CHANNEL_TIMEOUT));
-                    LOGGER.info("SFTP channel is connected. ");
-                    // mkdir a tmp dir for download files.
-                    String tmpDirName = UUID.randomUUID().toString();
-                    String userTmpDir = conf.get(ALARM_TMP_DIR, System.getProperty("java.io.tmpdir"));
-                    tmpDir = new File(userTmpDir + "/" + tmpDirName);
                     FileUtils.forceMkdir(tmpDir);
-                    // downloading..
-                    for (RemoteFileAlarmRequest.RemoteFile remoteFile : remoteFiles) {
-                        String localFilePath = tmpDir.getAbsolutePath() + "/" + remoteFile.getName();
-                        try {
-                            channel.get(remoteFile.getPath(), localFilePath);
-                        } catch (SftpException e) {
-                            LOGGER.error("not found remote file: " + remoteFile.getPath(), e);
-                            continue;
-                        }
-                        LOGGER.debug("Downloaded remote file: " + remoteFile.getPath() + ", save to: " + localFilePath);
-                        localFiles.put(remoteFile, localFilePath);
-                    }
+                    // type if sftp, then download files with sftp.
+                    localFiles = downloadFiles(conf, request, tmpDir);
                 } catch (JSchException | IOException e) {
                     LOGGER.error("Get remote file error.", e);
+                    FileUtils.deleteQuietly(tmpDir);
                     boolean isContinueWithDownloadRemoteFileError = conf.getBoolean(ALARM_MAIL_ERROR_CONTINUE_DOWNLOAD_REMOTE_FILE, false);
                     if (isContinueWithDownloadRemoteFileError) {
                         // continue send mail message, but only request body message will be sent.
                         sendMailMessage(request.getBody());
                     }
                     return AlarmResponse.failure(start).message(e.getLocalizedMessage());
-                } finally {
-                    if (null != channel) {
-                        channel.disconnect();
-                    }
-                    if (null != session) {
-                        session.disconnect();
-                    }
-                    LOGGER.info("Closed channel and session successful...");
                 }
                 // format and send mail.
                 Map<String, File> attachments = new HashMap<>(5);
                 StringBuilder body = new StringBuilder(request.getBody());
+                int maxRows = conf.getInt(ALARM_MAIL_BODY_MAX_ROWS, DEFAULT_BODY_MAX_ROWS);
+                int maxChars = conf.getInt(ALARM_MAIL_BODY_MAX_CHARS, DEFAULT_BODY_MAX_CHARS);
+                long compressSize = conf.getInt(ALARM_MAIL_ATTACHMENT_COMPRESS_BYTES, DEFAULT_ATTACHMENT_COMPRESS_BYTES);
                 Map<String, List<RemoteFileAlarmRequest.RemoteFile>> excels = new HashMap<>(5);
                 for (Map.Entry<RemoteFileAlarmRequest.RemoteFile, String> entry : localFiles.entrySet()) {
                     RemoteFileAlarmRequest.RemoteFile remoteFile = entry.getKey();
@@ -136,17 +125,19 @@ public class RemoteFileMailAlarmExecutor extends MailAlarmExecutor {
                                 sheets.add(newFile);
                             }
                         } else {
-                            attachments.put(remoteFile.getRename(), new File(entry.getValue()));
+                            File file = new File(entry.getValue());
+                            addAttachment(attachments, getAttachmentName(remoteFile, file), file, tmpDir, compressSize);
                         }
                     } else {
-                        // format
-                        String table = readFileAndFormatHTMLTable(new File(entry.getValue()));
-                        if (null == table || table.trim().isEmpty()) {
-                            continue;
+                        // format, the table will be truncated when rows or body size exceeded.
+                        File file = new File(entry.getValue());
+                        int rows = appendFileAsHTMLTable(file, body, maxRows, maxChars);
+                        if (rows >= 0) {
+                            // the full file is sent as attachment.
+                            String name = addAttachment(attachments, getAttachmentName(remoteFile, file), file, tmpDir, compressSize);
+                            body.append("<p>... truncated after ").append(rows).append(" rows, see attachment ").append(name).append(".</p>")
+                                    .append(NEW_LINE);
                         }
-                        LOGGER.debug("Generate table html: " + table);
-                        // append to body
-                        body.append(NEW_LINE).append(table).append(NEW_LINE);
                     }
                 }
                 //Excel转换
@@ -162,24 +153,266 @@ public class RemoteFileMailAlarmExecutor extends MailAlarmExecutor {
         }
     }
 
-    private String readFileAndFormatHTMLTable(File file) {
+    /**
+     * 通过复用的SSH会话下载文件，打开多个SFTP通道并行下载. 返回的文件和请求中的顺序一致，远程不存在的文件跳过.
+     * 其他的下载错误说明会话或者通道不可用，放弃这个会话，使用新的会话重新下载一次.
+     */
+    private Map<RemoteFileAlarmRequest.RemoteFile, String> downloadFiles(Configuration conf, RemoteFileAlarmRequest request, File tmpDir)
+            throws JSchException {
+        RemoteFileAlarmRequest.RemoteFile[] remoteFiles = request.getRemoteFiles();
+        String[] localPaths = new String[remoteFiles.length];
+        String[] targetPaths = getLocalPaths(remoteFiles, tmpDir);
+        SftpSessionPool pool = SftpSessionPool.getInstance(conf);
+        String user = conf.get(ALARM_JSCH_KNOWN_USER, request.getUser());
+        int port = conf.getInt(ALARM_JSCH_KNOWN_HOST_PORT, DEFAULT_SFTP_PORT);
+        int channels = Math.max(1, Math.min(remoteFiles.length, conf.getInt(ALARM_JSCH_PARALLEL_CHANNELS, DEFAULT_PARALLEL_CHANNELS)));
+        for (int attempt = 0; ; attempt++) {
+            try (SftpSessionPool.Lease lease = pool.acquire(user, request.getHost(), port)) {
+                try {
+                    downloadFiles(lease, channels, remoteFiles, targetPaths, localPaths);
+                } catch (JSchException e) {
+                    lease.invalidate();
+                    throw e;
+                }
+                break;
+            } catch (JSchException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+                // 复用的会话可能已经被服务器断开，重新连接一次
+                LOGGER.warn("SFTP session of " + user + "@" + request.getHost() + " is not usable, reconnect it: " + e.getMessage());
+            }
+        }
+        Map<RemoteFileAlarmRequest.RemoteFile, String> localFiles = new LinkedHashMap<>(remoteFiles.length);
+        for (int i = 0; i < remoteFiles.length; i++) {
+            if (null != localPaths[i]) {
+                localFiles.put(remoteFiles[i], localPaths[i]);
+            }
+        }
+        return localFiles;
+    }
+
+    private void downloadFiles(SftpSessionPool.Lease lease, int channels, RemoteFileAlarmRequest.RemoteFile[] remoteFiles, String[] targetPaths,
+                               String[] localPaths) throws JSchException {
+        // 第一个通道打开失败说明会话不可用，直接失败；其他通道打不开（例如超过了服务器的MaxSessions）只是少一个并行的通道
+        ChannelSftp channel = lease.openChannel();
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> helpers = new ArrayList<>(channels - 1);
+        for (int i = 1; i < channels; i++) {
+            helpers.add(DOWNLOAD_EXECUTOR.submit(() -> {
+                ChannelSftp parallelChannel;
+                try {
+                    parallelChannel = lease.openChannel();
+                } catch (JSchException e) {
+                    LOGGER.warn("Open parallel SFTP channel failed: " + e.getMessage());
+                    return null;
+                }
+                download(parallelChannel, remoteFiles, targetPaths, localPaths, next);
+                return null;
+            }));
+        }
+        JSchException failure = null;
+        try {
+            download(channel, remoteFiles, targetPaths, localPaths, next);
+        } catch (JSchException e) {
+            failure = e;
+        }
+        // 失败的时候也要等其他通道结束，重试的时候不能有旧的通道还在写同一个本地文件
+        try {
+            waitFor(helpers);
+        } catch (JSchException e) {
+            if (null == failure) {
+                failure = e;
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 每个远程文件保存的本地路径. 不同目录下的远程文件可能同名，重名的文件在扩展名前面加上序号，并行下载的时候不会写同一个文件.
+     */
+    private String[] getLocalPaths(RemoteFileAlarmRequest.RemoteFile[] remoteFiles, File tmpDir) {
+        String[] paths = new String[remoteFiles.length];
+        Set<String> names = new HashSet<>(remoteFiles.length * 2);
+        for (int i = 0; i < remoteFiles.length; i++) {
+            String name = remoteFiles[i].getName();
+            if (!names.add(name)) {
+                String extension = FilenameUtils.getExtension(name);
+                String baseName = FilenameUtils.removeExtension(name);
+                for (int n = 1; !names.add(name); n++) {
+                    name = baseName + "_" + n + (extension.isEmpty() ? "" : "." + extension);
+                }
+            }
+            paths[i] = tmpDir.getAbsolutePath() + "/" + name;
+        }
+        return paths;
+    }
+
+    /**
+     * 从共享的下标中领取文件下载. 远程文件不存在的时候跳过，其他错误让所有通道停止领取，抛出异常.
+     */
+    private void download(ChannelSftp channel, RemoteFileAlarmRequest.RemoteFile[] remoteFiles, String[] targetPaths, String[] localPaths,
+                          AtomicInteger next) throws JSchException {
+        try {
+            int i;
+            while ((i = next.getAndIncrement()) < remoteFiles.length) {
+                RemoteFileAlarmRequest.RemoteFile remoteFile = remoteFiles[i];
+                String localFilePath = targetPaths[i];
+                try {
+                    channel.get(remoteFile.getPath(), localFilePath);
+                } catch (SftpException e) {
+                    if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                        LOGGER.error("not found remote file: " + remoteFile.getPath(), e);
+                        continue;
+                    }
+                    next.set(remoteFiles.length);
+                    throw new JSchException("Download remote file " + remoteFile.getPath() + " failed: " + e.getMessage(), e);
+                }
+                LOGGER.debug("Downloaded remote file: " + remoteFile.getPath() + ", save to: " + localFilePath);
+                localPaths[i] = localFilePath;
+            }
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * 等待所有的并行下载结束，返回第一个失败.
+     */
+    private void waitFor(List<Future<?>> futures) throws JSchException {
+        JSchException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = e.getCause() instanceof JSchException ? (JSchException) e.getCause()
+                            : new JSchException("Download remote file error.", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JSchException("Interrupted while downloading remote files.", e);
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 附件的名称，没有重命名的时候使用下载的文件名（同名的远程文件下载的时候已经加上了序号）.
+     */
+    private static String getAttachmentName(RemoteFileAlarmRequest.RemoteFile remoteFile, File localFile) {
+        return null != remoteFile.getRename() ? remoteFile.getRename() : localFile.getName();
+    }
+
+    /**
+     * 逐行读取文件生成HTML表格追加到正文中. 数据行数达到maxRows或者正文的长度达到maxChars的时候停止读取，剩下的行不再显示.
+     * 每一行最多读取正文剩余的字符数，一行很长的时候在行内截断，不会把整行读到内存中.
+     *
+     * @return 表格被截断的时候返回显示的数据行数，否则返回-1
+     */
+    private int appendFileAsHTMLTable(File file, StringBuilder body, int maxRows, int maxChars) {
         HtmlTableBuilder table = new HtmlTableBuilder(1, 0, 6);
-        try (FileReader fr = new FileReader(file)) {
-            BufferedReader reader = new BufferedReader(fr);
-            String line;
-            int i = 0;
-            while ((line = reader.readLine()) != null) {
-                // dump data file default split is '\001', header split is '|'
-                String[] cells = i == 0 ? line.split("\\|") : line.split("\\001");
+        boolean truncated = false;
+        // 导出的文件都是UTF-8编码，不能依赖服务器默认的编码
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            truncated = readTable(reader, table, maxRows, maxChars - body.length());
+        } catch (IOException e) {
+            LOGGER.error("Format file content to table exception.", e);
+        }
+        if (table.getRows() > 0) {
+            // append to body
+            body.append(NEW_LINE).append(table.build()).append(NEW_LINE);
+        }
+        if (!truncated) {
+            return -1;
+        }
+        LOGGER.warn("Table of file " + file.getName() + " is truncated, rows: " + table.getRows() + ", body length: " + body.length());
+        return Math.max(0, table.getRows() - 1);
+    }
+
+    /**
+     * 读取表头（'|'分隔）和最多maxRows行数据（'\001'分隔）到表格中，表格的长度不超过maxChars.
+     * 只有文件中确实还有没有显示的内容的时候才算截断，数据刚好是maxRows行的时候不算.
+     *
+     * @return 表格是否被截断
+     */
+    static boolean readTable(Reader reader, HtmlTableBuilder table, int maxRows, int maxChars) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int i = 0;
+        while (true) {
+            int remaining = maxChars - table.length();
+            int state = readLine(reader, line, Math.max(0, remaining));
+            if (state == LINE_EOF) {
+                return false;
+            }
+            // 第一行是表头，后面的行是数据
+            if (remaining <= 0 || i > maxRows) {
+                return true;
+            }
+            // dump data file default split is '\001', header split is '|'
+            String[] cells = HtmlTableBuilder.splitLine(line.toString(), i == 0 ? '|' : '\001');
+            if (state == LINE_TRUNCATED) {
+                // 在截断的单元格后面加上标记，后面的单元格和行都不再显示
+                cells[cells.length - 1] = cells[cells.length - 1] + TRUNCATED_MARK;
                 table.appendRow(cells, i == 0);
-                i++;
+                return true;
+            }
+            table.appendRow(cells, i == 0);
+            i++;
+        }
+    }
+
+    /**
+     * 读取一行到line中（不包括换行符），最多读取maxChars个字符. 超过的时候停止读取，行的剩余部分留在reader中.
+     *
+     * @return 文件已经结束返回{@link #LINE_EOF}，读到完整的一行返回{@link #LINE_COMPLETE}，行被截断返回{@link #LINE_TRUNCATED}
+     */
+    static int readLine(Reader reader, StringBuilder line, int maxChars) throws IOException {
+        line.setLength(0);
+        int c = reader.read();
+        if (c == -1) {
+            return LINE_EOF;
+        }
+        while (c != -1 && c != '\n') {
+            if (line.length() >= maxChars) {
+                return LINE_TRUNCATED;
             }
-            // close read buffer.
-            reader.close();
+            line.append((char) c);
+            c = reader.read();
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return LINE_COMPLETE;
+    }
+
+    /**
+     * 添加附件，超过compressSize的文件先用gzip压缩. 压缩失败的时候发送原始的文件.
+     *
+     * @return 附件的名称
+     */
+    private String addAttachment(Map<String, File> attachments, String name, File file, File tmpDir, long compressSize) {
+        if (file.length() <= compressSize) {
+            attachments.put(name, file);
+            return name;
+        }
+        String gzipName = name + ".gz";
+        File gzipFile = new File(tmpDir, UUID.randomUUID().toString() + ".gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            Files.copy(file.toPath(), out);
         } catch (IOException e) {
-            LOGGER.error("Format file content to table exception.", e);
+            LOGGER.error("Compress attachment " + name + " failed, send it without compression.", e);
+            attachments.put(name, file);
+            return name;
         }
-        return table.build();
+        LOGGER.info("Compressed attachment " + name + " from " + file.length() + " to " + gzipFile.length() + " bytes.");
+        attachments.put(gzipName, gzipFile);
+        return gzipName;
     }
 
     private Map<String, File> readFileAndFormatExcel(String tmpDirPath, Map<String, List<RemoteFileAlarmRequest.RemoteFile>> excels) {
@@ -0,0 +1,259 @@
+package com.aiplus.bi.alarm.mail;
+
+import com.aiplus.bi.alarm.Configuration;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.aiplus.bi.alarm.AlarmConfigurable.*;
+
+/**
+ * 按照user@host:port复用的SSH会话池.
+ * <p>
+ * known_hosts和私钥只在创建的时候读取一次. 同一个地址的会话由多个请求共享，每个请求在会话上打开自己的SFTP通道，
+ * 一个会话可以同时打开多个通道并行下载. 没有请求使用并且空闲时间超过{@link com.aiplus.bi.alarm.AlarmConfigurable#ALARM_JSCH_SESSION_IDLE}
+ * 的会话由后台线程断开. 会话定时发送keepalive，及时发现被服务器或者防火墙断开的连接.
+ * <p>
+ * 借用的会话不可用的时候（{@link Lease#invalidate()}），会话从池中移除，后面的请求重新连接，等所有借用的请求都归还以后再断开.
+ *
+ * @author dev
+ */
+public class SftpSessionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SftpSessionPool.class);
+
+    private static final int DEFAULT_SFTP_SESSION_TIMEOUT = 30000;
+
+    private static final int DEFAULT_SFTP_CHANNEL_TIMEOUT = 30000;
+
+    private static final long DEFAULT_SESSION_IDLE_MILLIS = 5 * 60 * 1000;
+
+    private static final int DEFAULT_SERVER_ALIVE_INTERVAL = 30000;
+
+    /**
+     * 连续这么多次keepalive没有响应的时候断开会话.
+     */
+    private static final int SERVER_ALIVE_COUNT_MAX = 3;
+
+    private static volatile SftpSessionPool instance;
+
+    private final JSch jSch;
+
+    private final int sessionTimeout;
+
+    private final int channelTimeout;
+
+    private final long maxIdleMillis;
+
+    private final int serverAliveInterval;
+
+    private final Map<String, PooledSession> sessions = new HashMap<>();
+
+    private final ScheduledExecutorService evictor;
+
+    private SftpSessionPool(Configuration conf) throws JSchException {
+        this.jSch = new JSch();
+        // set known host when non-use password to login.
+        jSch.setKnownHosts(conf.get(ALARM_JSCH_KNOWN_HOST, System.getProperty("user.home") + "/.ssh/known_hosts"));
+        jSch.addIdentity(conf.get(ALARM_JSCH_IDENTITY, System.getProperty("user.home") + "/.ssh/id_rsa"));
+        this.sessionTimeout = conf.getInt(ALARM_JSCH_SESSION_TIMEOUT, DEFAULT_SFTP_SESSION_TIMEOUT);
+        this.channelTimeout = conf.getInt(ALARM_JSCH_CHANNEL_TIMEOUT, DEFAULT_SFTP_CHANNEL_TIMEOUT);
+        this.maxIdleMillis = Long.parseLong(conf.get(ALARM_JSCH_SESSION_IDLE, String.valueOf(DEFAULT_SESSION_IDLE_MILLIS)));
+        this.serverAliveInterval = conf.getInt(ALARM_JSCH_SERVER_ALIVE_INTERVAL, DEFAULT_SERVER_ALIVE_INTERVAL);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sftp-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static SftpSessionPool getInstance(Configuration conf) throws JSchException {
+        if (null == instance) {
+            synchronized (SftpSessionPool.class) {
+                if (null == instance) {
+                    instance = new SftpSessionPool(conf);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 借出一个已经连接的会话，用完以后必须调用{@link Lease#close()}归还.
+     */
+    public Lease acquire(String user, String host, int port) throws JSchException {
+        String key = user + "@" + host + ":" + port;
+        PooledSession pooled;
+        synchronized (sessions) {
+            pooled = sessions.get(key);
+            if (null == pooled) {
+                pooled = new PooledSession(key);
+                sessions.put(key, pooled);
+            }
+            pooled.leases++;
+        }
+        try {
+            pooled.connect(user, host, port);
+        } catch (JSchException | RuntimeException e) {
+            release(pooled, true);
+            throw e;
+        }
+        return new Lease(pooled);
+    }
+
+    private void release(PooledSession pooled, boolean broken) {
+        synchronized (sessions) {
+            pooled.leases--;
+            pooled.lastReleased = System.currentTimeMillis();
+            if (broken && !pooled.retired) {
+                // 后面的请求使用新的会话，其他请求还在使用的通道不受影响
+                pooled.retired = true;
+                sessions.remove(pooled.key, pooled);
+            }
+            if (pooled.retired && pooled.leases == 0) {
+                pooled.disconnect();
+            }
+        }
+    }
+
+    private void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            for (Iterator<PooledSession> iterator = sessions.values().iterator(); iterator.hasNext(); ) {
+                PooledSession pooled = iterator.next();
+                if (pooled.leases == 0 && now - pooled.lastReleased > maxIdleMillis) {
+                    pooled.disconnect();
+                    iterator.remove();
+                    LOGGER.info("Evicted idle SFTP session: " + pooled.key);
+                }
+            }
+        }
+    }
+
+    private class PooledSession {
+
+        private final String key;
+
+        private Session session;
+
+        /**
+         * 正在使用这个会话的请求数，在sessions的锁中修改.
+         */
+        private int leases;
+
+        /**
+         * 已经从池中移除，最后一个请求归还的时候断开，在sessions的锁中修改.
+         */
+        private boolean retired;
+
+        private long lastReleased = System.currentTimeMillis();
+
+        PooledSession(String key) {
+            this.key = key;
+        }
+
+        synchronized void connect(String user, String host, int port) throws JSchException {
+            if (null != session && session.isConnected()) {
+                return;
+            }
+            Session newSession = jSch.getSession(user, host, port);
+            // set first login tips, exp: ask | yes | no
+            newSession.setConfig("StrictHostKeyChecking", "no");
+            if (serverAliveInterval > 0) {
+                newSession.setServerAliveInterval(serverAliveInterval);
+                newSession.setServerAliveCountMax(SERVER_ALIVE_COUNT_MAX);
+            }
+            // connect session with timeout.
+            newSession.connect(sessionTimeout);
+            this.session = newSession;
+            LOGGER.info("SFTP session is connected: " + key);
+        }
+
+        synchronized Session getSession() {
+            return session;
+        }
+
+        synchronized void disconnect() {
+            if (null != session) {
+                session.disconnect();
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * 一次借用的会话，可以在多个线程中同时打开SFTP通道.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final PooledSession pooled;
+
+        private boolean broken;
+
+        private boolean closed;
+
+        /**
+         * 已经打开的通道数量.
+         */
+        private int openedChannels;
+
+        private Lease(PooledSession pooled) {
+            this.pooled = pooled;
+        }
+
+        /**
+         * 打开一个新的SFTP通道，用完以后调用disconnect()关闭通道.
+         * 第一个通道就打不开的时候会话已经不可用了（isConnected()要等到读取失败才会变成false），归还的时候从池中移除.
+         */
+        public ChannelSftp openChannel() throws JSchException {
+            Session session = pooled.getSession();
+            if (null == session) {
+                invalidate();
+                throw new JSchException("SFTP session is closed: " + pooled.key);
+            }
+            try {
+                ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+                // connect channel with timeout.
+                channel.connect(channelTimeout);
+                synchronized (this) {
+                    openedChannels++;
+                }
+                return channel;
+            } catch (JSchException e) {
+                synchronized (this) {
+                    if (0 == openedChannels || !session.isConnected()) {
+                        broken = true;
+                    }
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * 会话不可用，归还的时候从池中移除，下次借用的时候重新连接.
+         */
+        public synchronized void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(pooled, broken);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.aiplus.bi.alarm.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 长连接的SMTP连接池.
+ * <p>
+ * 连接建立（TLS握手和AUTH）以后可以连续发送多封邮件，同一个SMTP服务器和用户共用一个连接池.
+ * 借出空闲了一段时间的连接之前先发送NOOP检查连接是否可用，不可用的连接关闭以后重新建立.
+ * 一个连接发送的邮件数量达到上限或者空闲时间太长的时候关闭，避免被服务器主动断开.
+ *
+ * @author dev
+ */
+public class SmtpTransportPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private static final Map<String, SmtpTransportPool> POOLS = new ConcurrentHashMap<>();
+
+    private static final int MAX_CONNECT_RETRY_COUNT = 5;
+
+    private final Session session;
+
+    private final String mailHost;
+
+    private final int mailPort;
+
+    private final String mailUser;
+
+    private final String mailPassword;
+
+    private final boolean usesAuth;
+
+    private final int maxTransports;
+
+    private final int maxMessagesPerTransport;
+
+    private final long validateAfterIdleMillis;
+
+    private final long maxIdleMillis;
+
+    private final Deque<PooledTransport> idleTransports = new ArrayDeque<>();
+
+    private int totalTransports;
+
+    private SmtpTransportPool(Properties props, String mailHost, int mailPort, String mailUser, String mailPassword, boolean usesAuth,
+                              Settings settings) {
+        this.session = Session.getInstance(props, null);
+        this.mailHost = mailHost;
+        this.mailPort = mailPort;
+        this.mailUser = mailUser;
+        this.mailPassword = mailPassword;
+        this.usesAuth = usesAuth;
+        this.maxTransports = Math.max(1, settings.maxTransports);
+        this.maxMessagesPerTransport = Math.max(1, settings.maxMessagesPerTransport);
+        this.validateAfterIdleMillis = settings.validateAfterIdleMillis;
+        this.maxIdleMillis = settings.maxIdleMillis;
+    }
+
+    /**
+     * 获取SMTP服务器和用户对应的连接池，第一次获取的时候按照参数创建.
+     */
+    public static SmtpTransportPool getPool(Properties props, String mailHost, int mailPort, String mailUser, String mailPassword,
+                                            boolean usesAuth, Settings settings) {
+        String key = mailHost + ":" + mailPort + "/" + mailUser + "/" + usesAuth;
+        return POOLS.computeIfAbsent(key, k -> new SmtpTransportPool(props, mailHost, mailPort, mailUser, mailPassword, usesAuth, settings));
+    }
+
+    public Message createMessage() {
+        return new MimeMessage(session);
+    }
+
+    /**
+     * 借出一个已经连接的SMTP连接，用完以后必须调用{@link #release(PooledTransport, boolean)}归还.
+     *
+     * @param waitMillis 连接数达到上限的时候最多等待的时间
+     * @return 可用的连接
+     * @throws MessagingException 连接SMTP服务器失败或者等待超时
+     */
+    public PooledTransport borrow(long waitMillis) throws MessagingException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            PooledTransport transport;
+            synchronized (this) {
+                transport = idleTransports.pollFirst();
+                if (null == transport) {
+                    if (totalTransports < maxTransports) {
+                        totalTransports++;
+                    } else {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            throw new MessagingException("Wait for SMTP connection timeout, max connections: " + maxTransports);
+                        }
+                        try {
+                            TimeUnit.MILLISECONDS.timedWait(this, wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new MessagingException("Interrupted while waiting for SMTP connection.", e);
+                        }
+                        continue;
+                    }
+                }
+            }
+            if (null == transport) {
+                // 在锁外面建立连接，握手比较慢的时候不阻塞其他线程归还连接
+                try {
+                    return connect();
+                } catch (MessagingException | RuntimeException e) {
+                    discard(null);
+                    throw e;
+                }
+            }
+            if (isUsable(transport)) {
+                return transport;
+            }
+            discard(transport);
+        }
+    }
+
+    /**
+     * 归还连接.
+     *
+     * @param transport 借出的连接
+     * @param broken    发送的时候出错，连接的状态不确定，需要关闭
+     */
+    public void release(PooledTransport transport, boolean broken) {
+        if (broken || transport.messages >= maxMessagesPerTransport) {
+            discard(transport);
+            return;
+        }
+        transport.lastUsed = System.currentTimeMillis();
+        synchronized (this) {
+            // 最近使用的连接优先借出，多余的连接空闲时间变长以后会被关闭
+            idleTransports.addFirst(transport);
+            notifyAll();
+        }
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        JavaxMailSender sender;
+        try {
+            sender = new JavaxMailSender(session);
+        } catch (NoSuchProviderException e) {
+            throw new MessagingException("No SMTP provider.", e);
+        }
+        int attempt;
+        for (attempt = 0; attempt < MAX_CONNECT_RETRY_COUNT; attempt++) {
+            try {
+                if (usesAuth) {
+                    sender.connect(mailHost, mailPort, mailUser, mailPassword);
+                } else {
+                    sender.connect();
+                }
+                LOGGER.info("Connected to SMTP server " + mailHost + ":" + mailPort);
+                return new PooledTransport(sender);
+            } catch (final Exception e) {
+                LOGGER.error("Connecting to SMTP server failed, attempt: " + attempt, e);
+            }
+        }
+        throw new MessagingException("Failed to connect to SMTP server after " + attempt + " attempts.");
+    }
+
+    private boolean isUsable(PooledTransport transport) {
+        long idle = System.currentTimeMillis() - transport.lastUsed;
+        if (idle > maxIdleMillis) {
+            return false;
+        }
+        return idle <= validateAfterIdleMillis || transport.sender.noop();
+    }
+
+    private void discard(PooledTransport transport) {
+        if (null != transport) {
+            try {
+                transport.sender.close();
+            } catch (MessagingException e) {
+                LOGGER.debug("Close SMTP connection failed.", e);
+            }
+        }
+        synchronized (this) {
+            totalTransports--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 连接池的参数.
+     */
+    public static class Settings {
+
+        private final int maxTransports;
+
+        private final int maxMessagesPerTransport;
+
+        private final long validateAfterIdleMillis;
+
+        private final long maxIdleMillis;
+
+        public Settings(int maxTransports, int maxMessagesPerTransport, long validateAfterIdleMillis, long maxIdleMillis) {
+            this.maxTransports = maxTransports;
+            this.maxMessagesPerTransport = maxMessagesPerTransport;
+            this.validateAfterIdleMillis = validateAfterIdleMillis;
+            this.maxIdleMillis = maxIdleMillis;
+        }
+    }
+
+    /**
+     * 连接池中的一个连接.
+     */
+    public static class PooledTransport {
+
+        private final JavaxMailSender sender;
+
+        private long lastUsed = System.currentTimeMillis();
+
+        private int messages;
+
+        private PooledTransport(JavaxMailSender sender) {
+            this.sender = sender;
+        }
+
+        public void sendMessage(Message message) throws MessagingException {
+            messages++;
+            sender.sendMessage(message, message.getAllRecipients());
+        }
+    }
+}
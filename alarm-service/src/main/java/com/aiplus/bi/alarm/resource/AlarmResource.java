@@ -22,6 +22,12 @@ public class AlarmResource implements AlarmConfigurable {
     @Inject
     private Configuration conf;
 
+    @Inject
+    private AlarmDispatcher dispatcher;
+
+    @Inject
+    private AlarmAggregator aggregator;
+
     @GET
     @Path("info")
     @Produces(MediaType.APPLICATION_JSON)
@@ -40,9 +46,11 @@ public class AlarmResource implements AlarmConfigurable {
     @Path("{alarmType}/send")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response send(@PathParam("alarmType") String alarmType, AlarmRequest request) {
-        conf.set(AlarmConfigurable.ALARM_ENGINE_TYPE, alarmType);
-        AlarmEngine engine = AlarmEngineFactory.getInstance().createEngine(conf);
+    public Response send(@PathParam("alarmType") String alarmType, @QueryParam("async") boolean async, AlarmRequest request) {
+        if (async) {
+            return submit(alarmType, request);
+        }
+        AlarmEngine engine = aggregator.decorate(alarmType, AlarmEngineFactory.getInstance().createEngine(alarmType, conf));
         try {
             AlarmResponse response = engine.accept(request).execute();
             return Response.ok().entity(response).build();
@@ -51,4 +59,29 @@ public class AlarmResource implements AlarmConfigurable {
             return Response.serverError().entity("Alarm engine process has some exception.").build();
         }
     }
+
+    /**
+     * 查询异步提交的告警的处理状态.
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status(@PathParam("id") String id) {
+        AlarmStatus status = dispatcher.getStatus(id);
+        if (null == status) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Alarm[" + id + "] not found.").build();
+        }
+        return Response.ok().entity(status).build();
+    }
+
+    /**
+     * 告警放入队列以后立即返回告警的id，队列满的时候返回429，调用方稍后重试.
+     */
+    private Response submit(String alarmType, AlarmRequest request) {
+        AlarmStatus status = dispatcher.submit(alarmType, request);
+        if (null == status) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS).entity("Alarm queue is full, please retry later.").build();
+        }
+        return Response.status(Response.Status.ACCEPTED).entity(status).build();
+    }
 }
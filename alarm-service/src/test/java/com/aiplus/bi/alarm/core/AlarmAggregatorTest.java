@@ -0,0 +1,150 @@
+package com.aiplus.bi.alarm.core;
+
+import com.aiplus.bi.alarm.AlarmConfigurable;
+import com.aiplus.bi.alarm.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 告警指纹和去重窗口. 窗口足够长，测试过程中不会发送摘要.
+ *
+ * @author dev
+ */
+public class AlarmAggregatorTest {
+
+    private static final String MESSAGE_TYPE = "message";
+
+    private AlarmAggregator aggregator;
+
+    private List<AlarmRequest> sent;
+
+    private List<String> codes;
+
+    @Before
+    public void init() {
+        Configuration conf = new Configuration();
+        conf.set(AlarmConfigurable.ALARM_AGGREGATE_WINDOW_SECONDS, "3600");
+        aggregator = new AlarmAggregator(conf);
+        sent = new ArrayList<>();
+        codes = new ArrayList<>();
+    }
+
+    @Test
+    public void testFingerprintNormalizesSubject() {
+        assertEquals(AlarmAggregator.fingerprint("mail", request("error", "Job 123 failed at 2018-10-18 09:00", "a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("error", "Job 45 failed at 2019-01-02 23:59", "a@x.com")));
+        assertEquals(AlarmAggregator.fingerprint("mail", request("error", " Job  1\tfailed ", "a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("error", "Job 2 failed", "a@x.com")));
+        assertEquals("MAIL|ERROR|Job # failed at #-#-# #:#|a@x.com",
+                AlarmAggregator.fingerprint("mail", request("error", "Job 123 failed at 2018-10-18 09:00", "a@x.com")));
+        assertNotEquals(AlarmAggregator.fingerprint("mail", request("error", "Job 1 failed", "a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("error", "Job 1 finished", "a@x.com")));
+    }
+
+    @Test
+    public void testFingerprintRecipients() {
+        assertEquals(AlarmAggregator.fingerprint("mail", request("error", "s", "B@x.com", " a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com", "b@x.com")));
+        assertNotEquals(AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com", "b@x.com")));
+    }
+
+    @Test
+    public void testFingerprintLevelAndType() {
+        assertEquals(AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com")),
+                AlarmAggregator.fingerprint("MAIL", request("ERROR", "s", "a@x.com")));
+        assertNotEquals(AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com")),
+                AlarmAggregator.fingerprint("mail", request("warn", "s", "a@x.com")));
+        assertNotEquals(AlarmAggregator.fingerprint("mail", request("error", "s", "a@x.com")),
+                AlarmAggregator.fingerprint("sms", request("error", "s", "a@x.com")));
+        // 没有级别、主题和收件人的告警
+        assertEquals("MAIL|||", AlarmAggregator.fingerprint("mail", new AlarmRequest()));
+    }
+
+    @Test
+    public void testDuplicateSuppressed() throws AlarmException {
+        AlarmEngine engine = aggregator.decorate("mail", recordingEngine());
+        assertEquals(AlarmResponse.CODE_SUCCESSFUL, engine.accept(request("error", "Job 1 failed", "a@x.com")).execute().getCode());
+        assertEquals(AlarmResponse.CODE_SUPPRESSED, engine.accept(request("error", "Job 2 failed", "a@x.com")).execute().getCode());
+        assertEquals(AlarmResponse.CODE_SUPPRESSED, engine.accept(request("error", "Job 3 failed", "a@x.com")).execute().getCode());
+        assertEquals(1, sent.size());
+        assertEquals("Job 1 failed", sent.get(0).getSubject());
+    }
+
+    @Test
+    public void testDifferentFingerprintSent() throws AlarmException {
+        AlarmEngine engine = aggregator.decorate("mail", recordingEngine());
+        engine.accept(request("error", "Job 1 failed", "a@x.com")).execute();
+        engine.accept(request("error", "Job 1 failed", "b@x.com")).execute();
+        engine.accept(request("warn", "Job 1 failed", "a@x.com")).execute();
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void testFailedSendOpensNoWindow() throws AlarmException {
+        codes.add(AlarmResponse.CODE_FAILURE);
+        AlarmEngine engine = aggregator.decorate("mail", recordingEngine());
+        assertEquals(AlarmResponse.CODE_FAILURE, engine.accept(request("error", "Job 1 failed", "a@x.com")).execute().getCode());
+        // 第一次发送失败，相同的告警还要单独发送
+        assertEquals(AlarmResponse.CODE_SUCCESSFUL, engine.accept(request("error", "Job 2 failed", "a@x.com")).execute().getCode());
+        assertEquals(AlarmResponse.CODE_SUPPRESSED, engine.accept(request("error", "Job 3 failed", "a@x.com")).execute().getCode());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void testSuppressDecidedOnExecute() throws AlarmException {
+        AlarmEngine engine = aggregator.decorate("mail", recordingEngine());
+        AlarmEngine.Executor first = engine.accept(request("error", "Job 1 failed", "a@x.com"));
+        AlarmEngine.Executor second = engine.accept(request("error", "Job 2 failed", "a@x.com"));
+        // 异步提交的告警按照执行的顺序判断，先执行的告警发送
+        assertEquals(AlarmResponse.CODE_SUCCESSFUL, second.execute().getCode());
+        assertEquals(AlarmResponse.CODE_SUPPRESSED, first.execute().getCode());
+        assertEquals(1, sent.size());
+        assertEquals("Job 2 failed", sent.get(0).getSubject());
+    }
+
+    @Test
+    public void testOtherTypeNotAggregated() throws AlarmException {
+        AlarmEngine engine = aggregator.decorate("mail", recordingEngine());
+        for (int i = 0; i < 3; i++) {
+            AlarmRequest request = request("error", "Report", "a@x.com");
+            request.setType("remote_file");
+            assertEquals(AlarmResponse.CODE_SUCCESSFUL, engine.accept(request).execute().getCode());
+        }
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void testZeroWindowNotDecorated() {
+        Configuration conf = new Configuration();
+        conf.set(AlarmConfigurable.ALARM_AGGREGATE_WINDOW_SECONDS, "0");
+        AlarmEngine engine = recordingEngine();
+        assertSame(engine, new AlarmAggregator(conf).decorate("mail", engine));
+    }
+
+    /**
+     * 记录发送的告警，按照codes的顺序返回结果，codes用完以后都返回成功.
+     */
+    private AlarmEngine recordingEngine() {
+        return request -> () -> {
+            long start = System.currentTimeMillis();
+            sent.add(request);
+            String code = codes.isEmpty() ? AlarmResponse.CODE_SUCCESSFUL : codes.remove(0);
+            return AlarmResponse.create(code, start);
+        };
+    }
+
+    private static AlarmRequest request(String level, String subject, String... toAddress) {
+        AlarmRequest request = new AlarmRequest();
+        request.setType(MESSAGE_TYPE);
+        request.setLevel(level);
+        request.setSubject(subject);
+        request.setToAddress(toAddress);
+        return request;
+    }
+}
@@ -0,0 +1,55 @@
+package com.aiplus.bi.alarm.mail;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 行的切分和单元格的转义.
+ *
+ * @author dev
+ */
+public class HtmlTableBuilderTest {
+
+    @Test
+    public void testSplitLine() {
+        assertArrayEquals(new String[]{"a", "b", "c"}, HtmlTableBuilder.splitLine("a\001b\001c", '\001'));
+        assertArrayEquals(new String[]{"id", "name"}, HtmlTableBuilder.splitLine("id|name", '|'));
+        // 分隔符在正则表达式中的特殊含义不影响切分
+        assertArrayEquals(new String[]{"a", "b"}, HtmlTableBuilder.splitLine("a.b", '.'));
+    }
+
+    @Test
+    public void testSplitLineKeepsEmptyFields() {
+        assertArrayEquals(new String[]{"a", "", "c", "", ""}, HtmlTableBuilder.splitLine("a\001\001c\001\001", '\001'));
+        assertArrayEquals(new String[]{"", "b"}, HtmlTableBuilder.splitLine("\001b", '\001'));
+        assertArrayEquals(new String[]{""}, HtmlTableBuilder.splitLine("", '\001'));
+        assertArrayEquals(new String[]{"", ""}, HtmlTableBuilder.splitLine("\001", '\001'));
+        assertArrayEquals(new String[]{"no separator"}, HtmlTableBuilder.splitLine("no separator", '\001'));
+    }
+
+    @Test
+    public void testEscapeCells() {
+        String html = new HtmlTableBuilder(1, 0, 6)
+                .appendHeaders(new String[]{"<name>", "a & b"})
+                .appendRow(new String[]{"\"quoted\"", "<script>alert('x')</script>", null})
+                .build();
+        assertEquals("<table border=\"1\" cellspacing=\"0\" cellpadding=\"6\">"
+                + "<tr><th>&lt;name&gt;</th><th>a &amp; b</th></tr>"
+                + "<tr><td>&quot;quoted&quot;</td><td>&lt;script&gt;alert('x')&lt;/script&gt;</td><td></td></tr>"
+                + "</table>", html);
+    }
+
+    @Test
+    public void testRowsAndLength() {
+        HtmlTableBuilder table = new HtmlTableBuilder(1, 0, 6);
+        int length = table.length();
+        table.appendRow(null).appendRow(new String[0]);
+        assertEquals(0, table.getRows());
+        assertEquals(length, table.length());
+        table.appendHeaders(new String[]{"h"}).appendRow(new String[]{"&"});
+        assertEquals(2, table.getRows());
+        assertEquals(length + "<tr><th>h</th></tr><tr><td>&amp;</td></tr>".length(), table.length());
+    }
+}
@@ -0,0 +1,85 @@
+package com.aiplus.bi.alarm.mail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 逐行读取报表文件，很长的行在行内截断，超过行数的时候截断表格.
+ *
+ * @author dev
+ */
+public class RemoteFileMailAlarmExecutorTest {
+
+    @Test
+    public void testReadLines() throws IOException {
+        Reader reader = new StringReader("a|b\r\n1\0012\n\nlast");
+        StringBuilder line = new StringBuilder();
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE, RemoteFileMailAlarmExecutor.readLine(reader, line, 100));
+        assertEquals("a|b", line.toString());
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE, RemoteFileMailAlarmExecutor.readLine(reader, line, 100));
+        assertEquals("1\0012", line.toString());
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE, RemoteFileMailAlarmExecutor.readLine(reader, line, 100));
+        assertEquals("", line.toString());
+        // 最后一行没有换行符
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE, RemoteFileMailAlarmExecutor.readLine(reader, line, 100));
+        assertEquals("last", line.toString());
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_EOF, RemoteFileMailAlarmExecutor.readLine(reader, line, 100));
+        assertEquals("", line.toString());
+    }
+
+    @Test
+    public void testTruncateLongLine() throws IOException {
+        Reader reader = new StringReader("0123456789\nnext");
+        StringBuilder line = new StringBuilder();
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_TRUNCATED, RemoteFileMailAlarmExecutor.readLine(reader, line, 4));
+        assertEquals("0123", line.toString());
+    }
+
+    @Test
+    public void testLineOfMaxChars() throws IOException {
+        StringBuilder line = new StringBuilder();
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE,
+                RemoteFileMailAlarmExecutor.readLine(new StringReader("0123\nnext"), line, 4));
+        assertEquals("0123", line.toString());
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_COMPLETE,
+                RemoteFileMailAlarmExecutor.readLine(new StringReader("0123"), line, 4));
+        assertEquals("0123", line.toString());
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        StringBuilder line = new StringBuilder("stale");
+        assertEquals(RemoteFileMailAlarmExecutor.LINE_EOF, RemoteFileMailAlarmExecutor.readLine(new StringReader(""), line, 10));
+        assertEquals("", line.toString());
+    }
+
+    @Test
+    public void testReadTableOfMaxRows() throws IOException {
+        // 表头不算在行数里面，数据刚好是maxRows行的时候不截断
+        HtmlTableBuilder table = new HtmlTableBuilder(1, 0, 6);
+        assertFalse(RemoteFileMailAlarmExecutor.readTable(new StringReader("id|name\n1\001a\n2\001b\n"), table, 2, 10000));
+        assertEquals(3, table.getRows());
+
+        table = new HtmlTableBuilder(1, 0, 6);
+        assertTrue(RemoteFileMailAlarmExecutor.readTable(new StringReader("id|name\n1\001a\n2\001b\n3\001c"), table, 2, 10000));
+        assertEquals(3, table.getRows());
+    }
+
+    @Test
+    public void testReadTableOfMaxChars() throws IOException {
+        HtmlTableBuilder table = new HtmlTableBuilder(1, 0, 6);
+        int length = table.length() + "<tr><th>id</th></tr>".length();
+        assertFalse(RemoteFileMailAlarmExecutor.readTable(new StringReader("id\n"), table, 10, length));
+
+        table = new HtmlTableBuilder(1, 0, 6);
+        assertTrue(RemoteFileMailAlarmExecutor.readTable(new StringReader("id\n1"), table, 10, length));
+        assertEquals(1, table.getRows());
+    }
+}
@@ -0,0 +1,32 @@
+package com.aiplus.bi.etl.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 性能测试的入口.
+ * <p>
+ * 所有的Benchmark每次操作处理一行数据，吞吐量（ops/s）就是每秒处理的行数，默认打开GC Profiler，
+ * 结果中的gc.alloc.rate.norm就是每一行分配的字节数. 其他参数和JMH的命令行参数一致，例如：
+ * <pre>
+ *     java -jar etl-benchmarks.jar RowWritable -f 1 -wi 3 -i 5
+ * </pre>
+ *
+ * @author dev
+ */
+public class BenchmarkApp {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
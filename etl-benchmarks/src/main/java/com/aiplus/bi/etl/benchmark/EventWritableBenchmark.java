@@ -0,0 +1,89 @@
+package com.aiplus.bi.etl.benchmark;
+
+import com.aiplus.bi.etl.input.druid.EventOrcConverter;
+import com.aiplus.bi.etl.input.druid.EventWritable;
+import io.druid.query.select.EventHolder;
+import io.druid.segment.column.ValueType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Druid导入的行组装性能.
+ * <p>
+ * 只测试{@link EventWritable}把一行数据组装成文本或者ORC格式的开销，不包含Segment的读取. 每次操作的时间增加一秒，
+ * 这样时区转换和跨天的处理也会被覆盖到.
+ *
+ * @author dev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventWritableBenchmark {
+
+    private static final String DATA_SOURCE = "benchmark";
+
+    private static final String INTERVAL = "2020-01-01T00:00:00.000Z/2020-01-02T00:00:00.000Z";
+
+    @Param({"5", "20"})
+    private int dimNum;
+
+    @Param({"4"})
+    private int metricNum;
+
+    private Map<String, Object> event;
+
+    private EventWritable eventWritable;
+
+    private EventOrcConverter eventOrcConverter;
+
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String[] dimensions = new String[dimNum];
+        String[] metrics = new String[metricNum];
+        ValueType[] metricTypes = new ValueType[metricNum];
+        event = new LinkedHashMap<>();
+        event.put(EventHolder.timestampKey, null);
+        for (int i = 0; i < dimNum; i++) {
+            dimensions[i] = "dim_" + i;
+            event.put(dimensions[i], i % 5 == 4 ? "中文维度_" + random.nextInt(1000) : "dim_" + i + "_value_" + random.nextInt(1000));
+        }
+        for (int i = 0; i < metricNum; i++) {
+            if (i % 2 == 0) {
+                metrics[i] = "met_long_" + i;
+                metricTypes[i] = ValueType.LONG;
+                event.put(metrics[i], (long) random.nextInt(100000));
+            } else {
+                metrics[i] = "met_double_" + i;
+                metricTypes[i] = ValueType.DOUBLE;
+                event.put(metrics[i], random.nextDouble() * 1000);
+            }
+        }
+        eventWritable = new EventWritable();
+        eventOrcConverter = new EventOrcConverter(dimensions, metrics, metricTypes);
+        timestamp = 1577836800000L;
+    }
+
+    @Benchmark
+    public Object readText() {
+        timestamp += 1000L;
+        eventWritable.readFields(DATA_SOURCE, INTERVAL, timestamp, event);
+        return eventWritable.getData();
+    }
+
+    @Benchmark
+    public Object readOrc() {
+        timestamp += 1000L;
+        eventWritable.readOrcFields(DATA_SOURCE, INTERVAL, timestamp, event, eventOrcConverter);
+        return eventWritable.getOrcStruct();
+    }
+}
@@ -0,0 +1,153 @@
+package com.aiplus.bi.etl.benchmark;
+
+import com.aiplus.bi.etl.input.OrcFileOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.mapred.OrcStruct;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导入任务Mapper的输出性能.
+ * <p>
+ * 和导入任务一样通过LazyOutputFormat + {@link MultipleOutputs}按照路径输出，数据写到{@link NullFileSystem}中直接丢弃，
+ * 所以测试的是MultipleOutputs查找RecordWriter和输出格式序列化一行数据的开销. 每次操作输出一行，
+ * 按照pathNum个路径轮流输出，模拟Druid导入按小时输出的情况.
+ *
+ * @author dev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipleOutputsBenchmark {
+
+    private static final int ROW_NUM = 1024;
+
+    @Param({"TEXT", "ORC"})
+    private String format;
+
+    @Param({"1", "24"})
+    private int pathNum;
+
+    private MultipleOutputs<NullWritable, Writable> mos;
+
+    private String[] paths;
+
+    private Writable[] rows;
+
+    private int pos;
+
+    @Setup(Level.Iteration)
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass("fs." + NullFileSystem.SCHEME + ".impl", NullFileSystem.class, org.apache.hadoop.fs.FileSystem.class);
+        conf.setBoolean("fs." + NullFileSystem.SCHEME + ".impl.disable.cache", true);
+        Job job = Job.getInstance(conf);
+        boolean orcFormat = "ORC".equals(format);
+        LazyOutputFormat.setOutputFormatClass(job, orcFormat ? OrcFileOutputFormat.class : TextOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, new Path(NullFileSystem.SCHEME + ":///etl-benchmark"));
+        TaskAttemptID taskAttemptId = new TaskAttemptID("benchmark", 1, TaskType.MAP, 0, 0);
+        TaskInputOutputContext context = new MapContextImpl(job.getConfiguration(), taskAttemptId,
+                null, null, null, new BenchmarkStatusReporter(), null);
+        mos = new MultipleOutputs(context);
+        paths = new String[pathNum];
+        for (int i = 0; i < pathNum; i++) {
+            paths[i] = "benchmark/2020-1-1-" + i + "hr";
+        }
+        rows = orcFormat ? orcRows() : textRows();
+        pos = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException, InterruptedException {
+        mos.close();
+    }
+
+    private Writable[] textRows() {
+        Random random = new Random(42);
+        Writable[] texts = new Writable[ROW_NUM];
+        for (int i = 0; i < ROW_NUM; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(1577836800000L + i * 1000L).append('\001').append("2020\0011\0011\0010\001").append(i % 60);
+            for (int j = 0; j < 10; j++) {
+                sb.append('\001').append("dim_").append(j).append("_value_").append(random.nextInt(1000));
+            }
+            texts[i] = new Text(sb.toString());
+        }
+        return texts;
+    }
+
+    private Writable[] orcRows() {
+        Random random = new Random(42);
+        TypeDescription schema = TypeDescription.createStruct()
+                .addField("druid_timestamp", TypeDescription.createLong())
+                .addField("druid_minute", TypeDescription.createInt());
+        for (int j = 0; j < 10; j++) {
+            schema.addField("dim_" + j, TypeDescription.createString());
+        }
+        schema.addField("met_long", TypeDescription.createLong());
+        schema.addField("met_double", TypeDescription.createDouble());
+        Writable[] structs = new Writable[ROW_NUM];
+        for (int i = 0; i < ROW_NUM; i++) {
+            OrcStruct struct = new OrcStruct(schema);
+            struct.setFieldValue(0, new LongWritable(1577836800000L + i * 1000L));
+            struct.setFieldValue(1, new IntWritable(i % 60));
+            for (int j = 0; j < 10; j++) {
+                struct.setFieldValue(j + 2, new Text("dim_" + j + "_value_" + random.nextInt(1000)));
+            }
+            struct.setFieldValue(12, new LongWritable(random.nextInt(100000)));
+            struct.setFieldValue(13, new DoubleWritable(random.nextDouble() * 1000));
+            structs[i] = struct;
+        }
+        return structs;
+    }
+
+    @Benchmark
+    public void write() throws IOException, InterruptedException {
+        int i = pos++;
+        mos.write(NullWritable.get(), rows[i % ROW_NUM], paths[i % pathNum]);
+    }
+
+    private static class BenchmarkStatusReporter extends StatusReporter {
+
+        private final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.aiplus.bi.etl.benchmark;
+
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * 丢弃所有写入数据的文件系统.
+ * <p>
+ * 输出的性能测试只关心MultipleOutputs和输出格式本身的开销，写到这个文件系统中的数据直接丢弃，测试结果不受磁盘的影响，
+ * 也不会因为测试时间太长把磁盘写满. 使用null://作为路径的前缀.
+ *
+ * @author dev
+ */
+public class NullFileSystem extends FileSystem {
+
+    public static final String SCHEME = "null";
+
+    private static final URI NAME = URI.create(SCHEME + ":///");
+
+    private Path workingDirectory = new Path(NAME.toString());
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public URI getUri() {
+        return NAME;
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+        throw new FileNotFoundException(f.toString());
+    }
+
+    @Override
+    public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite, int bufferSize,
+                                     short replication, long blockSize, Progressable progress) throws IOException {
+        return new FSDataOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, statistics);
+    }
+
+    @Override
+    public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) throws IOException {
+        return create(f, FsPermission.getFileDefault(), false, bufferSize, (short) 1, getDefaultBlockSize(f), progress);
+    }
+
+    @Override
+    public boolean rename(Path src, Path dst) {
+        return true;
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) {
+        return true;
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path f) {
+        return new FileStatus[0];
+    }
+
+    @Override
+    public void setWorkingDirectory(Path newDir) {
+        this.workingDirectory = newDir;
+    }
+
+    @Override
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    @Override
+    public boolean mkdirs(Path f, FsPermission permission) {
+        return true;
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path f) throws IOException {
+        throw new FileNotFoundException(f.toString());
+    }
+}
@@ -0,0 +1,129 @@
+package com.aiplus.bi.etl.benchmark;
+
+import com.aiplus.bi.etl.input.rdb.RowOrcConverter;
+import com.aiplus.bi.etl.input.rdb.RowTextExtractor;
+import com.aiplus.bi.etl.input.rdb.RowWritable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 关系型数据库导入的行读取性能.
+ * <p>
+ * 测试{@link RowWritable}从结果集中读取一行数据并组装成文本或者ORC格式的开销，每次操作读取一行.
+ * 整数字段（每4个字段中的第1个）在文本格式中通过getLong读取.
+ *
+ * @author dev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowWritableBenchmark {
+
+    private static final String TABLE_NAME = "t_order";
+
+    private static final String TARGET_TABLE = "ods_order";
+
+    private static final int ROW_NUM = 1024;
+
+    @Param({"10", "40"})
+    private int fieldNum;
+
+    /**
+     * 字符串字段中包含换行符的比例.
+     */
+    @Param({"0.0", "0.05"})
+    private double lineBreakRatio;
+
+    private ResultSet rs;
+
+    private int columnNum;
+
+    private RowWritable rowWritable;
+
+    private RowTextExtractor rowTextExtractor;
+
+    private RowOrcConverter rowOrcConverter;
+
+    @Setup
+    public void setup() throws SQLException {
+        Random random = new Random(42);
+        int[] fieldTypes = new int[fieldNum];
+        String[] columnNames = new String[fieldNum + 2];
+        columnNames[0] = "table_pk";
+        columnNames[1] = "id";
+        for (int i = 0; i < fieldNum; i++) {
+            fieldTypes[i] = i % 4 == 0 ? Types.INTEGER : Types.VARCHAR;
+            columnNames[i + 2] = "field_" + i;
+        }
+        columnNum = columnNames.length;
+        String[][] rows = new String[ROW_NUM][];
+        for (int r = 0; r < ROW_NUM; r++) {
+            String[] row = new String[columnNames.length];
+            row[0] = TABLE_NAME + "_" + r;
+            row[1] = String.valueOf(r);
+            for (int i = 0; i < fieldNum; i++) {
+                row[i + 2] = randomValue(random, i);
+            }
+            rows[r] = row;
+        }
+        rs = SyntheticResultSet.create(columnNames, rows);
+        rowWritable = new RowWritable();
+        rowTextExtractor = new RowTextExtractor(new int[]{Types.BIGINT}, fieldTypes, 1, fieldNum);
+        rowOrcConverter = new RowOrcConverter(rs.getMetaData());
+    }
+
+    private String randomValue(Random random, int column) {
+        switch (column % 4) {
+            case 0:
+                return String.valueOf(random.nextInt(1000000));
+            case 1:
+                return random.nextInt(20) == 0 ? null : String.valueOf(random.nextDouble() * 1000);
+            case 2:
+                return "2020-01-" + (10 + random.nextInt(20)) + " 12:00:00";
+            default:
+                StringBuilder sb = new StringBuilder();
+                int len = 8 + random.nextInt(40);
+                for (int i = 0; i < len; i++) {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+                if (random.nextDouble() < lineBreakRatio) {
+                    sb.insert(len / 2, "\r\n");
+                }
+                return sb.toString();
+        }
+    }
+
+    /**
+     * 只读取结果集，不做任何处理，作为其他测试的基准.
+     */
+    @Benchmark
+    public void baseline(Blackhole bh) throws SQLException {
+        rs.next();
+        for (int i = 1; i <= columnNum; i++) {
+            bh.consume(rs.getString(i));
+        }
+    }
+
+    @Benchmark
+    public Object readText() throws SQLException {
+        rs.next();
+        rowWritable.readFields(rs, rowTextExtractor, TABLE_NAME, TARGET_TABLE);
+        return rowWritable.getData();
+    }
+
+    @Benchmark
+    public Object readOrc() throws SQLException {
+        rs.next();
+        rowWritable.readOrcFields(rs, rowOrcConverter, TABLE_NAME, TARGET_TABLE);
+        return rowWritable.getOrcStruct();
+    }
+}
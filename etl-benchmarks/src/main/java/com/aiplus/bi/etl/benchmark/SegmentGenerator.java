@@ -0,0 +1,265 @@
+package com.aiplus.bi.etl.benchmark;
+
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import io.druid.collections.bitmap.BitmapFactory;
+import io.druid.collections.bitmap.ImmutableBitmap;
+import io.druid.collections.bitmap.MutableBitmap;
+import io.druid.common.utils.SerializerUtils;
+import io.druid.jackson.DefaultObjectMapper;
+import io.druid.java.util.common.io.smoosh.FileSmoosher;
+import io.druid.java.util.common.io.smoosh.SmooshedWriter;
+import io.druid.math.expr.ExprMacroTable;
+import io.druid.segment.*;
+import io.druid.segment.column.Column;
+import io.druid.segment.column.ColumnDescriptor;
+import io.druid.segment.column.ValueType;
+import io.druid.segment.data.*;
+import io.druid.segment.serde.DictionaryEncodedColumnPartSerde;
+import io.druid.segment.serde.DoubleGenericColumnPartSerde;
+import io.druid.segment.serde.LongGenericColumnPartSerde;
+import io.druid.segment.writeout.OffHeapMemorySegmentWriteOutMediumFactory;
+import io.druid.segment.writeout.SegmentWriteOutMedium;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+/**
+ * 生成用于性能测试的V9格式Segment.
+ * <p>
+ * 直接使用Druid的列序列化器写Segment，不依赖IndexMerger：维度是单值的字典编码列，带有Roaring Bitmap索引，
+ * 指标交替使用LONG和DOUBLE列，数据的时间均匀分布在一天之内. 生成的Segment可以直接通过{@link IndexIO#loadIndex(File)}加载.
+ *
+ * @author dev
+ */
+public class SegmentGenerator {
+
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    private final ObjectMapper mapper;
+
+    private final SerializerUtils serializerUtils = new SerializerUtils();
+
+    private final BitmapSerdeFactory bitmapSerdeFactory = new RoaringBitmapSerdeFactory(true);
+
+    private final Interval interval;
+
+    private final int rowNum;
+
+    private final int dimNum;
+
+    private final int cardinality;
+
+    private final int metricNum;
+
+    private final long seed;
+
+    public SegmentGenerator(int rowNum, int dimNum, int cardinality, int metricNum, long seed) {
+        this.rowNum = rowNum;
+        this.dimNum = dimNum;
+        this.cardinality = cardinality;
+        this.metricNum = metricNum;
+        this.seed = seed;
+        DateTime start = new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC);
+        this.interval = new Interval(start, start.plusDays(1));
+        final InjectableValues.Std injectableValues = new InjectableValues.Std();
+        injectableValues.addValue(ExprMacroTable.class, ExprMacroTable.nil());
+        this.mapper = new DefaultObjectMapper().setInjectableValues(injectableValues);
+    }
+
+    public String[] getDimensions() {
+        String[] dimensions = new String[dimNum];
+        for (int i = 0; i < dimNum; i++) {
+            dimensions[i] = "dim_" + i;
+        }
+        return dimensions;
+    }
+
+    public String[] getMetrics() {
+        String[] metrics = new String[metricNum];
+        for (int i = 0; i < metricNum; i++) {
+            metrics[i] = (i % 2 == 0 ? "met_long_" : "met_double_") + i;
+        }
+        return metrics;
+    }
+
+    public String getInterval() {
+        return interval.toString();
+    }
+
+    /**
+     * 生成Segment并加载.
+     *
+     * @param segmentDir Segment目录
+     * @return 加载好的Segment
+     * @throws IOException 生成或者加载失败
+     */
+    public QueryableIndex generate(File segmentDir) throws IOException {
+        write(segmentDir);
+        IndexIO indexIO = new IndexIO(mapper, OffHeapMemorySegmentWriteOutMediumFactory.instance(), () -> 0);
+        return indexIO.loadIndex(segmentDir);
+    }
+
+    private void write(File segmentDir) throws IOException {
+        Random random = new Random(seed);
+        String[] dimensions = getDimensions();
+        String[] metrics = getMetrics();
+        Files.write(Ints.toByteArray(IndexIO.V9_VERSION), new File(segmentDir, "version.bin"));
+        try (FileSmoosher smoosher = new FileSmoosher(segmentDir);
+             SegmentWriteOutMedium medium = OffHeapMemorySegmentWriteOutMediumFactory.instance().makeSegmentWriteOutMedium(segmentDir)) {
+            // 时间列
+            LongColumnSerializer timeSerializer = LongColumnSerializer.create(
+                    medium, Column.TIME_COLUMN_NAME, CompressionStrategy.LZ4, CompressionFactory.LongEncodingStrategy.LONGS);
+            timeSerializer.open();
+            long step = MILLIS_PER_DAY / rowNum;
+            for (int r = 0; r < rowNum; r++) {
+                timeSerializer.serialize(interval.getStartMillis() + r * step);
+            }
+            writeColumn(smoosher, Column.TIME_COLUMN_NAME, ColumnDescriptor.builder()
+                    .setValueType(ValueType.LONG)
+                    .addSerde(LongGenericColumnPartSerde.serializerBuilder()
+                            .withByteOrder(IndexIO.BYTE_ORDER)
+                            .withDelegate(timeSerializer)
+                            .build())
+                    .build());
+            // 维度
+            for (String dimension : dimensions) {
+                String[] values = new String[rowNum];
+                for (int r = 0; r < rowNum; r++) {
+                    values[r] = dimension + "_value_" + random.nextInt(cardinality);
+                }
+                writeColumn(smoosher, dimension, dimensionDescriptor(medium, dimension, values));
+            }
+            // 指标
+            for (int i = 0; i < metrics.length; i++) {
+                if (i % 2 == 0) {
+                    LongColumnSerializer serializer = LongColumnSerializer.create(
+                            medium, metrics[i], CompressionStrategy.LZ4, CompressionFactory.LongEncodingStrategy.LONGS);
+                    serializer.open();
+                    for (int r = 0; r < rowNum; r++) {
+                        serializer.serialize((long) random.nextInt(100000));
+                    }
+                    writeColumn(smoosher, metrics[i], ColumnDescriptor.builder()
+                            .setValueType(ValueType.LONG)
+                            .addSerde(LongGenericColumnPartSerde.serializerBuilder()
+                                    .withByteOrder(IndexIO.BYTE_ORDER)
+                                    .withDelegate(serializer)
+                                    .build())
+                            .build());
+                } else {
+                    DoubleColumnSerializer serializer = DoubleColumnSerializer.create(medium, metrics[i], CompressionStrategy.LZ4);
+                    serializer.open();
+                    for (int r = 0; r < rowNum; r++) {
+                        serializer.serialize(random.nextDouble() * 1000);
+                    }
+                    writeColumn(smoosher, metrics[i], ColumnDescriptor.builder()
+                            .setValueType(ValueType.DOUBLE)
+                            .addSerde(DoubleGenericColumnPartSerde.serializerBuilder()
+                                    .withByteOrder(IndexIO.BYTE_ORDER)
+                                    .withDelegate(serializer)
+                                    .build())
+                            .build());
+                }
+            }
+            writeIndex(smoosher, dimensions, metrics);
+        }
+    }
+
+    private ColumnDescriptor dimensionDescriptor(SegmentWriteOutMedium medium, String dimension, String[] values) throws IOException {
+        // 字典必须是排好序的，Bitmap索引使用二分查找定位字典中的值
+        String[] dictionary = new TreeSet<>(Arrays.asList(values)).toArray(new String[0]);
+        Map<String, Integer> ids = new HashMap<>(dictionary.length * 2);
+        GenericIndexedWriter<String> dictionaryWriter = new GenericIndexedWriter<>(medium, dimension, GenericIndexed.STRING_STRATEGY);
+        dictionaryWriter.open();
+        for (int i = 0; i < dictionary.length; i++) {
+            ids.put(dictionary[i], i);
+            dictionaryWriter.write(dictionary[i]);
+        }
+        BitmapFactory bitmapFactory = bitmapSerdeFactory.getBitmapFactory();
+        MutableBitmap[] bitmaps = new MutableBitmap[dictionary.length];
+        for (int i = 0; i < dictionary.length; i++) {
+            bitmaps[i] = bitmapFactory.makeEmptyMutableBitmap();
+        }
+        int[] rowIds = new int[values.length];
+        for (int r = 0; r < values.length; r++) {
+            rowIds[r] = ids.get(values[r]);
+            bitmaps[rowIds[r]].add(r);
+        }
+        GenericIndexedWriter<ImmutableBitmap> bitmapWriter = new GenericIndexedWriter<>(
+                medium, dimension + "_bitmaps", bitmapSerdeFactory.getObjectStrategy());
+        bitmapWriter.open();
+        bitmapWriter.setObjectsNotSorted();
+        for (MutableBitmap bitmap : bitmaps) {
+            bitmapWriter.write(bitmapFactory.makeImmutableBitmap(bitmap));
+        }
+        VSizeColumnarInts columnarInts = VSizeColumnarInts.fromArray(rowIds, dictionary.length - 1);
+        return ColumnDescriptor.builder()
+                .setValueType(ValueType.STRING)
+                .setHasMultipleValues(false)
+                .addSerde(DictionaryEncodedColumnPartSerde.serializerBuilder()
+                        .withDictionary(dictionaryWriter)
+                        .withBitmapSerdeFactory(bitmapSerdeFactory)
+                        .withBitmapIndex(bitmapWriter)
+                        .withValue(asSerializer(columnarInts), false, false)
+                        .withByteOrder(IndexIO.BYTE_ORDER)
+                        .build())
+                .build();
+    }
+
+    private static ColumnarIntsSerializer asSerializer(VSizeColumnarInts columnarInts) {
+        return new ColumnarIntsSerializer() {
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public void add(Object obj) {
+                throw new UnsupportedOperationException("Values are already written.");
+            }
+
+            @Override
+            public long getSerializedSize() throws IOException {
+                return columnarInts.getSerializedSize();
+            }
+
+            @Override
+            public void writeTo(WritableByteChannel channel, FileSmoosher smoosher) throws IOException {
+                columnarInts.writeTo(channel, smoosher);
+            }
+        };
+    }
+
+    private void writeColumn(FileSmoosher smoosher, String columnName, ColumnDescriptor descriptor) throws IOException {
+        // 列文件的格式：列描述的JSON + 列数据，和V9IndexLoader的读取方式保持一致
+        String descriptorJson = mapper.writeValueAsString(descriptor);
+        long size = serializerUtils.getSerializedStringByteSize(descriptorJson) + descriptor.getSerializedSize();
+        try (SmooshedWriter writer = smoosher.addWithSmooshedWriter(columnName, size)) {
+            serializerUtils.writeString(writer, descriptorJson);
+            descriptor.writeTo(writer, smoosher);
+        }
+    }
+
+    private void writeIndex(FileSmoosher smoosher, String[] dimensions, String[] metrics) throws IOException {
+        Set<String> columnSet = new TreeSet<>(Arrays.asList(dimensions));
+        columnSet.addAll(Arrays.asList(metrics));
+        GenericIndexed<String> cols = GenericIndexed.fromIterable(columnSet, GenericIndexed.STRING_STRATEGY);
+        GenericIndexed<String> dims = GenericIndexed.fromIterable(Arrays.asList(dimensions), GenericIndexed.STRING_STRATEGY);
+        String bitmapSerdeFactoryType = mapper.writeValueAsString(bitmapSerdeFactory);
+        long size = cols.getSerializedSize() + dims.getSerializedSize() + 16
+                + serializerUtils.getSerializedStringByteSize(bitmapSerdeFactoryType);
+        try (SmooshedWriter writer = smoosher.addWithSmooshedWriter("index.drd", size)) {
+            cols.writeTo(writer, smoosher);
+            dims.writeTo(writer, smoosher);
+            serializerUtils.writeLong(writer, interval.getStartMillis());
+            serializerUtils.writeLong(writer, interval.getEndMillis());
+            serializerUtils.writeString(writer, bitmapSerdeFactoryType);
+        }
+    }
+}
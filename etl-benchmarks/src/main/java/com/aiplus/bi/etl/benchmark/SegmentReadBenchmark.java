@@ -0,0 +1,164 @@
+package com.aiplus.bi.etl.benchmark;
+
+import com.aiplus.bi.etl.input.druid.EventWritable;
+import com.aiplus.bi.etl.input.druid.SegmentCursorReader;
+import io.druid.java.util.common.Intervals;
+import io.druid.java.util.common.granularity.Granularities;
+import io.druid.java.util.common.guava.Yielder;
+import io.druid.java.util.common.guava.Yielders;
+import io.druid.query.ColumnSelectorPlus;
+import io.druid.query.dimension.DefaultDimensionSpec;
+import io.druid.query.select.EventHolder;
+import io.druid.query.select.SelectQueryEngine;
+import io.druid.segment.*;
+import io.druid.segment.column.Column;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Druid导入的Segment读取性能.
+ * <p>
+ * 使用{@link SegmentGenerator}生成的Segment，分别测试两种读取模式：Cursor模式（{@link SegmentCursorReader}）和
+ * Select模式（{@link SelectQueryEngine#singleEvent}），每次操作读取一行数据并交给{@link EventWritable}组装成文本.
+ * Segment读取完以后重新打开，打开的开销分摊到所有的行上.
+ *
+ * @author dev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentReadBenchmark {
+
+    private static final SelectQueryEngine.SelectStrategyFactory STRATEGY_FACTORY = new SelectQueryEngine.SelectStrategyFactory();
+
+    private static final String DATA_SOURCE = "benchmark";
+
+    @Param({"100000"})
+    private int rowNum;
+
+    @Param({"5", "20"})
+    private int dimNum;
+
+    @Param({"1000"})
+    private int cardinality;
+
+    @Param({"4"})
+    private int metricNum;
+
+    private File segmentDir;
+
+    private QueryableIndex index;
+
+    private String interval;
+
+    private String[] dimensions;
+
+    private String[] metrics;
+
+    private EventWritable eventWritable;
+
+    private SegmentCursorReader cursorReader;
+
+    private Yielder<Cursor> selectYielder;
+
+    private Cursor selectCursor;
+
+    private BaseLongColumnValueSelector timestampSelector;
+
+    private List<ColumnSelectorPlus<SelectQueryEngine.SelectColumnSelectorStrategy>> selectorPlusList;
+
+    private Map<String, BaseObjectColumnValueSelector<?>> metSelectors;
+
+    @Setup
+    public void setup() throws IOException {
+        SegmentGenerator generator = new SegmentGenerator(rowNum, dimNum, cardinality, metricNum, 42L);
+        segmentDir = Files.createTempDirectory("etl-benchmark-segment").toFile();
+        index = generator.generate(segmentDir);
+        interval = generator.getInterval();
+        dimensions = generator.getDimensions();
+        metrics = generator.getMetrics();
+        eventWritable = new EventWritable();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (null != cursorReader) {
+            cursorReader.close();
+        }
+        if (null != selectYielder) {
+            selectYielder.close();
+        }
+        index.close();
+        FileUtils.deleteDirectory(segmentDir);
+    }
+
+    @Benchmark
+    public Object cursorRead() throws IOException {
+        if (null == cursorReader || !cursorReader.next()) {
+            if (null != cursorReader) {
+                cursorReader.close();
+            }
+            cursorReader = new SegmentCursorReader(index, interval, dimensions, metrics);
+            cursorReader.next();
+        }
+        eventWritable.readFields(DATA_SOURCE, interval, cursorReader.getTimestampMillis(), cursorReader.getEvent());
+        return eventWritable.getData();
+    }
+
+    @Benchmark
+    public Object selectRead() throws IOException {
+        if (null == selectCursor || selectCursor.isDone()) {
+            openSelectCursor();
+        }
+        Map<String, Object> event = SelectQueryEngine.singleEvent(
+                EventHolder.timestampKey,
+                timestampSelector,
+                selectorPlusList,
+                metSelectors
+        );
+        selectCursor.advance();
+        eventWritable.readFields(DATA_SOURCE, interval, (DateTime) event.get(EventHolder.timestampKey), event);
+        return eventWritable.getData();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void openSelectCursor() throws IOException {
+        if (null != selectYielder) {
+            selectYielder.close();
+        }
+        StorageAdapter adapter = new QueryableIndexStorageAdapter(index);
+        selectYielder = Yielders.each(adapter.makeCursors(
+                null,
+                Intervals.of(interval),
+                VirtualColumns.EMPTY,
+                Granularities.ALL,
+                false,
+                null
+        ));
+        selectCursor = selectYielder.get();
+        ColumnSelectorFactory factory = selectCursor.getColumnSelectorFactory();
+        timestampSelector = factory.makeColumnValueSelector(Column.TIME_COLUMN_NAME);
+        selectorPlusList = Arrays.asList(DimensionHandlerUtils.createColumnSelectorPluses(
+                STRATEGY_FACTORY,
+                DefaultDimensionSpec.toSpec(dimensions),
+                factory
+        ));
+        metSelectors = new HashMap<>(metrics.length * 2);
+        for (String metric : metrics) {
+            metSelectors.put(metric, factory.makeColumnValueSelector(metric));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.aiplus.bi.etl.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内存中生成的结果集.
+ * <p>
+ * 所有的列都是字符串，{@link ResultSet#next()}循环返回生成好的行，永远不会结束. 结果集使用动态代理实现，
+ * 每次调用都会分配参数数组，这部分开销可以通过{@link RowWritableBenchmark#baseline}扣除.
+ * 只实现了RowWritable和RowOrcConverter用到的方法.
+ *
+ * @author dev
+ */
+public final class SyntheticResultSet {
+
+    private SyntheticResultSet() {
+    }
+
+    /**
+     * 创建结果集.
+     *
+     * @param columnNames 列名
+     * @param rows        行数据，null表示数据库中的NULL
+     * @return 结果集
+     */
+    public static ResultSet create(String[] columnNames, String[][] rows) {
+        Map<String, Integer> columnIndexes = new HashMap<>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++) {
+            columnIndexes.put(columnNames[i], i + 1);
+            columnIndexes.put(columnNames[i].toLowerCase(), i + 1);
+        }
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                SyntheticResultSet.class.getClassLoader(),
+                new Class[]{ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return columnNames.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return columnNames[(Integer) args[0] - 1];
+                        case "getColumnType":
+                            return Types.VARCHAR;
+                        case "getPrecision":
+                        case "getScale":
+                            return 0;
+                        default:
+                            throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                });
+        int[] cursor = {-1};
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(
+                SyntheticResultSet.class.getClassLoader(),
+                new Class[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            cursor[0] = (cursor[0] + 1) % rows.length;
+                            return true;
+                        case "getString":
+                        case "getObject": {
+                            String val = rows[cursor[0]][columnIndex(columnIndexes, args[0])];
+                            wasNull[0] = null == val;
+                            return val;
+                        }
+                        case "getLong": {
+                            String val = rows[cursor[0]][columnIndex(columnIndexes, args[0])];
+                            wasNull[0] = null == val;
+                            return null == val ? 0L : Long.parseLong(val);
+                        }
+                        case "wasNull":
+                            return wasNull[0];
+                        case "getMetaData":
+                            return metaData;
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        default:
+                            throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                });
+    }
+
+    private static int columnIndex(Map<String, Integer> columnIndexes, Object column) throws SQLFeatureNotSupportedException {
+        if (column instanceof Integer) {
+            return (Integer) column - 1;
+        }
+        Integer index = columnIndexes.get(column);
+        if (null == index) {
+            throw new SQLFeatureNotSupportedException("Unknown column: " + column);
+        }
+        return index - 1;
+    }
+}
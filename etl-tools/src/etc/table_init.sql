@@ -1,3 +1,4 @@
+-- 初始化元数据库（会删除已有的表），已经部署的元数据库使用table_upgrade.sql升级
 -- 创建源数据表
 DROP TABLE IF EXISTS `BI_DATASOURCE`;
 CREATE TABLE IF NOT EXISTS `BI_DATASOURCE` (
@@ -7,6 +8,7 @@ CREATE TABLE IF NOT EXISTS `BI_DATASOURCE` (
   `SOURCE_USER` varchar(50) DEFAULT NULL COMMENT '数据源用户',
   `SOURCE_PASSWORD` varchar(200) DEFAULT NULL COMMENT '数据源密码',
   `SOURCE_TYPE` varchar(50) NOT NULL DEFAULT 'MYSQL' COMMENT '数据源类型',
+  `MAX_CONNECTIONS` int(11) NOT NULL DEFAULT '8' COMMENT '同时打开的最大连接数',
   `CREATE_TIME` datetime NOT NULL COMMENT '创建时间',
   `LAST_UPDATE_TIME` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
   PRIMARY KEY (`ID`),
@@ -22,6 +24,7 @@ CREATE TABLE IF NOT EXISTS `BI_HADOOP_OUTPUT` (
   `CREATE_HIVE_TABLE` tinyint(4) NOT NULL DEFAULT '0' COMMENT '是否创建Hive表',
   `HIVE_EXTERNAL_TABLE` varchar(500) DEFAULT NULL COMMENT 'Hive外表的路径',
   `HIVE_SCHEMA` varchar(50) DEFAULT NULL COMMENT 'Hive的Schema名称',
+  `OUTPUT_FORMAT` varchar(50) NOT NULL DEFAULT 'TEXT' COMMENT '数据文件格式：TEXT/ORC',
   `OUTPUT_ENV` varchar(500) DEFAULT NULL COMMENT '数据输出的环境',
   `CREATE_TIME` datetime NOT NULL COMMENT '创建时间',
   `LAST_UPDATE_TIME` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
@@ -42,4 +45,19 @@ CREATE TABLE IF NOT EXISTS `BI_ETL_JOB_DEFINE` (
   `LAST_UPDATE_TIME` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
   PRIMARY KEY (`ID`),
   UNIQUE KEY `UNQ_DEF_NAME` (`DEFINE_NAME`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 创建增量导入的水位表
+DROP TABLE IF EXISTS `BI_ETL_JOB_WATERMARK`;
+CREATE TABLE IF NOT EXISTS `BI_ETL_JOB_WATERMARK` (
+  `ID` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '自增长主键',
+  `JOB_DEFINE_ID` bigint(20) NOT NULL COMMENT 'ETL Job定义ID',
+  `SOURCE_TABLE` varchar(200) NOT NULL DEFAULT '' COMMENT '源表名称',
+  `TARGET_TABLE` varchar(200) NOT NULL DEFAULT '' COMMENT '目标表名称',
+  `WATERMARK_COLUMN` varchar(200) NOT NULL DEFAULT '' COMMENT '水位列',
+  `WATERMARK` varchar(200) DEFAULT NULL COMMENT '上次导出的水位',
+  `CREATE_TIME` datetime NOT NULL COMMENT '创建时间',
+  `LAST_UPDATE_TIME` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
+  PRIMARY KEY (`ID`),
+  UNIQUE KEY `UNQ_JOB_TABLE` (`JOB_DEFINE_ID`, `SOURCE_TABLE`, `TARGET_TABLE`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
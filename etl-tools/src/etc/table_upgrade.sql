@@ -0,0 +1,24 @@
+-- 已经部署的元数据库升级到当前版本，新部署直接执行table_init.sql
+-- 每条语句只需要执行一次，ADD COLUMN重复执行会报Duplicate column name，可以忽略
+
+-- 数据源的连接池大小
+ALTER TABLE `BI_DATASOURCE`
+  ADD COLUMN `MAX_CONNECTIONS` int(11) NOT NULL DEFAULT '8' COMMENT '同时打开的最大连接数' AFTER `SOURCE_TYPE`;
+
+-- 数据文件格式
+ALTER TABLE `BI_HADOOP_OUTPUT`
+  ADD COLUMN `OUTPUT_FORMAT` varchar(50) NOT NULL DEFAULT 'TEXT' COMMENT '数据文件格式：TEXT/ORC' AFTER `HIVE_SCHEMA`;
+
+-- 创建增量导入的水位表
+CREATE TABLE IF NOT EXISTS `BI_ETL_JOB_WATERMARK` (
+  `ID` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '自增长主键',
+  `JOB_DEFINE_ID` bigint(20) NOT NULL COMMENT 'ETL Job定义ID',
+  `SOURCE_TABLE` varchar(200) NOT NULL DEFAULT '' COMMENT '源表名称',
+  `TARGET_TABLE` varchar(200) NOT NULL DEFAULT '' COMMENT '目标表名称',
+  `WATERMARK_COLUMN` varchar(200) NOT NULL DEFAULT '' COMMENT '水位列',
+  `WATERMARK` varchar(200) DEFAULT NULL COMMENT '上次导出的水位',
+  `CREATE_TIME` datetime NOT NULL COMMENT '创建时间',
+  `LAST_UPDATE_TIME` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
+  PRIMARY KEY (`ID`),
+  UNIQUE KEY `UNQ_JOB_TABLE` (`JOB_DEFINE_ID`, `SOURCE_TABLE`, `TARGET_TABLE`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,470 @@
+package com.aiplus.bi.etl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 有上限的JDBC连接池.
+ * <p>
+ * 同一个数据源（连接地址 + 用户）在一个JVM中共享一个连接池，同时借出的连接数不超过数据源配置的最大连接数，超过的时候等待其他连接归还.
+ * 借出的连接调用close()的时候归还到池中，不会真正关闭，所以使用方式和直接创建的连接完全一样（try-with-resources）.
+ * 空闲超过一定时间的连接在借出之前会检查是否可用，被数据库断开的连接直接丢弃重新创建.
+ * 归还的时候关闭借出期间没有关闭的语句并恢复连接的状态：SET SESSION修改的单个系统变量恢复成原来的值，其他修改过会话状态的连接不再复用.
+ * <p>
+ * 同一个线程在外层连接没有归还的时候再借连接（嵌套借出）可能和其他线程互相等待，直到超时，使用方应该先归还外层连接.
+ * 一个线程已经借出了全部连接的时候再借直接失败.
+ *
+ * @author dev
+ */
+public class ConnectionPool {
+
+    /**
+     * 没有配置最大连接数的时候使用的默认值.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    private static final Log LOG = LogFactory.getLog(ConnectionPool.class);
+
+    private static final Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * 等待空闲连接的最长时间.
+     */
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    /**
+     * 空闲超过这个时间的连接借出之前需要检查是否可用.
+     */
+    private static final long VALIDATE_IDLE_MILLIS = 30 * 1000L;
+
+    private static final int VALIDATE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * 可以恢复的会话变量修改：SET [SESSION] name = expr，表达式中没有括号和引号以外的逗号，也就是一次只修改一个系统变量.
+     */
+    private static final Pattern SET_SESSION_VARIABLE = Pattern.compile(
+            "^SET\\s+(?:SESSION\\s+|LOCAL\\s+|@@SESSION\\.|@@LOCAL\\.|@@)?([A-Z_][A-Z0-9_]*)\\s*=(.+)$", Pattern.DOTALL);
+
+    private final String url;
+
+    private final String user;
+
+    private final String password;
+
+    private final int maxConnections;
+
+    private final Semaphore permits;
+
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+
+    /**
+     * 每个线程借出还没有归还的连接数.
+     */
+    private final Map<Thread, Integer> borrowers = new ConcurrentHashMap<>();
+
+    private ConnectionPool(String url, String user, String password, int maxConnections) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * 获取数据源的连接池，第一次获取的时候创建，之后的最大连接数以第一次获取的为准，和第一次不一样的时候打印警告.
+     *
+     * @param url            连接地址
+     * @param user           用户，可以为空
+     * @param password       密码
+     * @param maxConnections 最大连接数，小于等于0的时候使用默认值
+     * @return 连接池
+     */
+    public static ConnectionPool getPool(String url, String user, String password, int maxConnections) {
+        int max = maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+        ConnectionPool pool = POOLS.computeIfAbsent(url + "|" + user, k -> {
+            LOG.info("Create connection pool for [" + url + "], max connections: " + max);
+            return new ConnectionPool(url, user, password, max);
+        });
+        if (pool.maxConnections != max) {
+            LOG.warn("Connection pool for [" + url + "] already created with max connections " + pool.maxConnections + ", ignore " + max);
+        }
+        return pool;
+    }
+
+    /**
+     * 从数据源的连接池中借出一个连接.
+     */
+    public static Connection getConnection(String url, String user, String password, int maxConnections) throws SQLException {
+        return getPool(url, user, password, maxConnections).getConnection();
+    }
+
+    /**
+     * 关闭所有连接池中的空闲连接.
+     */
+    public static void closeAll() {
+        for (ConnectionPool pool : POOLS.values()) {
+            pool.closeIdleConnections();
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * 借出一个连接，连接用完以后必须调用close()归还.
+     * <p>
+     * 当前线程已经借出了全部连接的时候直接失败，否则等待会一直到超时；借出了一部分连接的时候需要等待会打印警告.
+     *
+     * @return 连接
+     * @throws SQLException 等待超时、当前线程已经借出了全部连接或者创建连接失败
+     */
+    public Connection getConnection() throws SQLException {
+        Thread current = Thread.currentThread();
+        int held = borrowers.getOrDefault(current, 0);
+        if (held >= maxConnections) {
+            throw new SQLException("Thread [" + current.getName() + "] already holds all " + maxConnections + " connection(s) of [" + url
+                    + "], return one before borrowing another.");
+        }
+        try {
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                if (held > 0) {
+                    LOG.warn("Thread [" + current.getName() + "] holds " + held + " connection(s) of [" + url
+                            + "] and waits for another one, max connections: " + maxConnections);
+                }
+                if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Timeout waiting for connection of [" + url + "], max connections: " + maxConnections);
+                }
+            }
+        } catch (InterruptedException e) {
+            current.interrupt();
+            throw new SQLException("Interrupted while waiting for connection of [" + url + "]", e);
+        }
+        try {
+            Connection raw = borrowIdleConnection();
+            if (null == raw) {
+                raw = null == user ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+            }
+            Connection connection = wrap(raw, current);
+            borrowers.merge(current, 1, Integer::sum);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection borrowIdleConnection() {
+        while (true) {
+            IdleConnection idle;
+            synchronized (idleConnections) {
+                idle = idleConnections.pollFirst();
+            }
+            if (null == idle) {
+                return null;
+            }
+            if (System.currentTimeMillis() - idle.since < VALIDATE_IDLE_MILLIS || isValid(idle.connection)) {
+                return idle.connection;
+            }
+            LOG.info("Discard invalid connection of [" + url + "]");
+            closeQuietly(idle.connection);
+        }
+    }
+
+    private void release(Connection raw, PooledConnectionHandler handler) {
+        try {
+            // 没有关闭的语句（包括流式读取的结果集）会让下一个使用者执行查询的时候失败
+            handler.closeStatements();
+            boolean reusable = !raw.isClosed();
+            if (reusable && !raw.getAutoCommit()) {
+                // 没有提交的事务直接回滚，归还的连接都是自动提交的
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            if (reusable) {
+                handler.restoreState();
+            }
+            if (reusable && handler.sessionChanged) {
+                // 执行过SET修改会话状态又不能恢复原来的值的连接，直接关闭
+                LOG.debug("Close connection with changed session variables of [" + url + "]");
+                closeQuietly(raw);
+                reusable = false;
+            }
+            if (reusable) {
+                synchronized (idleConnections) {
+                    // 最近归还的连接先借出，空闲时间长的连接留在队尾
+                    idleConnections.addFirst(new IdleConnection(raw, System.currentTimeMillis()));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warn("Discard broken connection of [" + url + "]: " + e.getMessage());
+            closeQuietly(raw);
+        } finally {
+            borrowers.computeIfPresent(handler.borrower, (t, n) -> n > 1 ? n - 1 : null);
+            permits.release();
+        }
+    }
+
+    private void closeIdleConnections() {
+        synchronized (idleConnections) {
+            IdleConnection idle;
+            while (null != (idle = idleConnections.pollFirst())) {
+                closeQuietly(idle.connection);
+            }
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATE_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warn(e.getMessage());
+        }
+    }
+
+    private static boolean isSingleExpression(String expr) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < expr.length(); i++) {
+            char c = expr.charAt(i);
+            if (0 != quote) {
+                if ('\\' == c) {
+                    i++;
+                } else if (quote == c) {
+                    quote = 0;
+                }
+            } else if ('\'' == c || '"' == c || '`' == c) {
+                quote = c;
+            } else if ('(' == c) {
+                depth++;
+            } else if (')' == c) {
+                depth--;
+            } else if ((',' == c || ';' == c) && 0 == depth) {
+                return false;
+            }
+        }
+        return 0 == quote && 0 == depth;
+    }
+
+    private Connection wrap(Connection raw, Thread borrower) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class[]{Connection.class},
+                new PooledConnectionHandler(raw, borrower));
+    }
+
+    private static class IdleConnection {
+
+        private final Connection connection;
+
+        private final long since;
+
+        private IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    /**
+     * 借出的连接，close()的时候归还到连接池，归还以后不能再使用.
+     * <p>
+     * 借出期间创建的语句都会被记录，归还的时候关闭；修改过的隔离级别、只读、默认库和SET SESSION修改的系统变量在归还的时候恢复；
+     * 通过其他SET或者USE修改过会话状态的连接归还的时候直接关闭，不再复用.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+
+        private final Connection raw;
+
+        private final Thread borrower;
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private final List<Statement> statements = new ArrayList<>();
+
+        private volatile boolean sessionChanged;
+
+        private Integer originalIsolation;
+
+        private Boolean originalReadOnly;
+
+        private String originalCatalog;
+
+        private final Map<String, Object> originalVariables = new LinkedHashMap<>();
+
+        private PooledConnectionHandler(Connection raw, Thread borrower) {
+            this.raw = raw;
+            this.borrower = borrower;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (released.compareAndSet(false, true)) {
+                    release(raw, this);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return released.get() || raw.isClosed();
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if (released.get()) {
+                throw new SQLException("Connection has been returned to the pool.");
+            }
+            rememberState(name);
+            Object result;
+            try {
+                result = method.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                return trackStatement((Connection) proxy, (Statement) result, method.getReturnType());
+            }
+            return result;
+        }
+
+        /**
+         * 第一次修改连接属性之前记住原来的值，归还的时候恢复.
+         */
+        private void rememberState(String name) throws SQLException {
+            if ("setTransactionIsolation".equals(name) && null == originalIsolation) {
+                originalIsolation = raw.getTransactionIsolation();
+            } else if ("setReadOnly".equals(name) && null == originalReadOnly) {
+                originalReadOnly = raw.isReadOnly();
+            } else if ("setCatalog".equals(name) && null == originalCatalog) {
+                originalCatalog = raw.getCatalog();
+            }
+        }
+
+        private void restoreState() throws SQLException {
+            if (null != originalIsolation) {
+                raw.setTransactionIsolation(originalIsolation);
+            }
+            if (null != originalReadOnly) {
+                raw.setReadOnly(originalReadOnly);
+            }
+            if (null != originalCatalog) {
+                raw.setCatalog(originalCatalog);
+            }
+            for (Map.Entry<String, Object> variable : originalVariables.entrySet()) {
+                try (PreparedStatement stmt = raw.prepareStatement("SET SESSION " + variable.getKey() + " = ?")) {
+                    stmt.setObject(1, variable.getValue());
+                    stmt.execute();
+                }
+            }
+        }
+
+        private Object trackStatement(Connection connection, Statement statement, Class<?> type) {
+            synchronized (statements) {
+                statements.add(statement);
+            }
+            return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+                String name = method.getName();
+                if ("getConnection".equals(name)) {
+                    return connection;
+                }
+                if ("close".equals(name)) {
+                    synchronized (statements) {
+                        statements.remove(statement);
+                    }
+                } else if (name.startsWith("execute") || "addBatch".equals(name)) {
+                    checkSessionChange(args);
+                }
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+
+        private void checkSessionChange(Object[] args) {
+            if (null == args || 0 == args.length || !(args[0] instanceof String)) {
+                return;
+            }
+            String sql = ((String) args[0]).trim().toUpperCase();
+            if (sql.startsWith("SET ") && rememberVariable(sql)) {
+                return;
+            }
+            if (sql.startsWith("SET ") || sql.startsWith("USE ")) {
+                sessionChanged = true;
+            }
+        }
+
+        /**
+         * 修改单个系统变量之前记住原来的值，归还的时候恢复，连接还可以复用.
+         *
+         * @return 不能恢复的时候返回false
+         */
+        private boolean rememberVariable(String sql) {
+            Matcher matcher = SET_SESSION_VARIABLE.matcher(sql);
+            if (!matcher.matches() || !isSingleExpression(matcher.group(2))) {
+                return false;
+            }
+            String name = matcher.group(1);
+            if (originalVariables.containsKey(name)) {
+                return true;
+            }
+            try (Statement stmt = raw.createStatement(); ResultSet rs = stmt.executeQuery("SELECT @@SESSION." + name)) {
+                if (!rs.next()) {
+                    return false;
+                }
+                originalVariables.put(name, rs.getObject(1));
+                return true;
+            } catch (SQLException e) {
+                // 不是系统变量，或者连接上还有没有读完的流式结果集
+                LOG.debug("Can not read session variable " + name + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private void closeStatements() {
+            synchronized (statements) {
+                for (Statement statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        LOG.debug("Close statement failed: " + e.getMessage());
+                    }
+                }
+                statements.clear();
+            }
+        }
+    }
+}
@@ -6,8 +6,17 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
 import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Job的工具类.
@@ -16,30 +25,126 @@ import java.io.*;
  */
 public class JobTools {
 
+    /**
+     * 外部命令的默认超时时间（分钟）.
+     */
+    public static final String COMMAND_TIMEOUT_PROPERTY = "etl.command.timeout.minutes";
+
+    /**
+     * 超时的命令的退出码，和coreutils的timeout命令一致.
+     */
+    public static final int TIMEOUT_EXIT_CODE = 124;
+
     private static final Log LOG = LogFactory.getLog(JobTools.class);
 
+    private static final int UNZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final long DEFAULT_COMMAND_TIMEOUT_MINUTES = 6 * 60;
+
+    private static final long DESTROY_WAIT_MILLIS = 10 * 1000;
+
+    private static final long DRAIN_JOIN_MILLIS = 5 * 1000;
+
+    private static final Map<String, StepMetrics> STEP_METRICS = new ConcurrentHashMap<>();
+
     /**
      * 执行命令.
+     * <p>
+     * 使用默认的超时时间，可以通过系统属性{@value #COMMAND_TIMEOUT_PROPERTY}（分钟）修改.
      *
      * @param jobId    Job id.
      * @param commands 命令集合
+     * @return 命令的退出码，命令没有执行成功返回-1，超时返回{@value #TIMEOUT_EXIT_CODE}
      */
-    public static void runCommand(String jobId, String[] commands) {
-        ProcessBuilder pb = new ProcessBuilder(commands);
-        pb.redirectErrorStream(true);
+    public static int runCommand(String jobId, String[] commands) {
+        return runCommand(jobId, commands, TimeUnit.MINUTES.toMillis(Long.getLong(COMMAND_TIMEOUT_PROPERTY, DEFAULT_COMMAND_TIMEOUT_MINUTES)));
+    }
+
+    /**
+     * 执行命令.
+     * <p>
+     * 标准输出和错误输出分别由后台线程读取并写入日志，子进程不会因为输出管道写满而阻塞，等待的线程也能按时处理超时.
+     * 超时的时候先正常结束子进程，等待一段时间还没有退出再强制结束.
+     *
+     * @param jobId         Job id.
+     * @param commands      命令集合
+     * @param timeoutMillis 超时时间（毫秒）
+     * @return 命令的退出码，命令没有执行成功返回-1，超时返回{@value #TIMEOUT_EXIT_CODE}
+     */
+    public static int runCommand(String jobId, String[] commands, long timeoutMillis) {
+        return runCommand(jobId, commands, timeoutMillis, null);
+    }
+
+    /**
+     * 执行命令并收集标准输出，标准输出只在DEBUG级别写入日志.
+     *
+     * @param jobId    Job id.
+     * @param commands 命令集合
+     * @param output   标准输出的每一行
+     * @return 命令的退出码，命令没有执行成功返回-1，超时返回{@value #TIMEOUT_EXIT_CODE}
+     */
+    public static int runCommand(String jobId, String[] commands, List<String> output) {
+        return runCommand(jobId, commands, TimeUnit.MINUTES.toMillis(Long.getLong(COMMAND_TIMEOUT_PROPERTY, DEFAULT_COMMAND_TIMEOUT_MINUTES)), output);
+    }
+
+    private static int runCommand(String jobId, String[] commands, long timeoutMillis, List<String> output) {
+        long start = System.currentTimeMillis();
+        int exitCode = -1;
         try {
-            Process process = pb.start();
-            try (InputStream in = process.getInputStream(); InputStreamReader isr = new InputStreamReader(in)) {
-                BufferedReader reader = new BufferedReader(isr);
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    LOG.info("[" + jobId + "]\t" + line);
-                }
+            Process process = new ProcessBuilder(commands).start();
+            process.getOutputStream().close();
+            Thread stdout = drain(jobId, process.getInputStream(), false, output);
+            Thread stderr = drain(jobId, process.getErrorStream(), true, null);
+            if (process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                exitCode = process.exitValue();
+            } else {
+                LOG.error("[" + jobId + "]\tCommand [" + commands[0] + "] timeout after " + timeoutMillis + "ms, destroy it.");
+                destroy(process);
+                exitCode = TIMEOUT_EXIT_CODE;
             }
+            // 子进程退出以后管道很快就会读完，子进程自己再fork的进程还持有管道的时候不再等待
+            stdout.join(DRAIN_JOIN_MILLIS);
+            stderr.join(DRAIN_JOIN_MILLIS);
         } catch (IOException e) {
             LOG.error(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+        recordStep(jobId, commands[0], exitCode, System.currentTimeMillis() - start);
+        return exitCode;
+    }
 
+    /**
+     * 在进程内递归删除一个目录或者文件，代替fork一个hadoop fs -rmr命令.
+     *
+     * @param jobId Job id.
+     * @param conf  Hadoop配置
+     * @param path  要删除的路径
+     * @return 是否删除成功，路径不存在的时候也返回true
+     */
+    public static boolean deletePath(String jobId, Configuration conf, String path) {
+        long start = System.currentTimeMillis();
+        boolean deleted;
+        try {
+            Path p = new Path(path);
+            FileSystem fs = p.getFileSystem(conf);
+            deleted = !fs.exists(p) || fs.delete(p, true);
+        } catch (IOException e) {
+            LOG.error("Delete path failed: " + path, e);
+            deleted = false;
         }
+        recordStep(jobId, "fs-delete", deleted ? 0 : -1, System.currentTimeMillis() - start);
+        return deleted;
+    }
+
+    /**
+     * 每个步骤（命令名称）的执行次数、失败次数和总耗时.
+     *
+     * @return 步骤名称到统计的映射
+     */
+    public static Map<String, StepMetrics> getStepMetrics() {
+        return new TreeMap<>(STEP_METRICS);
     }
 
     /**
@@ -53,7 +158,11 @@ public class JobTools {
         MetadataConfiguration configuration = new MetadataConfiguration();
         job.setMetadataConfiguration(configuration);
         job.prepared(jobArgs);
-        return job.signal();
+        int signal = job.signal();
+        for (Map.Entry<String, StepMetrics> entry : getStepMetrics().entrySet()) {
+            LOG.info("[" + job.getId() + "]\tStep [" + entry.getKey() + "] " + entry.getValue());
+        }
+        return signal;
     }
 
     /**
@@ -66,22 +175,115 @@ public class JobTools {
         if (!zipFile.exists()) {
             throw new NullPointerException("Zip file[" + zipFile.getAbsolutePath() + "] not exists.");
         }
-        try (ZipArchiveInputStream zais = new ZipArchiveInputStream(new BufferedInputStream(new FileInputStream(zipFile), 1024))) {
+        try (InputStream in = new FileInputStream(zipFile)) {
+            unZip(in, unZipDir);
+        } catch (IOException e) {
+            LOG.error("ZipError: " + zipFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 将一个Zip的数据流边读边解压到指定文件夹里面，不需要先把Zip文件落地.
+     *
+     * @param zipInputStream Zip数据流
+     * @param unZipDir       解压后的文件夹
+     * @throws IOException 读取或者写入文件失败
+     */
+    public static void unZip(InputStream zipInputStream, File unZipDir) throws IOException {
+        try (ZipArchiveInputStream zais = new ZipArchiveInputStream(new BufferedInputStream(zipInputStream, UNZIP_BUFFER_SIZE))) {
             // Create un zip dir
             FileUtils.forceMkdir(unZipDir);
+            byte[] buffer = new byte[UNZIP_BUFFER_SIZE];
             ZipArchiveEntry entry;
             while ((entry = zais.getNextZipEntry()) != null) {
                 LOG.debug("UnZip file: " + entry.getName());
                 if (entry.isDirectory()) {
                     FileUtils.forceMkdir(new File(unZipDir, entry.getName()));
                 } else {
-                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(new File(unZipDir, entry.getName())), 1024)) {
-                        IOUtils.copy(zais, os);
+                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(new File(unZipDir, entry.getName())), UNZIP_BUFFER_SIZE)) {
+                        IOUtils.copyLarge(zais, os, buffer);
                     }
                 }
             }
-        } catch (IOException e) {
-            LOG.error("ZipError: " + zipFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static Thread drain(String jobId, InputStream in, boolean error, List<String> output) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (null == output) {
+                        LOG.info("[" + jobId + "]\t" + (error ? "[stderr] " : "") + line);
+                    } else {
+                        LOG.debug("[" + jobId + "]\t" + line);
+                        synchronized (output) {
+                            output.add(line);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("[" + jobId + "]\tRead command output failed: " + e.getMessage());
+            }
+        }, "command-output-" + jobId);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void destroy(Process process) throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(DESTROY_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly().waitFor(DESTROY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void recordStep(String jobId, String step, int exitCode, long cost) {
+        LOG.info("[" + jobId + "]\tStep [" + step + "] exit code: " + exitCode + ", use " + cost + "ms.");
+        STEP_METRICS.computeIfAbsent(step, k -> new StepMetrics()).add(exitCode, cost);
+    }
+
+    /**
+     * 一个步骤的执行统计.
+     */
+    public static class StepMetrics {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong totalMillis = new AtomicLong();
+
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void add(int exitCode, long cost) {
+            count.incrementAndGet();
+            if (0 != exitCode) {
+                failures.incrementAndGet();
+            }
+            totalMillis.addAndGet(cost);
+            maxMillis.accumulateAndGet(cost, Math::max);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + getCount() + ", failures: " + getFailures() + ", total: " + getTotalMillis() + "ms, max: " + getMaxMillis() + "ms.";
         }
     }
 }
@@ -27,6 +27,11 @@ public interface MetadataConfigurable {
      */
     String METADATA_JDBC_PWD_KEY = "metadata.jdbc.password";
 
+    /**
+     * 元数据存储的数据库同时打开的最大连接数.
+     */
+    String METADATA_JDBC_MAX_CONNECTIONS_KEY = "metadata.jdbc.max.connections";
+
     /**
      * 获取元数据的配置对象.
      *
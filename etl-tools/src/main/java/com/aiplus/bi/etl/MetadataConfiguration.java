@@ -20,7 +20,7 @@ public class MetadataConfiguration implements MetadataConfigurable {
 
     private static final String METADATA_ETC_FILE_NAME = "metadata-etc";
 
-    private static final String SQL_QUERY_DATA_SOURCE_INFO = "SELECT ID, SOURCE_CODE, SOURCE_URL, SOURCE_USER, SOURCE_PASSWORD, SOURCE_TYPE FROM BI_DATASOURCE WHERE SOURCE_CODE = ?";
+    private static final String SQL_QUERY_DATA_SOURCE_INFO = "SELECT ID, SOURCE_CODE, SOURCE_URL, SOURCE_USER, SOURCE_PASSWORD, SOURCE_TYPE, MAX_CONNECTIONS FROM BI_DATASOURCE WHERE SOURCE_CODE = ?";
 
     private Map<String, Object> configs = new HashMap<>();
 
@@ -44,8 +44,12 @@ public class MetadataConfiguration implements MetadataConfigurable {
         return configs.containsKey(key) ? Boolean.parseBoolean(getProperty(key)) : def;
     }
 
+    /**
+     * 从元数据库的连接池中借出一个连接，用完以后需要调用close()归还.
+     */
     public Connection getMetadataConnection() throws SQLException {
-        return MetadataConfiguration.getJdbcConnection(getProperty(METADATA_JDBC_URL_KEY), getProperty(METADATA_JDBC_USER_KEY), getProperty(METADATA_JDBC_PWD_KEY));
+        return ConnectionPool.getConnection(getProperty(METADATA_JDBC_URL_KEY), getProperty(METADATA_JDBC_USER_KEY), getProperty(METADATA_JDBC_PWD_KEY),
+                getInt(METADATA_JDBC_MAX_CONNECTIONS_KEY, ConnectionPool.DEFAULT_MAX_CONNECTIONS));
     }
 
     public DataSourceConnectionInfo getDataSourceConnectionInfo(String dataSourceCode) throws SQLException {
@@ -53,7 +57,9 @@ public class MetadataConfiguration implements MetadataConfigurable {
             pstmt.setString(1, dataSourceCode);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    return new DataSourceConnectionInfo(rs.getString("SOURCE_URL"), rs.getString("SOURCE_USER"), rs.getString("SOURCE_PASSWORD"));
+                    DataSourceConnectionInfo info = new DataSourceConnectionInfo(rs.getString("SOURCE_URL"), rs.getString("SOURCE_USER"), rs.getString("SOURCE_PASSWORD"));
+                    info.setMaxConnections(rs.getInt("MAX_CONNECTIONS"));
+                    return info;
                 } else {
                     throw new NullPointerException("DataSource[" + dataSourceCode + "] not found on config database.");
                 }
@@ -61,8 +67,12 @@ public class MetadataConfiguration implements MetadataConfigurable {
         }
     }
 
+    /**
+     * 从数据源的连接池中借出一个连接，用完以后需要调用close()归还.
+     */
     public Connection getDatasourceConnection(DataSourceConnectionInfo datasourceConnectionInfo) throws SQLException {
-        return MetadataConfiguration.getJdbcConnection(datasourceConnectionInfo.getUrl(), datasourceConnectionInfo.getUser(), datasourceConnectionInfo.getPassword());
+        return ConnectionPool.getConnection(datasourceConnectionInfo.getUrl(), datasourceConnectionInfo.getUser(), datasourceConnectionInfo.getPassword(),
+                datasourceConnectionInfo.getMaxConnections());
     }
 
     public Connection getDatasourceConnection(String dataSourceCode) throws SQLException {
@@ -116,6 +126,7 @@ public class MetadataConfiguration implements MetadataConfigurable {
         private String url;
         private String user;
         private String password;
+        private int maxConnections;
 
         public DataSourceConnectionInfo(String url, String user, String password) {
             this.url = url;
@@ -146,5 +157,13 @@ public class MetadataConfiguration implements MetadataConfigurable {
         public void setPassword(String password) {
             this.password = password;
         }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
     }
 }
@@ -1,6 +1,11 @@
 package com.aiplus.bi.etl.input;
 
+import com.aiplus.bi.etl.ConnectionPool;
+
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
 
 /**
  * @author dev
@@ -103,6 +108,10 @@ public class DataInputJobConfiguration implements Serializable {
         private String url;
         private String username;
         private String password;
+        /**
+         * 同时打开的最大连接数，小于等于0表示使用默认值.
+         */
+        private int maxConnections;
 
         public String getUrl() {
             return url;
@@ -135,6 +144,21 @@ public class DataInputJobConfiguration implements Serializable {
         public void setType(String type) {
             this.type = type;
         }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        /**
+         * 从数据源的连接池中借出一个连接，用完以后需要调用close()归还.
+         */
+        public Connection getConnection() throws SQLException {
+            return ConnectionPool.getConnection(url, username, password, maxConnections);
+        }
     }
 
     public static class TableMapper {
@@ -142,6 +166,32 @@ public class DataInputJobConfiguration implements Serializable {
         private String splitKey;
         private TableFieldMapper source;
         private String targetTable;
+        /**
+         * 需要导出的列，为空表示导出全部的列. 目前仅适用于Druid，列可以是维度或者指标.
+         */
+        private String[] columns;
+        /**
+         * 数据过滤条件，为空表示不过滤. 目前仅适用于Druid，格式和Druid查询中的filter一致（JSON），
+         * 支持selector、in、and、or、not，使用Segment的Bitmap索引进行过滤.
+         */
+        private String filter;
+        /**
+         * 是否增量导入. 增量导入的时候只导出水位列大于上次导出水位的数据，然后合并到Hive表中. 目前仅适用于RDB.
+         */
+        private boolean incremental;
+        /**
+         * 水位列，通常是记录的最后修改时间（例如gmt_modified）或者单调递增的ID，增量导入的时候必须配置.
+         */
+        private String watermarkColumn;
+        /**
+         * 下界向前重叠的范围，用来读取在上次导出之后才提交、但是水位不大于上次水位的记录. 时间类型的水位列单位是秒（默认300），
+         * 数值类型的水位列是数值的差（默认0），小于0表示使用默认值.
+         */
+        private long watermarkOverlap = -1;
+        /**
+         * 每张源表本次导出的水位范围，由任务在提交之前生成，不需要配置.
+         */
+        private Map<String, Watermark> watermarks;
 
         public String getSourceTable() {
             return sourceTable;
@@ -174,6 +224,75 @@ public class DataInputJobConfiguration implements Serializable {
         public void setSplitKey(String splitKey) {
             this.splitKey = splitKey;
         }
+
+        public String[] getColumns() {
+            return columns;
+        }
+
+        public void setColumns(String[] columns) {
+            this.columns = columns;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+
+        public void setFilter(String filter) {
+            this.filter = filter;
+        }
+
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        public void setIncremental(boolean incremental) {
+            this.incremental = incremental;
+        }
+
+        public String getWatermarkColumn() {
+            return watermarkColumn;
+        }
+
+        public void setWatermarkColumn(String watermarkColumn) {
+            this.watermarkColumn = watermarkColumn;
+        }
+
+        public long getWatermarkOverlap() {
+            return watermarkOverlap;
+        }
+
+        public void setWatermarkOverlap(long watermarkOverlap) {
+            this.watermarkOverlap = watermarkOverlap;
+        }
+
+        public Map<String, Watermark> getWatermarks() {
+            return watermarks;
+        }
+
+        public void setWatermarks(Map<String, Watermark> watermarks) {
+            this.watermarks = watermarks;
+        }
+    }
+
+    /**
+     * 增量导入的水位范围：(low, high]，low为空表示第一次导入，需要导出high之前的全部数据.
+     */
+    public static class Watermark {
+        private String low;
+        private String high;
+
+        public Watermark(String low, String high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        public String getLow() {
+            return low;
+        }
+
+        public String getHigh() {
+            return high;
+        }
     }
 
     public static class TableFieldMapper {
@@ -218,6 +337,11 @@ public class DataInputJobConfiguration implements Serializable {
          */
         private String hiveSchema;
 
+        /**
+         * 数据文件的格式，默认是文本格式
+         */
+        private DataInputs.Format format;
+
         public DataInputs.Type getType() {
             return type;
         }
@@ -257,5 +381,13 @@ public class DataInputJobConfiguration implements Serializable {
         public void setHiveSchema(String hiveSchema) {
             this.hiveSchema = hiveSchema;
         }
+
+        public DataInputs.Format getFormat() {
+            return null == format ? DataInputs.Format.TEXT : format;
+        }
+
+        public void setFormat(DataInputs.Format format) {
+            this.format = format;
+        }
     }
 }
@@ -1,10 +1,10 @@
 package com.aiplus.bi.etl.input;
 
+import com.aiplus.bi.etl.ConnectionPool;
 import com.google.gson.GsonBuilder;
 import org.apache.hadoop.conf.Configuration;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DataInputs {
@@ -38,16 +38,19 @@ public class DataInputs {
         return this.jobConfiguration;
     }
 
-    public synchronized Connection getSourceConnection() throws SQLException {
-        if (this.jobConfiguration.getSource().getUsername() == null) {
-            return DriverManager.getConnection(this.jobConfiguration.getSource().getUrl());
-        } else {
-            return DriverManager.getConnection(
-                    this.jobConfiguration.getSource().getUrl(),
-                    this.jobConfiguration.getSource().getUsername(),
-                    this.jobConfiguration.getSource().getPassword()
-            );
-        }
+    /**
+     * 从源数据库的连接池中借出一个连接，用完以后需要调用close()归还.
+     */
+    public Connection getSourceConnection() throws SQLException {
+        return this.jobConfiguration.getSource().getConnection();
+    }
+
+    /**
+     * @return 源数据库同时打开的最大连接数
+     */
+    public int getSourceMaxConnections() {
+        int maxConnections = this.jobConfiguration.getSource().getMaxConnections();
+        return maxConnections > 0 ? maxConnections : ConnectionPool.DEFAULT_MAX_CONNECTIONS;
     }
 
     public enum Type {
@@ -61,4 +64,16 @@ public class DataInputs {
          */
         HIVE
     }
+
+    public enum Format {
+        /**
+         * 文本格式，字段之间使用\001分隔
+         */
+        TEXT,
+
+        /**
+         * ORC列式存储格式，保留字段的类型
+         */
+        ORC
+    }
 }
@@ -29,8 +29,8 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
 
     private static final String SQL_QUERY_ETL_JOB = "SELECT " +
             "T1.ID, T1.DEFINE_NAME, T1.INPUT_SOURCE_ID, T1.OUTPUT_SOURCE_ID, T1.TASK_NUM, T1.TABLE_MAPPERS, " +
-            "T2.SOURCE_CODE, T2.SOURCE_URL, T2.SOURCE_USER, T2.SOURCE_PASSWORD, T2.SOURCE_TYPE,  " +
-            "T3.OBJECT_TYPE, T3.DATA_PATH, T3.CREATE_HIVE_TABLE, T3.HIVE_EXTERNAL_TABLE, T3.HIVE_SCHEMA, T3.OUTPUT_ENV " +
+            "T2.SOURCE_CODE, T2.SOURCE_URL, T2.SOURCE_USER, T2.SOURCE_PASSWORD, T2.SOURCE_TYPE, T2.MAX_CONNECTIONS, " +
+            "T3.OBJECT_TYPE, T3.DATA_PATH, T3.CREATE_HIVE_TABLE, T3.HIVE_EXTERNAL_TABLE, T3.HIVE_SCHEMA, T3.OUTPUT_FORMAT, T3.OUTPUT_ENV " +
             "FROM BI_ETL_JOB_DEFINE T1, BI_DATASOURCE T2, BI_HADOOP_OUTPUT T3 " +
             "WHERE " +
             "T1.INPUT_SOURCE_ID = T2.ID AND T1.OUTPUT_SOURCE_ID = T3.ID AND " +
@@ -40,6 +40,8 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
 
     private String jobDefineName;
 
+    private long jobDefineId;
+
     private String hadoopClusterConfPath;
 
     @Override
@@ -55,7 +57,11 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
         DataInputJobConfiguration jobConfiguration = initDataInputJobConfiguration();
         Configuration conf = loadHadoopClusterConfiguration();
         try {
-            return ToolRunner.run(conf, createDataInputJob(getId(), jobConfiguration), jobArgs);
+            int exitCode = ToolRunner.run(conf, createDataInputJob(getId(), jobConfiguration), jobArgs);
+            if (0 == exitCode) {
+                afterDataInputJobSucceeded(jobConfiguration);
+            }
+            return exitCode;
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
             throw new RuntimeException(e);
@@ -64,6 +70,23 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
 
     protected abstract MapReduceJob createDataInputJob(String jobId, DataInputJobConfiguration jobConfiguration);
 
+    /**
+     * 数据导入任务（包括Hive表的处理）成功以后的操作，默认什么都不做.
+     *
+     * @param jobConfiguration 任务配置
+     * @throws Exception 处理失败
+     */
+    protected void afterDataInputJobSucceeded(DataInputJobConfiguration jobConfiguration) throws Exception {
+        // do nothing.
+    }
+
+    /**
+     * @return Job定义的ID（BI_ETL_JOB_DEFINE.ID）
+     */
+    protected long getJobDefineId() {
+        return jobDefineId;
+    }
+
     private DataInputJobConfiguration initDataInputJobConfiguration() {
         // 查询对应Job的配置信息
         try (Connection conn = getMetadataConfiguration().getMetadataConnection();
@@ -79,6 +102,7 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
                     // hadoop cluster conf path.
                     hadoopClusterConfPath = rs.getString("OUTPUT_ENV");
                     // etl job configuration
+                    jobDefineId = rs.getLong("ID");
                     jobConfiguration.setJobName(rs.getString("DEFINE_NAME"));
                     jobConfiguration.setTaskNum(rs.getInt("TASK_NUM"));
                     // source
@@ -87,6 +111,7 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
                     dataSource.setUrl(rs.getString("SOURCE_URL"));
                     dataSource.setUsername(rs.getString("SOURCE_USER"));
                     dataSource.setPassword(rs.getString("SOURCE_PASSWORD"));
+                    dataSource.setMaxConnections(rs.getInt("MAX_CONNECTIONS"));
                     jobConfiguration.setSource(dataSource);
                     // output
                     DataInputJobConfiguration.Output output = new DataInputJobConfiguration.Output();
@@ -95,6 +120,10 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
                     output.setCreateHiveTable(rs.getInt("CREATE_HIVE_TABLE") == 1);
                     output.setHiveExternalPath(rs.getString("HIVE_EXTERNAL_TABLE"));
                     output.setHiveSchema(rs.getString("HIVE_SCHEMA"));
+                    String outputFormat = rs.getString("OUTPUT_FORMAT");
+                    if (null != outputFormat && !"".equals(outputFormat)) {
+                        output.setFormat(DataInputs.Format.valueOf(outputFormat.toUpperCase()));
+                    }
                     jobConfiguration.setOutput(output);
                     // table mappers
                     String strTableMappersJson = rs.getString("TABLE_MAPPERS");
@@ -127,6 +156,33 @@ public abstract class ExportDataToHadoop extends ConfigurableJob implements Hado
                         tableMapper.setSourceTable(sourceTable.isJsonNull() ? null : sourceTable.getAsString());
                         tableMapper.setSplitKey(splitKey.isJsonNull() ? null : splitKey.getAsString());
                         tableMapper.setTargetTable(targetTable.isJsonNull() ? null : targetTable.getAsString());
+                        // 可选的列投影和过滤条件
+                        JsonElement columns = jsonObject.get("columns");
+                        if (null != columns && columns.isJsonArray()) {
+                            JsonArray columnArray = columns.getAsJsonArray();
+                            String[] columnNames = new String[columnArray.size()];
+                            for (int i = 0; i < columnArray.size(); i++) {
+                                columnNames[i] = columnArray.get(i).getAsString();
+                            }
+                            tableMapper.setColumns(columnNames);
+                        }
+                        JsonElement filter = jsonObject.get("filter");
+                        if (null != filter && !filter.isJsonNull()) {
+                            tableMapper.setFilter(filter.isJsonPrimitive() ? filter.getAsString() : filter.toString());
+                        }
+                        // 可选的增量导入配置
+                        JsonElement incremental = jsonObject.get("incremental");
+                        if (null != incremental && !incremental.isJsonNull()) {
+                            tableMapper.setIncremental(incremental.getAsBoolean());
+                        }
+                        JsonElement watermarkColumn = jsonObject.get("watermarkColumn");
+                        if (null != watermarkColumn && !watermarkColumn.isJsonNull()) {
+                            tableMapper.setWatermarkColumn(watermarkColumn.getAsString());
+                        }
+                        JsonElement watermarkOverlap = jsonObject.get("watermarkOverlap");
+                        if (null != watermarkOverlap && !watermarkOverlap.isJsonNull()) {
+                            tableMapper.setWatermarkOverlap(watermarkOverlap.getAsLong());
+                        }
 
                         tableMappers[j] = tableMapper;
                     }
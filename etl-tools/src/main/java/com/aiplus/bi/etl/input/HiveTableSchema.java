@@ -0,0 +1,112 @@
+package com.aiplus.bi.etl.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hive中已经存在的表的结构，从DESCRIBE FORMATTED的输出中解析.
+ * <p>
+ * 只记录表级别的普通列（不包括分区列）和存储格式，用来和本次导出的数据文件比较，生成补齐表结构的ALTER语句.
+ *
+ * @author dev
+ */
+public class HiveTableSchema {
+
+    /**
+     * 可以直接修改列类型的数值类型，按照能容纳的范围从小到大排列.
+     */
+    private static final List<String> NUMERIC_TYPES = Arrays.asList("tinyint", "smallint", "int", "bigint", "float", "double");
+
+    private final Map<String, String> columns;
+
+    private final boolean orc;
+
+    private HiveTableSchema(Map<String, String> columns, boolean orc) {
+        this.columns = columns;
+        this.orc = orc;
+    }
+
+    /**
+     * 解析hive -S -e "DESCRIBE FORMATTED table"的输出.
+     *
+     * @param lines 命令的标准输出
+     * @return 表结构，输出中没有列的时候（表不存在）返回null
+     */
+    public static HiveTableSchema parseDescribeFormatted(List<String> lines) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        boolean inColumns = true;
+        boolean orc = false;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("# Partition Information") || trimmed.startsWith("# Detailed Table Information")) {
+                // 普通列在最前面，后面的分区列和表的详细信息中也有“名称 类型”格式的行
+                inColumns = false;
+            } else if (inColumns && !trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                String[] parts = trimmed.split("\\s+");
+                if (parts.length >= 2) {
+                    columns.put(parts[0].toLowerCase(), parts[1].toLowerCase());
+                }
+            } else if (trimmed.startsWith("InputFormat:")) {
+                orc = trimmed.contains("OrcInputFormat");
+            }
+        }
+        return columns.isEmpty() ? null : new HiveTableSchema(columns, orc);
+    }
+
+    public Map<String, String> getColumns() {
+        return columns;
+    }
+
+    public boolean isOrc() {
+        return orc;
+    }
+
+    /**
+     * 生成让表结构可以容纳本次数据的ALTER语句：缺少的列添加到最后，类型比数据小的列改成数据的类型.
+     *
+     * @param table    表名，例如ods.`table`
+     * @param expected 本次数据的列和类型
+     * @return ALTER语句，表结构已经可以容纳本次数据的时候为空
+     * @throws IOException 表中已有的列的类型不能容纳本次数据，也不能改成数据的类型（例如数值列要放复杂类型的数据）
+     */
+    public List<String> alterStatements(String table, Map<String, String> expected) throws IOException {
+        List<String> statements = new ArrayList<>();
+        StringBuilder addColumns = new StringBuilder();
+        for (Map.Entry<String, String> column : expected.entrySet()) {
+            String name = column.getKey().toLowerCase();
+            String type = column.getValue().toLowerCase();
+            String current = columns.get(name);
+            if (null == current) {
+                addColumns.append(addColumns.length() == 0 ? "" : ", ").append("`").append(column.getKey()).append("` ").append(type);
+            } else if (!current.equals(type) && !canHold(current, type)) {
+                if (!canHold(type, current)) {
+                    throw new IOException("Column `" + column.getKey() + "` of " + table + " is " + current + ", can not load " + type + " data.");
+                }
+                statements.add("ALTER TABLE " + table + " CHANGE COLUMN `" + column.getKey() + "` `" + column.getKey() + "` " + type + ";");
+            }
+        }
+        if (addColumns.length() > 0) {
+            statements.add("ALTER TABLE " + table + " ADD COLUMNS (" + addColumns + ");");
+        }
+        return statements;
+    }
+
+    /**
+     * @return 类型wide是否可以容纳类型narrow的所有值，数值类型之间按照范围比较，string可以容纳所有的数值类型
+     */
+    static boolean canHold(String wide, String narrow) {
+        if (wide.equals(narrow)) {
+            return true;
+        }
+        int wideRank = NUMERIC_TYPES.indexOf(wide);
+        int narrowRank = NUMERIC_TYPES.indexOf(narrow);
+        if (narrowRank < 0) {
+            return false;
+        }
+        return "string".equals(wide) || wideRank > narrowRank;
+    }
+}
@@ -0,0 +1,54 @@
+package com.aiplus.bi.etl.input;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.orc.OrcFile;
+import org.apache.orc.Writer;
+import org.apache.orc.mapred.OrcStruct;
+import org.apache.orc.mapreduce.OrcMapreduceRecordWriter;
+
+import java.io.IOException;
+
+/**
+ * ORC文件的输出格式.
+ * <p>
+ * 和ORC自带的OrcOutputFormat不同，文件的Schema不是从Job的配置中读取，而是使用第一条记录的Schema，
+ * 这样通过MultipleOutputs输出多个表（Schema各不相同）的时候可以共用同一个输出格式.
+ * 写入同一个文件的记录的Schema必须相同；不同文件的Schema如果不一致，需要在建表之前统一（见OutputHiveSchemaTransfer#unifyOrcSchema）.
+ *
+ * @author dev
+ */
+public class OrcFileOutputFormat extends FileOutputFormat<NullWritable, OrcStruct> {
+
+    private static final String ORC_FILE_EXTENSION = ".orc";
+
+    @Override
+    public RecordWriter<NullWritable, OrcStruct> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Path file = getDefaultWorkFile(context, ORC_FILE_EXTENSION);
+        return new RecordWriter<NullWritable, OrcStruct>() {
+
+            private OrcMapreduceRecordWriter<OrcStruct> writer;
+
+            @Override
+            public void write(NullWritable key, OrcStruct value) throws IOException {
+                if (null == writer) {
+                    Writer orcWriter = OrcFile.createWriter(file, OrcFile.writerOptions(conf).setSchema(value.getSchema()));
+                    writer = new OrcMapreduceRecordWriter<>(orcWriter);
+                }
+                writer.write(key, value);
+            }
+
+            @Override
+            public void close(TaskAttemptContext taskAttemptContext) throws IOException {
+                if (null != writer) {
+                    writer.close(taskAttemptContext);
+                }
+            }
+        };
+    }
+}
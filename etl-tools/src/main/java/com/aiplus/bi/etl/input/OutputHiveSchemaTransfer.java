@@ -3,15 +3,28 @@ package com.aiplus.bi.etl.input;
 import com.aiplus.bi.etl.JobTools;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.orc.OrcFile;
+import org.apache.orc.Reader;
+import org.apache.orc.RecordReader;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.Writer;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.sql.Types.*;
 
@@ -53,12 +66,18 @@ public abstract class OutputHiveSchemaTransfer {
         if (etlJobConfiguration.getOutput().isCreateHiveTable()) {
             // 如果需要新建表，则调用Hive命令新建表
             // 调用hive -f执行命令
-            JobTools.runCommand(etlJobId, new String[]{"hive", "-f", sqlFilePath});
+            int exitCode = JobTools.runCommand(etlJobId, new String[]{"hive", "-f", sqlFilePath});
+            if (0 != exitCode) {
+                // 保留导出的数据，增量导入的水位也不会更新，下次重新导出
+                throw new IOException("Execute hive DDL [" + sqlFilePath + "] failed, exit code: " + exitCode);
+            }
             LOG.info("Created hive table(s) successful with [" + sqlFilePath + "].");
             // 清理导出的文件目录
             String tempDataDir = etlJobConfiguration.getOutput().getHiveExternalPath() + "/" + etlJobId;
             LOG.info("Clean temp data dir: " + tempDataDir);
-            JobTools.runCommand(etlJobId, new String[]{"hadoop", "fs", "-rmr", tempDataDir});
+            if (!JobTools.deletePath(etlJobId, getConf(), tempDataDir)) {
+                LOG.warn("Clean temp data dir failed: " + tempDataDir);
+            }
         } else {
             // 打印出建表语句的文件路径到日志
             LOG.info("Hive DDL write into " + sqlFilePath);
@@ -69,8 +88,72 @@ public abstract class OutputHiveSchemaTransfer {
     protected abstract List<String> doHiveSchemaOutput() throws IOException;
 
     protected String generateCreateStatementDDL(String schemaName, String tableName, List<ColumnMetadata> cols, String externalPath) {
-        boolean isExternalTable = null != externalPath && !"".equals(externalPath);
         StringBuilder ddl = new StringBuilder();
+        appendTempTableDDL(ddl, schemaName, tableName, cols, externalPath);
+        // 添加数据转移的语句，先把之前的表删除掉
+        String dbName = "ods";
+        if (tableName.contains(".")) {
+            dbName = tableName.split(".")[0];
+            tableName = tableName.split(".")[1];
+        }
+        ddl.append("DROP TABLE IF EXISTS base.`").append(tableName).append("`;");
+        ddl.append("DROP TABLE IF EXISTS ").append("`").append(dbName).append("`.`").append(tableName).append("`;");
+        ddl.append("CREATE TABLE ").append("`").append(dbName).append("`.`").append(tableName).append("`").append(getStoredAs()).append(" AS SELECT * FROM ").append(schemaName).append(".`").append(tableName).append("`;");
+        ddl.append("DROP TABLE IF EXISTS ").append(schemaName).append(".`").append(tableName).append("`;");
+        ddl.trimToSize();
+        return ddl.toString();
+    }
+
+    /**
+     * 生成增量导入的合并语句.
+     * <p>
+     * 本次导出的增量数据先放到临时表中，再和目标表按照table_pk合并：同一个主键只保留一行，增量数据中的行优先，
+     * 目标表不存在的时候（第一次导入）先建表. table_pk是“源表名:主键”，通配符匹配的不同分表中相同的主键不会合并成一行.
+     * 以前的版本全量导入的table_pk只有主键，源表不带通配符的时候合并的同时补上源表名；带通配符的时候不知道行来自哪张分表，需要先全量导入一次.
+     *
+     * @param sourceTable 源表的配置，可以带通配符
+     */
+    protected String generateMergeStatementDDL(String schemaName, String tableName, List<ColumnMetadata> cols, String externalPath, String sourceTable) {
+        StringBuilder ddl = new StringBuilder();
+        appendTempTableDDL(ddl, schemaName, tableName, cols, externalPath);
+        String dbName = "ods";
+        String targetName = tableName;
+        if (tableName.contains(".")) {
+            dbName = tableName.split("\\.")[0];
+            targetName = tableName.split("\\.")[1];
+        }
+        String target = "`" + dbName + "`.`" + targetName + "`";
+        StringBuilder colNames = new StringBuilder("`table_pk`");
+        StringBuilder targetColNames = new StringBuilder();
+        if (sourceTable.contains("%")) {
+            // 分表的行不知道来自哪张表，目标表里不带源表名的table_pk不能补齐
+            LOG.warn("Merge into " + target + " from wildcard source [" + sourceTable + "], rows imported with bare table_pk need a full reload.");
+            targetColNames.append("`table_pk`");
+        } else {
+            String prefix = "'" + sourceTable.replace("\\", "\\\\").replace("'", "\\'") + ":'";
+            targetColNames.append("IF(substr(`table_pk`, 1, ").append(sourceTable.length() + 1).append(") = ").append(prefix)
+                    .append(", `table_pk`, concat(").append(prefix).append(", `table_pk`)) AS `table_pk`");
+        }
+        for (ColumnMetadata col : cols) {
+            colNames.append(", `").append(col.getName()).append("`");
+            targetColNames.append(", `").append(col.getName()).append("`");
+        }
+        ddl.append("CREATE TABLE IF NOT EXISTS ").append(target).append("(");
+        appendColumnDefinitions(ddl, cols);
+        ddl.append(")").append(getStoredAs()).append(";");
+        ddl.append("INSERT OVERWRITE TABLE ").append(target).append(" SELECT ").append(colNames).append(" FROM (");
+        ddl.append("SELECT u.*, ROW_NUMBER() OVER (PARTITION BY u.`table_pk` ORDER BY u.etl_delta DESC) AS etl_rn FROM (");
+        ddl.append("SELECT ").append(targetColNames).append(", 0 AS etl_delta FROM ").append(target);
+        ddl.append(" UNION ALL ");
+        ddl.append("SELECT ").append(colNames).append(", 1 AS etl_delta FROM ").append(schemaName).append(".`").append(tableName).append("`");
+        ddl.append(") u) m WHERE m.etl_rn = 1;");
+        ddl.append("DROP TABLE IF EXISTS ").append(schemaName).append(".`").append(tableName).append("`;");
+        ddl.trimToSize();
+        return ddl.toString();
+    }
+
+    private void appendTempTableDDL(StringBuilder ddl, String schemaName, String tableName, List<ColumnMetadata> cols, String externalPath) {
+        boolean isExternalTable = null != externalPath && !"".equals(externalPath);
         ddl.append("DROP TABLE IF EXISTS ").append(schemaName).append(".`").append(tableName).append("`;");
         ddl.append("CREATE ");
         if (isExternalTable) {
@@ -78,6 +161,17 @@ public abstract class OutputHiveSchemaTransfer {
             ddl.append("EXTERNAL ");
         }
         ddl.append("TABLE ").append(schemaName).append(".`").append(tableName).append("`(");
+        appendColumnDefinitions(ddl, cols);
+        ddl.append(")");
+        ddl.append(getStoredAs());
+        if (isExternalTable) {
+            // 是外表则加入外表的location
+            ddl.append("LOCATION \"").append(externalPath).append("/").append(etlJobId).append("/").append(tableName).append("\"");
+        }
+        ddl.append(";");
+    }
+
+    private void appendColumnDefinitions(StringBuilder ddl, List<ColumnMetadata> cols) {
         // 加入table_pk
         ddl.append("`table_pk` string, ");
         for (int i = 0; i < cols.size() - 1; i++) {
@@ -85,36 +179,31 @@ public abstract class OutputHiveSchemaTransfer {
             ddl.append("`").append(col.getName()).append("` ").append(getDataTypeInfo(col)).append(", ");
         }
         ColumnMetadata lastCol = cols.get(cols.size() - 1);
-        ddl.append("`").append(lastCol.getName()).append("` ").append(getDataTypeInfo(lastCol)).append(")");
-        if (isExternalTable) {
-            // 是外表则加入外表的location
-            ddl.append("LOCATION \"").append(externalPath).append("/").append(etlJobId).append("/").append(tableName).append("\"");
+        ddl.append("`").append(lastCol.getName()).append("` ").append(getDataTypeInfo(lastCol));
+    }
+
+    /**
+     * 读取Hive中已经存在的表结构. 只在需要执行Hive语句的时候读取，只生成语句文件的时候不连接Hive.
+     *
+     * @param table 表名，例如ods.`table`
+     * @return 表结构，表不存在、不需要执行Hive语句或者读取失败的时候返回null
+     */
+    protected HiveTableSchema describeHiveTable(String table) {
+        if (!etlJobConfiguration.getOutput().isCreateHiveTable()) {
+            return null;
         }
-        ddl.append(";");
-        // 添加数据转移的语句，先把之前的表删除掉
-        String dbName = "ods";
-        if (tableName.contains(".")) {
-            dbName = tableName.split(".")[0];
-            tableName = tableName.split(".")[1];
+        List<String> output = new ArrayList<>();
+        int exitCode = JobTools.runCommand(etlJobId, new String[]{"hive", "-S", "-e", "DESCRIBE FORMATTED " + table}, output);
+        if (0 != exitCode) {
+            // 表不存在的时候也会失败，之后的建表语句会创建
+            LOG.info("Describe hive table " + table + " exit code: " + exitCode + ", treat it as a new table.");
+            return null;
         }
-        ddl.append("DROP TABLE IF EXISTS base.`").append(tableName).append("`;");
-        ddl.append("DROP TABLE IF EXISTS ").append("`").append(dbName).append("`.`").append(tableName).append("`;");
-        ddl.append("CREATE TABLE ").append("`").append(dbName).append("`.`").append(tableName).append("` AS SELECT * FROM ").append(schemaName).append(".`").append(tableName).append("`;");
-        ddl.append("DROP TABLE IF EXISTS ").append(schemaName).append(".`").append(tableName).append("`;");
-        ddl.trimToSize();
-        return ddl.toString();
+        return HiveTableSchema.parseDescribeFormatted(output);
     }
 
     protected Connection getSourceConnection() throws SQLException {
-        if (etlJobConfiguration.getSource().getUsername() == null) {
-            return DriverManager.getConnection(etlJobConfiguration.getSource().getUrl());
-        } else {
-            return DriverManager.getConnection(
-                    etlJobConfiguration.getSource().getUrl(),
-                    etlJobConfiguration.getSource().getUsername(),
-                    etlJobConfiguration.getSource().getPassword()
-            );
-        }
+        return etlJobConfiguration.getSource().getConnection();
     }
 
     private String getDataTypeInfo(ColumnMetadata columnMetadata) {
@@ -134,8 +223,12 @@ public abstract class OutputHiveSchemaTransfer {
             case SMALLINT:
                 return DataType.INT;
             case DOUBLE:
-            case DECIMAL:
             case FLOAT:
+                // ORC文件中保存的是double，文本格式沿用之前的decimal
+                return isOrcFormat() ? DataType.DOUBLE : DataType.DECIMAL;
+            case REAL:
+                return isOrcFormat() ? DataType.DOUBLE : DataType.STRING;
+            case DECIMAL:
                 return DataType.DECIMAL;
             case TIMESTAMP:
             case TIME_WITH_TIMEZONE:
@@ -148,6 +241,138 @@ public abstract class OutputHiveSchemaTransfer {
         }
     }
 
+    protected boolean isOrcFormat() {
+        return etlJobConfiguration.getOutput().getFormat() == DataInputs.Format.ORC;
+    }
+
+    /**
+     * @return 建表语句中的存储格式，文本格式使用Hive默认的格式
+     */
+    protected String getStoredAs() {
+        return isOrcFormat() ? " STORED AS ORC " : "";
+    }
+
+    /**
+     * 合并目录下所有ORC文件的Schema，生成和所有数据文件一致的表结构.
+     * <p>
+     * 不同的Map Task写入的文件中指标的类型有可能不同（例如不同的Segment中同一个指标分别是LONG和DOUBLE），字段按照名称合并，
+     * 类型取能容纳所有文件的类型. Schema和合并结果不一致的文件按照合并后的Schema重写，保证Hive读取所有文件的时候类型一致.
+     *
+     * @param conf Hadoop配置
+     * @param dir  数据目录
+     * @return 合并后的Schema，如果目录下面没有ORC文件则返回null
+     * @throws IOException 读取或者重写文件失败
+     */
+    protected TypeDescription unifyOrcSchema(Configuration conf, Path dir) throws IOException {
+        FileSystem fs = dir.getFileSystem(conf);
+        if (!fs.exists(dir)) {
+            return null;
+        }
+        Map<Path, TypeDescription> fileSchemas = new LinkedHashMap<>();
+        RemoteIterator<LocatedFileStatus> files = fs.listFiles(dir, true);
+        while (files.hasNext()) {
+            LocatedFileStatus file = files.next();
+            String name = file.getPath().getName();
+            if (name.startsWith("_") || name.startsWith(".") || 0 == file.getLen()) {
+                continue;
+            }
+            // Reader在创建的时候就读取完文件尾部的元数据了，不需要关闭
+            Reader reader = OrcFile.createReader(file.getPath(), OrcFile.readerOptions(conf).filesystem(fs));
+            fileSchemas.put(file.getPath(), reader.getSchema());
+        }
+        TypeDescription schema = null;
+        for (TypeDescription fileSchema : fileSchemas.values()) {
+            schema = null == schema ? fileSchema.clone() : unionSchema(schema, fileSchema);
+        }
+        for (Map.Entry<Path, TypeDescription> entry : fileSchemas.entrySet()) {
+            if (!entry.getValue().equals(schema)) {
+                LOG.info("Rewrite ORC file " + entry.getKey() + " from " + entry.getValue() + " to " + schema);
+                rewriteOrcFile(conf, fs, entry.getKey(), schema);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * 按照字段名称合并两个struct，字段的顺序以第一次出现的顺序为准.
+     */
+    static TypeDescription unionSchema(TypeDescription left, TypeDescription right) {
+        TypeDescription union = TypeDescription.createStruct();
+        List<String> rightNames = right.getFieldNames();
+        for (int i = 0; i < left.getFieldNames().size(); i++) {
+            String name = left.getFieldNames().get(i);
+            TypeDescription type = left.getChildren().get(i);
+            int j = rightNames.indexOf(name);
+            union.addField(name, j < 0 ? type.clone() : widen(type, right.getChildren().get(j)));
+        }
+        for (int j = 0; j < rightNames.size(); j++) {
+            if (!left.getFieldNames().contains(rightNames.get(j))) {
+                union.addField(rightNames.get(j), right.getChildren().get(j).clone());
+            }
+        }
+        return union;
+    }
+
+    /**
+     * 能同时容纳两个类型的值的类型：整数和浮点数合并成DOUBLE，其他不一致的类型合并成STRING.
+     */
+    static TypeDescription widen(TypeDescription left, TypeDescription right) {
+        if (left.equals(right)) {
+            return left.clone();
+        }
+        if (isNumeric(left) && isNumeric(right)) {
+            if (isIntegral(left) && isIntegral(right)) {
+                return TypeDescription.createLong();
+            }
+            return TypeDescription.createDouble();
+        }
+        return TypeDescription.createString();
+    }
+
+    private static boolean isNumeric(TypeDescription type) {
+        return isIntegral(type) || type.getCategory() == TypeDescription.Category.FLOAT || type.getCategory() == TypeDescription.Category.DOUBLE;
+    }
+
+    private static boolean isIntegral(TypeDescription type) {
+        switch (type.getCategory()) {
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 使用ORC的Schema转换读取文件，写入临时文件以后替换原来的文件.
+     */
+    private void rewriteOrcFile(Configuration conf, FileSystem fs, Path file, TypeDescription schema) throws IOException {
+        Path tmp = new Path(file.getParent(), "." + file.getName() + ".rewrite");
+        fs.delete(tmp, false);
+        Reader reader = OrcFile.createReader(file, OrcFile.readerOptions(conf).filesystem(fs));
+        Writer writer = OrcFile.createWriter(tmp, OrcFile.writerOptions(conf).fileSystem(fs).setSchema(schema));
+        try (RecordReader rows = reader.rows(reader.options().schema(schema))) {
+            VectorizedRowBatch batch = schema.createRowBatch();
+            while (rows.nextBatch(batch)) {
+                writer.addRowBatch(batch);
+            }
+        } finally {
+            writer.close();
+        }
+        if (!fs.delete(file, false) || !fs.rename(tmp, file)) {
+            throw new IOException("Replace ORC file " + file + " with " + tmp + " failed.");
+        }
+    }
+
+    /**
+     * @return 访问Hive数据目录使用的Hadoop配置
+     */
+    protected Configuration getConf() {
+        return new Configuration();
+    }
+
     public DataInputJobConfiguration getEtlJobConfiguration() {
         return this.etlJobConfiguration;
     }
@@ -174,6 +399,11 @@ public abstract class OutputHiveSchemaTransfer {
          */
         BIGINT,
 
+        /**
+         * 双精度浮点型
+         */
+        DOUBLE,
+
         /**
          * 高精度
          */
@@ -4,18 +4,22 @@ import com.aiplus.bi.etl.IdGenerator;
 import com.aiplus.bi.etl.input.DataInputJobConfiguration;
 import com.aiplus.bi.etl.input.DataInputs;
 import com.aiplus.bi.etl.input.MapReduceJob;
+import com.aiplus.bi.etl.input.OrcFileOutputFormat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.orc.mapred.OrcStruct;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -54,7 +58,8 @@ public class DruidDataInputJob extends MapReduceJob implements DruidInputConfigu
 
     @Override
     protected void configureHadoopJob(Job job) throws Exception {
-        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        boolean orcFormat = getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
+        LazyOutputFormat.setOutputFormatClass(job, orcFormat ? OrcFileOutputFormat.class : TextOutputFormat.class);
 
         job.setJarByClass(DruidDataMapper.class);
         job.setInputFormatClass(SegmentInputFormat.class);
@@ -62,7 +67,7 @@ public class DruidDataInputJob extends MapReduceJob implements DruidInputConfigu
         job.setMapOutputKeyClass(Text.class);
         job.setMapOutputValueClass(EventWritable.class);
         job.setOutputKeyClass(NullWritable.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputValueClass(orcFormat ? OrcStruct.class : Text.class);
         job.setNumReduceTasks(0);
     }
 
@@ -71,30 +76,66 @@ public class DruidDataInputJob extends MapReduceJob implements DruidInputConfigu
         // 判断是否需要新建Hive表
         if (getJobConfiguration().getOutput().getType() == DataInputs.Type.HIVE) {
             // 针对Hive的输出单独进行处理
-            new DruidOutputHiveSchemaTransfer(getJobConfiguration(), getJobId(), strExportDate).output();
+            new DruidOutputHiveSchemaTransfer(getJobConfiguration(), getJobId(), strExportDate, getConf()).output();
         }
     }
 
-    public static class DruidDataMapper extends Mapper<LongWritable, EventWritable, NullWritable, Text> {
+    public static class DruidDataMapper extends Mapper<LongWritable, EventWritable, NullWritable, Writable> {
 
         private static final String COUNTER_GROUP_DATASOURCE = "Druid DataSource";
 
-        private MultipleOutputs<NullWritable, Text> mos;
+        private MultipleOutputs<NullWritable, Writable> mos;
+
+        private boolean orcFormat;
+
+        /**
+         * 同一个小时的数据使用相同的计数器和输出路径，Segment中的数据是按照时间排序的，所以只需要缓存最近的一个小时.
+         */
+        private String cachedDataSource;
+
+        private long cachedLocalHour = Long.MIN_VALUE;
+
+        private int cachedOrcSchemaId;
+
+        private Counter hourCounter;
+
+        private Counter totalCounter;
+
+        private String outputPath;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
             super.setup(context);
             mos = new MultipleOutputs(context);
+            orcFormat = new DataInputs(context.getConfiguration()).getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
         }
 
         @Override
         protected void map(LongWritable key, EventWritable value, Context context) throws IOException, InterruptedException {
-            String yyyyMMdd = value.getYear() + "-" + value.getMonth() + "-" + value.getDay();
-            String yyyyMMddHr = yyyyMMdd + "-" + value.getHour() + "hr";
-            String yyyyMMddTotal = yyyyMMdd + "-total";
-            context.getCounter(COUNTER_GROUP_DATASOURCE + " " + value.getDataSource(), yyyyMMddHr).increment(1);
-            context.getCounter(COUNTER_GROUP_DATASOURCE + " " + value.getDataSource(), yyyyMMddTotal).increment(1);
-            mos.write(NullWritable.get(), new Text(value.getDataText()), value.getDataSource() + "/" + yyyyMMddHr);
+            if (value.getLocalHour() != cachedLocalHour || !value.getDataSource().equals(cachedDataSource)
+                    || (orcFormat && value.getOrcSchemaId() != cachedOrcSchemaId)) {
+                String yyyyMMdd = value.getYear() + "-" + value.getMonth() + "-" + value.getDay();
+                String yyyyMMddHr = yyyyMMdd + "-" + value.getHour() + "hr";
+                String yyyyMMddTotal = yyyyMMdd + "-total";
+                String counterGroup = COUNTER_GROUP_DATASOURCE + " " + value.getDataSource();
+                hourCounter = context.getCounter(counterGroup, yyyyMMddHr);
+                totalCounter = context.getCounter(counterGroup, yyyyMMddTotal);
+                outputPath = value.getDataSource() + "/" + yyyyMMddHr;
+                if (orcFormat && value.getOrcSchemaId() > 0) {
+                    // 一个ORC文件只能有一个Schema，指标类型不同的Segment写入单独的文件，建表的时候合并
+                    outputPath = outputPath + "-s" + value.getOrcSchemaId();
+                }
+                cachedDataSource = value.getDataSource();
+                cachedOrcSchemaId = value.getOrcSchemaId();
+                cachedLocalHour = value.getLocalHour();
+            }
+            hourCounter.increment(1);
+            totalCounter.increment(1);
+            if (orcFormat) {
+                mos.write(NullWritable.get(), value.getOrcStruct(), outputPath);
+            } else {
+                mos.write(NullWritable.get(), value.getData(), outputPath);
+            }
         }
 
         @Override
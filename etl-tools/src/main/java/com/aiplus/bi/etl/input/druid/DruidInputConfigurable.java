@@ -9,4 +9,46 @@ public interface DruidInputConfigurable extends HadoopToolConfigurable {
     String DRUID_JOB_ARGS_EXPORT_DATASOURCE = "etl.job.druid.args.export.datasource";
 
     String DRUID_JOB_ARGS_EXPORT_DATE = "etl.job.druid.args.export.date";
+
+    /**
+     * Segment的读取模式：cursor（流式读取，默认）, select（使用SelectQuery一次性读取整个Segment）.
+     */
+    String DRUID_READER_MODE = "etl.job.druid.reader.mode";
+
+    String DRUID_READER_MODE_CURSOR = "cursor";
+
+    String DRUID_READER_MODE_SELECT = "select";
+
+    /**
+     * 单个Map Task中同时下载Segment的线程数.
+     */
+    String DRUID_FETCH_THREADS = "etl.job.druid.fetch.threads";
+
+    int DEFAULT_DRUID_FETCH_THREADS = 3;
+
+    /**
+     * 节点本地Segment缓存的目录，不配置则不使用缓存，每个Map Task都会重新下载Segment.
+     */
+    String DRUID_CACHE_DIR = "etl.job.druid.cache.dir";
+
+    /**
+     * 节点本地Segment缓存的磁盘预算（字节）.
+     */
+    String DRUID_CACHE_MAX_BYTES = "etl.job.druid.cache.max.bytes";
+
+    long DEFAULT_DRUID_CACHE_MAX_BYTES = 50L * 1024 * 1024 * 1024;
+
+    /**
+     * 每个分片的目标字节数：大于这个大小的时间段按照Shard拆分，大于这个大小的Shard再按照时间拆分，小于这个大小的时间段合并到一个分片中.
+     */
+    String DRUID_SPLIT_TARGET_BYTES = "etl.job.druid.split.target.bytes";
+
+    long DEFAULT_DRUID_SPLIT_TARGET_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * 单个Shard按照时间最多拆分成多少个分片，每个分片都要加载整个Segment，拆分太多会浪费内存和反序列化的时间.
+     */
+    String DRUID_SPLIT_MAX_TIME_PIECES = "etl.job.druid.split.max.time.pieces";
+
+    int DEFAULT_DRUID_SPLIT_MAX_TIME_PIECES = 8;
 }
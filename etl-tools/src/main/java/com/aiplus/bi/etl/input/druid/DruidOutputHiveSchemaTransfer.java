@@ -1,9 +1,15 @@
 package com.aiplus.bi.etl.input.druid;
 
 import com.aiplus.bi.etl.input.DataInputJobConfiguration;
+import com.aiplus.bi.etl.input.HiveTableSchema;
 import com.aiplus.bi.etl.input.OutputHiveSchemaTransfer;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.orc.TypeDescription;
 
 import java.io.IOException;
 import java.sql.Connection;
@@ -11,7 +17,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author dev
@@ -24,11 +32,27 @@ public class DruidOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
             "ORDER BY UNIX_TIMESTAMP(`start`) DESC, id DESC " +
             "LIMIT 1";
 
+    private static final Log LOG = LogFactory.getLog(DruidOutputHiveSchemaTransfer.class);
+
+    /**
+     * 文本格式的时间列，在维度和指标的前面.
+     */
+    private static final String[][] TEXT_TIME_COLUMNS = {{"druid_timestamp", "bigint"}, {"druid_year", "int"}, {"druid_month", "int"},
+            {"druid_day", "int"}, {"druid_hour", "int"}, {"druid_minute", "int"}, {"data_utc_timestamp", "string"}};
+
     private String strExportDate;
 
-    public DruidOutputHiveSchemaTransfer(DataInputJobConfiguration etlJobConfiguration, String etlJobId, String strExportDate) {
+    private Configuration conf;
+
+    public DruidOutputHiveSchemaTransfer(DataInputJobConfiguration etlJobConfiguration, String etlJobId, String strExportDate, Configuration conf) {
         super(etlJobConfiguration, etlJobId);
         this.strExportDate = strExportDate;
+        this.conf = conf;
+    }
+
+    @Override
+    protected Configuration getConf() {
+        return conf;
     }
 
     @Override
@@ -40,7 +64,7 @@ public class DruidOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
         }
         String externalPath = getEtlJobConfiguration().getOutput().getHiveExternalPath();
         for (DataInputJobConfiguration.TableMapper tableMapper : getEtlJobConfiguration().getMappers()) {
-            String ddl = generateDruidHiveSchema(tableMapper.getSourceTable(), tableMapper.getTargetTable(), hiveSchema, externalPath);
+            String ddl = generateDruidHiveSchema(tableMapper.getSourceTable(), tableMapper.getTargetTable(), tableMapper.getColumns(), hiveSchema, externalPath);
             if (null != ddl) {
                 hiveCreateSchemaDDLs.add(ddl);
             }
@@ -48,7 +72,7 @@ public class DruidOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
         return hiveCreateSchemaDDLs;
     }
 
-    private String generateDruidHiveSchema(String dataSource, String targetTableName, String hiveSchema, String externalPath) throws IOException {
+    private String generateDruidHiveSchema(String dataSource, String targetTableName, String[] columns, String hiveSchema, String externalPath) throws IOException {
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -64,8 +88,9 @@ public class DruidOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
             if (rs.next()) {
                 String strPayLoad = rs.getString("payload");
                 JsonObject json = gsonBuilder.create().fromJson(strPayLoad, JsonObject.class);
-                dimensions = json.get("dimensions").getAsString();
-                metrics = json.get("metrics").getAsString();
+                // 和SegmentInputFormat使用相同的列投影，保证表结构和导出的数据一致
+                dimensions = SegmentInputFormat.projectColumns(json.get("dimensions").getAsString(), columns);
+                metrics = SegmentInputFormat.projectColumns(json.get("metrics").getAsString(), columns);
             }
         } catch (SQLException e) {
             throw new IOException(e);
@@ -92,29 +117,68 @@ public class DruidOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
         if (null == dimensions || null == metrics) {
             return null;
         }
-        String[] dimensionArray = dimensions.split(",");
-        String[] metricArray = metrics.split(",");
-        StringBuilder ddl = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
-                .append(hiveSchema).append(".`").append(targetTableName)
-                .append("` (druid_timestamp bigint, druid_year int, druid_month int, druid_day int, druid_hour int, druid_minute int, data_utc_timestamp string, ");
-        for (String aDimensionArray : dimensionArray) {
-            ddl.append("`").append(aDimensionArray).append("` string, ");
+        String table = hiveSchema + ".`" + targetTableName + "`";
+        String dataPath = externalPath + "/" + getEtlJobId() + "/" + dataSource;
+        // 本次数据文件的列和类型
+        Map<String, String> columnTypes = new LinkedHashMap<>();
+        if (isOrcFormat()) {
+            // ORC文件中指标的类型是从Segment中读取的，不同的文件的类型有可能不同，合并所有数据文件的Schema
+            TypeDescription schema = unifyOrcSchema(conf, new Path(dataPath));
+            if (null == schema) {
+                return null;
+            }
+            List<String> fieldNames = schema.getFieldNames();
+            for (int i = 0; i < fieldNames.size(); i++) {
+                columnTypes.put(fieldNames.get(i), schema.getChildren().get(i).toString());
+            }
+        } else {
+            for (String[] timeColumn : TEXT_TIME_COLUMNS) {
+                columnTypes.put(timeColumn[0], timeColumn[1]);
+            }
+            for (String dimension : SegmentInputFormat.splitColumns(dimensions)) {
+                columnTypes.put(dimension, "string");
+            }
+            for (String metric : SegmentInputFormat.splitColumns(metrics)) {
+                columnTypes.put(metric, "bigint");
+            }
         }
-        for (int i = 0; i < metricArray.length; i++) {
-            ddl.append("`").append(metricArray[i]).append("` bigint");
-            if (i != metricArray.length - 1) {
-                ddl.append(", ");
+        String columnDefinitions = toColumnDefinitions(columnTypes);
+        String partition = "PARTITION(druid_date=\"" + strExportDate + "\")";
+        StringBuilder ddl = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (").append(columnDefinitions)
+                .append(") PARTITIONED BY(druid_date string)").append(getStoredAs()).append(";");
+        // 已经存在的表可能是以前用另一种格式创建的，或者指标的类型、列和本次数据不一样：缺少的列和类型不够的列先修改表结构
+        HiveTableSchema existing = describeHiveTable(table);
+        if (null != existing) {
+            if (existing.isOrc() != isOrcFormat()) {
+                LOG.warn("Hive table " + table + " is stored as " + (existing.isOrc() ? "ORC" : "TEXT") + ", partition " + strExportDate
+                        + " will be stored as " + (isOrcFormat() ? "ORC" : "TEXT") + ".");
+            }
+            for (String alter : existing.alterStatements(table, columnTypes)) {
+                ddl.append(alter);
             }
         }
-        ddl.append(") PARTITIONED BY(druid_date string);");
         // 先尝试把之前的数据清理掉
-        ddl.append("ALTER TABLE ").append(hiveSchema).append(".`").append(targetTableName).append("` ")
-                .append("DROP IF EXISTS PARTITION(druid_date=\"").append(strExportDate).append("\");");
+        ddl.append("ALTER TABLE ").append(table).append(" DROP IF EXISTS ").append(partition).append(";");
+        // 分区的格式和列按照本次的数据文件设置，不依赖表的格式和列，同一张表中不同格式的分区都可以读取
+        ddl.append("ALTER TABLE ").append(table).append(" ADD ").append(partition).append(";");
+        ddl.append("ALTER TABLE ").append(table).append(" ").append(partition).append(" SET FILEFORMAT ")
+                .append(isOrcFormat() ? "ORC" : "TEXTFILE").append(";");
+        ddl.append("ALTER TABLE ").append(table).append(" ").append(partition).append(" REPLACE COLUMNS (").append(columnDefinitions).append(");");
         // 数据加载到分区
-        ddl.append("LOAD DATA INPATH \"").append(externalPath).append("/").append(getEtlJobId()).append("/").append(dataSource).append("\" ")
-                .append("INTO TABLE ").append(hiveSchema).append(".`").append(targetTableName).append("` ")
-                .append("PARTITION(druid_date=\"").append(strExportDate).append("\");");
+        ddl.append("LOAD DATA INPATH \"").append(dataPath).append("\" ")
+                .append("INTO TABLE ").append(table).append(" ").append(partition).append(";");
         ddl.trimToSize();
         return ddl.toString();
     }
+
+    private static String toColumnDefinitions(Map<String, String> columnTypes) {
+        StringBuilder definitions = new StringBuilder();
+        for (Map.Entry<String, String> column : columnTypes.entrySet()) {
+            if (definitions.length() > 0) {
+                definitions.append(", ");
+            }
+            definitions.append("`").append(column.getKey()).append("` ").append(column.getValue());
+        }
+        return definitions.toString();
+    }
 }
@@ -0,0 +1,176 @@
+package com.aiplus.bi.etl.input.druid;
+
+import io.druid.segment.column.ValueType;
+import org.apache.hadoop.io.*;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.mapred.OrcStruct;
+
+import java.util.Map;
+
+/**
+ * 把Druid的行数据转换成ORC的行.
+ * <p>
+ * 列的顺序和文本格式保持一致：druid_timestamp, druid_year, druid_month, druid_day, druid_hour, druid_minute,
+ * data_utc_timestamp, 维度, 指标. 维度都是字符串，LONG/FLOAT/DOUBLE类型的指标保留原始的类型，其他类型的指标转换成字符串.
+ * 指标的类型取自正在读取的Segment（FLOAT统一成DOUBLE），读取之前不需要等待后面的Segment下载完成.
+ * 同一个Map Task中指标类型不同的Segment使用不同的转换器，写入不同的文件（见{@link #getSchemaId()}），所有文件的Schema在建表的时候合并.
+ *
+ * @author dev
+ */
+public class EventOrcConverter {
+
+    private static final String[] TIME_FIELDS = {
+            "druid_timestamp", "druid_year", "druid_month", "druid_day", "druid_hour", "druid_minute", "data_utc_timestamp"
+    };
+
+    private final String[] columns;
+
+    private final TypeDescription schema;
+
+    private final TypeDescription.Category[] categories;
+
+    private final WritableComparable[] writables;
+
+    private final OrcStruct struct;
+
+    private final int schemaId;
+
+    public EventOrcConverter(String[] dimensions, String[] metrics, ValueType[] metricTypes) {
+        this(dimensions, metrics, metricTypes, 0);
+    }
+
+    /**
+     * @param schemaId 同一个Map Task中Schema的编号，不同编号的行写入不同的文件
+     */
+    public EventOrcConverter(String[] dimensions, String[] metrics, ValueType[] metricTypes, int schemaId) {
+        this.schemaId = schemaId;
+        this.columns = new String[dimensions.length + metrics.length];
+        this.schema = TypeDescription.createStruct()
+                .addField(TIME_FIELDS[0], TypeDescription.createLong())
+                .addField(TIME_FIELDS[1], TypeDescription.createInt())
+                .addField(TIME_FIELDS[2], TypeDescription.createInt())
+                .addField(TIME_FIELDS[3], TypeDescription.createInt())
+                .addField(TIME_FIELDS[4], TypeDescription.createInt())
+                .addField(TIME_FIELDS[5], TypeDescription.createInt())
+                .addField(TIME_FIELDS[6], TypeDescription.createString());
+        int i = 0;
+        for (String dimension : dimensions) {
+            columns[i++] = dimension;
+            schema.addField(dimension.toLowerCase(), TypeDescription.createString());
+        }
+        for (int j = 0; j < metrics.length; j++) {
+            columns[i++] = metrics[j];
+            schema.addField(metrics[j].toLowerCase(), toOrcType(metricTypes[j]));
+        }
+        this.struct = new OrcStruct(schema);
+        int fieldNum = schema.getChildren().size();
+        this.categories = new TypeDescription.Category[fieldNum];
+        this.writables = new WritableComparable[fieldNum];
+        for (int j = 0; j < fieldNum; j++) {
+            TypeDescription type = schema.getChildren().get(j);
+            categories[j] = type.getCategory();
+            writables[j] = OrcStruct.createValue(type);
+        }
+    }
+
+    /**
+     * 写入ORC文件的指标类型：FLOAT统一成DOUBLE，LONG和DOUBLE保留，其他类型写成字符串.
+     *
+     * @param valueType Segment中指标的类型，null表示Segment中没有这个指标
+     * @return 写入的类型，Segment中没有这个指标的时候返回null
+     */
+    public static ValueType toOutputType(ValueType valueType) {
+        if (null == valueType) {
+            return null;
+        }
+        switch (valueType) {
+            case LONG:
+            case DOUBLE:
+                return valueType;
+            case FLOAT:
+                return ValueType.DOUBLE;
+            default:
+                return ValueType.STRING;
+        }
+    }
+
+    private static TypeDescription toOrcType(ValueType valueType) {
+        if (null == valueType) {
+            return TypeDescription.createString();
+        }
+        switch (valueType) {
+            case LONG:
+                return TypeDescription.createLong();
+            case FLOAT:
+                return TypeDescription.createFloat();
+            case DOUBLE:
+                return TypeDescription.createDouble();
+            default:
+                return TypeDescription.createString();
+        }
+    }
+
+    /**
+     * 转换一行数据.
+     *
+     * @param value 时间信息已经读取完成的行
+     * @param event 行数据
+     * @return ORC的行，每次调用都返回同一个对象
+     */
+    public OrcStruct convert(EventWritable value, Map<String, Object> event) {
+        ((LongWritable) writables[0]).set(value.getTimestamp());
+        ((IntWritable) writables[1]).set(value.getYear());
+        ((IntWritable) writables[2]).set(value.getMonth());
+        ((IntWritable) writables[3]).set(value.getDay());
+        ((IntWritable) writables[4]).set(value.getHour());
+        ((IntWritable) writables[5]).set(value.getMinute());
+        for (int i = 0; i < 6; i++) {
+            struct.setFieldValue(i, writables[i]);
+        }
+        value.writeUtcTimestamp((Text) writables[6]);
+        struct.setFieldValue(6, writables[6]);
+        for (int i = 0; i < columns.length; i++) {
+            int fieldIndex = i + TIME_FIELDS.length;
+            struct.setFieldValue(fieldIndex, toWritable(fieldIndex, event.get(columns[i])));
+        }
+        return struct;
+    }
+
+    private WritableComparable toWritable(int fieldIndex, Object val) {
+        if (null == val) {
+            return null;
+        }
+        WritableComparable writable = writables[fieldIndex];
+        switch (categories[fieldIndex]) {
+            case LONG:
+                if (!(val instanceof Number)) {
+                    return null;
+                }
+                ((LongWritable) writable).set(((Number) val).longValue());
+                return writable;
+            case FLOAT:
+                if (!(val instanceof Number)) {
+                    return null;
+                }
+                ((FloatWritable) writable).set(((Number) val).floatValue());
+                return writable;
+            case DOUBLE:
+                if (!(val instanceof Number)) {
+                    return null;
+                }
+                ((DoubleWritable) writable).set(((Number) val).doubleValue());
+                return writable;
+            default:
+                ((Text) writable).set(val.toString());
+                return writable;
+        }
+    }
+
+    public TypeDescription getSchema() {
+        return schema;
+    }
+
+    public int getSchemaId() {
+        return schemaId;
+    }
+}
@@ -1,19 +1,41 @@
 package com.aiplus.bi.etl.input.druid;
 
+import io.druid.query.select.EventHolder;
+import org.apache.hadoop.io.Text;
+import org.apache.orc.mapred.OrcStruct;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 
 import java.util.Map;
 import java.util.TimeZone;
 
 /**
+ * Druid的一行数据.
+ * <p>
+ * 这个对象在RecordReader中复用，读取每一行数据的时候不会创建新的对象：时间字段直接从毫秒数计算（东八区是固定的时区偏移，
+ * 日期只在跨天的时候重新计算），文本格式的数据直接编码到可以复用的UTF-8字节缓冲区中，再交给复用的{@link Text}.
+ *
  * @author dev
  */
 public class EventWritable {
 
-    private static final String COLUMN_SPLIT = "\001";
+    private static final byte COLUMN_SPLIT = '\001';
 
-    private static final String HIVE_NULL_VALUE = "\\N";
+    private static final byte[] HIVE_NULL_VALUE = {'\\', 'N'};
+
+    /**
+     * 东八区的时区偏移，固定偏移的时区没有夏令时，所以可以缓存下来.
+     */
+    private static final long ZONE_OFFSET_MILLIS = TimeZone.getTimeZone("GMT+8").getRawOffset();
+
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    private static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+
+    private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+
+    private static final int UTC_TIMESTAMP_LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
 
     private long timestamp;
 
@@ -27,44 +49,252 @@ public class EventWritable {
 
     private int minute;
 
-    private String dataText;
+    /**
+     * 东八区的小时编号（从1970-01-01 00:00开始的小时数），用来判断两行数据是否属于同一个小时.
+     */
+    private long localHour;
+
+    private final Text data = new Text();
+
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+    private int length;
+
+    private final byte[] utcTimestampBytes = new byte[UTC_TIMESTAMP_LENGTH];
+
+    private final int[] civilDate = new int[3];
+
+    private long cachedLocalDay = Long.MIN_VALUE;
+
+    private long cachedUtcDay = Long.MIN_VALUE;
+
+    private int utcYear;
+
+    private int utcMonth;
+
+    private int utcDay;
 
     private String dataSource;
 
     private String interval;
 
+    private OrcStruct orcStruct;
+
+    private int orcSchemaId;
+
     public void readFields(String dataSource, String interval, DateTime dts, Map<String, Object> dataMap) {
+        readFields(dataSource, interval, dts.getMillis(), dataMap);
+    }
+
+    /**
+     * 按照文本格式读取一行数据，字段之间使用\001分隔.
+     *
+     * @param dataSource 数据源
+     * @param interval   Segment的时间段
+     * @param timestamp  数据的时间（毫秒）
+     * @param dataMap    行数据，timestamp字段的值直接使用timestamp参数格式化成UTC时间
+     */
+    public void readFields(String dataSource, String interval, long timestamp, Map<String, Object> dataMap) {
+        readTime(dataSource, interval, timestamp);
+        // 组装真实数据
+        length = 0;
+        appendLong(timestamp);
+        appendByte(COLUMN_SPLIT);
+        appendLong(year);
+        appendByte(COLUMN_SPLIT);
+        appendLong(month);
+        appendByte(COLUMN_SPLIT);
+        appendLong(day);
+        appendByte(COLUMN_SPLIT);
+        appendLong(hour);
+        appendByte(COLUMN_SPLIT);
+        appendLong(minute);
+        appendByte(COLUMN_SPLIT);
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : dataMap.entrySet()) {
+            if (!first) {
+                appendByte(COLUMN_SPLIT);
+            }
+            first = false;
+            if (EventHolder.timestampKey.equals(entry.getKey())) {
+                formatUtcTimestamp();
+                appendBytes(utcTimestampBytes, UTC_TIMESTAMP_LENGTH);
+            } else {
+                appendValue(entry.getValue());
+            }
+        }
+        data.set(buffer, 0, length);
+    }
+
+    /**
+     * 按照ORC格式读取一行数据，指标保留原始的类型.
+     */
+    public void readOrcFields(String dataSource, String interval, long timestamp, Map<String, Object> dataMap, EventOrcConverter converter) {
+        readTime(dataSource, interval, timestamp);
+        orcStruct = converter.convert(this, dataMap);
+        orcSchemaId = converter.getSchemaId();
+    }
+
+    /**
+     * 把当前行的时间按照UTC的ISO格式（和DateTime.toString()一致）写入到指定的Text中.
+     */
+    public void writeUtcTimestamp(Text text) {
+        formatUtcTimestamp();
+        text.set(utcTimestampBytes, 0, UTC_TIMESTAMP_LENGTH);
+    }
+
+    private void readTime(String dataSource, String interval, long timestamp) {
         this.dataSource = dataSource;
         this.interval = interval;
-        timestamp = dts.getMillis();
+        this.timestamp = timestamp;
         // 时区转换，转换成东八区
-        DateTime dateTime = dts.toDateTime(DateTimeZone.forTimeZone(TimeZone.getTimeZone("GMT+8")));
-        year = dateTime.getYear();
-        month = dateTime.getMonthOfYear();
-        day = dateTime.getDayOfMonth();
-        hour = dateTime.getHourOfDay();
-        minute = dateTime.getMinuteOfHour();
-        // 组装真实数据
-        StringBuilder sb = new StringBuilder();
-        sb.append(timestamp).append(COLUMN_SPLIT)
-                .append(year).append(COLUMN_SPLIT)
-                .append(month).append(COLUMN_SPLIT)
-                .append(day).append(COLUMN_SPLIT)
-                .append(hour).append(COLUMN_SPLIT)
-                .append(minute).append(COLUMN_SPLIT);
-        int size = dataMap.size();
-        int i = 0;
-        for (Map.Entry<String, Object> entry : dataMap.entrySet()) {
-            Object val = entry.getValue();
-            String strVal = null == val ? HIVE_NULL_VALUE : val.toString();
-            sb.append(strVal);
-            if (i == (size - 1)) {
-                break;
+        long localMillis = timestamp + ZONE_OFFSET_MILLIS;
+        long localDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        long millisOfDay = localMillis - localDay * MILLIS_PER_DAY;
+        if (localDay != cachedLocalDay) {
+            civilFromDays(localDay, civilDate);
+            year = civilDate[0];
+            month = civilDate[1];
+            day = civilDate[2];
+            cachedLocalDay = localDay;
+        }
+        hour = (int) (millisOfDay / MILLIS_PER_HOUR);
+        minute = (int) ((millisOfDay % MILLIS_PER_HOUR) / MILLIS_PER_MINUTE);
+        localHour = localDay * 24 + hour;
+    }
+
+    private void formatUtcTimestamp() {
+        long epochDay = Math.floorDiv(timestamp, MILLIS_PER_DAY);
+        long millisOfDay = timestamp - epochDay * MILLIS_PER_DAY;
+        if (epochDay != cachedUtcDay) {
+            civilFromDays(epochDay, civilDate);
+            utcYear = civilDate[0];
+            utcMonth = civilDate[1];
+            utcDay = civilDate[2];
+            cachedUtcDay = epochDay;
+        }
+        byte[] b = utcTimestampBytes;
+        writeDigits(b, 0, utcYear, 4);
+        b[4] = '-';
+        writeDigits(b, 5, utcMonth, 2);
+        b[7] = '-';
+        writeDigits(b, 8, utcDay, 2);
+        b[10] = 'T';
+        writeDigits(b, 11, (int) (millisOfDay / MILLIS_PER_HOUR), 2);
+        b[13] = ':';
+        writeDigits(b, 14, (int) ((millisOfDay % MILLIS_PER_HOUR) / MILLIS_PER_MINUTE), 2);
+        b[16] = ':';
+        writeDigits(b, 17, (int) ((millisOfDay % MILLIS_PER_MINUTE) / 1000L), 2);
+        b[19] = '.';
+        writeDigits(b, 20, (int) (millisOfDay % 1000L), 3);
+        b[23] = 'Z';
+    }
+
+    private static void writeDigits(byte[] b, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            b[i] = (byte) ('0' + value % 10);
+            value = value / 10;
+        }
+    }
+
+    /**
+     * 从1970-01-01开始的天数计算公历的年月日.
+     */
+    private static void civilFromDays(long days, int[] civil) {
+        long z = days + 719468L;
+        long era = (z >= 0 ? z : z - 146096L) / 146097L;
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        long mp = (5L * doy + 2L) / 153L;
+        long d = doy - (153L * mp + 2L) / 5L + 1L;
+        long m = mp < 10L ? mp + 3L : mp - 9L;
+        long y = yoe + era * 400L + (m <= 2L ? 1L : 0L);
+        civil[0] = (int) y;
+        civil[1] = (int) m;
+        civil[2] = (int) d;
+    }
+
+    private void appendValue(Object val) {
+        if (null == val) {
+            appendBytes(HIVE_NULL_VALUE, HIVE_NULL_VALUE.length);
+        } else if (val instanceof String) {
+            appendUtf8((String) val);
+        } else if (val instanceof Long || val instanceof Integer) {
+            appendLong(((Number) val).longValue());
+        } else {
+            appendUtf8(val.toString());
+        }
+    }
+
+    private void appendUtf8(String s) {
+        int len = s.length();
+        ensureCapacity(len * 3);
+        byte[] b = buffer;
+        int pos = length;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[pos++] = (byte) (0xF0 | (cp >> 18));
+                b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符，和String.getBytes(UTF-8)一样替换成'?'
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
             }
-            sb.append(COLUMN_SPLIT);
-            i++;
         }
-        dataText = sb.toString();
+        length = pos;
+    }
+
+    private void appendLong(long value) {
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            appendUtf8(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10L; v = v / 10L) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10L);
+            value = value / 10L;
+        }
+        length = length + digits;
+    }
+
+    private void appendByte(byte b) {
+        ensureCapacity(1);
+        buffer[length++] = b;
+    }
+
+    private void appendBytes(byte[] bytes, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, 0, buffer, length, len);
+        length = length + len;
+    }
+
+    private void ensureCapacity(int required) {
+        if (length + required > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + required)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
     }
 
     public long getTimestamp() {
@@ -91,8 +321,30 @@ public class EventWritable {
         return minute;
     }
 
+    public long getLocalHour() {
+        return localHour;
+    }
+
+    /**
+     * @return 文本格式的数据，每一行都复用同一个对象
+     */
+    public Text getData() {
+        return data;
+    }
+
     public String getDataText() {
-        return dataText;
+        return data.toString();
+    }
+
+    public OrcStruct getOrcStruct() {
+        return orcStruct;
+    }
+
+    /**
+     * @return ORC行的Schema编号，编号不同的行需要写入不同的文件
+     */
+    public int getOrcSchemaId() {
+        return orcSchemaId;
     }
 
     public String getDataSource() {
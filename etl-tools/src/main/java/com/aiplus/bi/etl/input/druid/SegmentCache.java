@@ -0,0 +1,396 @@
+package com.aiplus.bi.etl.input.druid;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * 节点本地的Segment缓存.
+ * <p>
+ * 解压后的Segment按照druid_segments中payload的identifier存放在缓存目录下，同一个节点上的Map Task（包括重试、推测执行以及后续的Job）
+ * 可以共享同一份数据，不需要重复从HDFS/OSS下载. 缓存目录的结构如下：
+ * <pre>
+ * {cacheDir}/{identifier}/            解压后的Segment数据
+ * {cacheDir}/{identifier}.complete    完成标记，文件内容是Segment的字节数，修改时间是最后一次使用的时间
+ * {cacheDir}/{identifier}.lock        跨进程的文件锁：下载时持有排它锁，使用时持有共享锁
+ * {cacheDir}/.evict.lock              淘汰数据时持有的全局排它锁
+ * </pre>
+ * 当缓存的总大小超过配置的磁盘预算时，按照最后使用时间淘汰没有被使用的Segment（LRU），淘汰的时候同时删除lock文件.
+ * <p>
+ * 注意：POSIX的文件锁属于进程，关闭同一个文件的任何一个描述符都会释放这个进程在该文件上的所有锁. 所以每个lock文件在进程内只打开一个
+ * {@link FileChannel}，一直保留到Segment被淘汰；进程内的多个使用者通过引用计数共享同一个共享锁.
+ *
+ * @author dev
+ */
+public class SegmentCache {
+
+    private static final Log LOG = LogFactory.getLog(SegmentCache.class);
+
+    private static final String COMPLETE_SUFFIX = ".complete";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String EVICT_LOCK_FILE = ".evict.lock";
+
+    /**
+     * 文件锁只能在进程之间互斥，同一个进程内的多个线程需要额外的同步.
+     */
+    private static final Object EVICT_MONITOR = new Object();
+
+    /**
+     * 进程内所有的lock文件，key是lock文件的绝对路径. 其中{@link KeyLock}的计数和锁都在这个Map的监视器中修改.
+     */
+    private static final Map<String, KeyLock> KEY_LOCKS = new HashMap<>();
+
+    private final File cacheDir;
+
+    private final long maxBytes;
+
+    public SegmentCache(File cacheDir, long maxBytes) throws IOException {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        FileUtils.forceMkdir(cacheDir);
+    }
+
+    /**
+     * 获取一个Segment，如果缓存中没有，则调用loader下载到缓存中. 返回的句柄在关闭之前，该Segment不会被淘汰.
+     *
+     * @param segmentData Segment数据信息
+     * @param loader      下载并解压Segment到指定目录的加载器
+     * @return Segment句柄
+     * @throws IOException 下载或者加锁失败
+     */
+    public Handle acquire(SegmentInputSplit.SegmentData segmentData, Loader loader) throws IOException {
+        String key = segmentData.getDataId().replace(File.separatorChar, '_');
+        File segmentDir = new File(cacheDir, key);
+        File completeFile = new File(cacheDir, key + COMPLETE_SUFFIX);
+        KeyLock keyLock = pin(new File(cacheDir, key + LOCK_SUFFIX));
+        try {
+            // 同一个进程内同一个Segment只有一个线程加载，其他线程等待以后直接共享
+            synchronized (keyLock) {
+                while (true) {
+                    boolean shared;
+                    synchronized (KEY_LOCKS) {
+                        // 进程已经持有共享锁，其他进程不能淘汰，本进程淘汰的时候会跳过被pin的Segment
+                        shared = keyLock.holders > 0;
+                        if (shared) {
+                            keyLock.holders++;
+                        }
+                    }
+                    if (shared) {
+                        // 进程内共享的命中也要更新使用时间，否则释放以后会按照第一次获取的时间被提前淘汰
+                        touch(completeFile);
+                        return new Handle(segmentDir, keyLock);
+                    }
+                    FileChannel channel = keyLock.getChannel();
+                    // 排它锁：只有一个进程可以下载这个Segment，其他进程等待
+                    try (FileLock ignored = channel.lock(0L, Long.MAX_VALUE, false)) {
+                        if (!keyLock.isCurrent()) {
+                            // 等待的时候lock文件被其他进程淘汰删除了，重新打开新的lock文件
+                            continue;
+                        }
+                        if (completeFile.exists()) {
+                            LOG.info("Segment cache hit: " + key);
+                        } else {
+                            LOG.info("Segment cache miss: " + key);
+                            load(segmentData, loader, key, segmentDir, completeFile);
+                        }
+                        touch(completeFile);
+                    }
+                    // 降级为共享锁，在释放排它锁和获取共享锁之间有可能被淘汰，所以需要再检查一次
+                    FileLock sharedLock = channel.lock(0L, Long.MAX_VALUE, true);
+                    if (keyLock.isCurrent() && completeFile.exists()) {
+                        synchronized (KEY_LOCKS) {
+                            keyLock.sharedLock = sharedLock;
+                            keyLock.holders = 1;
+                        }
+                        return new Handle(segmentDir, keyLock);
+                    }
+                    sharedLock.release();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            unpin(keyLock);
+            throw e;
+        }
+    }
+
+    /**
+     * 更新完成标记的修改时间，淘汰的时候按照这个时间判断最后一次使用的时间.
+     */
+    private static void touch(File completeFile) {
+        if (!completeFile.setLastModified(System.currentTimeMillis())) {
+            LOG.warn("Touch segment cache file failed: " + completeFile.getAbsolutePath());
+        }
+    }
+
+    private void load(SegmentInputSplit.SegmentData segmentData, Loader loader, String key, File segmentDir, File completeFile) throws IOException {
+        // 先按照压缩包的大小腾出空间，解压以后的大小要等解压完成才知道
+        evict(segmentData.getDataSize());
+        File tempDir = new File(cacheDir, key + TEMP_SUFFIX);
+        FileUtils.deleteQuietly(tempDir);
+        FileUtils.deleteQuietly(segmentDir);
+        loader.load(segmentData, tempDir);
+        long size = FileUtils.sizeOfDirectory(tempDir);
+        // 按照解压以后的实际大小再淘汰一次
+        evict(size);
+        if (!tempDir.renameTo(segmentDir)) {
+            throw new IOException("Rename " + tempDir.getAbsolutePath() + " to " + segmentDir.getAbsolutePath() + " failed.");
+        }
+        Files.write(completeFile.toPath(), String.valueOf(size).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void evict(long requiredBytes) throws IOException {
+        synchronized (EVICT_MONITOR) {
+            doEvict(requiredBytes);
+        }
+    }
+
+    private void doEvict(long requiredBytes) throws IOException {
+        // 进程内只有持有EVICT_MONITOR的线程会打开这个文件，关闭的时候不会影响其他线程的锁
+        try (RandomAccessFile raf = new RandomAccessFile(new File(cacheDir, EVICT_LOCK_FILE), "rw");
+             FileLock ignored = raf.getChannel().lock()) {
+            deleteOrphanLocks();
+            File[] completeFiles = cacheDir.listFiles((dir, name) -> name.endsWith(COMPLETE_SUFFIX));
+            if (null == completeFiles) {
+                return;
+            }
+            long totalBytes = 0L;
+            List<File> candidates = new ArrayList<>(completeFiles.length);
+            for (File completeFile : completeFiles) {
+                totalBytes = totalBytes + readSize(completeFile);
+                candidates.add(completeFile);
+            }
+            if (totalBytes + requiredBytes <= maxBytes) {
+                return;
+            }
+            // 按照最后使用时间从旧到新淘汰
+            candidates.sort(Comparator.comparingLong(File::lastModified));
+            for (File completeFile : candidates) {
+                if (totalBytes + requiredBytes <= maxBytes) {
+                    break;
+                }
+                String key = completeFile.getName().substring(0, completeFile.getName().length() - COMPLETE_SUFFIX.length());
+                long size = readSize(completeFile);
+                if (tryDelete(key)) {
+                    totalBytes = totalBytes - size;
+                    LOG.info("Evicted segment cache: " + key + ", " + size + " bytes.");
+                }
+            }
+            if (totalBytes + requiredBytes > maxBytes) {
+                LOG.warn("Segment cache is over budget(" + maxBytes + " bytes), all cached segments are in use.");
+            }
+        }
+    }
+
+    /**
+     * 删除下载失败留下的lock文件（没有对应的完成标记）.
+     */
+    private void deleteOrphanLocks() throws IOException {
+        File[] lockFiles = cacheDir.listFiles((dir, name) -> name.endsWith(LOCK_SUFFIX) && !EVICT_LOCK_FILE.equals(name));
+        if (null == lockFiles) {
+            return;
+        }
+        for (File lockFile : lockFiles) {
+            String key = lockFile.getName().substring(0, lockFile.getName().length() - LOCK_SUFFIX.length());
+            if (!new File(cacheDir, key + COMPLETE_SUFFIX).exists() && tryDelete(key)) {
+                LOG.info("Deleted orphan segment cache lock: " + key);
+            }
+        }
+    }
+
+    /**
+     * 在没有任何进程使用的时候删除一个Segment，包括lock文件.
+     */
+    private boolean tryDelete(String key) throws IOException {
+        File lockFile = new File(cacheDir, key + LOCK_SUFFIX);
+        synchronized (KEY_LOCKS) {
+            KeyLock keyLock = KEY_LOCKS.get(lockFile.getAbsolutePath());
+            if (null != keyLock && keyLock.pins > 0) {
+                // 当前进程正在使用或者正在加载
+                return false;
+            }
+            if (null == keyLock) {
+                keyLock = new KeyLock(lockFile);
+            }
+            // 没有被pin的时候进程内没有其他线程持有这个文件的锁，tryLock不会抛出OverlappingFileLockException
+            FileLock lock = keyLock.getChannel().tryLock(0L, Long.MAX_VALUE, false);
+            if (null == lock) {
+                // 其他进程正在使用，保留lock文件的描述符，下次淘汰的时候复用
+                KEY_LOCKS.put(lockFile.getAbsolutePath(), keyLock);
+                return false;
+            }
+            try {
+                FileUtils.deleteQuietly(new File(cacheDir, key + COMPLETE_SUFFIX));
+                FileUtils.deleteQuietly(new File(cacheDir, key));
+                FileUtils.deleteQuietly(new File(cacheDir, key + TEMP_SUFFIX));
+                // 删除以后其他进程重新打开会创建新的lock文件，已经打开旧文件的进程加锁以后检查到文件已经变化会重新打开
+                FileUtils.deleteQuietly(lockFile);
+                return true;
+            } finally {
+                lock.release();
+                KEY_LOCKS.remove(lockFile.getAbsolutePath());
+                keyLock.close();
+            }
+        }
+    }
+
+    private long readSize(File completeFile) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(completeFile.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static KeyLock pin(File lockFile) throws IOException {
+        synchronized (KEY_LOCKS) {
+            KeyLock keyLock = KEY_LOCKS.get(lockFile.getAbsolutePath());
+            if (null == keyLock) {
+                keyLock = new KeyLock(lockFile);
+                KEY_LOCKS.put(lockFile.getAbsolutePath(), keyLock);
+            }
+            keyLock.pins++;
+            return keyLock;
+        }
+    }
+
+    private static void unpin(KeyLock keyLock) {
+        synchronized (KEY_LOCKS) {
+            keyLock.pins--;
+        }
+    }
+
+    /**
+     * Segment的加载器，负责把Segment下载并解压到指定的目录.
+     */
+    public interface Loader {
+        /**
+         * 下载并解压Segment.
+         *
+         * @param segmentData Segment数据信息
+         * @param targetDir   解压的目录
+         * @throws IOException 下载失败
+         */
+        void load(SegmentInputSplit.SegmentData segmentData, File targetDir) throws IOException;
+    }
+
+    /**
+     * 进程内一个lock文件的唯一描述符和共享锁.
+     */
+    private static class KeyLock {
+
+        private final File lockFile;
+
+        private FileChannel channel;
+
+        private Object fileKey;
+
+        /**
+         * 正在获取或者持有句柄的线程数，大于0的时候不允许淘汰.
+         */
+        private int pins;
+
+        /**
+         * 持有共享锁的句柄数，为0的时候释放共享锁.
+         */
+        private int holders;
+
+        private FileLock sharedLock;
+
+        KeyLock(File lockFile) throws IOException {
+            this.lockFile = lockFile;
+            open();
+        }
+
+        private void open() throws IOException {
+            this.channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.fileKey = readFileKey();
+        }
+
+        private Object readFileKey() throws IOException {
+            try {
+                return Files.readAttributes(lockFile.toPath(), BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        /**
+         * 获取当前的描述符，如果lock文件已经被其他进程删除或者替换，则重新打开. 只在没有持有锁的时候调用.
+         */
+        synchronized FileChannel getChannel() throws IOException {
+            if (!isCurrent()) {
+                channel.close();
+                open();
+            }
+            return channel;
+        }
+
+        /**
+         * 打开的描述符是否还是磁盘上的lock文件.
+         */
+        synchronized boolean isCurrent() throws IOException {
+            if (!lockFile.exists()) {
+                return false;
+            }
+            Object current = readFileKey();
+            return null == fileKey || fileKey.equals(current);
+        }
+
+        synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * 缓存Segment的句柄，持有共享锁，关闭以后才允许被淘汰.
+     */
+    public static class Handle implements Closeable {
+
+        private final File segmentDir;
+
+        private final KeyLock keyLock;
+
+        private boolean closed;
+
+        private Handle(File segmentDir, KeyLock keyLock) {
+            this.segmentDir = segmentDir;
+            this.keyLock = keyLock;
+        }
+
+        public File getSegmentDir() {
+            return segmentDir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (KEY_LOCKS) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                keyLock.holders--;
+                keyLock.pins--;
+                if (keyLock.holders == 0) {
+                    // 最后一个使用者释放共享锁，描述符保留到被淘汰
+                    FileLock lock = keyLock.sharedLock;
+                    keyLock.sharedLock = null;
+                    lock.release();
+                }
+            }
+        }
+    }
+}
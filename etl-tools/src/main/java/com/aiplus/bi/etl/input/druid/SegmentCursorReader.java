@@ -0,0 +1,173 @@
+package com.aiplus.bi.etl.input.druid;
+
+import io.druid.java.util.common.Intervals;
+import io.druid.java.util.common.granularity.Granularities;
+import io.druid.java.util.common.guava.Sequence;
+import io.druid.java.util.common.guava.Yielder;
+import io.druid.java.util.common.guava.Yielders;
+import io.druid.query.ColumnSelectorPlus;
+import io.druid.query.dimension.DefaultDimensionSpec;
+import io.druid.query.filter.Filter;
+import io.druid.query.select.EventHolder;
+import io.druid.query.select.SelectQueryEngine;
+import io.druid.segment.*;
+import io.druid.segment.column.Column;
+import io.druid.segment.column.ColumnCapabilities;
+import io.druid.segment.column.ValueType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于Cursor的Segment流式读取器.
+ * <p>
+ * 直接遍历{@link QueryableIndexStorageAdapter#makeCursors}返回的Cursor，每次只读取一行数据，
+ * 不会像SelectQuery那样把整个Segment的数据先放到内存里面，因此内存占用和Segment的大小无关.
+ * 过滤条件交给StorageAdapter处理，能使用Bitmap索引的部分在生成Cursor之前就过滤掉了，不需要先构造行数据再过滤.
+ *
+ * @author dev
+ */
+public class SegmentCursorReader implements Closeable {
+
+    private static final SelectQueryEngine.SelectStrategyFactory STRATEGY_FACTORY = new SelectQueryEngine.SelectStrategyFactory();
+
+    private final String[] dimensions;
+
+    private final String[] metrics;
+
+    /**
+     * 行数据，所有的行复用同一个Map，字段顺序和SelectQuery的EventHolder保持一致：timestamp, dimensions, metrics.
+     * 为了不在每一行都创建DateTime对象，timestamp字段的值始终为null，时间通过{@link #getTimestampMillis()}获取.
+     */
+    private final Map<String, Object> event;
+
+    private Yielder<Cursor> yielder;
+
+    private Cursor cursor;
+
+    private BaseLongColumnValueSelector timestampSelector;
+
+    private ColumnSelectorPlus<SelectQueryEngine.SelectColumnSelectorStrategy>[] dimensionSelectors;
+
+    private ColumnValueSelector[] metricSelectors;
+
+    private ValueType[] metricTypes;
+
+    private long timestamp;
+
+    public SegmentCursorReader(QueryableIndex index, String interval, String[] dimensions, String[] metrics) {
+        this(index, interval, dimensions, metrics, null);
+    }
+
+    public SegmentCursorReader(QueryableIndex index, String interval, String[] dimensions, String[] metrics, Filter filter) {
+        this.dimensions = dimensions;
+        this.metrics = metrics;
+        this.event = new LinkedHashMap<>(dimensions.length + metrics.length + 1, 1.0F);
+        this.event.put(EventHolder.timestampKey, null);
+        for (String dimension : dimensions) {
+            this.event.put(dimension, null);
+        }
+        for (String metric : metrics) {
+            this.event.put(metric, null);
+        }
+        StorageAdapter adapter = new QueryableIndexStorageAdapter(index);
+        Sequence<Cursor> cursors = adapter.makeCursors(
+                filter,
+                Intervals.of(interval),
+                VirtualColumns.EMPTY,
+                Granularities.ALL,
+                false,
+                null
+        );
+        this.yielder = Yielders.each(cursors);
+    }
+
+    /**
+     * 移动到下一行.
+     *
+     * @return 如果还有数据则返回True，否则返回False
+     */
+    public boolean next() {
+        while (true) {
+            if (null == cursor) {
+                if (yielder.isDone()) {
+                    return false;
+                }
+                cursor = yielder.get();
+                bindSelectors(cursor.getColumnSelectorFactory());
+            } else {
+                cursor.advance();
+            }
+            if (!cursor.isDone()) {
+                readRow();
+                return true;
+            }
+            // 当前Cursor读取完了，切换到下一个Cursor
+            cursor = null;
+            yielder = yielder.next(null);
+        }
+    }
+
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    public Map<String, Object> getEvent() {
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bindSelectors(ColumnSelectorFactory factory) {
+        timestampSelector = factory.makeColumnValueSelector(Column.TIME_COLUMN_NAME);
+        dimensionSelectors = DimensionHandlerUtils.createColumnSelectorPluses(
+                STRATEGY_FACTORY,
+                DefaultDimensionSpec.toSpec(dimensions),
+                factory
+        );
+        metricSelectors = new ColumnValueSelector[metrics.length];
+        metricTypes = new ValueType[metrics.length];
+        for (int i = 0; i < metrics.length; i++) {
+            metricSelectors[i] = factory.makeColumnValueSelector(metrics[i]);
+            ColumnCapabilities capabilities = factory.getColumnCapabilities(metrics[i]);
+            metricTypes[i] = null == capabilities ? ValueType.COMPLEX : capabilities.getType();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readRow() {
+        timestamp = timestampSelector.getLong();
+        for (ColumnSelectorPlus<SelectQueryEngine.SelectColumnSelectorStrategy> selectorPlus : dimensionSelectors) {
+            selectorPlus.getColumnSelectorStrategy().addRowValuesToSelectResult(selectorPlus.getOutputName(), selectorPlus.getSelector(), event);
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            event.put(metrics[i], readMetric(metricSelectors[i], metricTypes[i]));
+        }
+    }
+
+    private Object readMetric(ColumnValueSelector selector, ValueType type) {
+        if (null == selector) {
+            return null;
+        }
+        switch (type) {
+            case LONG:
+                return selector.getLong();
+            case FLOAT:
+                return selector.getFloat();
+            case DOUBLE:
+                return selector.getDouble();
+            default:
+                return selector.getObject();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != yielder) {
+            yielder.close();
+            yielder = null;
+        }
+        cursor = null;
+    }
+}
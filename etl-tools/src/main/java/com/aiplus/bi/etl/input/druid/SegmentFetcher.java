@@ -0,0 +1,152 @@
+package com.aiplus.bi.etl.input.druid;
+
+import com.aiplus.bi.etl.JobTools;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Segment的下载器.
+ * <p>
+ * 使用Hadoop的FileSystem API在进程内下载Segment，下载的同时直接解压到Segment的目录中，不再需要fork外部命令.
+ * 下载任务提交到一个有界的线程池中并行执行，调用方可以在第一个Segment准备好以后就开始读取数据.
+ *
+ * @author dev
+ */
+public class SegmentFetcher implements Closeable {
+
+    private static final Log LOG = LogFactory.getLog(SegmentFetcher.class);
+
+    private static final String OSS_SCHEME = "oss";
+
+    private final Configuration conf;
+
+    private final String jobId;
+
+    private final File localDataDir;
+
+    private final ExecutorService executorService;
+
+    private final SegmentCache segmentCache;
+
+    private final List<SegmentCache.Handle> cacheHandles = new ArrayList<>();
+
+    public SegmentFetcher(Configuration conf, String jobId, File localDataDir, int threads) {
+        this(conf, jobId, localDataDir, threads, null);
+    }
+
+    public SegmentFetcher(Configuration conf, String jobId, File localDataDir, int threads, SegmentCache segmentCache) {
+        this.conf = conf;
+        this.jobId = jobId;
+        this.localDataDir = localDataDir;
+        this.segmentCache = segmentCache;
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * 异步下载并解压一个Segment，如果配置了本地缓存，则优先使用缓存中的Segment.
+     *
+     * @param segmentData Segment数据信息
+     * @return 解压后的Segment目录
+     */
+    public Future<File> fetch(SegmentInputSplit.SegmentData segmentData) {
+        return executorService.submit(() -> {
+            if (null == segmentCache) {
+                File indexDataDir = new File(localDataDir, segmentData.getDataId());
+                download(segmentData, indexDataDir);
+                return indexDataDir;
+            }
+            SegmentCache.Handle handle = segmentCache.acquire(segmentData, this::download);
+            synchronized (cacheHandles) {
+                cacheHandles.add(handle);
+            }
+            return handle.getSegmentDir();
+        });
+    }
+
+    private void download(SegmentInputSplit.SegmentData segmentData, File indexDataDir) throws IOException {
+        long start = System.currentTimeMillis();
+        String segmentRemoteLocation = segmentData.getDataPath();
+        Path path = new Path(segmentRemoteLocation);
+        if (OSS_SCHEME.equalsIgnoreCase(path.toUri().getScheme()) && !hasFileSystem(OSS_SCHEME)) {
+            // 集群没有配置OSS的FileSystem实现，只能使用ossutil下载
+            fetchByOssUtil(segmentRemoteLocation, indexDataDir);
+        } else {
+            FileSystem fs = path.getFileSystem(conf);
+            try (FSDataInputStream in = fs.open(path)) {
+                JobTools.unZip(in, indexDataDir);
+            }
+        }
+        LOG.info("Fetched segment[" + segmentData.getDataId() + "] " + segmentData.getDataSize() + " bytes use "
+                + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private void fetchByOssUtil(String segmentRemoteLocation, File indexDataDir) throws IOException {
+        File zipDir = new File(localDataDir, indexDataDir.getName() + "_zip");
+        FileUtils.forceMkdir(zipDir);
+        int exitCode = JobTools.runCommand(jobId, new String[]{
+                "ossutil",
+                "cp",
+                segmentRemoteLocation,
+                zipDir.getAbsolutePath()
+        });
+        if (0 != exitCode) {
+            FileUtils.deleteQuietly(zipDir);
+            throw new IOException("Fetch segment [" + segmentRemoteLocation + "] by ossutil failed, exit code: " + exitCode);
+        }
+        JobTools.unZip(new File(zipDir.getAbsolutePath() + getOSSRemoteLocalLocationDir(segmentRemoteLocation)), indexDataDir);
+        FileUtils.deleteQuietly(zipDir);
+    }
+
+    private String getOSSRemoteLocalLocationDir(String segmentRemoteLocation) {
+        String s = segmentRemoteLocation.substring("oss://".length());
+
+        return s.substring(s.indexOf("/"));
+    }
+
+    private boolean hasFileSystem(String scheme) {
+        try {
+            FileSystem.getFileSystemClass(scheme, conf);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Segment fetcher threads not terminated in 1 minute.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 释放缓存的Segment，释放以后才允许被淘汰
+        synchronized (cacheHandles) {
+            for (SegmentCache.Handle handle : cacheHandles) {
+                try {
+                    handle.close();
+                } catch (IOException e) {
+                    LOG.warn("Release segment cache handle failed: " + handle.getSegmentDir(), e);
+                }
+            }
+            cacheHandles.clear();
+        }
+    }
+}
@@ -4,22 +4,25 @@ import com.aiplus.bi.etl.input.DataInputJobConfiguration;
 import com.aiplus.bi.etl.input.DataInputs;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import io.druid.java.util.common.Intervals;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.*;
+import org.joda.time.Interval;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable> implements Configurable, DruidInputConfigurable {
 
@@ -30,6 +33,10 @@ public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable>
             "WHERE `used` = 1 AND datasource = ? AND convert_tz(`start`, '+00:00', '+08:00') LIKE ? " +
             "ORDER BY UNIX_TIMESTAMP(`start`) ASC, id ASC";
 
+    private static final String HDFS_LOAD_SPEC_TYPE = "hdfs";
+
+    private static final int MAX_SPLIT_LOCATIONS = 3;
+
     private DataInputs dataInputs;
 
     private DataInputJobConfiguration jobConfiguration;
@@ -56,17 +63,124 @@ public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable>
     @Override
     public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
         Configuration conf = getConf();
+        long targetBytes = conf.getLong(DRUID_SPLIT_TARGET_BYTES, DEFAULT_DRUID_SPLIT_TARGET_BYTES);
+        int maxTimePieces = conf.getInt(DRUID_SPLIT_MAX_TIME_PIECES, DEFAULT_DRUID_SPLIT_MAX_TIME_PIECES);
 
-        Map<String, SegmentInputSplit> splitMap = new LinkedHashMap<>(15);
-
+        List<InputSplit> splits = new ArrayList<>();
         for (DataInputJobConfiguration.TableMapper tableMapper : dataInputs.getJobConfiguration().getMappers()) {
-            splitMap.putAll(generateSplitMap(tableMapper.getSourceTable(), conf.get(DRUID_JOB_ARGS_EXPORT_DATE)));
+            Map<String, SegmentInputSplit> splitMap = generateSplitMap(tableMapper, conf.get(DRUID_JOB_ARGS_EXPORT_DATE));
+            for (SegmentInputSplit sis : planSplits(splitMap.values(), targetBytes, maxTimePieces)) {
+                sis.setLocations(getSplitLocations(conf, sis));
+                LOG.info("Druid input split: " + sis.getSegmentId() + ", segments: " + sis.getSegmentDataList().size()
+                        + ", bytes: " + sis.getLength() + ", locations: " + Arrays.toString(sis.getLocations()));
+                splits.add(sis);
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * 按照Segment的大小重新规划分片：大于目标大小的时间段按照Shard拆分成多个分片，
+     * 单个Shard仍然大于目标大小的时候再按照时间拆分（见{@link #splitByTime}），
+     * 小于目标大小的时间段（维度和指标相同的情况下）合并到一个分片里面，直到达到目标大小.
+     */
+    private List<SegmentInputSplit> planSplits(Collection<SegmentInputSplit> intervalSplits, long targetBytes, int maxTimePieces) {
+        List<SegmentInputSplit> splits = new ArrayList<>();
+        SegmentInputSplit packed = null;
+        for (SegmentInputSplit intervalSplit : intervalSplits) {
+            List<SegmentInputSplit.SegmentData> segmentDataList = intervalSplit.getSegmentDataList();
+            if (intervalSplit.getLength() >= targetBytes) {
+                // 大的时间段，每个Shard一个分片，大的Shard再按照时间拆分
+                for (int i = 0; i < segmentDataList.size(); i++) {
+                    String segmentId = segmentDataList.size() > 1 ? intervalSplit.getSegmentId() + "_" + i : intervalSplit.getSegmentId();
+                    splits.addAll(splitByTime(intervalSplit, segmentId, segmentDataList.get(i), targetBytes, maxTimePieces));
+                }
+                continue;
+            }
+            // 小的时间段，合并到同一个分片中
+            if (null != packed && (packed.getLength() + intervalSplit.getLength() > targetBytes
+                    || !packed.getDimensions().equals(intervalSplit.getDimensions())
+                    || !packed.getMetrics().equals(intervalSplit.getMetrics()))) {
+                splits.add(packed);
+                packed = null;
+            }
+            if (null == packed) {
+                packed = intervalSplit;
+                continue;
+            }
+            for (SegmentInputSplit.SegmentData segmentData : segmentDataList) {
+                packed.addSegmentData(segmentData);
+            }
+        }
+        if (null != packed) {
+            splits.add(packed);
         }
-        return new ArrayList<>(splitMap.values());
+        return splits;
     }
 
-    private Map<String, SegmentInputSplit> generateSplitMap(String dataSource, String exportDate) throws IOException {
+    /**
+     * 把一个Shard按照时间平均拆分成多个分片，每个分片的大小接近目标大小，最多拆分成maxTimePieces个.
+     * <p>
+     * 每个分片只读取子时间段内的数据，但是仍然要加载整个Segment（同一个节点上的多个分片共享{@link SegmentCache}中的文件），
+     * 所以拆分减少的是单个Map的计算量，不是下载量；拆分按照数据在时间上大致均匀分布估算，数据集中在某个时间的时候分片大小会不均匀.
+     */
+    private List<SegmentInputSplit> splitByTime(SegmentInputSplit intervalSplit, String segmentId, SegmentInputSplit.SegmentData segmentData,
+                                                long targetBytes, int maxTimePieces) {
+        Interval interval = Intervals.of(null == segmentData.getInterval() ? intervalSplit.getInterval() : segmentData.getInterval());
+        long pieces = Math.min((segmentData.getDataSize() + targetBytes - 1) / targetBytes, Math.max(1, maxTimePieces));
+        // 时间段太短的时候不能再拆分
+        pieces = Math.min(pieces, interval.toDurationMillis());
+        List<SegmentInputSplit> splits = new ArrayList<>();
+        for (int j = 0; j < pieces; j++) {
+            SegmentInputSplit.SegmentData piece = segmentData;
+            if (pieces > 1) {
+                long start = interval.getStartMillis() + interval.toDurationMillis() * j / pieces;
+                long end = interval.getStartMillis() + interval.toDurationMillis() * (j + 1) / pieces;
+                piece = createSegmentData(segmentData.getDataId(), new Interval(start, end, interval.getChronology()).toString(),
+                        segmentData.getDataType(), segmentData.getDataPath(), segmentData.getDataSize() / pieces);
+            }
+            SegmentInputSplit split = new SegmentInputSplit(intervalSplit.getDataSource(), intervalSplit.getInterval(),
+                    intervalSplit.getDimensions(), intervalSplit.getMetrics());
+            split.setSegmentId(pieces > 1 ? segmentId + "_p" + j : segmentId);
+            split.setFilter(intervalSplit.getFilter());
+            split.addSegmentData(piece);
+            splits.add(split);
+        }
+        return splits;
+    }
+
+    /**
+     * Deep Storage是HDFS的情况下，按照Segment文件的Block所在的主机计算分片的本地性，取数据量最多的几个主机.
+     */
+    private String[] getSplitLocations(Configuration conf, SegmentInputSplit sis) {
+        Map<String, Long> hostBytes = new HashMap<>(16);
+        for (SegmentInputSplit.SegmentData segmentData : sis.getSegmentDataList()) {
+            if (!HDFS_LOAD_SPEC_TYPE.equalsIgnoreCase(segmentData.getDataType())) {
+                continue;
+            }
+            try {
+                Path path = new Path(segmentData.getDataPath());
+                FileSystem fs = path.getFileSystem(conf);
+                FileStatus status = fs.getFileStatus(path);
+                for (BlockLocation blockLocation : fs.getFileBlockLocations(status, 0L, status.getLen())) {
+                    for (String host : blockLocation.getHosts()) {
+                        hostBytes.merge(host, blockLocation.getLength(), Long::sum);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Get block locations of segment[" + segmentData.getDataPath() + "] failed: " + e.getMessage());
+            }
+        }
+        return hostBytes.entrySet().stream()
+                .sorted((o1, o2) -> Long.compare(o2.getValue(), o1.getValue()))
+                .limit(MAX_SPLIT_LOCATIONS)
+                .map(Map.Entry::getKey)
+                .toArray(String[]::new);
+    }
+
+    private Map<String, SegmentInputSplit> generateSplitMap(DataInputJobConfiguration.TableMapper tableMapper, String exportDate) throws IOException {
         Map<String, SegmentInputSplit> splitMap = new LinkedHashMap<>(15);
+        String dataSource = tableMapper.getSourceTable();
 
         Connection conn = null;
         PreparedStatement pstmt = null;
@@ -82,12 +196,14 @@ public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable>
                 String strPayLoad = rs.getString("payload");
                 JsonObject json = gsonBuilder.create().fromJson(strPayLoad, JsonObject.class);
                 String interval = json.get("interval").getAsString();
-                String dimensions = json.get("dimensions").getAsString();
-                String metrics = json.get("metrics").getAsString();
+                // 只读取需要导出的列
+                String dimensions = projectColumns(json.get("dimensions").getAsString(), tableMapper.getColumns());
+                String metrics = projectColumns(json.get("metrics").getAsString(), tableMapper.getColumns());
                 String key = dataSource + "^" + interval;
                 SegmentInputSplit sis = splitMap.get(key);
                 if (null == sis) {
                     sis = new SegmentInputSplit(dataSource, interval, dimensions, metrics);
+                    sis.setFilter(tableMapper.getFilter());
                     splitMap.put(key, sis);
                 }
                 String dataId = json.get("identifier").getAsString();
@@ -95,7 +211,7 @@ public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable>
                 JsonObject dataShardJson = json.getAsJsonObject("loadSpec");
                 String dataType = dataShardJson.get("type").getAsString();
                 String dataPath = dataShardJson.get("path").getAsString();
-                sis.addSegmentData(createSegmentData(dataId, dataType, dataPath, dataSize));
+                sis.addSegmentData(createSegmentData(dataId, interval, dataType, dataPath, dataSize));
             }
         } catch (SQLException e) {
             throw new IOException(e);
@@ -122,9 +238,38 @@ public class SegmentInputFormat extends InputFormat<LongWritable, EventWritable>
         return splitMap;
     }
 
-    private SegmentInputSplit.SegmentData createSegmentData(String dataId, String dataType, String dataPath, long dataSize) {
+    /**
+     * 按照配置的列过滤Segment中的维度或者指标，保持Segment中列的顺序.
+     *
+     * @param columns    Segment中的列，逗号分隔
+     * @param projection 需要导出的列，为空表示全部导出
+     * @return 过滤以后的列，逗号分隔
+     */
+    static String projectColumns(String columns, String[] projection) {
+        if (null == projection || 0 == projection.length || null == columns || columns.isEmpty()) {
+            return columns;
+        }
+        Set<String> projectionSet = new HashSet<>(Arrays.asList(projection));
+        StringJoiner joiner = new StringJoiner(",");
+        for (String column : columns.split(",")) {
+            if (projectionSet.contains(column)) {
+                joiner.add(column);
+            }
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * 把逗号分隔的列转换成数组，空字符串返回空数组.
+     */
+    static String[] splitColumns(String columns) {
+        return null == columns || columns.isEmpty() ? new String[0] : columns.split(",");
+    }
+
+    private SegmentInputSplit.SegmentData createSegmentData(String dataId, String interval, String dataType, String dataPath, long dataSize) {
         SegmentInputSplit.SegmentData segmentData = new SegmentInputSplit.SegmentData();
         segmentData.setDataId(dataId);
+        segmentData.setInterval(interval);
         segmentData.setDataType(dataType);
         segmentData.setDataPath(dataPath);
         segmentData.setDataSize(dataSize);
@@ -33,6 +33,8 @@ public class SegmentInputSplit extends InputSplit implements Writable {
 
     private String metrics;
 
+    private String filter;
+
     private SegmentData[] segments;
 
     private long length = 0L;
@@ -54,7 +56,7 @@ public class SegmentInputSplit extends InputSplit implements Writable {
     }
 
     @Override
-    public long getLength() throws IOException, InterruptedException {
+    public long getLength() {
         return length;
     }
 
@@ -63,8 +65,8 @@ public class SegmentInputSplit extends InputSplit implements Writable {
     }
 
     @Override
-    public String[] getLocations() throws IOException, InterruptedException {
-        return new String[]{};
+    public String[] getLocations() {
+        return null == locations ? new String[]{} : locations;
     }
 
     public void setLocations(String[] locations) {
@@ -75,10 +77,6 @@ public class SegmentInputSplit extends InputSplit implements Writable {
     public void write(DataOutput dataOutput) throws IOException {
         // 转换成数组，这样在序列化的时候所占用的资源就会少很多，也会提升序列化的速度.
         this.segments = segmentDataList.toArray(new SegmentData[0]);
-        this.locations = new String[segments.length];
-        for (int i = 0; i < segments.length; i++) {
-            this.locations[i] = segments[i].getDataPath();
-        }
         String json = gsonBuilder.create().toJson(this);
         LOG.debug("Write input split data: " + json);
         Text.writeString(dataOutput, json);
@@ -93,6 +91,7 @@ public class SegmentInputSplit extends InputSplit implements Writable {
         this.interval = that.interval;
         this.dimensions = that.dimensions;
         this.metrics = that.metrics;
+        this.filter = that.filter;
         this.segments = that.segments;
         this.length = that.length;
         this.locations = that.locations;
@@ -101,6 +100,11 @@ public class SegmentInputSplit extends InputSplit implements Writable {
 
     public void addSegmentData(SegmentData segmentData) {
         segmentDataList.add(segmentData);
+        this.length = this.length + segmentData.getDataSize();
+    }
+
+    public List<SegmentData> getSegmentDataList() {
+        return segmentDataList;
     }
 
     public String getDimensions() {
@@ -119,6 +123,17 @@ public class SegmentInputSplit extends InputSplit implements Writable {
         this.metrics = metrics;
     }
 
+    /**
+     * @return Druid的过滤条件（JSON），没有过滤条件返回null
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -154,6 +169,8 @@ public class SegmentInputSplit extends InputSplit implements Writable {
     public static class SegmentData implements Serializable {
         private String dataType;
 
+        private String interval;
+
         private String dataPath;
 
         private String dataId;
@@ -168,6 +185,14 @@ public class SegmentInputSplit extends InputSplit implements Writable {
             this.dataType = dataType;
         }
 
+        public String getInterval() {
+            return interval;
+        }
+
+        public void setInterval(String interval) {
+            this.interval = interval;
+        }
+
         public String getDataPath() {
             return dataPath;
         }
@@ -1,6 +1,6 @@
 package com.aiplus.bi.etl.input.druid;
 
-import com.aiplus.bi.etl.JobTools;
+import com.aiplus.bi.etl.input.DataInputs;
 import com.fasterxml.jackson.databind.InjectableValues;
 import io.druid.jackson.DefaultObjectMapper;
 import io.druid.java.util.common.guava.Sequence;
@@ -9,13 +9,17 @@ import io.druid.java.util.common.guava.Yielders;
 import io.druid.math.expr.ExprMacroTable;
 import io.druid.query.Druids;
 import io.druid.query.Result;
+import io.druid.query.filter.DimFilter;
+import io.druid.query.filter.Filter;
 import io.druid.query.select.*;
 import io.druid.segment.IndexIO;
 import io.druid.segment.QueryableIndex;
 import io.druid.segment.QueryableIndexSegment;
+import io.druid.segment.column.Column;
+import io.druid.segment.column.ValueType;
+import io.druid.segment.filter.Filters;
 import io.druid.segment.writeout.OffHeapMemorySegmentWriteOutMediumFactory;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -26,8 +30,14 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author dev
@@ -58,6 +68,42 @@ public class SegmentRecordReader extends RecordReader<LongWritable, EventWritabl
 
     private Iterator<EventHolder> currentEventHolderIterator = null;
 
+    private boolean cursorMode;
+
+    private SegmentCursorReader currentCursorReader;
+
+    private long currentIndexPos = 0L;
+
+    private IndexIO indexIO;
+
+    private SegmentFetcher segmentFetcher;
+
+    private List<Future<File>> segmentDirFutures;
+
+    private String[] dimensions;
+
+    private String[] metrics;
+
+    private DimFilter dimFilter;
+
+    private Filter filter;
+
+    private boolean orcFormat;
+
+    private EventOrcConverter eventOrcConverter;
+
+    /**
+     * 当前的转换器对应的Segment.
+     */
+    private int eventOrcConverterIndex = -1;
+
+    /**
+     * 已经创建的转换器，指标类型相同的Segment共用一个转换器，写入同一个文件.
+     */
+    private final List<EventOrcConverter> eventOrcConverters = new ArrayList<>();
+
+    private final List<ValueType[]> eventOrcMetricTypes = new ArrayList<>();
+
     public SegmentRecordReader(Configuration conf, SegmentInputSplit split) {
         this.split = split;
         this.conf = conf;
@@ -68,56 +114,71 @@ public class SegmentRecordReader extends RecordReader<LongWritable, EventWritabl
         LOG.info("initialize druid segment index data....");
         // downloading segment data from remote file system.
         String strDruidDataLocalDir = conf.get(DRUID_DATA_LOCAL_DIR, "/tmp");
+        cursorMode = DRUID_READER_MODE_CURSOR.equalsIgnoreCase(conf.get(DRUID_READER_MODE, DRUID_READER_MODE_CURSOR));
+        LOG.info("Druid segment reader mode: " + (cursorMode ? DRUID_READER_MODE_CURSOR : DRUID_READER_MODE_SELECT));
+        orcFormat = new DataInputs(conf).getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
         final InjectableValues.Std injectableValues = new InjectableValues.Std();
         injectableValues.addValue(ExprMacroTable.class, ExprMacroTable.nil());
 
-        IndexIO indexIO = new IndexIO(
-                new DefaultObjectMapper().setInjectableValues(injectableValues),
+        DefaultObjectMapper objectMapper = new DefaultObjectMapper();
+        objectMapper.setInjectableValues(injectableValues);
+        indexIO = new IndexIO(
+                objectMapper,
                 OffHeapMemorySegmentWriteOutMediumFactory.instance(),
                 () -> 0
         );
-        // 这里支持Druid的Deep Storage是存储在HDFS上的情况，使用hadoop fs -get命令可以兼容hdfs和oss的文件协议
+        // 列投影在规划分片的时候已经完成，这里只需要解析过滤条件
         SegmentInputSplit sis = (SegmentInputSplit) split;
+        dimensions = SegmentInputFormat.splitColumns(sis.getDimensions());
+        metrics = SegmentInputFormat.splitColumns(sis.getMetrics());
+        if (null != sis.getFilter() && !"".equals(sis.getFilter().trim())) {
+            dimFilter = objectMapper.readValue(sis.getFilter(), DimFilter.class).optimize();
+            filter = Filters.toFilter(dimFilter);
+            LOG.info("Druid segment filter: " + dimFilter);
+        }
+        // 使用Hadoop的FileSystem API并行下载Segment，可以兼容hdfs和oss的文件协议，下载的同时进行解压
         localDataDirPath = strDruidDataLocalDir + "/" + sis.getSegmentId();
         FileUtils.forceMkdir(new File(localDataDirPath));
         SegmentInputSplit.SegmentData[] segmentDataArray = sis.getSegments();
         segmentIndexArray = new QueryableIndex[segmentDataArray.length];
-        String localIndexDataZipFileName;
+        segmentDirFutures = new ArrayList<>(segmentDataArray.length);
+        int fetchThreads = conf.getInt(DRUID_FETCH_THREADS, DEFAULT_DRUID_FETCH_THREADS);
+        String strCacheDir = conf.get(DRUID_CACHE_DIR);
+        SegmentCache segmentCache = null;
+        if (null != strCacheDir && !"".equals(strCacheDir)) {
+            // 使用节点本地的Segment缓存，同一个节点上的Task可以共享已经下载的Segment
+            segmentCache = new SegmentCache(new File(strCacheDir), conf.getLong(DRUID_CACHE_MAX_BYTES, DEFAULT_DRUID_CACHE_MAX_BYTES));
+        }
+        segmentFetcher = new SegmentFetcher(conf, context.getJobID().toString(), new File(localDataDirPath), fetchThreads, segmentCache);
         for (int i = 0; i < segmentDataArray.length; i++) {
-            String segmentRemoteLocation = segmentDataArray[i].getDataPath();
-            LOG.info("Downloading druid[" + sis.getDataSource() + "] segment: " + segmentRemoteLocation);
-            if (segmentRemoteLocation.startsWith("oss://")) {
-                JobTools.runCommand(context.getJobID().toString(), new String[]{
-                        "ossutil",
-                        "cp",
-                        segmentRemoteLocation,
-                        localDataDirPath
-                });
-                localIndexDataZipFileName = localDataDirPath + getOSSRemoteLocalLocationDir(segmentRemoteLocation);
-            } else {
-                JobTools.runCommand(context.getJobID().toString(), new String[]{
-                        "hadoop",
-                        "fs",
-                        "-get",
-                        segmentRemoteLocation,
-                        localDataDirPath
-                });
-                localIndexDataZipFileName = localDataDirPath + "/" + FilenameUtils.getName(segmentRemoteLocation);
+            LOG.info("Downloading druid[" + sis.getDataSource() + "] segment: " + segmentDataArray[i].getDataPath());
+            segmentDirFutures.add(segmentFetcher.fetch(segmentDataArray[i]));
+        }
+        if (!cursorMode) {
+            // select模式需要在开始读取之前知道总行数，所以要等待所有的Segment都准备好
+            for (int i = 0; i < segmentIndexArray.length; i++) {
+                loadSegmentIndex(i);
+            }
+        }
+    }
+
+    /**
+     * 加载第i个Segment的索引数据，如果还没有下载完成，则等待下载完成.
+     */
+    private QueryableIndex loadSegmentIndex(int i) throws IOException, InterruptedException {
+        if (null == segmentIndexArray[i]) {
+            File indexDataDir;
+            try {
+                indexDataDir = segmentDirFutures.get(i).get();
+            } catch (ExecutionException e) {
+                throw new IOException("Fetch segment[" + split.getSegments()[i].getDataId() + "] failed.", e.getCause());
             }
-            // unzip
-            LOG.info("Load queryable segment index: " + segmentDataArray[i].getDataId());
-            File indexDataDir = new File(localDataDirPath, segmentDataArray[i].getDataId());
-            JobTools.unZip(new File(localIndexDataZipFileName), indexDataDir);
+            LOG.info("Load queryable segment index: " + split.getSegments()[i].getDataId());
             segmentIndexArray[i] = indexIO.loadIndex(indexDataDir);
             // 计算总行数
             maxRecordNum = maxRecordNum + segmentIndexArray[i].getNumRows();
         }
-    }
-
-    private String getOSSRemoteLocalLocationDir(String segmentRemoteLocation) {
-        String s = segmentRemoteLocation.substring("oss://".length());
-
-        return s.substring(s.indexOf("/"));
+        return segmentIndexArray[i];
     }
 
     @Override
@@ -128,38 +189,119 @@ public class SegmentRecordReader extends RecordReader<LongWritable, EventWritabl
         if (null == value) {
             value = new EventWritable();
         }
+        if (cursorMode) {
+            if (!preparedNextByCursor()) {
+                return false;
+            }
+            key.set(pos);
+            readValue(currentCursorReader.getTimestampMillis(), currentCursorReader.getEvent());
+            pos++;
+            return true;
+        }
         if (!preparedNext()) {
             return false;
         }
         key.set(pos);
-        value.readFields(split.getDataSource(), split.getInterval(), currentEventHolder.getTimestamp(), currentEventHolder.getEvent());
+        readValue(currentEventHolder.getTimestamp().getMillis(), currentEventHolder.getEvent());
         pos++;
         return true;
     }
 
-    private boolean preparedNext() {
-        if (null == segmentIndexArray || 0 == segmentIndexArray.length) {
-            return false;
+    private void readValue(long timestamp, Map<String, Object> event) {
+        if (!orcFormat) {
+            value.readFields(split.getDataSource(), getSegmentInterval(currentQueryableIndexI), timestamp, event);
+            return;
         }
-        if (pos == (maxRecordNum - 1)) {
+        if (eventOrcConverterIndex != currentQueryableIndexI) {
+            eventOrcConverter = getEventOrcConverter(segmentIndexArray[currentQueryableIndexI]);
+            eventOrcConverterIndex = currentQueryableIndexI;
+        }
+        value.readOrcFields(split.getDataSource(), getSegmentInterval(currentQueryableIndexI), timestamp, event, eventOrcConverter);
+    }
+
+    /**
+     * 根据正在读取的Segment的指标类型选择转换器，不需要等待后面的Segment.
+     * 和已有的转换器类型一致（Segment中没有的指标可以是任意类型）的时候复用，否则创建一个新的Schema，写入单独的文件，建表的时候合并.
+     */
+    private EventOrcConverter getEventOrcConverter(QueryableIndex index) {
+        ValueType[] metricTypes = new ValueType[metrics.length];
+        for (int j = 0; j < metrics.length; j++) {
+            Column column = index.getColumn(metrics[j]);
+            metricTypes[j] = null == column ? null : EventOrcConverter.toOutputType(column.getCapabilities().getType());
+        }
+        for (int i = 0; i < eventOrcConverters.size(); i++) {
+            if (isCompatible(eventOrcMetricTypes.get(i), metricTypes)) {
+                return eventOrcConverters.get(i);
+            }
+        }
+        for (int j = 0; j < metrics.length; j++) {
+            if (null == metricTypes[j]) {
+                // Segment中没有这个指标，值都是NULL，和其他文件合并的时候整数可以扩展成任意数值类型
+                metricTypes[j] = ValueType.LONG;
+            }
+        }
+        EventOrcConverter converter = new EventOrcConverter(dimensions, metrics, metricTypes, eventOrcConverters.size());
+        LOG.info("Create ORC schema " + converter.getSchemaId() + ": " + converter.getSchema());
+        eventOrcConverters.add(converter);
+        eventOrcMetricTypes.add(metricTypes);
+        return converter;
+    }
+
+    private static boolean isCompatible(ValueType[] converterTypes, ValueType[] segmentTypes) {
+        for (int j = 0; j < converterTypes.length; j++) {
+            if (null != segmentTypes[j] && converterTypes[j] != segmentTypes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean preparedNextByCursor() throws IOException, InterruptedException {
+        if (null == segmentIndexArray) {
             return false;
         }
-        if (pos == 0L) {
-            this.currentQueryableIndexI = 0;
+        while (true) {
+            if (null == currentCursorReader) {
+                // 当前Segment读取完了，切换到下一个Segment
+                if (currentQueryableIndexI >= segmentIndexArray.length - 1) {
+                    return false;
+                }
+                currentQueryableIndexI++;
+                currentIndexPos = 0L;
+                currentCursorReader = new SegmentCursorReader(
+                        loadSegmentIndex(currentQueryableIndexI),
+                        getSegmentInterval(currentQueryableIndexI),
+                        dimensions,
+                        metrics,
+                        filter
+                );
+            }
+            if (currentCursorReader.next()) {
+                currentIndexPos++;
+                return true;
+            }
+            currentCursorReader.close();
+            currentCursorReader = null;
+        }
+    }
+
+    private boolean preparedNext() {
+        if (null == segmentIndexArray || 0 == segmentIndexArray.length) {
+            return false;
         }
         if (null == this.currentEventHolderIterator) {
+            this.currentQueryableIndexI = 0;
             generateCurrentEventHolderIterator();
         }
-        if (this.currentEventHolderIterator.hasNext()) {
-            this.currentEventHolder = this.currentEventHolderIterator.next();
-        } else {
-            // 如果没有后面的了，那么需要判断是否继续往后面加载
+        // 有过滤条件的时候Segment可能没有满足条件的数据，需要一直往后面加载，直到找到数据或者所有的Segment都读取完
+        while (!this.currentEventHolderIterator.hasNext()) {
             if (currentQueryableIndexI == (segmentIndexArray.length - 1)) {
                 return false;
             }
             this.currentQueryableIndexI++;
             generateCurrentEventHolderIterator();
         }
+        this.currentEventHolder = this.currentEventHolderIterator.next();
         return true;
     }
 
@@ -168,16 +310,30 @@ public class SegmentRecordReader extends RecordReader<LongWritable, EventWritabl
         SelectQueryEngine selectQueryEngine = new SelectQueryEngine();
         Druids.SelectQueryBuilder selectQueryBuilder = Druids.newSelectQueryBuilder();
         SelectQuery selectQuery = selectQueryBuilder.dataSource(split.getDataSource())
-                .intervals(split.getInterval())
-                .dimensions(Arrays.asList(split.getDimensions().split(",")))
-                .metrics(Arrays.asList(split.getMetrics().split(",")))
+                .intervals(getSegmentInterval(currentQueryableIndexI))
+                .dimensions(Arrays.asList(dimensions))
+                .metrics(Arrays.asList(metrics))
+                .filters(dimFilter)
                 .pagingSpec(PagingSpec.newSpec(indexData.getNumRows()))
                 .build();
         Sequence<Result<SelectResultValue>> resultSequence = selectQueryEngine.process(selectQuery, new QueryableIndexSegment(split.getSegmentId(), indexData));
         Yielder<Result<SelectResultValue>> yielder = Yielders.each(resultSequence);
+        if (yielder.isDone()) {
+            // 没有满足过滤条件的数据
+            this.currentEventHolderIterator = Collections.emptyIterator();
+            return;
+        }
         this.currentEventHolderIterator = yielder.get().getValue().getEvents().iterator();
     }
 
+    /**
+     * 合并的分片中包含多个时间段，每个Segment需要使用自己的时间段.
+     */
+    private String getSegmentInterval(int i) {
+        String interval = split.getSegments()[i].getInterval();
+        return null == interval ? split.getInterval() : interval;
+    }
+
     @Override
     public LongWritable getCurrentKey() throws IOException, InterruptedException {
         return key;
@@ -190,16 +346,37 @@ public class SegmentRecordReader extends RecordReader<LongWritable, EventWritabl
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
+        if (cursorMode) {
+            // cursor模式下后面的Segment可能还没有下载完，只能按照Segment的个数计算进度
+            if (null == segmentIndexArray || 0 == segmentIndexArray.length || currentQueryableIndexI < 0) {
+                return 0.0F;
+            }
+            QueryableIndex current = segmentIndexArray[currentQueryableIndexI];
+            float currentProgress = null == current || 0 == current.getNumRows() ? 1.0F : currentIndexPos / (float) current.getNumRows();
+            return Math.min(1.0F, (currentQueryableIndexI + currentProgress) / segmentIndexArray.length);
+        }
         return maxRecordNum == 0L ? 1.0F : pos / (float) maxRecordNum;
     }
 
     @Override
     public void close() throws IOException {
+        if (null != currentCursorReader) {
+            currentCursorReader.close();
+            currentCursorReader = null;
+        }
         // close queryable index
-        for (QueryableIndex queryableIndex : segmentIndexArray) {
-            queryableIndex.close();
+        if (null != segmentIndexArray) {
+            for (QueryableIndex queryableIndex : segmentIndexArray) {
+                if (null != queryableIndex) {
+                    queryableIndex.close();
+                }
+            }
+        }
+        // stop downloading and release cached segments
+        if (null != segmentFetcher) {
+            segmentFetcher.close();
         }
-        // clean dir
+        // clean dir, cached segments are not in this dir
         FileUtils.forceDelete(new File(localDataDirPath));
     }
 }
@@ -44,9 +44,18 @@ public class ColumnList {
     }
 
     public void addColumn(String name, int dataType, int index, boolean isPrimaryKey) {
+        addColumn(name, dataType, index, isPrimaryKey ? index : 0);
+    }
+
+    /**
+     * @param keySeq 列在主键索引中的位置（SEQ_IN_INDEX），从1开始，0表示不是主键
+     */
+    public void addColumn(String name, int dataType, int index, int keySeq) {
         this.names.add(name);
-        if (isPrimaryKey) {
-            this.keys.add(new Column(name, dataType, index, true));
+        if (keySeq > 0) {
+            Column key = new Column(name, dataType, index, true);
+            key.setKeySeq(keySeq);
+            this.keys.add(key);
         } else {
             this.columns.add(new Column(name, dataType, index, false));
         }
@@ -76,6 +85,11 @@ public class ColumnList {
         private int index;
         private boolean primaryKey;
 
+        /**
+         * 列在主键索引中的位置，从1开始，0表示不是主键.
+         */
+        private int keySeq;
+
         public Column(String name, int dataType, int index, boolean primaryKey) {
             this.name = name;
             this.dataType = dataType;
@@ -114,5 +128,13 @@ public class ColumnList {
         public void setPrimaryKey(boolean primaryKey) {
             this.primaryKey = primaryKey;
         }
+
+        public int getKeySeq() {
+            return keySeq;
+        }
+
+        public void setKeySeq(int keySeq) {
+            this.keySeq = keySeq;
+        }
     }
 }
@@ -4,6 +4,9 @@ import com.aiplus.bi.etl.input.DataInputJobConfiguration;
 import com.aiplus.bi.etl.input.ExportDataToHadoop;
 import com.aiplus.bi.etl.input.MapReduceJob;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 /**
  * 导出RDB的数据到Hadoop平台（HDFS/Hive）.
  *
@@ -13,6 +16,24 @@ public class ExportRdbToHadoop extends ExportDataToHadoop {
 
     @Override
     protected MapReduceJob createDataInputJob(String jobId, DataInputJobConfiguration jobConfiguration) {
+        if (WatermarkHelper.hasIncrementalMapper(jobConfiguration)) {
+            // 增量导入的表需要在提交任务之前确定本次导出的水位范围
+            try (Connection metadataConnection = getMetadataConfiguration().getMetadataConnection();
+                 Connection sourceConnection = jobConfiguration.getSource().getConnection()) {
+                WatermarkHelper.prepareWatermarks(metadataConnection, sourceConnection, getJobDefineId(), jobConfiguration);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return new RdbDataInputJob(jobId, jobConfiguration);
     }
+
+    @Override
+    protected void afterDataInputJobSucceeded(DataInputJobConfiguration jobConfiguration) throws SQLException {
+        if (WatermarkHelper.hasIncrementalMapper(jobConfiguration)) {
+            try (Connection metadataConnection = getMetadataConfiguration().getMetadataConnection()) {
+                WatermarkHelper.saveWatermarks(metadataConnection, getJobDefineId(), jobConfiguration);
+            }
+        }
+    }
 }
@@ -5,12 +5,14 @@ import com.aiplus.bi.etl.IdGenerator;
 import com.aiplus.bi.etl.input.DataInputJobConfiguration;
 import com.aiplus.bi.etl.input.DataInputs;
 import com.aiplus.bi.etl.input.MapReduceJob;
+import com.aiplus.bi.etl.input.OrcFileOutputFormat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -18,6 +20,7 @@ import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.orc.mapred.OrcStruct;
 
 import java.io.IOException;
 
@@ -51,14 +54,14 @@ public class RdbDataInputJob extends MapReduceJob {
 
     @Override
     protected void configureHadoopJob(Job job) {
-
-        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        boolean orcFormat = getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
+        LazyOutputFormat.setOutputFormatClass(job, orcFormat ? OrcFileOutputFormat.class : TextOutputFormat.class);
 
         job.setJarByClass(ETLMapper.class);
         job.setMapperClass(ETLMapper.class);
         job.setInputFormatClass(RdbInputFormat.class);
         job.setOutputKeyClass(NullWritable.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputValueClass(orcFormat ? OrcStruct.class : Text.class);
         job.setNumReduceTasks(0);
     }
 
@@ -71,7 +74,7 @@ public class RdbDataInputJob extends MapReduceJob {
         }
     }
 
-    public static class ETLMapper extends Mapper<LongWritable, RowWritable, NullWritable, Text> {
+    public static class ETLMapper extends Mapper<LongWritable, RowWritable, NullWritable, Writable> {
 
         private static final Log MAPPER_LOG = LogFactory.getLog(ETLMapper.class);
 
@@ -82,8 +85,9 @@ public class RdbDataInputJob extends MapReduceJob {
         private static final int SOURCE_TABLE_GROUP_SALT = 20;
 
         private static final int DEFAULT_ETL_COUNTER_MAX = 60;
-        private MultipleOutputs<NullWritable, Text> mos;
+        private MultipleOutputs<NullWritable, Writable> mos;
         private int sourceTableNum;
+        private boolean orcFormat;
 
         public ETLMapper() {
             super();
@@ -95,6 +99,7 @@ public class RdbDataInputJob extends MapReduceJob {
             mos = new MultipleOutputs(context);
             this.sourceTableNum = context.getConfiguration().getInt(RdbInputFormat.DATA_INPUT_SOURCE_TABLE_NUM_PROPERTY, 0);
             MAPPER_LOG.info("Get source table num is " + sourceTableNum);
+            this.orcFormat = new DataInputs(context.getConfiguration()).getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
         }
 
         @Override
@@ -104,7 +109,11 @@ public class RdbDataInputJob extends MapReduceJob {
             // target table counter
             context.getCounter(COUNTER_GROUP_TARGET_TABLE, value.getTargetTable()).increment(1);
             // write multi output.
-            mos.write(NullWritable.get(), new Text(value.getDataText()), generateFileName(value));
+            if (orcFormat) {
+                mos.write(NullWritable.get(), value.getOrcStruct(), generateFileName(value));
+            } else {
+                mos.write(NullWritable.get(), value.getData(), generateFileName(value));
+            }
         }
 
         @Override
@@ -11,11 +11,8 @@ import org.apache.hadoop.mapreduce.*;
 
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
@@ -26,6 +23,15 @@ import java.util.concurrent.*;
 public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> implements Configurable {
 
     public static final String DATA_INPUT_SOURCE_TABLE_NUM_PROPERTY = "etl.source.table.num";
+    /**
+     * 拆分键分布直方图的桶数，设置为1表示认为拆分键是均匀分布的.
+     */
+    public static final String DATA_INPUT_SPLIT_HISTOGRAM_BUCKETS_PROPERTY = "etl.rdb.split.histogram.buckets";
+    /**
+     * 没有拆分键的表是否使用information_schema中的统计行数代替COUNT(0)，只对有主键的表生效.
+     */
+    public static final String DATA_INPUT_SPLIT_ESTIMATE_ROWS_PROPERTY = "etl.rdb.split.estimate.rows";
+    private static final int DEFAULT_SPLIT_HISTOGRAM_BUCKETS = 32;
     private static final Log LOG = LogFactory.getLog(RdbInputFormat.class);
     private static final int NEED_USE_MULTI_THREAD_TABLE_NUM = 3;
     private DataInputs dataInputs;
@@ -39,67 +45,79 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
     @Override
     public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
         try (Connection connection = this.dataInputs.getSourceConnection()) {
-            DatabaseMetaData dmd = connection.getMetaData();
-            // 1. 拿到所有的表的映射
-            List<Table> tables = fetchTables(dmd);
+            long start = System.currentTimeMillis();
+            // 1. 批量拿到所有的表的映射和表的列
+            List<Table> tables = fetchTables(connection);
             // 设置表的数量
             getConf().setInt(DATA_INPUT_SOURCE_TABLE_NUM_PROPERTY, tables.size());
-            LOG.info("SET ETL source table num is " + tables.size());
-            // 总的记录集大小
-            long totalRecordCount;
-            long start = System.currentTimeMillis();
-            // 2. 取出表的所有字段，这个地方为了处理多表的情况，使用多线程的方法去取
-            if (tables.size() > NEED_USE_MULTI_THREAD_TABLE_NUM) {
-                // 大于3个的时候就需要使用到线程池去处理了，这里开4个线程就好，太多了对数据库连接有影响
-                ExecutorService executorService = Executors.newFixedThreadPool(4);
-                ExecutorCompletionService<Table> completionService = new ExecutorCompletionService<>(executorService);
-                try {
-                    // 提交
-                    for (Table table : tables) {
-                        completionService.submit(new GetSourceTableColumnsCallable(table));
-                    }
-
-                    // 拿结果
-                    int taskNum = tables.size();
-                    tables.clear();
-                    long tc = 0L;
-                    while (taskNum-- > 0) {
-                        Future<Table> future = completionService.take();
-                        Table t = future.get();
-                        LOG.info("Getting table[" + taskNum + "] metadata: " + t.getName() + "\tcount: " + t.getLength());
-                        tables.add(t);
-                        tc = tc + t.getLength();
-                    }
-                    totalRecordCount = tc;
-                } catch (ExecutionException e) {
-                    throw new IOException(e);
-                } finally {
-                    // 强制最后必须关系线程池来释放资源
-                    executorService.shutdown();
-                }
-            } else {
-                long tc = 0L;
-                // 非多线程的情况下只用直接去取就行了
-                for (int j = 0; j < tables.size(); j++) {
-                    Table table = tables.get(j);
-                    TableHelper.getSourceTableColumns(dmd, table);
-                    TableHelper.getTableSplit(connection, table);
-                    tc = tc + table.getLength();
-                    LOG.info("Getting table[" + (j + 1) + "] metadata: " + table.getName() + "\tcount: " + table.getLength());
-                }
-                totalRecordCount = tc;
-            }
+            LOG.info("SET ETL source table num is " + tables.size() + ", discovered use " + (System.currentTimeMillis() - start) + "ms.");
+            // 2. 获取每张表的拆分范围
+            start = System.currentTimeMillis();
+            long totalRecordCount = fetchTableSplits(connection, tables);
             LOG.info("Loaded table(s) info use " + (System.currentTimeMillis() - start) + "ms. Total record count is " + totalRecordCount);
             // 3. 分片处理
             start = System.currentTimeMillis();
             List<List<RdbInputSplit>> splitGroup = table2SplitGroup(tables, totalRecordCount);
             LOG.info("Split table to group use " + (System.currentTimeMillis() - start) + "ms. Total group size is " + splitGroup.size());
+            // 4. 没有拆分键的表按照主键定位每个分片的范围
+            start = System.currentTimeMillis();
+            resolveKeyRanges(connection, splitGroup);
+            LOG.info("Resolved split key ranges use " + (System.currentTimeMillis() - start) + "ms.");
             return generateInputSplit(splitGroup);
         } catch (SQLException e) {
             throw new IOException(e);
         }
     }
 
+    /**
+     * 获取每张表的拆分范围，多表的时候使用多线程.
+     * <p>
+     * 线程数只受数据源的最大连接数限制. 按照information_schema中的统计行数预估每个Map处理的行数，
+     * 明显小于这个行数的表不会被拆分，不需要采样拆分键的分布.
+     *
+     * @return 所有表的总行数
+     */
+    private long fetchTableSplits(Connection connection, List<Table> tables) throws IOException, InterruptedException, SQLException {
+        long estimatedTotal = 0L;
+        for (Table table : tables) {
+            estimatedTotal = estimatedTotal + table.getEstimatedRows();
+        }
+        long estimatedStep = estimatedTotal / getConf().getInt(JobContext.NUM_MAPS, 1);
+        // 当前线程已经占用了一个连接，每个线程再从连接池中借一个，线程数不能超过数据源剩下的连接数
+        int threadNum = Math.min(tables.size(), dataInputs.getSourceMaxConnections() - 1);
+        long totalRecordCount = 0L;
+        if (tables.size() > NEED_USE_MULTI_THREAD_TABLE_NUM && threadNum > 1) {
+            ExecutorService executorService = Executors.newFixedThreadPool(threadNum);
+            ExecutorCompletionService<Table> completionService = new ExecutorCompletionService<>(executorService);
+            try {
+                // 提交
+                for (Table table : tables) {
+                    completionService.submit(new GetTableSplitCallable(table, getHistogramBuckets(table, estimatedStep)));
+                }
+                // 拿结果
+                for (int j = 0; j < tables.size(); j++) {
+                    Table t = completionService.take().get();
+                    LOG.debug("Getting table[" + (j + 1) + "] split: " + t.getName() + "\tcount: " + t.getLength());
+                    totalRecordCount = totalRecordCount + t.getLength();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                // 强制最后必须关闭线程池来释放资源
+                executorService.shutdownNow();
+            }
+        } else {
+            // 非多线程的情况下只用直接去取就行了
+            for (int j = 0; j < tables.size(); j++) {
+                Table table = tables.get(j);
+                TableHelper.getTableSplit(connection, table, getHistogramBuckets(table, estimatedStep), isEstimateRows());
+                totalRecordCount = totalRecordCount + table.getLength();
+                LOG.debug("Getting table[" + (j + 1) + "] split: " + table.getName() + "\tcount: " + table.getLength());
+            }
+        }
+        return totalRecordCount;
+    }
+
     private List<InputSplit> generateInputSplit(List<List<RdbInputSplit>> splitGroup) {
         List<InputSplit> splits = new ArrayList<>();
         for (List<RdbInputSplit> splitList : splitGroup) {
@@ -111,8 +129,62 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
         return splits;
     }
 
-    private List<Table> fetchTables(DatabaseMetaData dmd) throws SQLException {
+    private void resolveKeyRanges(Connection connection, List<List<RdbInputSplit>> splitGroup) throws SQLException {
+        Map<String, List<RdbInputSplit>> tableSplits = new LinkedHashMap<>();
+        for (List<RdbInputSplit> splitList : splitGroup) {
+            for (RdbInputSplit split : splitList) {
+                if (split.isKeyRange()) {
+                    tableSplits.computeIfAbsent(split.getTable(), k -> new ArrayList<>()).add(split);
+                }
+            }
+        }
+        Set<RdbInputSplit> emptySplits = Collections.newSetFromMap(new IdentityHashMap<>());
+        // 每张表的分片要沿着主键依次定位，表之间互不依赖，多表的时候和获取拆分范围一样使用多线程
+        int threadNum = Math.min(tableSplits.size(), dataInputs.getSourceMaxConnections() - 1);
+        if (tableSplits.size() > NEED_USE_MULTI_THREAD_TABLE_NUM && threadNum > 1) {
+            ExecutorService executorService = Executors.newFixedThreadPool(threadNum);
+            ExecutorCompletionService<List<RdbInputSplit>> completionService = new ExecutorCompletionService<>(executorService);
+            try {
+                for (List<RdbInputSplit> splits : tableSplits.values()) {
+                    completionService.submit(new ResolveKeyRangesCallable(splits));
+                }
+                for (int j = 0; j < tableSplits.size(); j++) {
+                    emptySplits.addAll(completionService.take().get());
+                }
+            } catch (ExecutionException e) {
+                throw new SQLException("Resolve split key ranges failed.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while resolving split key ranges.", e);
+            } finally {
+                executorService.shutdownNow();
+            }
+        } else {
+            for (List<RdbInputSplit> splits : tableSplits.values()) {
+                emptySplits.addAll(resolveTableKeyRanges(connection, splits));
+            }
+        }
+        if (emptySplits.isEmpty()) {
+            return;
+        }
+        LOG.info("Skip " + emptySplits.size() + " split(s) beyond the end of the table(s).");
+        for (List<RdbInputSplit> splitList : splitGroup) {
+            splitList.removeIf(emptySplits::contains);
+        }
+        splitGroup.removeIf(List::isEmpty);
+    }
+
+    private static List<RdbInputSplit> resolveTableKeyRanges(Connection connection, List<RdbInputSplit> splits) throws SQLException {
+        long start = System.currentTimeMillis();
+        List<RdbInputSplit> emptySplits = TableHelper.resolveKeyRanges(connection, splits);
+        LOG.debug("Resolved " + splits.size() + " key range(s) of table " + splits.get(0).getTable() + " use "
+                + (System.currentTimeMillis() - start) + "ms.");
+        return emptySplits;
+    }
+
+    private List<Table> fetchTables(Connection connection) throws SQLException {
         List<Table> tables = new ArrayList<>();
+        TableMetadataCache cache = TableMetadataCache.create(getConf(), jobConfiguration.getSource().getUrl());
         DataInputJobConfiguration.TableMapper[] tableMappers = jobConfiguration.getMappers();
         // 将所有的表取出来
         for (DataInputJobConfiguration.TableMapper tableMapper : tableMappers) {
@@ -127,31 +199,43 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
                 sourceTable = tableMapper.getSource().getTableName();
                 fields = tableMapper.getSource().getFields();
             }
-            // 匹配表名称
-            if (sourceTable.contains("%")) {
-                // 只有有通配符的表需要查询取出来
-                try (ResultSet rs = dmd.getTables(null, "%", sourceTable, new String[]{"TABLE"})) {
-                    while (rs.next()) {
-                        String tableName = rs.getString("TABLE_NAME");
-                        tables.add(new Table(tableName, targetTable, tableMapper.getSplitKey(), new ColumnList(fields)));
-                    }
-                }
-            } else {
-                tables.add(new Table(sourceTable, targetTable, tableMapper.getSplitKey(), new ColumnList(fields)));
+            // 匹配表名称，通配符匹配到的所有表一起查询
+            List<Table> mapperTables = TableHelper.discoverTables(connection, sourceTable, targetTable, tableMapper.getSplitKey(), fields, cache);
+            if (tableMapper.isIncremental()) {
+                setWatermarks(tableMapper, mapperTables);
             }
+            tables.addAll(mapperTables);
         }
         return tables;
     }
 
+    /**
+     * 增量导入的表只读取水位范围内的数据，提交任务以后才出现的表（没有水位）留到下次导入.
+     */
+    private void setWatermarks(DataInputJobConfiguration.TableMapper tableMapper, List<Table> mapperTables) {
+        Map<String, DataInputJobConfiguration.Watermark> watermarks = tableMapper.getWatermarks();
+        Iterator<Table> iterator = mapperTables.iterator();
+        while (iterator.hasNext()) {
+            Table table = iterator.next();
+            DataInputJobConfiguration.Watermark watermark = null == watermarks ? null : watermarks.get(table.getName());
+            if (null == watermark) {
+                LOG.info("Skip incremental table[" + table.getName() + "] without watermark.");
+                iterator.remove();
+                continue;
+            }
+            table.setWatermark(tableMapper.getWatermarkColumn(), watermark);
+        }
+    }
+
     private List<List<RdbInputSplit>> table2SplitGroup(List<Table> tables, long totalRecordCount) {
         // 获取Map Task的数量
         int numOfMapTask = getConf().getInt(JobContext.NUM_MAPS, 1);
         LOG.info("Get map task num is " + numOfMapTask);
         // 计算均分步长
-        int stepRecordCount = (int) (totalRecordCount / numOfMapTask);
+        long stepRecordCount = Math.max(1L, totalRecordCount / numOfMapTask);
         LOG.info("Generate step record count is " + stepRecordCount);
-        // 对table进行全局排序，按照记录数从小到大进行排序
-        tables.sort((o1, o2) -> -(int) (o1.getLength() - o2.getLength()));
+        // 对table进行全局排序，按照记录数从大到小进行排序
+        tables.sort((o1, o2) -> Long.compare(o2.getLength(), o1.getLength()));
         long currentLastCount = 0L;
         List<List<RdbInputSplit>> splitGroup = new ArrayList<>(numOfMapTask);
         List<RdbInputSplit> partOfSplits = new ArrayList<>();
@@ -173,32 +257,23 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
             }
             // 如果数量大于分片处理数量，则需要进行数据切分
             if (table.getLength() > stepRecordCount) {
-                int loop = (int) (table.getLength() / stepRecordCount);
-                if (table.getLength() % stepRecordCount > 0) {
-                    loop = loop + 1;
-                }
-                for (int i = 0; i < loop; i++) {
-                    long start = table.getStart() + stepRecordCount * i - 1;
-                    if (start < 0L) {
-                        // 开始不能够为0
-                        start = 0L;
-                    }
-                    long end = start + stepRecordCount;
-                    if (end > table.getEnd()) {
+                // 按照拆分键的分布切分，每个分片的估算行数相等，而不是拆分键的范围相等
+                for (long[] range : table.splitByRows(stepRecordCount)) {
+                    RdbInputSplit split = RdbInputSplit.createFromTableSplit(table, range[0], range[1], range[2]);
+                    if (range[2] < stepRecordCount) {
                         // 此处表示该切分已经不满足一个分片的处理数量了
-                        end = table.getEnd();
-                        currentLastCount = currentLastCount + (end - start);
-                        lastPartOfSplits.add(RdbInputSplit.createFromTableSplit(table, start, end));
+                        currentLastCount = currentLastCount + range[2];
+                        lastPartOfSplits.add(split);
                         if (currentLastCount >= stepRecordCount) {
                             splitGroup.add(new ArrayList<>(lastPartOfSplits));
                             lastPartOfSplits.clear();
                             currentLastCount = 0L;
                         }
-                        // 这里表示已经是最后一个切片都处理完成了，则不需要进行下面的操作
-                        break;
+                        // 不满足一个分片的数量的切片和其他表剩下的切片合并到一起
+                        continue;
                     }
                     // 将切分的分片加入到分组中
-                    partOfSplits.add(RdbInputSplit.createFromTableSplit(table, start, end));
+                    partOfSplits.add(split);
                     // 当达到当前的组的峰值，则不将后续的添加到当前组
                     splitGroup.add(new ArrayList<>(partOfSplits));
                     // 需要将集合清空，方便下次进行新的缓存
@@ -253,6 +328,20 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
         }
     }
 
+    /**
+     * 统计行数明显小于每个Map处理行数的表不会被拆分，不需要拆分键的分布.
+     */
+    private int getHistogramBuckets(Table table, long estimatedStep) {
+        if (table.getEstimatedRows() * 2 < estimatedStep) {
+            return 1;
+        }
+        return getConf().getInt(DATA_INPUT_SPLIT_HISTOGRAM_BUCKETS_PROPERTY, DEFAULT_SPLIT_HISTOGRAM_BUCKETS);
+    }
+
+    private boolean isEstimateRows() {
+        return getConf().getBoolean(DATA_INPUT_SPLIT_ESTIMATE_ROWS_PROPERTY, false);
+    }
+
     @Override
     public Configuration getConf() {
         return this.dataInputs.getMapReduceConfiguration();
@@ -264,22 +353,38 @@ public class RdbInputFormat extends InputFormat<LongWritable, RowWritable> imple
         this.jobConfiguration = dataInputs.getJobConfiguration();
     }
 
-    private class GetSourceTableColumnsCallable implements Callable<Table> {
+    private class ResolveKeyRangesCallable implements Callable<List<RdbInputSplit>> {
+
+        private List<RdbInputSplit> splits;
+
+        private ResolveKeyRangesCallable(List<RdbInputSplit> splits) {
+            this.splits = splits;
+        }
+
+        @Override
+        public List<RdbInputSplit> call() throws Exception {
+            try (Connection connection = dataInputs.getSourceConnection()) {
+                return resolveTableKeyRanges(connection, splits);
+            }
+        }
+    }
+
+    private class GetTableSplitCallable implements Callable<Table> {
 
         private Table table;
 
-        private GetSourceTableColumnsCallable(Table table) {
+        private int histogramBuckets;
+
+        private GetTableSplitCallable(Table table, int histogramBuckets) {
             this.table = table;
+            this.histogramBuckets = histogramBuckets;
         }
 
         @Override
         public Table call() throws Exception {
             try (Connection connection = dataInputs.getSourceConnection()) {
-                DatabaseMetaData dmd = connection.getMetaData();
-                // 获取源表的所有列信息
-                TableHelper.getSourceTableColumns(dmd, table);
                 // 获取表的拆分情况
-                TableHelper.getTableSplit(connection, table);
+                TableHelper.getTableSplit(connection, table, histogramBuckets, isEstimateRows());
             }
             return table;
         }
@@ -1,5 +1,6 @@
 package com.aiplus.bi.etl.input.rdb;
 
+import com.aiplus.bi.etl.input.DataInputJobConfiguration;
 import com.google.gson.GsonBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,12 +29,46 @@ public class RdbInputSplit extends InputSplit implements Writable {
 
     private String[] primaryKeys;
 
+    /**
+     * 按照主键索引中的顺序排列的主键，主键分页的条件和边界都是这个顺序. 为null的时候和primaryKeys一样.
+     */
+    private String[] indexKeys;
+
     private String[] fields;
 
+    /**
+     * 主键和字段的类型（{@link java.sql.Types}），用来生成{@link RowTextExtractor}，为null的时候都按照字符串读取.
+     */
+    private int[] primaryKeyTypes;
+
+    private int[] fieldTypes;
+
     private long start;
 
     private long end;
 
+    /**
+     * 估算的行数.
+     */
+    private long length;
+
+    /**
+     * 没有拆分键的表按照主键分页，分片的主键下界（包含），和indexKeys的顺序一致，为null表示从表的第一行开始.
+     */
+    private String[] lowerKeys;
+
+    /**
+     * 分片的主键上界（不包含），为null表示读取到表的最后一行.
+     */
+    private String[] upperKeys;
+
+    /**
+     * 增量导入的水位列，为空表示全量导入.
+     */
+    private String watermarkColumn;
+
+    private DataInputJobConfiguration.Watermark watermark;
+
     private RdbInputSplit nextSplit;
     private transient GsonBuilder gsonBuilder = new GsonBuilder().serializeNulls();
 
@@ -54,20 +89,31 @@ public class RdbInputSplit extends InputSplit implements Writable {
         this.fields = fields;
         this.start = start;
         this.end = end;
+        this.length = end - start;
         this.nextSplit = nextSplit;
     }
 
     public static RdbInputSplit createFromTable(Table table) {
-        return new RdbInputSplit(table.getName(), table.getTarget(), table.getKeyNames(), table.getSplitKey(), table.getColumnNames(), table.getStart(), table.getEnd());
+        return createFromTableSplit(table, table.getStart(), table.getEnd(), table.getLength());
     }
 
-    public static RdbInputSplit createFromTableSplit(Table table, long start, long end) {
-        return new RdbInputSplit(table.getName(), table.getTarget(), table.getKeyNames(), table.getSplitKey(), table.getColumnNames(), start, end);
+    public static RdbInputSplit createFromTableSplit(Table table, long start, long end, long rows) {
+        RdbInputSplit split = new RdbInputSplit(table.getName(), table.getTarget(), table.getKeyNames(), table.getSplitKey(), table.getColumnNames(), start, end);
+        split.length = rows;
+        split.primaryKeyTypes = table.getKeyTypes();
+        split.indexKeys = table.getIndexKeyNames();
+        split.fieldTypes = table.getColumnTypes();
+        split.watermarkColumn = table.getWatermarkColumn();
+        split.watermark = table.getWatermark();
+        return split;
     }
 
+    /**
+     * @return 估算的行数，有拆分键的时候是根据拆分键的分布估算出来的，不是拆分键的范围
+     */
     @Override
     public long getLength() {
-        return end - start;
+        return length;
     }
 
     @Override
@@ -91,9 +137,17 @@ public class RdbInputSplit extends InputSplit implements Writable {
         this.targetTable = that.targetTable;
         this.splitKey = that.splitKey;
         this.primaryKeys = that.primaryKeys;
+        this.indexKeys = that.indexKeys;
         this.fields = that.fields;
+        this.primaryKeyTypes = that.primaryKeyTypes;
+        this.fieldTypes = that.fieldTypes;
         this.start = that.start;
         this.end = that.end;
+        this.length = that.length;
+        this.lowerKeys = that.lowerKeys;
+        this.upperKeys = that.upperKeys;
+        this.watermarkColumn = that.watermarkColumn;
+        this.watermark = that.watermark;
         this.nextSplit = that.nextSplit;
     }
 
@@ -133,6 +187,53 @@ public class RdbInputSplit extends InputSplit implements Writable {
         return primaryKeys;
     }
 
+    public String[] getIndexKeys() {
+        return null == indexKeys ? primaryKeys : indexKeys;
+    }
+
+    public int[] getPrimaryKeyTypes() {
+        return primaryKeyTypes;
+    }
+
+    public int[] getFieldTypes() {
+        return fieldTypes;
+    }
+
+    /**
+     * 是否按照主键范围读取：没有拆分键，并且表有主键.
+     */
+    public boolean isKeyRange() {
+        return null == splitKey && null != primaryKeys && primaryKeys.length > 0;
+    }
+
+    public String[] getLowerKeys() {
+        return lowerKeys;
+    }
+
+    public String[] getUpperKeys() {
+        return upperKeys;
+    }
+
+    public void setKeyRange(String[] lowerKeys, String[] upperKeys) {
+        this.lowerKeys = lowerKeys;
+        this.upperKeys = upperKeys;
+    }
+
+    /**
+     * 是否增量导入，增量导入的分片只读取水位范围内的数据.
+     */
+    public boolean isIncremental() {
+        return null != watermarkColumn && null != watermark;
+    }
+
+    public String getWatermarkColumn() {
+        return watermarkColumn;
+    }
+
+    public DataInputJobConfiguration.Watermark getWatermark() {
+        return watermark;
+    }
+
     @Override
     public String toString() {
         return gsonBuilder.create().toJson(this);
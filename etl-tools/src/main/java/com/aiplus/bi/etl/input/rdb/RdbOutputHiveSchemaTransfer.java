@@ -40,6 +40,7 @@ public class RdbOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
                     sourceTable = tableMapper.getSource().getTableName();
                     fields = tableMapper.getSource().getFields();
                 }
+                String sourcePattern = sourceTable;
                 // 通配符的情况
                 if (sourceTable.contains("%")) {
                     // 拿表结构
@@ -68,7 +69,13 @@ public class RdbOutputHiveSchemaTransfer extends OutputHiveSchemaTransfer {
                         cols.add(new ColumnMetadata(colName, transferHiveDataType(rs.getInt("DATA_TYPE")), rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS")));
                     }
                 }
-                hiveCreateStatements.add(generateCreateStatementDDL(schemaName, tableMapper.getTargetTable(), cols, getEtlJobConfiguration().getOutput().getHiveExternalPath()));
+                String externalPath = getEtlJobConfiguration().getOutput().getHiveExternalPath();
+                if (tableMapper.isIncremental()) {
+                    // 增量导入的数据需要合并到原来的表中
+                    hiveCreateStatements.add(generateMergeStatementDDL(schemaName, tableMapper.getTargetTable(), cols, externalPath, sourcePattern));
+                } else {
+                    hiveCreateStatements.add(generateCreateStatementDDL(schemaName, tableMapper.getTargetTable(), cols, externalPath));
+                }
             }
         } catch (SQLException e) {
             throw new IOException(e);
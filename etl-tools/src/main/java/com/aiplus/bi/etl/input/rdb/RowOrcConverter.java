@@ -0,0 +1,164 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.serde2.io.DateWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.io.*;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.mapred.OrcStruct;
+import org.apache.orc.mapred.OrcTimestamp;
+
+import java.math.BigDecimal;
+import java.sql.*;
+
+/**
+ * 把查询结果中的一行转换成ORC的行.
+ * <p>
+ * 整数、浮点数、高精度数、日期和时间戳保留原始的类型，其他的类型都转换成字符串.
+ * 类型的映射和{@link RdbOutputHiveSchemaTransfer}生成的ORC表结构保持一致，每个结果集创建一个转换器，所有的行复用同一个OrcStruct.
+ *
+ * @author dev
+ */
+public class RowOrcConverter {
+
+    private static final String TABLE_NULL_VALUE = "null";
+
+    private static final int MAX_DECIMAL_PRECISION = 38;
+
+    private final TypeDescription schema;
+
+    private final TypeDescription.Category[] categories;
+
+    private final WritableComparable[] writables;
+
+    private final OrcStruct struct;
+
+    public RowOrcConverter(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        this.schema = TypeDescription.createStruct();
+        for (int i = 1; i <= columnCount; i++) {
+            schema.addField(metaData.getColumnLabel(i).toLowerCase(),
+                    toOrcType(metaData.getColumnType(i), metaData.getPrecision(i), metaData.getScale(i)));
+        }
+        this.struct = new OrcStruct(schema);
+        this.categories = new TypeDescription.Category[columnCount];
+        this.writables = new WritableComparable[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            TypeDescription type = schema.getChildren().get(i);
+            categories[i] = type.getCategory();
+            writables[i] = OrcStruct.createValue(type);
+        }
+    }
+
+    /**
+     * JDBC类型转换成ORC类型.
+     */
+    static TypeDescription toOrcType(int javaSqlType, int precision, int scale) {
+        switch (javaSqlType) {
+            case Types.BIGINT:
+                return TypeDescription.createLong();
+            case Types.INTEGER:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return TypeDescription.createInt();
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+                return TypeDescription.createDouble();
+            case Types.DECIMAL:
+                int p = Math.max(1, Math.min(precision, MAX_DECIMAL_PRECISION));
+                return TypeDescription.createDecimal().withPrecision(p).withScale(Math.max(0, Math.min(scale, p)));
+            case Types.TIMESTAMP:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return TypeDescription.createTimestamp();
+            case Types.DATE:
+                return TypeDescription.createDate();
+            default:
+                return TypeDescription.createString();
+        }
+    }
+
+    /**
+     * 读取结果集的当前行.
+     *
+     * @param rs 结果集
+     * @return ORC的行，每次调用都返回同一个对象
+     * @throws SQLException 读取失败
+     */
+    public OrcStruct convert(ResultSet rs) throws SQLException {
+        for (int i = 0; i < categories.length; i++) {
+            struct.setFieldValue(i, readValue(rs, i));
+        }
+        return struct;
+    }
+
+    private WritableComparable readValue(ResultSet rs, int i) throws SQLException {
+        int columnIndex = i + 1;
+        switch (categories[i]) {
+            case LONG: {
+                long val = rs.getLong(columnIndex);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                ((LongWritable) writables[i]).set(val);
+                return writables[i];
+            }
+            case INT: {
+                long val = rs.getLong(columnIndex);
+                // 无符号的INT可能超出范围，和文本格式一样在Hive中作为NULL处理
+                if (rs.wasNull() || val > Integer.MAX_VALUE || val < Integer.MIN_VALUE) {
+                    return null;
+                }
+                ((IntWritable) writables[i]).set((int) val);
+                return writables[i];
+            }
+            case DOUBLE: {
+                double val = rs.getDouble(columnIndex);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                ((DoubleWritable) writables[i]).set(val);
+                return writables[i];
+            }
+            case DECIMAL: {
+                BigDecimal val = rs.getBigDecimal(columnIndex);
+                HiveDecimal decimal = null == val ? null : HiveDecimal.create(val);
+                if (null == decimal) {
+                    return null;
+                }
+                ((HiveDecimalWritable) writables[i]).set(decimal);
+                return writables[i];
+            }
+            case TIMESTAMP: {
+                Timestamp val = rs.getTimestamp(columnIndex);
+                if (null == val) {
+                    return null;
+                }
+                ((OrcTimestamp) writables[i]).setTime(val.getTime());
+                ((OrcTimestamp) writables[i]).setNanos(val.getNanos());
+                return writables[i];
+            }
+            case DATE: {
+                Date val = rs.getDate(columnIndex);
+                if (null == val) {
+                    return null;
+                }
+                ((DateWritable) writables[i]).set(val);
+                return writables[i];
+            }
+            default: {
+                String val = rs.getString(columnIndex);
+                if (null == val || TABLE_NULL_VALUE.equalsIgnoreCase(val)) {
+                    return null;
+                }
+                ((Text) writables[i]).set(val);
+                return writables[i];
+            }
+        }
+    }
+
+    public TypeDescription getSchema() {
+        return schema;
+    }
+}
@@ -1,5 +1,6 @@
 package com.aiplus.bi.etl.input.rdb;
 
+import com.aiplus.bi.etl.input.DataInputs;
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -10,10 +11,9 @@ import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 行记录读取器.根据数据分片信息一行一行读取数据输出给Map.
@@ -24,6 +24,21 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
 
     private static final Log LOG = LogFactory.getLog(RowRecordReader.class);
 
+    /**
+     * 流式读取的时候MySQL等待客户端接收数据的超时时间（秒），Map输出慢的时候默认的60秒可能不够.
+     */
+    public static final String NET_WRITE_TIMEOUT_PROPERTY = "etl.rdb.net.write.timeout";
+
+    private static final int DEFAULT_NET_WRITE_TIMEOUT = 600;
+
+    /**
+     * 读取当前分片的同时预先查询后面几个串联的分片，每个预取的分片占用一个单独的连接，0表示不预取.
+     * 每个Map最多占用1 + N个连接（不超过数据源的最大连接数），整个任务的连接数是Map数 * (1 + N)，需要和数据库的max_connections一起考虑.
+     */
+    public static final String PREFETCH_SPLITS_PROPERTY = "etl.rdb.prefetch.splits";
+
+    private static final int DEFAULT_PREFETCH_SPLITS = 0;
+
     private Configuration conf;
 
     private RdbInputSplit split;
@@ -42,10 +57,32 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
 
     private long maxRecordNum;
 
+    private boolean orcFormat;
+
+    private RowOrcConverter rowOrcConverter;
+
+    private RowTextExtractor rowTextExtractor;
+
+    private DataInputs dataInputs;
+
+    private SplitPrefetcher prefetcher;
+
+    /**
+     * 当前分片预取的查询，为null表示当前分片是在自己的连接上查询的.
+     */
+    private SplitPrefetcher.PrefetchedQuery prefetchedQuery;
+
+    /**
+     * 预取的查询还没有读到第一行，这时候读取失败可以在自己的连接上重新查询.
+     */
+    private boolean prefetchedUnread;
+
     public RowRecordReader(Configuration conf, RdbInputSplit split, Connection connection) {
         this.conf = conf;
         this.split = split;
         this.connection = connection;
+        this.dataInputs = new DataInputs(conf);
+        this.orcFormat = dataInputs.getJobConfiguration().getOutput().getFormat() == DataInputs.Format.ORC;
         RdbInputSplit eis = split;
         while (eis.hasNextSplit()) {
             this.maxRecordNum = this.maxRecordNum + eis.getLength();
@@ -69,7 +106,9 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
             }
             if (null == this.rs) {
                 // First time into this method, run the query.
-                this.rs = executeQuery(getSelectQuery());
+                setNetWriteTimeout(connection);
+                this.rs = executeQuery(getSelectQuery(), getQueryParameters(split));
+                startPrefetcher();
             }
             if (!checkNext()) {
                 return false;
@@ -77,7 +116,19 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
             // Set the key field value as the output key value
             key.set(pos + split.getStart());
 
-            value.readFields(rs, split.getTable(), split.getFields(), split.getPrimaryKeys(), split.getTargetTable());
+            if (orcFormat) {
+                if (null == rowOrcConverter) {
+                    // 每个结果集的列都可能不一样，需要重新生成转换器
+                    rowOrcConverter = new RowOrcConverter(rs.getMetaData());
+                }
+                value.readOrcFields(rs, rowOrcConverter, split.getTable(), split.getTargetTable());
+            } else {
+                if (null == rowTextExtractor) {
+                    // 每个分片的列都可能不一样，需要重新生成提取器
+                    rowTextExtractor = RowTextExtractor.compile(split);
+                }
+                value.readFields(rs, rowTextExtractor, split.getTable(), split.getTargetTable());
+            }
 
             pos++;
         } catch (SQLException e) {
@@ -88,17 +139,27 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
 
     private boolean checkNext() throws IOException, SQLException {
         // 判断当前结果集有没有查询完
-        if (!rs.next()) {
+        if (!nextRow()) {
             // 如果没有查询完
             // 判断有没有下一个分片需要查询
             if (split.hasNextSplit()) {
                 // 轮换到下一个分片进行处理
                 this.split = this.split.getNextSplit();
-                closeResultSet(rs);
-                // 资源返还
-                this.rs = null;
-                // 重新查询
-                this.rs = executeQuery(getSelectQuery());
+                // 资源返还，流式读取的结果集没有关闭之前不能在同一个连接上执行新的查询
+                closeResultSet();
+                this.rowOrcConverter = null;
+                this.rowTextExtractor = null;
+                // 重新查询，预取的分片直接使用已经打开的结果集
+                if (null != prefetcher) {
+                    this.prefetchedQuery = prefetcher.take(split, getNetWriteTimeout() * 1000L);
+                }
+                if (null != prefetchedQuery) {
+                    this.pstmt = prefetchedQuery.getStatement();
+                    this.rs = prefetchedQuery.getResultSet();
+                    this.prefetchedUnread = true;
+                } else {
+                    this.rs = executeQuery(getSelectQuery(), getQueryParameters(split));
+                }
                 // 递归处理查询的情况，直到找到结果集或者没有需要处理的分片了
                 return checkNext();
             } else {
@@ -110,6 +171,24 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
         return true;
     }
 
+    /**
+     * 读取下一行. 预取的查询在等待的时候可能已经被数据库中断了（net_write_timeout），还没有读到数据的时候在自己的连接上重新查询.
+     */
+    private boolean nextRow() throws IOException, SQLException {
+        if (!prefetchedUnread) {
+            return rs.next();
+        }
+        prefetchedUnread = false;
+        try {
+            return rs.next();
+        } catch (SQLException e) {
+            LOG.warn("Read prefetched split of table [" + split.getTable() + "] failed, query it again: " + e.getMessage());
+            closeResultSet();
+            this.rs = executeQuery(getSelectQuery(), getQueryParameters(split));
+            return rs.next();
+        }
+    }
+
     @Override
     public LongWritable getCurrentKey() {
         return key;
@@ -127,6 +206,15 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
 
     @Override
     public void close() throws IOException {
+        if (null != prefetcher) {
+            prefetcher.close();
+        }
+        if (null != prefetchedQuery) {
+            prefetchedQuery.close();
+            prefetchedQuery = null;
+            rs = null;
+            pstmt = null;
+        }
         try {
             if (null != rs) {
                 rs.close();
@@ -142,12 +230,55 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
         }
     }
 
-    protected ResultSet executeQuery(String query) throws SQLException {
-        LOG.info("Query SQL: " + query);
-        this.pstmt = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    /**
+     * 执行查询，结果集使用流式读取（MySQL驱动在fetchSize为Integer.MIN_VALUE的时候一行一行地读取），不会把整个结果集缓存在内存中.
+     */
+    protected ResultSet executeQuery(String query, List<String> params) throws SQLException {
+        this.pstmt = prepareQuery(connection, query, params);
         return pstmt.executeQuery();
     }
 
+    /**
+     * 在指定的连接上准备分片的查询，预取的时候在后台线程中调用.
+     */
+    PreparedStatement prepareQuery(Connection connection, RdbInputSplit split) throws SQLException {
+        return prepareQuery(connection, getSelectQuery(split), getQueryParameters(split));
+    }
+
+    private PreparedStatement prepareQuery(Connection connection, String query, List<String> params) throws SQLException {
+        LOG.info("Query SQL: " + query + (params.isEmpty() ? "" : " " + params));
+        PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            statement.setFetchSize(Integer.MIN_VALUE);
+            TableHelper.bindParameters(statement, params);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * 有串联的分片并且启用了预取的时候，在后台预先查询后面的分片. 预取的连接数不超过数据源的最大连接数减去当前的连接.
+     */
+    private void startPrefetcher() {
+        int prefetchNum = Math.min(conf.getInt(PREFETCH_SPLITS_PROPERTY, DEFAULT_PREFETCH_SPLITS), dataInputs.getSourceMaxConnections() - 1);
+        if (prefetchNum > 0 && split.hasNextSplit()) {
+            LOG.info("Prefetch " + prefetchNum + " split(s) in background, this map uses up to " + (1 + prefetchNum) + " connections.");
+            this.prefetcher = new SplitPrefetcher(this, dataInputs, split.getNextSplit(), prefetchNum);
+        }
+    }
+
+    void setNetWriteTimeout(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SET SESSION net_write_timeout = " + getNetWriteTimeout());
+        }
+    }
+
+    private int getNetWriteTimeout() {
+        return conf.getInt(NET_WRITE_TIMEOUT_PROPERTY, DEFAULT_NET_WRITE_TIMEOUT);
+    }
+
     @VisibleForTesting
     protected String getSelectQuery(RdbInputSplit split) {
         StringBuilder query = new StringBuilder();
@@ -159,6 +290,8 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
         String tableName = split.getTable();
 
         query.append("CONCAT(");
+        // table_pk是“源表名:主键”，通配符匹配的分表之间主键可能重复. 全量和增量使用相同的格式，增量数据才能和全量导入的数据合并
+        query.append("'").append(tableName.replace("\\", "\\\\").replace("'", "''")).append("', ':', ");
         StringBuilder pkQuery = new StringBuilder();
         for (int i = 0; i < primaryKeys.length - 1; i++) {
             String primaryKey = primaryKeys[i];
@@ -181,11 +314,33 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
         query.append(" FROM `").append(tableName).append("`");
 
         String splitKey = split.getSplitKey();
-        if (splitKey == null) {
-            query.append(" LIMIT ").append(split.getLength());
+        List<String> params = new ArrayList<>();
+        String conjunction = " WHERE ";
+        if (split.isIncremental()) {
+            // 增量导入只读取水位范围内的数据
+            query.append(conjunction);
+            WatermarkHelper.appendWatermarkCondition(query, params, split.getWatermarkColumn(), split.getWatermark());
+            conjunction = " AND ";
+        }
+        if (split.isKeyRange()) {
+            // 按照主键范围读取，深度分页和第一页的代价是一样的. 条件中的列按照主键索引的顺序，table_pk中的顺序不变
+            String[] lowerKeys = split.getLowerKeys();
+            String[] upperKeys = split.getUpperKeys();
+            if (null != lowerKeys) {
+                query.append(conjunction);
+                TableHelper.appendKeyCondition(query, params, split.getIndexKeys(), lowerKeys, true);
+                conjunction = " AND ";
+            }
+            if (null != upperKeys) {
+                query.append(conjunction);
+                TableHelper.appendKeyCondition(query, params, split.getIndexKeys(), upperKeys, false);
+            }
+        } else if (splitKey == null) {
+            // 没有主键的表只能按照OFFSET分页
+            query.append(" LIMIT ").append(split.getEnd() - split.getStart());
             query.append(" OFFSET ").append(split.getStart());
         } else {
-            query.append(" WHERE ");
+            query.append(conjunction);
             query.append("`").append(splitKey).append("`").append(" >= ").append(split.getStart());
             query.append(" AND ");
             query.append("`").append(splitKey).append("`").append(" < ").append(split.getEnd());
@@ -194,14 +349,47 @@ public class RowRecordReader extends RecordReader<LongWritable, RowWritable> {
         return query.toString();
     }
 
+    /**
+     * 查询的参数，和{@link #getSelectQuery(RdbInputSplit)}中占位符的顺序一致.
+     */
+    @VisibleForTesting
+    protected List<String> getQueryParameters(RdbInputSplit split) {
+        List<String> params = new ArrayList<>();
+        if (split.isIncremental()) {
+            WatermarkHelper.appendWatermarkCondition(new StringBuilder(), params, split.getWatermarkColumn(), split.getWatermark());
+        }
+        if (split.isKeyRange()) {
+            if (null != split.getLowerKeys()) {
+                TableHelper.appendKeyCondition(new StringBuilder(), params, split.getIndexKeys(), split.getLowerKeys(), true);
+            }
+            if (null != split.getUpperKeys()) {
+                TableHelper.appendKeyCondition(new StringBuilder(), params, split.getIndexKeys(), split.getUpperKeys(), false);
+            }
+        }
+        return params;
+    }
+
     private String getSelectQuery() {
         return getSelectQuery(split);
     }
 
-    private void closeResultSet(ResultSet rs) throws IOException {
+    private void closeResultSet() throws IOException {
+        if (null != prefetchedQuery) {
+            // 预取的查询使用单独的连接，读完以后连同连接一起归还
+            prefetchedQuery.close();
+            prefetchedQuery = null;
+            rs = null;
+            pstmt = null;
+            return;
+        }
         try {
-            if (null != rs && rs.isClosed()) {
+            if (null != rs) {
                 rs.close();
+                rs = null;
+            }
+            if (null != pstmt) {
+                pstmt.close();
+                pstmt = null;
             }
         } catch (SQLException e) {
             throw new IOException(e);
@@ -0,0 +1,215 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import org.apache.hadoop.io.Text;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * 把查询结果的一行写成文本格式：table_pk、主键、字段依次使用\001分隔.
+ * <p>
+ * 每个分片根据列的类型生成一个提取器，按照列的位置读取（和{@link RowRecordReader}生成的查询的列顺序一致），
+ * 不需要驱动每次按照列名查找. 整数类型的列通过getLong读取，直接把数字写成字节；其他类型的列读取字符串以后直接编码成UTF-8，
+ * 编码的同时去掉字段中的换行符. 所有的行复用同一个字节缓冲区，一行数据除了驱动返回的字符串以外不会分配新的对象.
+ *
+ * @author dev
+ */
+public class RowTextExtractor {
+
+    private static final byte COLUMN_SPLIT = '\001';
+
+    private static final byte[] HIVE_NULL_VALUE = {'\\', 'N'};
+
+    private static final String TABLE_NULL_VALUE = "null";
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * 每一列是否是整数类型，下标是列的位置减一.
+     */
+    private final boolean[] integralColumns;
+
+    /**
+     * 主键的数量，主键在table_pk之后.
+     */
+    private final int keyNum;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private int length;
+
+    /**
+     * @param keyTypes   主键的类型（{@link Types}），为null的时候都按照字符串读取
+     * @param fieldTypes 字段的类型，为null的时候都按照字符串读取
+     * @param keyNum     主键的数量
+     * @param fieldNum   字段的数量
+     */
+    public RowTextExtractor(int[] keyTypes, int[] fieldTypes, int keyNum, int fieldNum) {
+        this.keyNum = keyNum;
+        this.integralColumns = new boolean[1 + keyNum + fieldNum];
+        for (int i = 0; i < keyNum; i++) {
+            integralColumns[1 + i] = null != keyTypes && isIntegral(keyTypes[i]);
+        }
+        for (int i = 0; i < fieldNum; i++) {
+            integralColumns[1 + keyNum + i] = null != fieldTypes && isIntegral(fieldTypes[i]);
+        }
+    }
+
+    /**
+     * 根据分片中的列生成提取器.
+     */
+    public static RowTextExtractor compile(RdbInputSplit split) {
+        return new RowTextExtractor(split.getPrimaryKeyTypes(), split.getFieldTypes(), split.getPrimaryKeys().length, split.getFields().length);
+    }
+
+    private static boolean isIntegral(int javaSqlType) {
+        switch (javaSqlType) {
+            case Types.BIGINT:
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 读取结果集的当前行.
+     *
+     * @param rs   结果集
+     * @param text 输出的文本，每次调用都会覆盖原来的内容
+     * @throws SQLException 读取失败
+     */
+    public void extract(ResultSet rs, Text text) throws SQLException {
+        length = 0;
+        // table pk，主键中有NULL的时候CONCAT的结果是NULL，和主键一样原样输出成null
+        appendString(String.valueOf(rs.getString(1)), false);
+        // 主键和原来一样原样输出
+        for (int i = 2; i <= 1 + keyNum; i++) {
+            buffer[length++] = COLUMN_SPLIT;
+            appendKey(rs, i);
+        }
+        // 字段
+        for (int i = 2 + keyNum; i <= integralColumns.length; i++) {
+            buffer[length++] = COLUMN_SPLIT;
+            appendField(rs, i);
+        }
+        text.set(buffer, 0, length);
+    }
+
+    private void appendKey(ResultSet rs, int columnIndex) throws SQLException {
+        if (integralColumns[columnIndex - 1] && appendLong(rs, columnIndex)) {
+            return;
+        }
+        appendString(String.valueOf(rs.getString(columnIndex)), false);
+    }
+
+    private void appendField(ResultSet rs, int columnIndex) throws SQLException {
+        if (integralColumns[columnIndex - 1] && appendLong(rs, columnIndex)) {
+            return;
+        }
+        String val = rs.getString(columnIndex);
+        // 长度不是4的字符串equalsIgnoreCase直接返回false，不会逐个字符比较
+        if (null == val || TABLE_NULL_VALUE.equalsIgnoreCase(val)) {
+            appendBytes(HIVE_NULL_VALUE);
+        } else {
+            appendString(val, true);
+        }
+    }
+
+    /**
+     * 使用getLong读取整数，返回false表示超出了long的范围（无符号的BIGINT），需要按照字符串读取.
+     */
+    private boolean appendLong(ResultSet rs, int columnIndex) {
+        long val;
+        try {
+            val = rs.getLong(columnIndex);
+            if (rs.wasNull()) {
+                appendBytes(HIVE_NULL_VALUE);
+                return true;
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+        ensureCapacity(20);
+        if (val == Long.MIN_VALUE) {
+            appendString(Long.toString(val), false);
+            return true;
+        }
+        if (val < 0) {
+            buffer[length++] = '-';
+            val = -val;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + val % 10);
+            val = val / 10;
+        } while (val != 0);
+        // 数字是倒序写入的，需要翻转
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+        return true;
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length = length + bytes.length;
+    }
+
+    /**
+     * 把字符串编码成UTF-8写入缓冲区，不成对的代理字符和String.getBytes一样替换成'?'.
+     *
+     * @param val              字符串
+     * @param stripLineBreaks 是否去掉换行符
+     */
+    private void appendString(String val, boolean stripLineBreaks) {
+        int n = val.length();
+        // 一个字符最多3个字节，代理对是两个字符4个字节
+        ensureCapacity(n * 3);
+        byte[] buf = buffer;
+        int pos = length;
+        for (int i = 0; i < n; i++) {
+            char c = val.charAt(i);
+            if (c < 0x80) {
+                if (stripLineBreaks && (c == '\r' || c == '\n')) {
+                    continue;
+                }
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(val.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, val.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        length = pos;
+    }
+
+    /**
+     * 保证缓冲区还能写入size个字节，另外预留一个分隔符的位置.
+     */
+    private void ensureCapacity(int size) {
+        int required = length + size + 1;
+        if (required > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
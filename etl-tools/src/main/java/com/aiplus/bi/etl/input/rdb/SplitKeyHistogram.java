@@ -0,0 +1,96 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 拆分键的分布直方图.
+ * <p>
+ * 每个桶是拆分键的一个左闭右开区间[bounds[i], bounds[i + 1])和这个区间内的估算行数，桶内的数据认为是均匀分布的.
+ * 按照行数切分的时候，切分点落在桶的中间则按照比例插值，这样稀疏或者聚集的ID也能切分出行数相等的分片.
+ *
+ * @author dev
+ */
+public class SplitKeyHistogram {
+
+    private final long[] bounds;
+
+    private final long[] rows;
+
+    public SplitKeyHistogram(long[] bounds, long[] rows) {
+        if (bounds.length != rows.length + 1) {
+            throw new IllegalArgumentException("Histogram bounds size must be rows size + 1.");
+        }
+        this.bounds = bounds;
+        this.rows = rows;
+    }
+
+    /**
+     * 均匀分布的直方图，只有一个桶.
+     */
+    public static SplitKeyHistogram uniform(long start, long end, long rows) {
+        return new SplitKeyHistogram(new long[]{start, end}, new long[]{rows});
+    }
+
+    public long getStart() {
+        return bounds[0];
+    }
+
+    public long getEnd() {
+        return bounds[bounds.length - 1];
+    }
+
+    public long getTotalRows() {
+        long total = 0L;
+        for (long row : rows) {
+            total = total + row;
+        }
+        return total;
+    }
+
+    /**
+     * 按照行数把整个区间切分成多个连续的范围，除了最后一个范围，每个范围的估算行数都等于rowsPerRange.
+     *
+     * @param rowsPerRange 每个范围的行数
+     * @return 每个元素是{start, end, rows}，范围是左闭右开的
+     */
+    public List<long[]> split(long rowsPerRange) {
+        List<long[]> ranges = new ArrayList<>();
+        if (rowsPerRange <= 0L) {
+            ranges.add(new long[]{getStart(), getEnd(), getTotalRows()});
+            return ranges;
+        }
+        long rangeStart = getStart();
+        double acc = 0D;
+        for (int b = 0; b < rows.length; b++) {
+            long lo = bounds[b];
+            long hi = bounds[b + 1];
+            long width = hi - lo;
+            if (width <= 0L) {
+                continue;
+            }
+            double bucketRows = rows[b];
+            long cur = lo;
+            while (cur < hi) {
+                double remaining = bucketRows * (hi - cur) / width;
+                double need = rowsPerRange - acc;
+                if (remaining < need) {
+                    acc = acc + remaining;
+                    break;
+                }
+                // 切分点在这个桶里面，按照比例插值
+                long cut = cur + (long) Math.ceil(need / bucketRows * width);
+                cut = Math.min(hi, Math.max(cur + 1, cut));
+                acc = acc + bucketRows * (cut - cur) / width;
+                ranges.add(new long[]{rangeStart, cut, Math.round(acc)});
+                rangeStart = cut;
+                acc = 0D;
+                cur = cut;
+            }
+        }
+        if (rangeStart < getEnd()) {
+            ranges.add(new long[]{rangeStart, getEnd(), Math.round(acc)});
+        }
+        return ranges;
+    }
+}
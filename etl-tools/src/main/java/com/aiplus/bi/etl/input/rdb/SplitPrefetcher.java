@@ -0,0 +1,223 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import com.aiplus.bi.etl.input.DataInputs;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 预先查询一个Map中串联的后续分片.
+ * <p>
+ * 一个Map经常要读取很多小表的分片，每个分片的查询都要等待数据库返回第一行数据. 预取的时候在后台线程中使用单独的连接
+ * 提前执行后面N个分片的查询，Map读完当前分片的时候下一个分片的结果集已经准备好了. 结果集是流式读取的，
+ * 预取的查询只会占用连接和数据库的网络缓冲区，不会把数据缓存在内存中；同时打开的预取查询不超过N个，取走一个才会提交下一个.
+ * <p>
+ * 预取的查询在被取走之前没有人读取，数据库的网络缓冲区写满以后会一直等待，超过net_write_timeout以后数据库会中断查询.
+ * 所以等待时间太长的查询直接放弃；预取失败或者被放弃的时候{@link #take}返回null，由Map在自己的连接上重新查询这个分片.
+ * <p>
+ * 每个Map最多同时占用1 + N个数据库连接，整个任务最多占用Map数 * (1 + N)个连接.
+ *
+ * @author dev
+ */
+class SplitPrefetcher implements Closeable {
+
+    private static final Log LOG = LogFactory.getLog(SplitPrefetcher.class);
+
+    private final RowRecordReader reader;
+
+    private final DataInputs dataInputs;
+
+    private final ExecutorService executor;
+
+    /**
+     * 按照分片顺序提交的查询.
+     */
+    private final Deque<Future<PrefetchedQuery>> pending = new ArrayDeque<>();
+
+    /**
+     * 已经打开但是还没有被取走的查询，关闭的时候需要释放.
+     */
+    private final Set<PrefetchedQuery> opened = new HashSet<>();
+
+    private RdbInputSplit nextSplit;
+
+    private boolean closed;
+
+    SplitPrefetcher(RowRecordReader reader, DataInputs dataInputs, RdbInputSplit firstSplit, int prefetchNum) {
+        this.reader = reader;
+        this.dataInputs = dataInputs;
+        this.nextSplit = firstSplit;
+        this.executor = Executors.newFixedThreadPool(prefetchNum, r -> {
+            Thread thread = new Thread(r, "rdb-split-prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < prefetchNum; i++) {
+            submitNext();
+        }
+    }
+
+    /**
+     * 取出下一个分片的查询，调用方负责关闭.
+     *
+     * @param split       期望的分片，必须和预取的顺序一致
+     * @param maxIdleTime 查询打开以后允许等待的最长时间（毫秒），超过的查询可能已经被数据库中断了
+     * @return 查询，预取失败或者等待时间太长的时候返回null，调用方需要自己查询这个分片
+     * @throws IOException 分片的顺序不一致
+     */
+    PrefetchedQuery take(RdbInputSplit split, long maxIdleTime) throws IOException {
+        Future<PrefetchedQuery> future = pending.pollFirst();
+        if (null == future) {
+            throw new IOException("No prefetched query for split of table [" + split.getTable() + "]");
+        }
+        submitNext();
+        PrefetchedQuery query;
+        try {
+            query = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            LOG.warn("Prefetch split of table [" + split.getTable() + "] failed, query it again.", e.getCause());
+            return null;
+        }
+        if (null == query) {
+            return null;
+        }
+        synchronized (opened) {
+            opened.remove(query);
+        }
+        if (query.split != split) {
+            query.abort();
+            throw new IOException("Prefetched split of table [" + query.split.getTable() + "] is out of order.");
+        }
+        long idleTime = System.currentTimeMillis() - query.openedTime;
+        if (idleTime >= maxIdleTime) {
+            LOG.warn("Prefetched split of table [" + split.getTable() + "] has been idle for " + idleTime + "ms, query it again.");
+            query.abort();
+            return null;
+        }
+        return query;
+    }
+
+    private void submitNext() {
+        if (null == nextSplit) {
+            return;
+        }
+        RdbInputSplit split = nextSplit;
+        nextSplit = split.hasNextSplit() ? split.getNextSplit() : null;
+        pending.addLast(executor.submit(() -> open(split)));
+    }
+
+    private PrefetchedQuery open(RdbInputSplit split) throws SQLException {
+        long startTime = System.currentTimeMillis();
+        Connection connection = dataInputs.getSourceConnection();
+        PreparedStatement pstmt = null;
+        try {
+            reader.setNetWriteTimeout(connection);
+            pstmt = reader.prepareQuery(connection, split);
+            ResultSet rs = pstmt.executeQuery();
+            PrefetchedQuery query = new PrefetchedQuery(split, connection, pstmt, rs);
+            synchronized (opened) {
+                if (closed) {
+                    query.abort();
+                    return null;
+                }
+                opened.add(query);
+            }
+            LOG.debug("Prefetched split of table [" + split.getTable() + "] in " + (System.currentTimeMillis() - startTime) + "ms.");
+            return query;
+        } catch (SQLException | RuntimeException e) {
+            if (null != pstmt) {
+                pstmt.close();
+            }
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        List<PrefetchedQuery> queries;
+        synchronized (opened) {
+            closed = true;
+            queries = new ArrayList<>(opened);
+            opened.clear();
+        }
+        executor.shutdownNow();
+        for (PrefetchedQuery query : queries) {
+            query.abort();
+        }
+        pending.clear();
+    }
+
+    /**
+     * 预先执行的查询，结果集读完以后关闭，连接归还到连接池.
+     */
+    static class PrefetchedQuery implements Closeable {
+
+        private final RdbInputSplit split;
+
+        private final Connection connection;
+
+        private final PreparedStatement pstmt;
+
+        private final ResultSet rs;
+
+        /**
+         * 查询返回的时间，之后数据库就开始发送数据了.
+         */
+        private final long openedTime;
+
+        private PrefetchedQuery(RdbInputSplit split, Connection connection, PreparedStatement pstmt, ResultSet rs) {
+            this.split = split;
+            this.connection = connection;
+            this.pstmt = pstmt;
+            this.rs = rs;
+            this.openedTime = System.currentTimeMillis();
+        }
+
+        PreparedStatement getStatement() {
+            return pstmt;
+        }
+
+        ResultSet getResultSet() {
+            return rs;
+        }
+
+        /**
+         * 放弃没有读取的查询. 没有读完的流式结果集关闭的时候驱动会读完剩下的数据，所以先取消查询.
+         */
+        void abort() {
+            try {
+                pstmt.cancel();
+            } catch (SQLException e) {
+                LOG.debug(e.getMessage());
+            }
+            close();
+        }
+
+        @Override
+        public void close() {
+            try {
+                rs.close();
+                pstmt.close();
+            } catch (SQLException e) {
+                LOG.warn(e.getMessage());
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn(e.getMessage());
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.aiplus.bi.etl.input.rdb;
 
+import com.aiplus.bi.etl.input.DataInputJobConfiguration;
+
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -11,6 +13,8 @@ public class Table {
 
     public static final Comparator<ColumnList.Column> COLUMN_ASC = Comparator.comparingInt(ColumnList.Column::getIndex);
 
+    public static final Comparator<ColumnList.Column> KEY_SEQ_ASC = Comparator.comparingInt(ColumnList.Column::getKeySeq);
+
     private String name;
 
     private String target;
@@ -25,10 +29,36 @@ public class Table {
 
     private long length;
 
+    /**
+     * information_schema中统计的行数，是估算值.
+     */
+    private long estimatedRows;
+
+    private SplitKeyHistogram histogram;
+
     private String[] keyNames;
 
+    /**
+     * 按照主键索引中的顺序排列的主键，按照主键分页的时候使用，和索引的顺序一致才能沿着主键索引范围扫描.
+     */
+    private String[] indexKeyNames;
+
     private String[] columnNames;
 
+    /**
+     * 主键和字段的类型（{@link java.sql.Types}），和名称的顺序一致.
+     */
+    private int[] keyTypes;
+
+    private int[] columnTypes;
+
+    /**
+     * 增量导入的水位列，为空表示全量导入.
+     */
+    private String watermarkColumn;
+
+    private DataInputJobConfiguration.Watermark watermark;
+
     public Table(String name, String target, String splitKey, ColumnList columnList) {
         this.name = name;
         this.target = target;
@@ -59,13 +89,25 @@ public class Table {
     public void prepared() {
         List<String> pks = new ArrayList<>();
         List<String> cols = new ArrayList<>();
-        for (ColumnList.Column key : getColumnList().getKeys()) {
-            pks.add(key.getName());
+        List<ColumnList.Column> keys = getColumnList().getKeys();
+        this.keyTypes = new int[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            pks.add(keys.get(i).getName());
+            keyTypes[i] = keys.get(i).getDataType();
         }
         this.keyNames = pks.toArray(new String[0]);
+        List<ColumnList.Column> indexKeys = new ArrayList<>(keys);
+        indexKeys.sort(KEY_SEQ_ASC);
+        this.indexKeyNames = new String[indexKeys.size()];
+        for (int i = 0; i < indexKeys.size(); i++) {
+            indexKeyNames[i] = indexKeys.get(i).getName();
+        }
 
-        for (ColumnList.Column column : getColumnList().getColumns()) {
-            cols.add(column.getName());
+        List<ColumnList.Column> columns = getColumnList().getColumns();
+        this.columnTypes = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            cols.add(columns.get(i).getName());
+            columnTypes[i] = columns.get(i).getDataType();
         }
         this.columnNames = cols.toArray(new String[0]);
     }
@@ -96,14 +138,75 @@ public class Table {
         return length;
     }
 
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public void setEstimatedRows(long estimatedRows) {
+        this.estimatedRows = estimatedRows;
+    }
+
+    /**
+     * 设置拆分键的分布，表的范围是直方图的范围，长度是估算的总行数.
+     */
+    public void setHistogram(SplitKeyHistogram histogram) {
+        this.histogram = histogram;
+        this.start = histogram.getStart();
+        this.end = histogram.getEnd();
+        this.length = histogram.getTotalRows();
+    }
+
+    /**
+     * 按照行数切分表，没有拆分键分布的时候按照均匀分布处理.
+     *
+     * @param rowsPerRange 每个范围的行数
+     * @return 每个元素是{start, end, rows}
+     */
+    public List<long[]> splitByRows(long rowsPerRange) {
+        SplitKeyHistogram h = null == histogram ? SplitKeyHistogram.uniform(start, end, length) : histogram;
+        return h.split(rowsPerRange);
+    }
+
     public String[] getKeyNames() {
         return keyNames;
     }
 
+    public String[] getIndexKeyNames() {
+        return indexKeyNames;
+    }
+
     public String[] getColumnNames() {
         return columnNames;
     }
 
+    public int[] getKeyTypes() {
+        return keyTypes;
+    }
+
+    public int[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * 设置增量导入的水位，只读取水位范围内的数据.
+     */
+    public void setWatermark(String watermarkColumn, DataInputJobConfiguration.Watermark watermark) {
+        this.watermarkColumn = watermarkColumn;
+        this.watermark = watermark;
+    }
+
+    public boolean isIncremental() {
+        return null != watermarkColumn && null != watermark;
+    }
+
+    public String getWatermarkColumn() {
+        return watermarkColumn;
+    }
+
+    public DataInputJobConfiguration.Watermark getWatermark() {
+        return watermark;
+    }
+
     public String getTarget() {
         return target;
     }
@@ -1,8 +1,7 @@
 package com.aiplus.bi.etl.input.rdb;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * 数据库表操作相关帮助类.
@@ -13,30 +12,217 @@ public class TableHelper {
 
     private static final String DEFAULT_SPLIT_KEY = "id";
 
-    public static void getSourceTableColumns(DatabaseMetaData dmd, Table table) throws SQLException {
-        String tableName = table.getName();
-        // 拿到主键
-        List<String> pks = new ArrayList<>();
-        try (ResultSet rs = dmd.getPrimaryKeys(null, "%", tableName)) {
-            while (rs.next()) {
-                pks.add(rs.getString("COLUMN_NAME"));
+    /**
+     * 估算行数超过平均值这个倍数的桶需要继续二分.
+     */
+    private static final int HEAVY_BUCKET_FACTOR = 2;
+
+    /**
+     * 桶最多二分的次数.
+     */
+    private static final int MAX_REFINE_DEPTH = 3;
+
+    private static final String SQL_QUERY_TABLES = "SELECT TABLE_NAME, TABLE_ROWS, CREATE_TIME FROM information_schema.TABLES " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = 'BASE TABLE' AND TABLE_NAME ";
+
+    private static final String SQL_QUERY_COLUMNS = "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE, COLUMN_TYPE, ORDINAL_POSITION FROM information_schema.COLUMNS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME ";
+
+    private static final String SQL_QUERY_PRIMARY_KEYS = "SELECT TABLE_NAME, COLUMN_NAME, SEQ_IN_INDEX FROM information_schema.STATISTICS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND INDEX_NAME = 'PRIMARY' AND TABLE_NAME ";
+
+    /**
+     * 批量获取源表配置匹配到的所有表和表的列.
+     * <p>
+     * 不管通配符匹配到多少张表，都只需要查询information_schema中的TABLES、COLUMNS和STATISTICS各一次，
+     * 而不是每张表都通过DatabaseMetaData分别查询列和主键. 表结构没有变化的时候直接使用缓存中的列和主键，只查询TABLES.
+     * 每张表的统计行数（TABLE_ROWS）同时保存下来，作为估算的行数.
+     *
+     * @param connection  数据库连接
+     * @param sourceTable 源表配置，可以带通配符
+     * @param targetTable 目标表
+     * @param splitKey    拆分键
+     * @param fields      需要同步的字段
+     * @param cache       表结构的缓存，为null表示不使用缓存
+     * @return 匹配到的所有表，按照表名排序
+     * @throws SQLException 查询失败
+     */
+    public static List<Table> discoverTables(Connection connection, String sourceTable, String targetTable, String splitKey, String[] fields,
+                                             TableMetadataCache cache) throws SQLException {
+        // 不带通配符的表名需要精确匹配，表名中的下划线在LIKE中也是通配符
+        String tableCondition = sourceTable.contains("%") ? "LIKE ?" : "= ?";
+        Map<String, Long> tableRows = new LinkedHashMap<>();
+        Map<String, String> createTimes = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_QUERY_TABLES + tableCondition + " ORDER BY TABLE_NAME")) {
+            pstmt.setString(1, sourceTable);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String tableName = rs.getString("TABLE_NAME");
+                    tableRows.put(tableName, rs.getLong("TABLE_ROWS"));
+                    createTimes.put(tableName, rs.getString("CREATE_TIME"));
+                }
             }
         }
-        ColumnList columnList = table.getColumnList();
-        // 拿到其余列
-        try (ResultSet rs = dmd.getColumns(null, "%", tableName, "%")) {
-            while (rs.next()) {
-                String columnName = rs.getString("COLUMN_NAME");
-                boolean isPrimaryKey = pks.contains(columnName);
-                columnList.addColumn(columnName, rs.getInt("DATA_TYPE"), rs.getInt("ORDINAL_POSITION"), isPrimaryKey);
+        if (tableRows.isEmpty() && !sourceTable.contains("%")) {
+            // 通配符可以匹配不到表（例如还没有创建的分表），指定的表不存在一定是配置错误
+            throw new SQLException("Source table [" + sourceTable + "] does not exist.");
+        }
+        Map<String, List<ColumnList.Column>> tableColumns = null == cache ? null : cache.get(sourceTable, createTimes);
+        if (null == tableColumns) {
+            tableColumns = queryTableColumns(connection, sourceTable, tableCondition, tableRows.keySet());
+            if (null != cache) {
+                cache.put(sourceTable, createTimes, tableColumns);
+            }
+        }
+        List<Table> tables = new ArrayList<>(tableRows.size());
+        for (Map.Entry<String, Long> entry : tableRows.entrySet()) {
+            List<ColumnList.Column> columns = tableColumns.get(entry.getKey());
+            if (null == columns) {
+                // 查询TABLES和COLUMNS之间新建的表，留到下次导入
+                continue;
             }
+            Table table = new Table(entry.getKey(), targetTable, splitKey, new ColumnList(fields));
+            for (ColumnList.Column column : columns) {
+                table.getColumnList().addColumn(column.getName(), column.getDataType(), column.getIndex(), column.getKeySeq());
+            }
+            table.sortColumns(Table.COLUMN_ASC);
+            table.prepared();
+            table.setEstimatedRows(entry.getValue());
+            tables.add(table);
+        }
+        return tables;
+    }
+
+    private static Map<String, List<ColumnList.Column>> queryTableColumns(Connection connection, String sourceTable, String tableCondition,
+                                                                          Set<String> tableNames) throws SQLException {
+        // 表名 -> 主键列 -> 在主键索引中的位置
+        Map<String, Map<String, Integer>> primaryKeys = new HashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_QUERY_PRIMARY_KEYS + tableCondition)) {
+            pstmt.setString(1, sourceTable);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    primaryKeys.computeIfAbsent(rs.getString("TABLE_NAME"), k -> new HashMap<>()).put(rs.getString("COLUMN_NAME"), rs.getInt("SEQ_IN_INDEX"));
+                }
+            }
+        }
+        Map<String, List<ColumnList.Column>> tableColumns = new HashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_QUERY_COLUMNS + tableCondition)) {
+            pstmt.setString(1, sourceTable);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String tableName = rs.getString("TABLE_NAME");
+                    if (!tableNames.contains(tableName)) {
+                        // 视图
+                        continue;
+                    }
+                    String columnName = rs.getString("COLUMN_NAME");
+                    Map<String, Integer> pks = primaryKeys.get(tableName);
+                    Integer keySeq = null == pks ? null : pks.get(columnName);
+                    ColumnList.Column column = new ColumnList.Column(columnName, toJdbcType(rs.getString("DATA_TYPE"), rs.getString("COLUMN_TYPE")),
+                            rs.getInt("ORDINAL_POSITION"), null != keySeq);
+                    column.setKeySeq(null == keySeq ? 0 : keySeq);
+                    tableColumns.computeIfAbsent(tableName, k -> new ArrayList<>()).add(column);
+                }
+            }
+        }
+        return tableColumns;
+    }
+
+    /**
+     * 把information_schema中的数据类型转换成{@link Types}，和MySQL驱动的DatabaseMetaData返回的类型一致.
+     * 驱动默认（tinyInt1isBit=true）把tinyint(1)当作BIT，Hive中是string，这里保持一样，否则已有的表结构和数据会发生变化.
+     *
+     * @param mysqlType  DATA_TYPE，例如tinyint
+     * @param columnType COLUMN_TYPE，例如tinyint(1) unsigned
+     */
+    static int toJdbcType(String mysqlType, String columnType) {
+        switch (mysqlType.toLowerCase()) {
+            case "bit":
+            case "bool":
+            case "boolean":
+                return Types.BIT;
+            case "tinyint":
+                return null != columnType && columnType.toLowerCase().startsWith("tinyint(1)") ? Types.BIT : Types.TINYINT;
+            case "smallint":
+                return Types.SMALLINT;
+            case "mediumint":
+            case "int":
+            case "integer":
+                return Types.INTEGER;
+            case "bigint":
+                return Types.BIGINT;
+            case "decimal":
+            case "numeric":
+                return Types.DECIMAL;
+            case "float":
+                return Types.REAL;
+            case "double":
+            case "real":
+                return Types.DOUBLE;
+            case "date":
+            case "year":
+                return Types.DATE;
+            case "time":
+                return Types.TIME;
+            case "datetime":
+            case "timestamp":
+                return Types.TIMESTAMP;
+            case "char":
+            case "enum":
+            case "set":
+                return Types.CHAR;
+            case "varchar":
+                return Types.VARCHAR;
+            case "tinytext":
+            case "text":
+            case "mediumtext":
+            case "longtext":
+            case "json":
+                return Types.LONGVARCHAR;
+            case "binary":
+                return Types.BINARY;
+            case "varbinary":
+                return Types.VARBINARY;
+            case "tinyblob":
+            case "blob":
+            case "mediumblob":
+            case "longblob":
+                return Types.LONGVARBINARY;
+            default:
+                return Types.OTHER;
         }
-        // 处理完了表的所有列以后对列进行排序，按照列的索引进行倒序
-        table.sortColumns(Table.COLUMN_ASC);
-        table.prepared();
     }
 
     public static void getTableSplit(Connection connection, Table table) throws SQLException {
+        getTableSplit(connection, table, 1);
+    }
+
+    /**
+     * 获取表的拆分范围.
+     * <p>
+     * 有拆分键的时候，除了拆分键的最大最小值以外，还会把[min, max)等宽地分成histogramBuckets个桶，通过EXPLAIN的估算行数
+     * （InnoDB会在索引上做index dive，不需要扫描数据）得到每个桶的行数，行数明显偏多的桶再继续二分，最后得到拆分键的分布直方图.
+     *
+     * @param connection       数据库连接
+     * @param table            表
+     * @param histogramBuckets 直方图的桶数，小于等于1的时候认为拆分键是均匀分布的
+     * @throws SQLException 查询失败
+     */
+    public static void getTableSplit(Connection connection, Table table, int histogramBuckets) throws SQLException {
+        getTableSplit(connection, table, histogramBuckets, false);
+    }
+
+    /**
+     * 获取表的拆分范围，拆分键的分布参考{@link #getTableSplit(Connection, Table, int)}.
+     *
+     * @param connection       数据库连接
+     * @param table            表
+     * @param histogramBuckets 直方图的桶数，小于等于1的时候认为拆分键是均匀分布的
+     * @param estimateRows     是否允许使用估算的行数. 没有拆分键但是有主键的表按照主键分页，最后一个分片会一直读取到表的最后一行，
+     *                         行数不需要精确，可以直接使用information_schema中的统计行数代替COUNT(0)
+     * @throws SQLException 查询失败
+     */
+    public static void getTableSplit(Connection connection, Table table, int histogramBuckets, boolean estimateRows) throws SQLException {
         // Query max,min ID
         String splitKey = null;
         if (null != table.getSplitKey() && !"".equalsIgnoreCase(table.getSplitKey())) {
@@ -51,7 +237,9 @@ public class TableHelper {
                 }
             }
         }
-        if (null != splitKey) {
+        if (table.isIncremental()) {
+            getIncrementalTableSplit(connection, table, splitKey);
+        } else if (null != splitKey) {
             // 组装SQL
             String sql = "SELECT MIN(" + splitKey + ") AS min_id,MAX(" + splitKey + ") AS max_id FROM `" + table.getName() + "`";
             try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
@@ -62,6 +250,11 @@ public class TableHelper {
                     table.setLengthInterval(start, end);
                 }
             }
+            if (histogramBuckets > 1 && table.getLength() > 0) {
+                table.setHistogram(sampleSplitKey(connection, table, splitKey, histogramBuckets));
+            }
+        } else if (estimateRows && !table.getColumnList().getKeys().isEmpty() && table.getEstimatedRows() > 0) {
+            table.setLengthInterval(0L, table.getEstimatedRows());
         } else {
             // split key为空，则需要根据总记录数来分页
             String sql = "SELECT COUNT(0) AS total_count FROM `" + table.getName() + "`";
@@ -73,4 +266,243 @@ public class TableHelper {
             }
         }
     }
+
+    /**
+     * 增量导入的表只统计水位范围内的数据. 增量的数据通常比较少，并且分散在整个拆分键的范围中，直接统计行数，按照均匀分布切分.
+     */
+    private static void getIncrementalTableSplit(Connection connection, Table table, String splitKey) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (null != splitKey) {
+            sql.append("MIN(`").append(splitKey).append("`) AS min_id, MAX(`").append(splitKey).append("`) AS max_id, ");
+        }
+        sql.append("COUNT(0) AS total_count FROM `").append(table.getName()).append("` WHERE ");
+        List<String> params = new ArrayList<>();
+        WatermarkHelper.appendWatermarkCondition(sql, params, table.getWatermarkColumn(), table.getWatermark());
+        try (PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+            bindParameters(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+                long length = rs.getLong("total_count");
+                if (null == splitKey) {
+                    table.setLengthInterval(0L, length);
+                } else {
+                    table.setHistogram(SplitKeyHistogram.uniform(rs.getLong("min_id"), rs.getLong("max_id") + 1, length));
+                }
+            }
+        }
+    }
+
+    private static SplitKeyHistogram sampleSplitKey(Connection connection, Table t, String splitKey, int buckets)
+            throws SQLException {
+        String table = t.getName();
+        long start = t.getStart();
+        long end = t.getEnd();
+        int bucketNum = (int) Math.min(buckets, end - start);
+        List<long[]> histogram = new ArrayList<>(bucketNum);
+        for (int i = 0; i < bucketNum; i++) {
+            long lo = start + (end - start) / bucketNum * i;
+            long hi = i == bucketNum - 1 ? end : start + (end - start) / bucketNum * (i + 1);
+            histogram.add(new long[]{lo, hi, explainRows(connection, table, splitKey, lo, hi)});
+        }
+        // 行数明显偏多的桶继续二分，让聚集在一起的ID也能切分得比较均匀
+        for (int depth = 0; depth < MAX_REFINE_DEPTH; depth++) {
+            long avg = Math.max(1L, sumRows(histogram) / histogram.size());
+            List<long[]> refined = new ArrayList<>(histogram.size());
+            boolean changed = false;
+            for (long[] bucket : histogram) {
+                if (bucket[2] > avg * HEAVY_BUCKET_FACTOR && bucket[1] - bucket[0] > 1) {
+                    long mid = bucket[0] + (bucket[1] - bucket[0]) / 2;
+                    refined.add(new long[]{bucket[0], mid, explainRows(connection, table, splitKey, bucket[0], mid)});
+                    refined.add(new long[]{mid, bucket[1], explainRows(connection, table, splitKey, mid, bucket[1])});
+                    changed = true;
+                } else {
+                    refined.add(bucket);
+                }
+            }
+            histogram = refined;
+            if (!changed) {
+                break;
+            }
+        }
+        // 拆分键没有索引的时候每个桶的估算行数都是全表的行数，按照表的统计行数归一化以后就是均匀分布
+        long sum = sumRows(histogram);
+        long tableRows = t.getEstimatedRows() > 0 ? t.getEstimatedRows() : getTableRows(connection, table);
+        long[] bounds = new long[histogram.size() + 1];
+        long[] rows = new long[histogram.size()];
+        for (int i = 0; i < histogram.size(); i++) {
+            long[] bucket = histogram.get(i);
+            bounds[i] = bucket[0];
+            bounds[i + 1] = bucket[1];
+            rows[i] = tableRows > 0 && sum > 0 ? Math.round((double) bucket[2] * tableRows / sum) : bucket[2];
+        }
+        return new SplitKeyHistogram(bounds, rows);
+    }
+
+    private static long sumRows(List<long[]> histogram) {
+        long sum = 0L;
+        for (long[] bucket : histogram) {
+            sum = sum + bucket[2];
+        }
+        return sum;
+    }
+
+    private static long explainRows(Connection connection, String table, String splitKey, long lo, long hi) throws SQLException {
+        String sql = "EXPLAIN SELECT 1 FROM `" + table + "` WHERE `" + splitKey + "` >= " + lo + " AND `" + splitKey + "` < " + hi;
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? Math.max(0L, rs.getLong("rows")) : 0L;
+        }
+    }
+
+    /**
+     * 从information_schema中获取表的统计行数，这个值是估算的，只用来做归一化.
+     */
+    private static long getTableRows(Connection connection, String table) throws SQLException {
+        String sql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+
+    /**
+     * 没有拆分键的表按照主键分页.
+     * <p>
+     * 根据分片的开始位置依次定位每个分片第一行的主键，作为这个分片的下界和上一个分片的上界. 每次定位都是从上一个边界开始
+     * 沿着主键向后跳过两个分片之间的行数，所有的分片加起来只需要沿着主键扫描一遍，而不是每个分片都从头开始OFFSET.
+     * 联合主键按照主键索引中的列顺序排序和比较，边界的值也是这个顺序.
+     *
+     * @param connection 数据库连接
+     * @param splits     同一张表的所有分片
+     * @return 没有数据的分片（表的数据比统计的时候少了，定位不到分片的开始位置），这些分片不需要读取
+     * @throws SQLException 查询失败
+     */
+    public static List<RdbInputSplit> resolveKeyRanges(Connection connection, List<RdbInputSplit> splits) throws SQLException {
+        List<RdbInputSplit> emptySplits = new ArrayList<>();
+        if (splits.isEmpty()) {
+            return emptySplits;
+        }
+        splits.sort((o1, o2) -> Long.compare(o1.getStart(), o2.getStart()));
+        RdbInputSplit first = splits.get(0);
+        String[] keys = first.getIndexKeys();
+        String[][] lowerKeys = new String[splits.size()][];
+        String[] boundary = null;
+        long boundaryPos = 0L;
+        int resolvedNum = 0;
+        for (int i = 0; i < splits.size(); i++) {
+            long start = Math.max(0L, splits.get(i).getStart());
+            if (null == boundary && start == 0L) {
+                // 从第一行开始的分片不需要下界
+                resolvedNum++;
+                continue;
+            }
+            String[] key = seekKey(connection, first, keys, boundary, start - boundaryPos);
+            if (null == key) {
+                break;
+            }
+            lowerKeys[i] = key;
+            boundary = key;
+            boundaryPos = start;
+            resolvedNum++;
+        }
+        for (int i = 0; i < splits.size(); i++) {
+            if (i >= resolvedNum) {
+                emptySplits.add(splits.get(i));
+                continue;
+            }
+            String[] upperKeys = i + 1 < resolvedNum ? lowerKeys[i + 1] : null;
+            splits.get(i).setKeyRange(lowerKeys[i], upperKeys);
+        }
+        return emptySplits;
+    }
+
+    /**
+     * 从指定的主键开始（包含）沿着主键向后跳过offset行，返回这一行的主键.
+     */
+    private static String[] seekKey(Connection connection, RdbInputSplit split, String[] keys, String[] from, long offset) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        appendKeyColumns(sql, keys);
+        sql.append(" FROM `").append(split.getTable()).append("`");
+        List<String> params = new ArrayList<>();
+        if (split.isIncremental()) {
+            // 增量导入的时候只在水位范围内的数据上分页
+            sql.append(" WHERE ");
+            WatermarkHelper.appendWatermarkCondition(sql, params, split.getWatermarkColumn(), split.getWatermark());
+        }
+        if (null != from) {
+            sql.append(split.isIncremental() ? " AND " : " WHERE ");
+            appendKeyCondition(sql, params, keys, from, true);
+        }
+        sql.append(" ORDER BY ");
+        appendKeyColumns(sql, keys);
+        sql.append(" LIMIT 1 OFFSET ").append(offset);
+        try (PreparedStatement pstmt = connection.prepareStatement(sql.toString())) {
+            bindParameters(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String[] key = new String[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    key[i] = rs.getString(i + 1);
+                }
+                return key;
+            }
+        }
+    }
+
+    private static void appendKeyColumns(StringBuilder sql, String[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("`").append(keys[i]).append("`");
+        }
+    }
+
+    /**
+     * 生成主键的范围条件，联合主键展开成：k1 >= v1 AND (k1 > v1 OR (k1 = v1 AND k2 >= v2))的形式，
+     * 第一个条件只包含主键的第一列，保证MySQL可以使用主键做范围扫描.
+     *
+     * @param sql    SQL
+     * @param params 条件的参数，按照占位符的顺序添加
+     * @param keys   主键
+     * @param values 主键的值
+     * @param lower  True表示下界（大于等于），False表示上界（小于）
+     */
+    public static void appendKeyCondition(StringBuilder sql, List<String> params, String[] keys, String[] values, boolean lower) {
+        String strictOp = lower ? " > ?" : " < ?";
+        String lastOp = lower ? " >= ?" : " < ?";
+        if (keys.length == 1) {
+            sql.append("`").append(keys[0]).append("`").append(lastOp);
+            params.add(values[0]);
+            return;
+        }
+        sql.append("`").append(keys[0]).append("`").append(lower ? " >= ?" : " <= ?");
+        params.add(values[0]);
+        sql.append(" AND (");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sql.append(" OR ");
+            }
+            sql.append("(");
+            for (int j = 0; j < i; j++) {
+                sql.append("`").append(keys[j]).append("` = ? AND ");
+                params.add(values[j]);
+            }
+            sql.append("`").append(keys[i]).append("`").append(i == keys.length - 1 ? lastOp : strictOp);
+            params.add(values[i]);
+            sql.append(")");
+        }
+        sql.append(")");
+    }
+
+    public static void bindParameters(PreparedStatement pstmt, List<String> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            pstmt.setString(i + 1, params.get(i));
+        }
+    }
 }
@@ -0,0 +1,135 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 表结构的本地缓存，在多次运行之间复用通配符匹配到的所有表的列和主键信息.
+ * <p>
+ * 每个数据源 + 源表配置（可以带通配符）对应一个缓存文件，缓存中记录了每张表的创建时间（information_schema.TABLES.CREATE_TIME），
+ * 匹配到的表和表的创建时间都没有变化，并且缓存没有超过有效期的时候才使用缓存. ALTER TABLE重建表的时候创建时间会变化，
+ * 不重建表的DDL（例如MySQL 8的INSTANT加列）检查不出来，所以缓存需要设置一个有效期.
+ *
+ * @author dev
+ */
+public class TableMetadataCache {
+
+    /**
+     * 缓存文件的目录，默认不使用缓存. 开启以后在有效期内不重建表的DDL（例如当天新增的列）不会被发现.
+     */
+    public static final String CACHE_DIR_PROPERTY = "etl.rdb.metadata.cache.dir";
+
+    /**
+     * 缓存的有效期（分钟）.
+     */
+    public static final String CACHE_TTL_PROPERTY = "etl.rdb.metadata.cache.ttl.minutes";
+
+    private static final Log LOG = LogFactory.getLog(TableMetadataCache.class);
+
+    /**
+     * 缓存格式的版本，列类型的转换规则或者缓存的内容变化的时候增加，旧的缓存失效. 3：主键在索引中的顺序.
+     */
+    private static final int VERSION = 3;
+
+    private static final int DEFAULT_CACHE_TTL_MINUTES = 60;
+
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    private final File dir;
+
+    private final String sourceUrl;
+
+    private final long ttlMillis;
+
+    public TableMetadataCache(File dir, String sourceUrl, long ttlMillis) {
+        this.dir = dir;
+        this.sourceUrl = sourceUrl;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 根据任务配置创建缓存，没有启用缓存的时候返回null.
+     */
+    public static TableMetadataCache create(Configuration conf, String sourceUrl) {
+        String dir = conf.get(CACHE_DIR_PROPERTY);
+        int ttlMinutes = conf.getInt(CACHE_TTL_PROPERTY, DEFAULT_CACHE_TTL_MINUTES);
+        if (null == dir || "".equals(dir.trim()) || ttlMinutes <= 0) {
+            return null;
+        }
+        return new TableMetadataCache(new File(dir), sourceUrl, ttlMinutes * 60 * 1000L);
+    }
+
+    /**
+     * 读取缓存的表结构.
+     *
+     * @param sourceTable 源表配置，可以带通配符
+     * @param createTimes 当前匹配到的所有表和表的创建时间
+     * @return 每张表的列（包含主键），缓存不存在或者表结构有变化的时候返回null
+     */
+    public Map<String, List<ColumnList.Column>> get(String sourceTable, Map<String, String> createTimes) {
+        File file = getCacheFile(sourceTable);
+        if (!file.exists() || System.currentTimeMillis() - file.lastModified() > ttlMillis) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            Entry entry = gson.fromJson(reader, Entry.class);
+            if (null == entry || VERSION != entry.version || !sourceUrl.equals(entry.sourceUrl) || !sourceTable.equals(entry.sourceTable)
+                    || !createTimes.equals(entry.createTimes)) {
+                LOG.info("Table metadata cache of [" + sourceTable + "] is stale.");
+                return null;
+            }
+            LOG.info("Use table metadata cache of [" + sourceTable + "]: " + file.getAbsolutePath());
+            return entry.columns;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Read table metadata cache failed: " + file.getAbsolutePath() + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String sourceTable, Map<String, String> createTimes, Map<String, List<ColumnList.Column>> columns) {
+        Entry entry = new Entry();
+        entry.version = VERSION;
+        entry.sourceUrl = sourceUrl;
+        entry.sourceTable = sourceTable;
+        entry.createTimes = createTimes;
+        entry.columns = columns;
+        File file = getCacheFile(sourceTable);
+        if (!dir.exists() && !dir.mkdirs()) {
+            LOG.warn("Create table metadata cache dir failed: " + dir.getAbsolutePath());
+            return;
+        }
+        // 先写临时文件再改名，并发运行的任务不会读到写了一半的缓存
+        File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            gson.toJson(entry, writer);
+        } catch (IOException e) {
+            LOG.warn("Write table metadata cache failed: " + tmp.getAbsolutePath() + ", " + e.getMessage());
+            return;
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            LOG.warn("Rename table metadata cache failed: " + file.getAbsolutePath());
+            tmp.delete();
+        }
+    }
+
+    private File getCacheFile(String sourceTable) {
+        // 文件中保存了数据源和源表配置，哈希冲突的时候读取出来也会认为缓存无效
+        return new File(dir, Integer.toHexString((sourceUrl + "|" + sourceTable).hashCode()) + ".json");
+    }
+
+    private static class Entry {
+        private int version;
+        private String sourceUrl;
+        private String sourceTable;
+        private Map<String, String> createTimes;
+        private Map<String, List<ColumnList.Column>> columns;
+    }
+}
@@ -0,0 +1,229 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import com.aiplus.bi.etl.input.DataInputJobConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增量导入的水位相关帮助类.
+ * <p>
+ * 每张源表上次导出的水位保存在元数据库的BI_ETL_JOB_WATERMARK表中. 任务提交之前读取上次的水位作为下界，
+ * 并且取出源表当前水位列的最大值作为上界，本次只导出(下界, 上界]之间的数据；任务和Hive表的合并都成功以后才把上界保存为新的水位，
+ * 失败的时候下次从原来的水位重新导出.
+ * <p>
+ * 在取最大值的时候还没有提交的事务，提交以后水位值可能小于等于已经保存的水位（例如gmt_modified在事务开始的时候就已经生成了），
+ * 所以下界会向前重叠一段（{@link DataInputJobConfiguration.TableMapper#getWatermarkOverlap()}），重复导出的记录在合并的时候按照table_pk去重.
+ * <p>
+ * 注意：水位只能发现新增和修改的记录，源表中物理删除的记录不会同步到Hive表中，需要的时候清空水位重新全量导入.
+ *
+ * @author dev
+ */
+public class WatermarkHelper {
+
+    private static final Log LOG = LogFactory.getLog(WatermarkHelper.class);
+
+    /**
+     * 时间类型的水位列默认重叠的秒数.
+     */
+    static final long DEFAULT_TEMPORAL_OVERLAP_SECONDS = 300;
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private static final String SQL_QUERY_WATERMARK = "SELECT SOURCE_TABLE, WATERMARK FROM BI_ETL_JOB_WATERMARK " +
+            "WHERE JOB_DEFINE_ID = ? AND TARGET_TABLE = ? AND WATERMARK_COLUMN = ?";
+
+    private static final String SQL_SAVE_WATERMARK = "INSERT INTO BI_ETL_JOB_WATERMARK " +
+            "(JOB_DEFINE_ID, SOURCE_TABLE, TARGET_TABLE, WATERMARK_COLUMN, WATERMARK, CREATE_TIME) VALUES (?, ?, ?, ?, ?, NOW()) " +
+            "ON DUPLICATE KEY UPDATE WATERMARK_COLUMN = VALUES(WATERMARK_COLUMN), WATERMARK = VALUES(WATERMARK)";
+
+    public static boolean hasIncrementalMapper(DataInputJobConfiguration jobConfiguration) {
+        for (DataInputJobConfiguration.TableMapper tableMapper : jobConfiguration.getMappers()) {
+            if (tableMapper.isIncremental()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 生成所有增量导入的表映射的水位范围.
+     *
+     * @param metadataConnection 元数据库连接
+     * @param sourceConnection   源数据库连接
+     * @param jobDefineId        Job定义的ID
+     * @param jobConfiguration   任务配置
+     * @throws SQLException 查询失败
+     */
+    public static void prepareWatermarks(Connection metadataConnection, Connection sourceConnection, long jobDefineId,
+                                         DataInputJobConfiguration jobConfiguration) throws SQLException {
+        DatabaseMetaData dmd = sourceConnection.getMetaData();
+        for (DataInputJobConfiguration.TableMapper tableMapper : jobConfiguration.getMappers()) {
+            if (!tableMapper.isIncremental()) {
+                continue;
+            }
+            String watermarkColumn = tableMapper.getWatermarkColumn();
+            if (null == watermarkColumn || "".equals(watermarkColumn)) {
+                throw new IllegalArgumentException("Watermark column of incremental table [" + tableMapper.getTargetTable() + "] is empty.");
+            }
+            Map<String, String> lastWatermarks = loadWatermarks(metadataConnection, jobDefineId, tableMapper);
+            Map<String, DataInputJobConfiguration.Watermark> watermarks = new LinkedHashMap<>();
+            for (String table : getSourceTables(dmd, tableMapper)) {
+                DataInputJobConfiguration.Watermark watermark = readWatermark(sourceConnection, table, watermarkColumn,
+                        lastWatermarks.get(table), tableMapper.getWatermarkOverlap());
+                if (null == watermark) {
+                    continue;
+                }
+                LOG.info("Incremental table[" + table + "] watermark `" + watermarkColumn + "`: (" + watermark.getLow() + ", " + watermark.getHigh() + "]");
+                watermarks.put(table, watermark);
+            }
+            tableMapper.setWatermarks(watermarks);
+        }
+    }
+
+    /**
+     * 任务成功以后把本次导出的上界保存为新的水位.
+     */
+    public static void saveWatermarks(Connection metadataConnection, long jobDefineId, DataInputJobConfiguration jobConfiguration)
+            throws SQLException {
+        try (PreparedStatement pstmt = metadataConnection.prepareStatement(SQL_SAVE_WATERMARK)) {
+            int batchSize = 0;
+            for (DataInputJobConfiguration.TableMapper tableMapper : jobConfiguration.getMappers()) {
+                if (!tableMapper.isIncremental() || null == tableMapper.getWatermarks()) {
+                    continue;
+                }
+                for (Map.Entry<String, DataInputJobConfiguration.Watermark> entry : tableMapper.getWatermarks().entrySet()) {
+                    pstmt.setLong(1, jobDefineId);
+                    pstmt.setString(2, entry.getKey());
+                    pstmt.setString(3, tableMapper.getTargetTable());
+                    pstmt.setString(4, tableMapper.getWatermarkColumn());
+                    pstmt.setString(5, entry.getValue().getHigh());
+                    pstmt.addBatch();
+                    batchSize++;
+                }
+            }
+            if (batchSize > 0) {
+                pstmt.executeBatch();
+                LOG.info("Saved " + batchSize + " watermark(s).");
+            }
+        }
+    }
+
+    /**
+     * 生成水位条件：`column` > low AND `column` <= high，没有下界的时候只有上界的条件. low已经包含了重叠的部分.
+     *
+     * @param sql       SQL
+     * @param params    条件的参数，按照占位符的顺序添加
+     * @param column    水位列
+     * @param watermark 水位范围
+     */
+    public static void appendWatermarkCondition(StringBuilder sql, List<String> params, String column,
+                                                DataInputJobConfiguration.Watermark watermark) {
+        if (null != watermark.getLow()) {
+            sql.append("`").append(column).append("` > ? AND ");
+            params.add(watermark.getLow());
+        }
+        sql.append("`").append(column).append("` <= ?");
+        params.add(watermark.getHigh());
+    }
+
+    private static Map<String, String> loadWatermarks(Connection metadataConnection, long jobDefineId,
+                                                      DataInputJobConfiguration.TableMapper tableMapper) throws SQLException {
+        Map<String, String> watermarks = new HashMap<>();
+        try (PreparedStatement pstmt = metadataConnection.prepareStatement(SQL_QUERY_WATERMARK)) {
+            pstmt.setLong(1, jobDefineId);
+            pstmt.setString(2, tableMapper.getTargetTable());
+            // 水位列修改以后原来的水位就没有意义了，需要重新全量导入
+            pstmt.setString(3, tableMapper.getWatermarkColumn());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    watermarks.put(rs.getString("SOURCE_TABLE"), rs.getString("WATERMARK"));
+                }
+            }
+        }
+        return watermarks;
+    }
+
+    private static List<String> getSourceTables(DatabaseMetaData dmd, DataInputJobConfiguration.TableMapper tableMapper) throws SQLException {
+        String sourceTable = tableMapper.getSourceTable();
+        if (null == sourceTable || "".equals(sourceTable)) {
+            sourceTable = tableMapper.getSource().getTableName();
+        }
+        List<String> tables = new ArrayList<>();
+        if (sourceTable.contains("%")) {
+            try (ResultSet rs = dmd.getTables(null, "%", sourceTable, new String[]{"TABLE"})) {
+                while (rs.next()) {
+                    tables.add(rs.getString("TABLE_NAME"));
+                }
+            }
+        } else {
+            tables.add(sourceTable);
+        }
+        return tables;
+    }
+
+    /**
+     * 取出水位列当前的最大值作为上界，下界是上次的水位向前重叠一段.
+     *
+     * @return 水位范围，表是空的并且没有上次的水位的时候返回null
+     */
+    private static DataInputJobConfiguration.Watermark readWatermark(Connection connection, String table, String column, String last,
+                                                                     long overlap) throws SQLException {
+        String sql = "SELECT MAX(`" + column + "`) FROM `" + table + "`";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            String high = rs.next() ? rs.getString(1) : null;
+            if (null == high) {
+                // 表是空的，保留原来的水位
+                high = last;
+            }
+            if (null == high) {
+                return null;
+            }
+            String low = null == last ? null : overlap(last, rs.getMetaData().getColumnType(1), overlap);
+            return new DataInputJobConfiguration.Watermark(low, high);
+        }
+    }
+
+    /**
+     * 下界向前重叠：时间类型的水位列减去overlap秒（没有配置的时候默认{@value #DEFAULT_TEMPORAL_OVERLAP_SECONDS}秒），
+     * 数值类型的水位列减去overlap（没有配置的时候不重叠），其他类型不重叠.
+     */
+    static String overlap(String last, int sqlType, long overlap) {
+        try {
+            switch (sqlType) {
+                case Types.TIMESTAMP:
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    long seconds = overlap < 0 ? DEFAULT_TEMPORAL_OVERLAP_SECONDS : overlap;
+                    return Timestamp.valueOf(Timestamp.valueOf(last).toLocalDateTime().minusSeconds(seconds)).toString();
+                case Types.DATE:
+                    long days = ((overlap < 0 ? DEFAULT_TEMPORAL_OVERLAP_SECONDS : overlap) + SECONDS_PER_DAY - 1) / SECONDS_PER_DAY;
+                    return Date.valueOf(last).toLocalDate().minusDays(days).toString();
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                case Types.FLOAT:
+                case Types.REAL:
+                case Types.DOUBLE:
+                    return overlap <= 0 ? last : new BigDecimal(last).subtract(BigDecimal.valueOf(overlap)).toPlainString();
+                default:
+                    if (overlap > 0) {
+                        LOG.warn("Watermark overlap is not supported for column type " + sqlType + ", use the last watermark: " + last);
+                    }
+                    return last;
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Parse watermark [" + last + "] failed, use it without overlap.", e);
+            return last;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.ConfigurableJob;
+import com.aiplus.bi.etl.MetadataConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 在一个进程中把多张Hive表导出到RDB.
+ * <p>
+ * 导出的表在properties文件中配置（第一个参数是文件路径）：
+ * <ul>
+ * <li>export.{name}.hive：Hive的表，格式是库名.表名</li>
+ * <li>export.{name}.datasource：目标RDB的数据源代码</li>
+ * <li>export.{name}.table：RDB的表名，默认和Hive的表名一样，同一个数据源的表名不能重复（同一张表的影子表会互相覆盖）</li>
+ * <li>export.{name}.after：逗号分隔的其他导出的名称，这些导出全部成功以后才开始这个导出，有一个失败的时候这个导出跳过</li>
+ * <li>datasource.{code}.concurrency：同一个目标数据源同时导出的表的数量，默认使用default.concurrency的值（默认2）</li>
+ * </ul>
+ * 所有的表共用一份Hive元数据的缓存，每张表的导出和{@link ExportHiveToRdb}一样. 注意：每个导出还会按照{@link RdbExportConfiguration#WRITERS_PROPERTY}
+ * 并行写入，一个数据源同时写入的连接数最多是并发数乘以写入的Map数.
+ *
+ * @author dev
+ */
+public class ExportHiveTablesToRdb extends ConfigurableJob {
+
+    private static final Log LOG = LogFactory.getLog(ExportHiveTablesToRdb.class);
+
+    private static final String EXPORT_KEY_PREFIX = "export.";
+
+    private static final String HIVE_KEY_SUFFIX = ".hive";
+
+    private static final String DEFAULT_CONCURRENCY_KEY = "default.concurrency";
+
+    private static final int DEFAULT_CONCURRENCY = 2;
+
+    private final Map<String, ExportTask> tasks = new TreeMap<>();
+
+    private final Map<String, Integer> concurrencies = new HashMap<>();
+
+    protected ExportHiveTablesToRdb() {
+        super();
+    }
+
+    @Override
+    public void prepared(String[] args) {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(args[0])) {
+            properties.load(in);
+            parseTasks(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error(e.getMessage(), e);
+            System.exit(-1);
+        }
+        LOG.info("Prepared " + tasks.size() + " export(s): " + tasks.values());
+    }
+
+    @Override
+    public int signal() {
+        long s1 = System.currentTimeMillis();
+        Map<String, MetadataConfiguration.DataSourceConnectionInfo> datasources = new HashMap<>();
+        Map<String, HiveTableExporter> exporters = new HashMap<>();
+        HiveSchemaResolver schemaResolver = new HiveSchemaResolver(getMetadataConfiguration(), new Configuration());
+        int threads = 0;
+        for (ExportTask task : tasks.values()) {
+            if (!datasources.containsKey(task.datasource)) {
+                try {
+                    datasources.put(task.datasource, getMetadataConfiguration().getDataSourceConnectionInfo(task.datasource));
+                } catch (SQLException e) {
+                    LOG.error(e.getMessage(), e);
+                    return -1;
+                }
+                threads = threads + concurrencies.get(task.datasource);
+            }
+            // 每个导出使用单独的id，临时目录不会冲突
+            exporters.put(task.name, new HiveTableExporter(getId() + "-" + task.name, getMetadataConfiguration(), schemaResolver,
+                    datasources.get(task.datasource)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())), r -> {
+            Thread thread = new Thread(r, "hive-table-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            schedule(new ExecutorCompletionService<>(executor), exporters);
+        } catch (InterruptedException e) {
+            LOG.error(e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            executor.shutdownNow();
+        }
+        int exitCode = 0;
+        for (ExportTask task : tasks.values()) {
+            LOG.info("Export [" + task.name + "] " + task.status + (task.status == Status.SKIPPED ? "" : ", use " + task.cost + "ms."));
+            if (task.status != Status.SUCCEEDED) {
+                exitCode = -1;
+            }
+        }
+        LOG.info("Export " + tasks.size() + " table(s) use " + (System.currentTimeMillis() - s1) + "ms.");
+        return exitCode;
+    }
+
+    /**
+     * 依赖都成功并且目标数据源还有空闲的并发数的导出立即提交，每完成一个导出重新检查一次.
+     */
+    private void schedule(CompletionService<ExportTask> completionService, Map<String, HiveTableExporter> exporters) throws InterruptedException {
+        List<ExportTask> pending = new ArrayList<>(tasks.values());
+        Map<String, Integer> running = new HashMap<>();
+        int runningNum = 0;
+        while (true) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Iterator<ExportTask> iterator = pending.iterator(); iterator.hasNext(); ) {
+                    ExportTask task = iterator.next();
+                    Status dependency = getDependencyStatus(task);
+                    if (dependency == Status.FAILED) {
+                        LOG.error("Skip export [" + task.name + "] because of failed dependencies: " + task.after);
+                        task.status = Status.SKIPPED;
+                        iterator.remove();
+                        changed = true;
+                    } else if (dependency == Status.SUCCEEDED && running.getOrDefault(task.datasource, 0) < concurrencies.get(task.datasource)) {
+                        HiveTableExporter exporter = exporters.get(task.name);
+                        completionService.submit(() -> task.run(exporter));
+                        running.merge(task.datasource, 1, Integer::sum);
+                        runningNum++;
+                        iterator.remove();
+                        LOG.info("Start export [" + task.name + "], running: " + runningNum + ", pending: " + pending.size());
+                    }
+                }
+            }
+            if (runningNum == 0) {
+                // 依赖在解析配置的时候检查过没有环，这里所有的导出都已经结束
+                return;
+            }
+            ExportTask finished = waitFor(completionService.take());
+            running.merge(finished.datasource, -1, Integer::sum);
+            runningNum--;
+        }
+    }
+
+    private ExportTask waitFor(Future<ExportTask> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // ExportTask.run不会抛出异常
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return 有依赖失败或者跳过的时候返回FAILED，全部成功的时候返回SUCCEEDED，否则返回PENDING
+     */
+    private Status getDependencyStatus(ExportTask task) {
+        Status result = Status.SUCCEEDED;
+        for (String name : task.after) {
+            Status status = tasks.get(name).status;
+            if (status == Status.FAILED || status == Status.SKIPPED) {
+                return Status.FAILED;
+            }
+            if (status != Status.SUCCEEDED) {
+                result = Status.PENDING;
+            }
+        }
+        return result;
+    }
+
+    private void parseTasks(Properties properties) {
+        int defaultConcurrency = Integer.parseInt(properties.getProperty(DEFAULT_CONCURRENCY_KEY, String.valueOf(DEFAULT_CONCURRENCY)));
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(EXPORT_KEY_PREFIX) || !key.endsWith(HIVE_KEY_SUFFIX)) {
+                continue;
+            }
+            String name = key.substring(EXPORT_KEY_PREFIX.length(), key.length() - HIVE_KEY_SUFFIX.length());
+            String hive = properties.getProperty(key).trim();
+            int dot = hive.indexOf('.');
+            String datasource = properties.getProperty(EXPORT_KEY_PREFIX + name + ".datasource");
+            if (dot <= 0 || null == datasource) {
+                throw new IllegalArgumentException("Export [" + name + "] needs hive as db.table and a datasource.");
+            }
+            ExportTask task = new ExportTask(name, hive.substring(0, dot), hive.substring(dot + 1), datasource.trim(),
+                    properties.getProperty(EXPORT_KEY_PREFIX + name + ".table", hive.substring(dot + 1)).trim());
+            String after = properties.getProperty(EXPORT_KEY_PREFIX + name + ".after", "");
+            for (String dependency : after.split(",")) {
+                if (!"".equals(dependency.trim())) {
+                    task.after.add(dependency.trim());
+                }
+            }
+            tasks.put(name, task);
+            concurrencies.put(task.datasource, Math.max(1, Integer.parseInt(properties.getProperty("datasource." + task.datasource + ".concurrency",
+                    String.valueOf(defaultConcurrency)))));
+        }
+        if (tasks.isEmpty()) {
+            throw new IllegalArgumentException("No export configured.");
+        }
+        checkTargets();
+        checkDependencies();
+    }
+
+    /**
+     * 检查没有两个导出写入同一个数据源的同一张表，这些导出会使用同一张影子表，同时运行的时候互相删除和替换.
+     */
+    private void checkTargets() {
+        Map<String, String> targets = new HashMap<>();
+        for (ExportTask task : tasks.values()) {
+            // MySQL在Linux上表名区分大小写，但是lower_case_table_names打开的时候不区分，按照不区分检查
+            String target = task.datasource + "/" + task.rdbTable.toLowerCase();
+            String other = targets.put(target, task.name);
+            if (null != other) {
+                throw new IllegalArgumentException("Export [" + other + "] and [" + task.name + "] write the same table ["
+                        + task.rdbTable + "] of datasource [" + task.datasource + "]");
+            }
+        }
+    }
+
+    /**
+     * 检查依赖的导出都存在，并且依赖之间没有环（拓扑排序能排完所有的导出）.
+     */
+    private void checkDependencies() {
+        Map<String, Integer> inDegrees = new HashMap<>();
+        for (ExportTask task : tasks.values()) {
+            for (String name : task.after) {
+                if (!tasks.containsKey(name)) {
+                    throw new IllegalArgumentException("Export [" + task.name + "] depends on unknown export [" + name + "]");
+                }
+            }
+            inDegrees.put(task.name, task.after.size());
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        for (Map.Entry<String, Integer> entry : inDegrees.entrySet()) {
+            if (entry.getValue() == 0) {
+                ready.add(entry.getKey());
+            }
+        }
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            sorted++;
+            for (ExportTask task : tasks.values()) {
+                if (task.after.contains(name) && inDegrees.merge(task.name, -1, Integer::sum) == 0) {
+                    ready.add(task.name);
+                }
+            }
+        }
+        if (sorted != tasks.size()) {
+            throw new IllegalArgumentException("Export dependencies contain a cycle.");
+        }
+    }
+
+    private enum Status {
+        PENDING, SUCCEEDED, FAILED, SKIPPED
+    }
+
+    private static class ExportTask {
+
+        private final String name;
+
+        private final String hiveDb;
+
+        private final String hiveTable;
+
+        private final String datasource;
+
+        private final String rdbTable;
+
+        private final Set<String> after = new LinkedHashSet<>();
+
+        /**
+         * 导出线程写入，调度线程读取.
+         */
+        private volatile Status status = Status.PENDING;
+
+        private long cost;
+
+        ExportTask(String name, String hiveDb, String hiveTable, String datasource, String rdbTable) {
+            this.name = name;
+            this.hiveDb = hiveDb;
+            this.hiveTable = hiveTable;
+            this.datasource = datasource;
+            this.rdbTable = rdbTable;
+        }
+
+        ExportTask run(HiveTableExporter exporter) {
+            long start = System.currentTimeMillis();
+            int exitCode;
+            try {
+                exitCode = exporter.export(hiveDb, hiveTable, rdbTable);
+            } catch (RuntimeException e) {
+                LOG.error(e.getMessage(), e);
+                exitCode = -1;
+            }
+            this.cost = System.currentTimeMillis() - start;
+            this.status = 0 == exitCode ? Status.SUCCEEDED : Status.FAILED;
+            LOG.info("Finish export [" + name + "] " + status + " use " + cost + "ms.");
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + hiveDb + "." + hiveTable + " -> " + datasource + "." + rdbTable + ")";
+        }
+    }
+}
@@ -5,6 +5,9 @@ import com.aiplus.bi.etl.JobTools;
 import com.aiplus.bi.etl.MetadataConfiguration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
 import org.joda.time.DateTime;
 
 import java.io.File;
@@ -15,6 +18,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -27,8 +31,6 @@ public class ExportHiveToMySQL extends ConfigurableJob {
 
     private static final Log LOG = LogFactory.getLog(ExportHiveToMySQL.class);
 
-    private static final String HIVE_SCHEMA_DATASOURCE_CODE = "hive_schema";
-
     private static final String DECIMAL_COLUMN_TYPE = "decimal";
 
     private static final String SQL_QUERY_HIVE_TABLE_SCHEMA = "SELECT t.TBL_NAME, c.COLUMN_NAME, c.TYPE_NAME, c.INTEGER_IDX FROM " +
@@ -53,9 +55,12 @@ public class ExportHiveToMySQL extends ConfigurableJob {
     private String hiveDb;
     private String hiveTable;
     private String hiveSql;
+    private String hivePartition;
     private String mysqlSource;
     private String mysqlCleanSql;
     private String mysqlTable;
+    private boolean mysqlSwap;
+    private String mysqlSwapKeepWhere;
 
     private MetadataConfiguration.DataSourceConnectionInfo datasourceConnectionInfo;
 
@@ -68,9 +73,13 @@ public class ExportHiveToMySQL extends ConfigurableJob {
      * hive的库表：hive.db
      * 以及 hive.table
      * 从 hive 表查询数据的语句: hive.sql
+     * 直接导出的 hive 分区: hive.partition，例如 dt=${date}，没有设置 hive.sql 的时候直接读取分区的文件导出整个分区（包括分区字段），
+     * 同时设置了 hive.sql 的时候还是执行 hive.sql 导出，保证查询中的过滤条件生效
      * mysql库表：mysql.db
      * 以及 mysql.table
      * 清理 mysql 数据的 sql: mysql.clean.sql
+     * 是否通过影子表替换 mysql 表: mysql.swap，设置为 true 的时候数据先写入影子表再原子替换正式表，不执行 mysql.clean_sql
+     * 替换的时候正式表中需要保留的数据的条件: mysql.swap.keep_where，例如 dt <> '${date}'，为空表示全量替换
      */
     private void getProp(String dumpConf) {
         Properties properties = new Properties();
@@ -83,9 +92,12 @@ public class ExportHiveToMySQL extends ConfigurableJob {
             this.hiveDb = properties.getProperty("hive.db");
             this.hiveTable = properties.getProperty("hive.table");
             this.hiveSql = properties.getProperty("hive.sql");
+            this.hivePartition = properties.getProperty("hive.partition");
             this.mysqlSource = properties.getProperty("mysql.source");
             this.mysqlCleanSql = properties.getProperty("mysql.clean_sql");
             this.mysqlTable = properties.getProperty("mysql.table");
+            this.mysqlSwap = Boolean.parseBoolean(properties.getProperty("mysql.swap"));
+            this.mysqlSwapKeepWhere = properties.getProperty("mysql.swap.keep_where");
 
             fis.close();
         } catch (FileNotFoundException e) {
@@ -111,16 +123,28 @@ public class ExportHiveToMySQL extends ConfigurableJob {
 
         this.tempDumpDataDirPath = "/user/hadoop/hive_dump/" + this.hiveTable + "_" + getId();
 
-        this.hiveSql = this.hiveSql.replace("${date}", this.dataDate);
+        if (null != this.hiveSql) {
+            this.hiveSql = this.hiveSql.replace("${date}", this.dataDate);
+        }
 
         this.mysqlCleanSql = this.mysqlCleanSql.replace("${date}", this.dataDate);
 
+        if (null != this.hivePartition) {
+            this.hivePartition = this.hivePartition.replace("${date}", this.dataDate);
+        }
+
+        if (null != this.mysqlSwapKeepWhere) {
+            this.mysqlSwapKeepWhere = this.mysqlSwapKeepWhere.replace("${date}", this.dataDate);
+        }
+
         LOG.info("======>> prepared hiveDb: " + this.hiveDb);
         LOG.info("======>> prepared hiveTable: " + this.hiveTable);
         LOG.info("======>> prepared hiveSql: " + this.hiveSql);
+        LOG.info("======>> prepared hivePartition: " + this.hivePartition);
         LOG.info("======>> prepared mysqlSource: " + this.mysqlSource);
         LOG.info("======>> prepared mysqlCleanSql: " + this.mysqlCleanSql);
         LOG.info("======>> prepared mysqlTable: " + this.mysqlTable);
+        LOG.info("======>> prepared mysqlSwap: " + this.mysqlSwap + ", keep where: " + this.mysqlSwapKeepWhere);
         LOG.info("======>> prepared tempDumpDataDirPath: " + this.tempDumpDataDirPath);
 
         try {
@@ -134,10 +158,36 @@ public class ExportHiveToMySQL extends ConfigurableJob {
     @Override
     public int signal() {
         long s1 = System.currentTimeMillis();
-        // 删除数据，避免数据重复
-        cleanTableData();
-        LOG.info("======>> Clean target table cost " + (System.currentTimeMillis() - s1) + "ms.");
+        StagingTable stagingTable = null;
+        String exportTable = mysqlTable;
+        if (mysqlSwap) {
+            // 数据写入影子表，正式表在导出期间保持不变
+            stagingTable = prepareStagingTable();
+            if (null == stagingTable) {
+                return -1;
+            }
+            exportTable = stagingTable.getName();
+            LOG.info("======>> Prepare staging table cost " + (System.currentTimeMillis() - s1) + "ms.");
+        } else {
+            // 删除数据，避免数据重复
+            cleanTableData();
+            LOG.info("======>> Clean target table cost " + (System.currentTimeMillis() - s1) + "ms.");
+        }
+
+        int exitCode;
+        HiveTable partition = loadHivePartition();
+        if (null != partition && null != partition.getFormat()) {
+            exitCode = exportHivePartition(partition, exportTable);
+        } else if (null != hiveSql && !"".equals(hiveSql.trim())) {
+            exitCode = exportByHiveAndSqoop(exportTable);
+        } else {
+            LOG.error("======>> Hive partition " + hivePartition + " can not be read directly, and hive.sql is not set.");
+            exitCode = -1;
+        }
+        return null == stagingTable ? exitCode : finishStagingTable(stagingTable, exitCode);
+    }
 
+    private int exportByHiveAndSqoop(String exportTable) {
         long s2 = System.currentTimeMillis();
         // 执行Hive命令
         String hiveSqlStr = "set mapreduce.job.queuename=bi;insert overwrite directory "
@@ -145,13 +195,17 @@ public class ExportHiveToMySQL extends ConfigurableJob {
                 + " row format delimited fields terminated by ',' NULL DEFINED AS '' " + this.hiveSql + ";";
         LOG.info("======>> prepared hiveSqlStr: " + hiveSqlStr);
 
-        JobTools.runCommand(getId(), new String[]{
+        int exitCode = JobTools.runCommand(getId(), new String[]{
                 "hive",
                 "-e",
                 hiveSqlStr
         });
 
         LOG.info("======>> Dump hive data to HDFS use " + (System.currentTimeMillis() - s2) + "ms.");
+        if (0 != exitCode) {
+            JobTools.deletePath(getId(), new Configuration(), tempDumpDataDirPath);
+            return exitCode;
+        }
 
         // 执行Sqoop Export语句
         String[] sqoopCmd = new String[]{
@@ -166,7 +220,7 @@ public class ExportHiveToMySQL extends ConfigurableJob {
                 "--password",
                 datasourceConnectionInfo.getPassword(),
                 "--table",
-                mysqlTable,
+                exportTable,
                 "--export-dir",
                 tempDumpDataDirPath,
                 "--input-fields-terminated-by",
@@ -181,11 +235,96 @@ public class ExportHiveToMySQL extends ConfigurableJob {
 
         long s3 = System.currentTimeMillis();
 
-        JobTools.runCommand(getId(), sqoopCmd);
+        exitCode = JobTools.runCommand(getId(), sqoopCmd);
 
         LOG.info("======>> Export HDFS table data to RDBMS use " + (System.currentTimeMillis() - s3) + "ms.");
 
-        return 0;
+        JobTools.deletePath(getId(), new Configuration(), tempDumpDataDirPath);
+
+        return exitCode;
+    }
+
+    /**
+     * 按照正式表的结构创建影子表，并且复制正式表中需要保留的数据.
+     */
+    private StagingTable prepareStagingTable() {
+        StagingTable stagingTable = new StagingTable(mysqlTable);
+        try (Connection conn = getMetadataConfiguration().getDatasourceConnection(datasourceConnectionInfo)) {
+            stagingTable.create(conn, null);
+            if (null != mysqlSwapKeepWhere && !"".equals(mysqlSwapKeepWhere.trim())) {
+                stagingTable.copyFrom(conn, mysqlSwapKeepWhere);
+            }
+            return stagingTable;
+        } catch (SQLException e) {
+            LOG.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 导出成功的时候重建索引并替换正式表，失败的时候删除影子表.
+     */
+    private int finishStagingTable(StagingTable stagingTable, int exitCode) {
+        try (Connection conn = getMetadataConfiguration().getDatasourceConnection(datasourceConnectionInfo)) {
+            if (0 == exitCode) {
+                stagingTable.buildIndexes(conn);
+                stagingTable.swap(conn);
+            } else {
+                LOG.error("======>> Export failed, exit code: " + exitCode + ", keep table [" + mysqlTable + "] unchanged.");
+                stagingTable.drop(conn);
+            }
+            return exitCode;
+        } catch (SQLException e) {
+            LOG.error(e.getMessage(), e);
+            dropStagingTable(stagingTable);
+            return -1;
+        }
+    }
+
+    /**
+     * 重建索引或者替换失败的时候删除影子表，正式表保持不变.
+     */
+    private void dropStagingTable(StagingTable stagingTable) {
+        try (Connection conn = getMetadataConfiguration().getDatasourceConnection(datasourceConnectionInfo)) {
+            stagingTable.drop(conn);
+        } catch (SQLException e) {
+            LOG.error("======>> Drop staging table [" + stagingTable.getName() + "] failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 配置了分区的时候查询分区的存储信息，能直接读取的分区不需要再通过hive和sqoop导出.
+     * 直接读取的时候导出分区的全部数据，hive.sql中的过滤条件和列都没法生效，所以设置了hive.sql的时候不直接读取.
+     */
+    private HiveTable loadHivePartition() {
+        if (null == hivePartition || "".equals(hivePartition)) {
+            return null;
+        }
+        if (null != hiveSql && !"".equals(hiveSql.trim())) {
+            LOG.warn("======>> Both hive.sql and hive.partition are set, export by hive.sql.");
+            return null;
+        }
+        try {
+            return new HiveSchemaResolver(getMetadataConfiguration(), new Configuration()).getTable(hiveDb, hiveTable, hivePartition);
+        } catch (SQLException e) {
+            LOG.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private int exportHivePartition(HiveTable partition, String exportTable) {
+        long s2 = System.currentTimeMillis();
+        // 分区的文件中没有分区字段，按照Hive的列名和分区字段的名称插入，分区字段的值从分区名称中解析
+        RdbExportConfiguration exportConfiguration = RdbExportConfiguration.create(partition, datasourceConnectionInfo, exportTable, true);
+        try {
+            int exitCode = ToolRunner.run(new Configuration(), new RdbExportJob(exportConfiguration,
+                    Collections.singletonList(new Path(partition.getLocation()))), new String[0]);
+            LOG.info("======>> Export hive partition " + hivePartition + " to RDBMS use " + (System.currentTimeMillis() - s2) + "ms, exit code: " + exitCode);
+            return exitCode;
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            return -1;
+        }
     }
 
     private void cleanTableData() {
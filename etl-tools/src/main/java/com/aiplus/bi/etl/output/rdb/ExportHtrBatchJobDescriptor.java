@@ -0,0 +1,22 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.ConfigurableJob;
+import com.aiplus.bi.etl.JobDescriptor;
+
+/**
+ * 在一个进程中并行导出多张Hive表的数据到RDB数据库中.
+ *
+ * @author dev
+ */
+public class ExportHtrBatchJobDescriptor implements JobDescriptor {
+
+    @Override
+    public String getJobName() {
+        return "export-htr-batch";
+    }
+
+    @Override
+    public ConfigurableJob newJob() {
+        return new ExportHiveTablesToRdb();
+    }
+}
@@ -0,0 +1,275 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.MetadataConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 查询Hive表的结构，并且根据表中实际的数据生成RDB的建表语句.
+ * <p>
+ * 一次运行中同一张表的元数据只查询一次. 列类型按照Hive的类型和抽样的统计选择：
+ * <ul>
+ * <li>string：按照抽样到的最大长度留出一倍的余量定义VARCHAR，太长的或者不能抽样的使用TEXT，所有VARCHAR的总长度超过MySQL行长度限制的时候最长的改成TEXT.
+ * 抽样不能保证包含最长的值，所以导出的时候使用严格模式，超长的数据写入失败而不是被截断，失败以后调用{@link #widenSampledVarchars}改成TEXT重新导出</li>
+ * <li>整数：ORC文件中有精确范围的时候选择能放下的最小的整数类型，否则和Hive中的类型一致</li>
+ * <li>decimal、varchar、char：和Hive中定义的精度和长度一致</li>
+ * </ul>
+ *
+ * @author dev
+ */
+public class HiveSchemaResolver {
+
+    public static final String HIVE_SCHEMA_DATASOURCE_CODE = "hive_schema";
+
+    private static final Log LOG = LogFactory.getLog(HiveSchemaResolver.class);
+
+    private static final int MIN_VARCHAR_LENGTH = 16;
+
+    private static final int MAX_VARCHAR_LENGTH = 4096;
+
+    /**
+     * 表中没有数据的时候字符串的长度.
+     */
+    private static final int DEFAULT_VARCHAR_LENGTH = 255;
+
+    /**
+     * MySQL一行的最大字节数是65535，留出其他列的空间.
+     */
+    private static final int MAX_ROW_VARCHAR_BYTES = 60000;
+
+    /**
+     * utf8mb4一个字符最多4个字节.
+     */
+    private static final int BYTES_PER_CHAR = 4;
+
+    private static final int TEXT_MAX_BYTES = 65535;
+
+    private static final int MEDIUMTEXT_MAX_BYTES = 16777215;
+
+    private final MetadataConfiguration metadataConfiguration;
+
+    private final HiveTableSampler sampler;
+
+    private final Map<String, HiveTable> tables = new ConcurrentHashMap<>();
+
+    private final Map<String, String[]> columnTypes = new ConcurrentHashMap<>();
+
+    /**
+     * 按照抽样长度定义成VARCHAR的列.
+     */
+    private final Map<String, boolean[]> sampledVarchars = new ConcurrentHashMap<>();
+
+    public HiveSchemaResolver(MetadataConfiguration metadataConfiguration, Configuration conf) {
+        this.metadataConfiguration = metadataConfiguration;
+        this.sampler = new HiveTableSampler(conf);
+    }
+
+    /**
+     * 查询Hive表（或者分区）的结构和存储信息.
+     *
+     * @return 表，不存在的时候返回null
+     * @throws SQLException 查询元数据失败
+     */
+    public HiveTable getTable(String db, String table, String partition) throws SQLException {
+        String key = db + "." + table + (null == partition ? "" : "/" + partition);
+        HiveTable hiveTable = tables.get(key);
+        if (null == hiveTable) {
+            try (Connection conn = metadataConfiguration.getDatasourceConnection(HIVE_SCHEMA_DATASOURCE_CODE)) {
+                hiveTable = HiveTable.load(conn, db, table, partition);
+            }
+            if (null != hiveTable) {
+                tables.put(key, hiveTable);
+            }
+        }
+        return hiveTable;
+    }
+
+    /**
+     * 生成RDB的建表语句.
+     *
+     * @param hiveTable Hive表
+     * @param rdbTable  RDB的表名
+     * @return 建表语句
+     * @throws IOException 抽样读取文件失败
+     */
+    public String createTableSql(HiveTable hiveTable, String rdbTable) throws IOException {
+        String[] types = resolveColumnTypes(hiveTable);
+        StringBuilder create = new StringBuilder("CREATE TABLE IF NOT EXISTS `").append(rdbTable).append("` (");
+        for (int i = 0; i < types.length; i++) {
+            create.append(i == 0 ? "`" : ", `").append(hiveTable.getColumns().get(i).getName()).append("` ").append(types[i]);
+        }
+        return create.append(") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4").toString();
+    }
+
+    /**
+     * 选择每一列的RDB类型.
+     */
+    public String[] resolveColumnTypes(HiveTable hiveTable) throws IOException {
+        String key = hiveTable.getDb() + "." + hiveTable.getName();
+        String[] types = columnTypes.get(key);
+        if (null != types) {
+            return types;
+        }
+        HiveTableSampler.ColumnProfile[] profiles = null;
+        if (null != hiveTable.getFormat()) {
+            profiles = sampler.sample(hiveTable);
+        }
+        types = new String[hiveTable.getColumns().size()];
+        int[] varcharLengths = new int[types.length];
+        boolean[] sampled = new boolean[types.length];
+        for (int i = 0; i < types.length; i++) {
+            HiveTable.Column column = hiveTable.getColumns().get(i);
+            types[i] = toRdbType(column.getType(), null == profiles ? null : profiles[i]);
+            varcharLengths[i] = getVarcharLength(types[i]);
+            sampled[i] = "string".equalsIgnoreCase(column.getType().trim()) && varcharLengths[i] > 0;
+        }
+        fitRowSize(types, varcharLengths);
+        for (int i = 0; i < types.length; i++) {
+            LOG.info("Column `" + hiveTable.getColumns().get(i).getName() + "` " + hiveTable.getColumns().get(i).getType() + " -> " + types[i]);
+        }
+        sampledVarchars.put(key, sampled);
+        columnTypes.put(key, types);
+        return types;
+    }
+
+    /**
+     * 把按照抽样长度定义成VARCHAR的列改成TEXT，之后生成的建表语句使用新的类型.
+     *
+     * @param hiveTable Hive表，必须已经调用过{@link #resolveColumnTypes}
+     * @return 是否有修改的列，没有的时候重新导出也没有用
+     */
+    public boolean widenSampledVarchars(HiveTable hiveTable) {
+        String key = hiveTable.getDb() + "." + hiveTable.getName();
+        String[] types = columnTypes.get(key);
+        boolean[] sampled = sampledVarchars.get(key);
+        if (null == types || null == sampled) {
+            return false;
+        }
+        boolean widened = false;
+        for (int i = 0; i < types.length; i++) {
+            if (sampled[i] && types[i].startsWith("VARCHAR(")) {
+                LOG.info("Column `" + hiveTable.getColumns().get(i).getName() + "` " + types[i] + " -> TEXT");
+                types[i] = "TEXT";
+                widened = true;
+            }
+        }
+        return widened;
+    }
+
+    private String toRdbType(String hiveType, HiveTableSampler.ColumnProfile profile) {
+        String type = hiveType.toLowerCase().trim();
+        if (type.startsWith("decimal")) {
+            // Hive中没有精度的decimal是decimal(10,0)
+            return "decimal".equals(type) ? "DECIMAL(10,0)" : type.toUpperCase();
+        }
+        if (type.startsWith("varchar") || type.startsWith("char")) {
+            return type.toUpperCase();
+        }
+        switch (type) {
+            case "string":
+                return toStringType(profile);
+            case "tinyint":
+                return "TINYINT";
+            case "smallint":
+                return toIntegerType(profile, "SMALLINT");
+            case "int":
+                return toIntegerType(profile, "INT");
+            case "bigint":
+                return toIntegerType(profile, "BIGINT");
+            case "boolean":
+                return "TINYINT(1)";
+            case "float":
+                return "FLOAT";
+            case "double":
+                return "DOUBLE";
+            case "date":
+                return "DATE";
+            case "timestamp":
+                return "DATETIME";
+            case "binary":
+                return "LONGBLOB";
+            default:
+                // array、map、struct等复杂类型
+                return "TEXT";
+        }
+    }
+
+    private String toStringType(HiveTableSampler.ColumnProfile profile) {
+        if (null == profile) {
+            // 不能抽样的存储格式不知道数据的长度，使用TEXT保证不会截断
+            return "TEXT";
+        }
+        if (profile.getSampledValues() == 0) {
+            return "VARCHAR(" + DEFAULT_VARCHAR_LENGTH + ")";
+        }
+        // 抽样不一定包含最长的值，留出一倍的余量
+        long bytes = profile.getMaxBytes() * 2L;
+        if (bytes <= MAX_VARCHAR_LENGTH) {
+            int length = MIN_VARCHAR_LENGTH;
+            while (length < bytes) {
+                length = length * 2;
+            }
+            return "VARCHAR(" + length + ")";
+        }
+        if (bytes <= TEXT_MAX_BYTES) {
+            return "TEXT";
+        }
+        return bytes <= MEDIUMTEXT_MAX_BYTES ? "MEDIUMTEXT" : "LONGTEXT";
+    }
+
+    private String toIntegerType(HiveTableSampler.ColumnProfile profile, String hiveIntegerType) {
+        if (null == profile || !profile.hasExactRange()) {
+            return hiveIntegerType;
+        }
+        long min = profile.getMinimum();
+        long max = profile.getMaximum();
+        if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+            return "TINYINT";
+        }
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+            return "SMALLINT";
+        }
+        if (min >= -8388608 && max <= 8388607) {
+            return "MEDIUMINT";
+        }
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+            return "INT";
+        }
+        return "BIGINT";
+    }
+
+    private int getVarcharLength(String type) {
+        if (type.startsWith("VARCHAR(") || type.startsWith("CHAR(")) {
+            return Integer.parseInt(type.substring(type.indexOf('(') + 1, type.indexOf(')')).trim());
+        }
+        return 0;
+    }
+
+    /**
+     * 所有VARCHAR列的总字节数超过行长度限制的时候，把最长的VARCHAR改成TEXT（TEXT的数据不占用行内的空间）.
+     */
+    private void fitRowSize(String[] types, int[] varcharLengths) {
+        long total = 0;
+        for (int length : varcharLengths) {
+            total = total + (long) length * BYTES_PER_CHAR;
+        }
+        while (total > MAX_ROW_VARCHAR_BYTES) {
+            int longest = 0;
+            for (int i = 1; i < varcharLengths.length; i++) {
+                if (varcharLengths[i] > varcharLengths[longest]) {
+                    longest = i;
+                }
+            }
+            total = total - (long) varcharLengths[longest] * BYTES_PER_CHAR;
+            types[longest] = "TEXT";
+            varcharLengths[longest] = 0;
+        }
+    }
+}
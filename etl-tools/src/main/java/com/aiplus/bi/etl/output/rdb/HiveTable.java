@@ -0,0 +1,288 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hive表（或者表的一个分区）的存储信息，从Hive的元数据库中查询.
+ *
+ * @author dev
+ */
+public class HiveTable {
+
+    private static final Log LOG = LogFactory.getLog(HiveTable.class);
+
+    private static final String SQL_QUERY_HIVE_TABLE_SCHEMA = "SELECT t.TBL_NAME, c.COLUMN_NAME, c.TYPE_NAME, c.INTEGER_IDX FROM " +
+            "COLUMNS_V2 c " +
+            "LEFT JOIN SDS s ON s.CD_ID = c.CD_ID " +
+            "LEFT JOIN TBLS t ON t.SD_ID = s.SD_ID " +
+            "LEFT JOIN DBS d ON d.DB_ID = t.DB_ID " +
+            "WHERE " +
+            "d.`NAME` = ? AND t.TBL_NAME = ? " +
+            "ORDER BY c.INTEGER_IDX ASC ";
+
+    private static final String SQL_QUERY_HIVE_TABLE_STORAGE = "SELECT t.TBL_ID, s.LOCATION, s.INPUT_FORMAT, s.SERDE_ID FROM TBLS t " +
+            "JOIN DBS d ON d.DB_ID = t.DB_ID " +
+            "JOIN SDS s ON s.SD_ID = t.SD_ID " +
+            "WHERE d.`NAME` = ? AND t.TBL_NAME = ?";
+
+    private static final String SQL_QUERY_HIVE_PARTITION_STORAGE = "SELECT t.TBL_ID, s.LOCATION, s.INPUT_FORMAT, s.SERDE_ID FROM PARTITIONS p " +
+            "JOIN TBLS t ON t.TBL_ID = p.TBL_ID " +
+            "JOIN DBS d ON d.DB_ID = t.DB_ID " +
+            "JOIN SDS s ON s.SD_ID = p.SD_ID " +
+            "WHERE d.`NAME` = ? AND t.TBL_NAME = ? AND p.PART_NAME = ?";
+
+    private static final String SQL_QUERY_SERDE_PARAMS = "SELECT PARAM_KEY, PARAM_VALUE FROM SERDE_PARAMS WHERE SERDE_ID = ?";
+
+    private static final String SQL_QUERY_TRANSACTIONAL = "SELECT PARAM_VALUE FROM TABLE_PARAMS WHERE TBL_ID = ? AND PARAM_KEY = 'transactional'";
+
+    /**
+     * 分区字段的值为NULL或者空字符串的时候，Hive使用的分区名.
+     */
+    private static final String HIVE_DEFAULT_PARTITION_NAME = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final char DEFAULT_FIELD_DELIMITER = '\001';
+
+    private static final String DEFAULT_NULL_FORMAT = "\\N";
+
+    private final String db;
+
+    private final String name;
+
+    private final List<Column> columns = new ArrayList<>();
+
+    private String location;
+
+    private String inputFormat;
+
+    private Map<String, String> serdeParams = new HashMap<>();
+
+    /**
+     * 事务表（ACID），文件中的每行数据包在事务信息的结构里面，并且需要合并delta目录，不能直接读取.
+     */
+    private boolean transactional;
+
+    /**
+     * 分区字段的名称，分区的文件中没有这些字段，只有加载了分区的时候才有.
+     */
+    private String[] partitionColumnNames = new String[0];
+
+    private String[] partitionValues = new String[0];
+
+    private HiveTable(String db, String name) {
+        this.db = db;
+        this.name = name;
+    }
+
+    /**
+     * 查询Hive表的列和存储信息.
+     *
+     * @param metastoreConnection Hive元数据库的连接
+     * @param db                  库名
+     * @param table               表名
+     * @param partition           分区名称，例如dt=2020-01-01，为空表示整张表
+     * @return 表，表不存在的时候返回null
+     * @throws SQLException 查询失败
+     */
+    public static HiveTable load(Connection metastoreConnection, String db, String table, String partition) throws SQLException {
+        HiveTable hiveTable = new HiveTable(db, table);
+        try (PreparedStatement pstmt = metastoreConnection.prepareStatement(SQL_QUERY_HIVE_TABLE_SCHEMA)) {
+            pstmt.setString(1, db);
+            pstmt.setString(2, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hiveTable.columns.add(new Column(rs.getString("COLUMN_NAME"), rs.getString("TYPE_NAME")));
+                }
+            }
+        }
+        boolean partitioned = null != partition && !"".equals(partition);
+        if (partitioned) {
+            hiveTable.parsePartitionName(partition);
+        }
+        long tableId;
+        long serdeId;
+        try (PreparedStatement pstmt = metastoreConnection.prepareStatement(partitioned ? SQL_QUERY_HIVE_PARTITION_STORAGE : SQL_QUERY_HIVE_TABLE_STORAGE)) {
+            pstmt.setString(1, db);
+            pstmt.setString(2, table);
+            if (partitioned) {
+                pstmt.setString(3, partition);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    LOG.warn("Hive table [" + db + "." + table + "]" + (partitioned ? " partition [" + partition + "]" : "") + " not found.");
+                    return null;
+                }
+                tableId = rs.getLong("TBL_ID");
+                hiveTable.location = rs.getString("LOCATION");
+                hiveTable.inputFormat = rs.getString("INPUT_FORMAT");
+                serdeId = rs.getLong("SERDE_ID");
+            }
+        }
+        try (PreparedStatement pstmt = metastoreConnection.prepareStatement(SQL_QUERY_SERDE_PARAMS)) {
+            pstmt.setLong(1, serdeId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hiveTable.serdeParams.put(rs.getString("PARAM_KEY"), rs.getString("PARAM_VALUE"));
+                }
+            }
+        }
+        try (PreparedStatement pstmt = metastoreConnection.prepareStatement(SQL_QUERY_TRANSACTIONAL)) {
+            pstmt.setLong(1, tableId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                hiveTable.transactional = rs.next() && "true".equalsIgnoreCase(rs.getString("PARAM_VALUE"));
+            }
+        }
+        LOG.info("Hive table [" + db + "." + table + "] location: " + hiveTable.location + ", input format: " + hiveTable.inputFormat
+                + (hiveTable.transactional ? ", transactional" : ""));
+        return hiveTable;
+    }
+
+    /**
+     * 解析分区名称中的字段和值，例如dt=2020-01-01/hour=01. 分区名称中的特殊字符是按照%XX转义的（和Hive的FileUtils.escapePathName一致）.
+     */
+    private void parsePartitionName(String partition) {
+        String[] parts = partition.split("/");
+        partitionColumnNames = new String[parts.length];
+        partitionValues = new String[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            int index = parts[i].indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("Illegal hive partition name: " + partition);
+            }
+            partitionColumnNames[i] = unescapePathName(parts[i].substring(0, index));
+            String value = unescapePathName(parts[i].substring(index + 1));
+            partitionValues[i] = HIVE_DEFAULT_PARTITION_NAME.equals(value) ? null : value;
+        }
+    }
+
+    private static String unescapePathName(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%' && i + 2 < path.length()) {
+                try {
+                    sb.append((char) Integer.parseInt(path.substring(i + 1, i + 3), 16));
+                    i = i + 2;
+                    continue;
+                } catch (NumberFormatException e) {
+                    // 不是转义字符，原样保留
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 存储格式，不能直接读取的格式返回null
+     */
+    public RdbExportConfiguration.Format getFormat() {
+        if (null == inputFormat || transactional) {
+            return null;
+        }
+        if (inputFormat.endsWith("OrcInputFormat")) {
+            return RdbExportConfiguration.Format.ORC;
+        }
+        // 带转义字符的文本需要Hive的SerDe才能正确解析
+        if (inputFormat.endsWith(".TextInputFormat") && !serdeParams.containsKey("escape.delim")) {
+            return RdbExportConfiguration.Format.TEXT;
+        }
+        return null;
+    }
+
+    /**
+     * 文本格式的字段分隔符，没有设置的时候是Hive默认的\001.
+     */
+    public char getFieldDelimiter() {
+        String delimiter = serdeParams.get("field.delim");
+        return null == delimiter || delimiter.isEmpty() ? DEFAULT_FIELD_DELIMITER : delimiter.charAt(0);
+    }
+
+    public String getNullFormat() {
+        String nullFormat = serdeParams.get("serialization.null.format");
+        return null == nullFormat ? DEFAULT_NULL_FORMAT : nullFormat;
+    }
+
+    public String getDb() {
+        return db;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public String[] getColumnNames() {
+        String[] names = new String[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).getName();
+        }
+        return names;
+    }
+
+    public String[] getColumnTypes() {
+        String[] types = new String[columns.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = columns.get(i).getType();
+        }
+        return types;
+    }
+
+    /**
+     * @return 分区字段的名称，整张表的时候是空数组
+     */
+    public String[] getPartitionColumnNames() {
+        return partitionColumnNames;
+    }
+
+    /**
+     * @return 分区字段的值，和{@link #getPartitionColumnNames()}的顺序一致，默认分区的值是null
+     */
+    public String[] getPartitionValues() {
+        return partitionValues;
+    }
+
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getInputFormat() {
+        return inputFormat;
+    }
+
+    public static class Column {
+
+        private final String name;
+
+        private final String type;
+
+        public Column(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.JobTools;
+import com.aiplus.bi.etl.MetadataConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+
+/**
+ * 把一张Hive表全量导出到RDB的一张表中.
+ * <p>
+ * 按照Hive表的结构创建影子表，能直接读取的存储格式在进程内提交MapReduce任务写入，其他的通过hive和sqoop导出，成功以后替换正式表.
+ * 直接读取的时候按照抽样的长度定义VARCHAR，使用严格模式写入，有超长的数据导出失败以后把这些列改成TEXT重新导出一次.
+ * 多个线程可以共用同一个{@link HiveSchemaResolver}同时导出不同的表.
+ *
+ * @author dev
+ */
+class HiveTableExporter {
+
+    private static final Log LOG = LogFactory.getLog(HiveTableExporter.class);
+
+    private final String jobId;
+
+    private final MetadataConfiguration metadataConfiguration;
+
+    private final HiveSchemaResolver schemaResolver;
+
+    private final MetadataConfiguration.DataSourceConnectionInfo datasourceConnectionInfo;
+
+    HiveTableExporter(String jobId, MetadataConfiguration metadataConfiguration, HiveSchemaResolver schemaResolver,
+                      MetadataConfiguration.DataSourceConnectionInfo datasourceConnectionInfo) {
+        this.jobId = jobId;
+        this.metadataConfiguration = metadataConfiguration;
+        this.schemaResolver = schemaResolver;
+        this.datasourceConnectionInfo = datasourceConnectionInfo;
+    }
+
+    /**
+     * 导出一张表.
+     *
+     * @param hiveDb    Hive的库名
+     * @param hiveTable Hive的表名
+     * @param rdbTable  RDB的表名
+     * @return 退出码，0表示成功
+     */
+    int export(String hiveDb, String hiveTable, String rdbTable) {
+        long s1 = System.currentTimeMillis();
+        // 先查询Hive中的Schema和存储信息
+        HiveTable table = loadHiveTable(hiveDb, hiveTable);
+        if (null == table) {
+            return -1;
+        }
+        // 数据先写入影子表，写完以后再替换正式表，导出期间正式表的数据不受影响
+        StagingTable stagingTable = new StagingTable(rdbTable);
+        // Dump表创建
+        if (!dumpTableCreation(stagingTable, table)) {
+            return -1;
+        }
+        LOG.info("Create dump table [" + rdbTable + "] use " + (System.currentTimeMillis() - s1) + "ms.");
+        int exitCode;
+        if (null != table.getFormat()) {
+            exitCode = exportHiveTable(table, stagingTable.getName());
+            // 失败的原因可能是数据超过了抽样的长度，改成TEXT以后重新创建影子表再导出一次
+            if (0 != exitCode && schemaResolver.widenSampledVarchars(table)) {
+                LOG.warn("Export hive table [" + hiveDb + "." + hiveTable + "] failed, retry with sampled VARCHAR columns as TEXT.");
+                if (!dumpTableCreation(stagingTable, table)) {
+                    return -1;
+                }
+                exitCode = exportHiveTable(table, stagingTable.getName());
+            }
+        } else {
+            // 不能直接读取的存储格式还是通过Hive导出成文本再用Sqoop导入
+            exitCode = exportByHiveAndSqoop(hiveDb + "." + hiveTable, stagingTable.getName(), rdbTable);
+        }
+        return finishStagingTable(stagingTable, rdbTable, exitCode);
+    }
+
+    private int exportByHiveAndSqoop(String hiveTable, String exportTableName, String rdbTable) {
+        String tempDumpDataDirPath = "/user/hadoop/hive_dump/" + rdbTable + "_" + jobId;
+        long s2 = System.currentTimeMillis();
+        // 执行Hive命令
+        int exitCode = JobTools.runCommand(jobId, new String[]{
+                "hive",
+                "-e",
+                "insert overwrite directory '" + tempDumpDataDirPath + "' row format delimited fields terminated by ',' select * from " + hiveTable + ";"});
+        LOG.info("Dump hive data of [" + hiveTable + "] to HDFS use " + (System.currentTimeMillis() - s2) + "ms.");
+        if (0 != exitCode) {
+            JobTools.deletePath(jobId, new Configuration(), tempDumpDataDirPath);
+            return exitCode;
+        }
+        long s3 = System.currentTimeMillis();
+        // 执行Sqoop Export语句
+        exitCode = JobTools.runCommand(jobId, new String[]{
+                "sqoop",
+                "export",
+                "--connect",
+                datasourceConnectionInfo.getUrl(),
+                "--username",
+                datasourceConnectionInfo.getUser(),
+                "--password",
+                datasourceConnectionInfo.getPassword(),
+                "--table",
+                exportTableName,
+                "--export-dir",
+                tempDumpDataDirPath,
+                "--input-fields-terminated-by",
+                ",",
+                "--input-null-string",
+                "'\\\\N'",
+                "--input-null-non-string",
+                "'\\\\N'"
+        });
+        LOG.info("Export HDFS table data to RDBMS [" + rdbTable + "] use " + (System.currentTimeMillis() - s3) + "ms.");
+        JobTools.deletePath(jobId, new Configuration(), tempDumpDataDirPath);
+        return exitCode;
+    }
+
+    /**
+     * 导出成功的时候重建索引并替换正式表，失败的时候删除影子表.
+     */
+    private int finishStagingTable(StagingTable stagingTable, String rdbTable, int exitCode) {
+        try (Connection conn = metadataConfiguration.getDatasourceConnection(datasourceConnectionInfo)) {
+            if (0 == exitCode) {
+                stagingTable.buildIndexes(conn);
+                stagingTable.swap(conn);
+            } else {
+                LOG.error("Export hive table failed, exit code: " + exitCode + ", keep table [" + rdbTable + "] unchanged.");
+                stagingTable.drop(conn);
+            }
+            return exitCode;
+        } catch (SQLException e) {
+            LOG.error(e.getMessage(), e);
+            dropStagingTable(stagingTable);
+            return -1;
+        }
+    }
+
+    /**
+     * 重建索引或者替换失败的时候删除影子表，不留下占用空间的半成品.
+     */
+    private void dropStagingTable(StagingTable stagingTable) {
+        try (Connection conn = metadataConfiguration.getDatasourceConnection(datasourceConnectionInfo)) {
+            stagingTable.drop(conn);
+        } catch (SQLException e) {
+            LOG.error("Drop staging table [" + stagingTable.getName() + "] failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 在进程内提交MapReduce任务直接读取Hive表的文件写入RDB.
+     */
+    private int exportHiveTable(HiveTable hiveTable, String exportTableName) {
+        long s2 = System.currentTimeMillis();
+        RdbExportConfiguration exportConfiguration = RdbExportConfiguration.create(hiveTable, datasourceConnectionInfo, exportTableName, true);
+        // VARCHAR的长度是抽样得到的，超长的数据不能被静默截断
+        exportConfiguration.setStrict(true);
+        exportConfiguration.setStaging(true);
+        try {
+            int exitCode = ToolRunner.run(new Configuration(), new RdbExportJob(exportConfiguration,
+                    Collections.singletonList(new Path(hiveTable.getLocation()))), new String[0]);
+            LOG.info("Export hive table data to RDBMS [" + exportTableName + "] use " + (System.currentTimeMillis() - s2) + "ms, exit code: " + exitCode);
+            return exitCode;
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    private HiveTable loadHiveTable(String hiveDb, String hiveTable) {
+        try {
+            HiveTable table = schemaResolver.getTable(hiveDb, hiveTable, null);
+            if (null == table) {
+                LOG.error("Hive table [" + hiveDb + "." + hiveTable + "] not found.");
+            }
+            return table;
+        } catch (SQLException e) {
+            LOG.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private boolean dumpTableCreation(StagingTable stagingTable, HiveTable hiveTable) {
+        LOG.info("Prepare create dump table......");
+        // 执行dump语句
+        try (Connection conn = metadataConfiguration.getDatasourceConnection(datasourceConnectionInfo)) {
+            String create = schemaResolver.createTableSql(hiveTable, stagingTable.getName());
+            stagingTable.create(conn, create);
+            LOG.info("Create table: " + create);
+            return true;
+        } catch (SQLException | IOException e) {
+            LOG.error(e.getMessage(), e);
+            return false;
+        }
+    }
+}
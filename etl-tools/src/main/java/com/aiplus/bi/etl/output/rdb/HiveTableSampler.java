@@ -0,0 +1,287 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.orc.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 抽样统计Hive表每一列的数据特征，用来选择RDB的列类型.
+ * <p>
+ * 字符串列读取前几个文件中的一部分行，统计最长的字节数（字节数不小于字符数，按照字节数定义VARCHAR的长度不会截断）.
+ * ORC文件的footer中保存了整数列精确的最小值和最大值，读取所有文件的footer就可以得到整张表的范围，不需要读取数据.
+ * 文本文件没有统计信息，整数列只能使用Hive中定义的类型.
+ *
+ * @author dev
+ */
+public class HiveTableSampler {
+
+    /**
+     * 字符串列抽样的最大行数.
+     */
+    public static final String SAMPLE_ROWS_PROPERTY = "etl.export.rdb.sample.rows";
+
+    /**
+     * 字符串列抽样的最大文件数.
+     */
+    public static final String SAMPLE_FILES_PROPERTY = "etl.export.rdb.sample.files";
+
+    private static final Log LOG = LogFactory.getLog(HiveTableSampler.class);
+
+    private static final int DEFAULT_SAMPLE_ROWS = 100000;
+
+    private static final int DEFAULT_SAMPLE_FILES = 8;
+
+    /**
+     * 文件太多的时候读取footer也很慢，不再统计整数列的范围.
+     */
+    private static final int MAX_FOOTER_FILES = 1000;
+
+    private final Configuration conf;
+
+    private final int sampleRows;
+
+    private final int sampleFiles;
+
+    public HiveTableSampler(Configuration conf) {
+        this.conf = conf;
+        this.sampleRows = conf.getInt(SAMPLE_ROWS_PROPERTY, DEFAULT_SAMPLE_ROWS);
+        this.sampleFiles = conf.getInt(SAMPLE_FILES_PROPERTY, DEFAULT_SAMPLE_FILES);
+    }
+
+    /**
+     * 统计表的每一列.
+     *
+     * @param hiveTable Hive表，存储格式必须能直接读取
+     * @return 每一列的统计，和表的列顺序一致
+     * @throws IOException 读取文件失败
+     */
+    public ColumnProfile[] sample(HiveTable hiveTable) throws IOException {
+        int columnNum = hiveTable.getColumns().size();
+        ColumnProfile[] profiles = new ColumnProfile[columnNum];
+        for (int i = 0; i < columnNum; i++) {
+            profiles[i] = new ColumnProfile();
+        }
+        List<Path> files = listDataFiles(new Path(hiveTable.getLocation()));
+        long start = System.currentTimeMillis();
+        if (hiveTable.getFormat() == RdbExportConfiguration.Format.ORC) {
+            sampleOrc(files, profiles);
+        } else {
+            sampleText(files, profiles, (byte) hiveTable.getFieldDelimiter(), hiveTable.getNullFormat().getBytes(StandardCharsets.UTF_8));
+        }
+        LOG.info("Sample hive table [" + hiveTable.getDb() + "." + hiveTable.getName() + "] " + files.size() + " file(s) use "
+                + (System.currentTimeMillis() - start) + "ms.");
+        return profiles;
+    }
+
+    private List<Path> listDataFiles(Path location) throws IOException {
+        List<Path> files = new ArrayList<>();
+        FileSystem fs = location.getFileSystem(conf);
+        if (!fs.exists(location)) {
+            return files;
+        }
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(location, true);
+        while (iterator.hasNext()) {
+            LocatedFileStatus status = iterator.next();
+            if (status.getLen() > 0 && !isHidden(location, status.getPath())) {
+                files.add(status.getPath());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 和FileInputFormat一样跳过以_和.开头的文件和目录.
+     */
+    private boolean isHidden(Path location, Path file) {
+        int depth = location.depth();
+        for (Path p = file; null != p && p.depth() > depth; p = p.getParent()) {
+            String name = p.getName();
+            if (name.startsWith("_") || name.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sampleText(List<Path> files, ColumnProfile[] profiles, byte delimiter, byte[] nullBytes) throws IOException {
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        Text line = new Text();
+        int rows = 0;
+        for (int f = 0; f < files.size() && f < sampleFiles && rows < sampleRows; f++) {
+            Path file = files.get(f);
+            CompressionCodec codec = codecs.getCodec(file);
+            FileSystem fs = file.getFileSystem(conf);
+            try (InputStream in = null == codec ? fs.open(file) : codec.createInputStream(fs.open(file))) {
+                LineReader reader = new LineReader(in, conf);
+                while (rows < sampleRows && reader.readLine(line) > 0) {
+                    profileTextLine(line, profiles, delimiter, nullBytes);
+                    rows++;
+                }
+            }
+        }
+    }
+
+    private void profileTextLine(Text line, ColumnProfile[] profiles, byte delimiter, byte[] nullBytes) {
+        byte[] bytes = line.getBytes();
+        int length = line.getLength();
+        int column = 0;
+        int start = 0;
+        for (int i = 0; i <= length && column < profiles.length; i++) {
+            if (i == length || bytes[i] == delimiter) {
+                if (!isNullFormat(bytes, start, i - start, nullBytes)) {
+                    profiles[column].addLength(i - start);
+                }
+                column++;
+                start = i + 1;
+            }
+        }
+    }
+
+    private boolean isNullFormat(byte[] bytes, int start, int length, byte[] nullBytes) {
+        if (length != nullBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != nullBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sampleOrc(List<Path> files, ColumnProfile[] profiles) throws IOException {
+        boolean exactRange = files.size() <= MAX_FOOTER_FILES;
+        int rows = 0;
+        for (int f = 0; f < files.size(); f++) {
+            boolean readRows = f < sampleFiles && rows < sampleRows;
+            if (!exactRange && !readRows) {
+                break;
+            }
+            Reader reader = OrcFile.createReader(files.get(f), OrcFile.readerOptions(conf));
+            List<TypeDescription> children = reader.getSchema().getChildren();
+            if (exactRange) {
+                ColumnStatistics[] statistics = reader.getStatistics();
+                for (int i = 0; i < profiles.length && i < children.size(); i++) {
+                    profiles[i].addStatistics(statistics[children.get(i).getId()]);
+                }
+            }
+            if (readRows) {
+                rows = rows + sampleOrcRows(reader, profiles, sampleRows - rows);
+            }
+        }
+        for (ColumnProfile profile : profiles) {
+            profile.rangeExact = exactRange && profile.rangeExact;
+        }
+    }
+
+    private int sampleOrcRows(Reader reader, ColumnProfile[] profiles, int limit) throws IOException {
+        int rows = 0;
+        VectorizedRowBatch batch = reader.getSchema().createRowBatch();
+        try (RecordReader recordReader = reader.rows()) {
+            while (rows < limit && recordReader.nextBatch(batch)) {
+                for (int i = 0; i < profiles.length && i < batch.numCols; i++) {
+                    ColumnVector vector = batch.cols[i];
+                    if (!(vector instanceof BytesColumnVector)) {
+                        continue;
+                    }
+                    BytesColumnVector bytesVector = (BytesColumnVector) vector;
+                    int size = bytesVector.isRepeating ? Math.min(1, batch.size) : batch.size;
+                    for (int r = 0; r < size; r++) {
+                        if (bytesVector.noNulls || !bytesVector.isNull[r]) {
+                            profiles[i].addLength(bytesVector.length[r]);
+                        }
+                    }
+                }
+                rows = rows + batch.size;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 一列的统计信息.
+     */
+    public static class ColumnProfile {
+
+        /**
+         * 抽样到的非空值的数量.
+         */
+        private long sampledValues;
+
+        /**
+         * 抽样到的最长的字节数.
+         */
+        private int maxBytes;
+
+        private long minimum = Long.MAX_VALUE;
+
+        private long maximum = Long.MIN_VALUE;
+
+        /**
+         * 整数列的范围是不是整张表精确的范围，只有所有文件都有整数统计信息的时候才是.
+         */
+        private boolean rangeExact = true;
+
+        private boolean hasRange;
+
+        void addLength(int bytes) {
+            sampledValues++;
+            maxBytes = Math.max(maxBytes, bytes);
+        }
+
+        void addStatistics(ColumnStatistics statistics) {
+            if (!(statistics instanceof IntegerColumnStatistics)) {
+                rangeExact = false;
+                return;
+            }
+            if (statistics.getNumberOfValues() == 0) {
+                return;
+            }
+            IntegerColumnStatistics integerStatistics = (IntegerColumnStatistics) statistics;
+            minimum = Math.min(minimum, integerStatistics.getMinimum());
+            maximum = Math.max(maximum, integerStatistics.getMaximum());
+            hasRange = true;
+        }
+
+        public long getSampledValues() {
+            return sampledValues;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * @return 是否知道整数列整张表精确的范围
+         */
+        public boolean hasExactRange() {
+            return rangeExact && hasRange;
+        }
+
+        public long getMinimum() {
+            return minimum;
+        }
+
+        public long getMaximum() {
+            return maximum;
+        }
+    }
+}
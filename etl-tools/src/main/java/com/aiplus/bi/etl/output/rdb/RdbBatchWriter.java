@@ -0,0 +1,165 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * 使用多行INSERT批量写入RDB的表.
+ * <p>
+ * 攒够一批数据以后执行一条INSERT INTO t VALUES (...), (...), ...，一次网络往返写入整批数据. 满批的语句只准备一次，
+ * 最后不满一批的数据单独准备语句. 写入器不提交事务，由调用方决定什么时候提交.
+ *
+ * @author dev
+ */
+public class RdbBatchWriter implements AutoCloseable {
+
+    /**
+     * MySQL一条语句最多65535个参数.
+     */
+    private static final int MAX_PARAMETERS = 65535;
+
+    private final Connection connection;
+
+    private final String insertPrefix;
+
+    private final String rowPlaceholders;
+
+    private final int columnNum;
+
+    private final int batchRows;
+
+    private final int batchBytes;
+
+    private final Object[][] rows;
+
+    private int rowNum;
+
+    private long bytes;
+
+    private long writtenRows;
+
+    private long writtenBatches;
+
+    private PreparedStatement fullBatchStatement;
+
+    /**
+     * @param connection 目标库的连接
+     * @param table      目标表
+     * @param columns    列名，为null的时候按照目标表的列顺序插入
+     * @param columnNum  每行的列数
+     * @param batchRows  每批最多的行数
+     * @param batchBytes 每批最多的字节数（估算）
+     */
+    public RdbBatchWriter(Connection connection, String table, String[] columns, int columnNum, int batchRows, int batchBytes) {
+        this.connection = connection;
+        this.columnNum = columnNum;
+        this.batchRows = Math.max(1, Math.min(batchRows, MAX_PARAMETERS / Math.max(1, columnNum)));
+        this.batchBytes = batchBytes;
+        this.rows = new Object[this.batchRows][];
+        StringBuilder prefix = new StringBuilder("INSERT INTO `").append(table).append("`");
+        if (null != columns) {
+            prefix.append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                prefix.append(i == 0 ? "`" : ", `").append(columns[i]).append("`");
+            }
+            prefix.append(")");
+        }
+        this.insertPrefix = prefix.append(" VALUES ").toString();
+        StringBuilder placeholders = new StringBuilder("(");
+        for (int i = 0; i < columnNum; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        this.rowPlaceholders = placeholders.append(")").toString();
+    }
+
+    /**
+     * 写入一行数据，攒够一批的时候执行插入.
+     *
+     * @param values 每一列的值，null表示NULL，数组由写入器持有直到这一批写完
+     * @throws SQLException 插入失败
+     */
+    public void write(Object[] values) throws SQLException {
+        rows[rowNum++] = values;
+        for (Object value : values) {
+            if (value instanceof String) {
+                bytes = bytes + ((String) value).length();
+            } else if (value instanceof byte[]) {
+                bytes = bytes + ((byte[]) value).length;
+            } else {
+                bytes = bytes + 8;
+            }
+        }
+        if (rowNum == batchRows || bytes >= batchBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * 写入已经缓存的数据.
+     */
+    public void flush() throws SQLException {
+        if (rowNum == 0) {
+            return;
+        }
+        if (rowNum == batchRows) {
+            if (null == fullBatchStatement) {
+                fullBatchStatement = connection.prepareStatement(getInsertSql(batchRows));
+            }
+            execute(fullBatchStatement);
+        } else {
+            try (PreparedStatement pstmt = connection.prepareStatement(getInsertSql(rowNum))) {
+                execute(pstmt);
+            }
+        }
+        writtenRows = writtenRows + rowNum;
+        writtenBatches++;
+        for (int i = 0; i < rowNum; i++) {
+            rows[i] = null;
+        }
+        rowNum = 0;
+        bytes = 0;
+    }
+
+    private void execute(PreparedStatement pstmt) throws SQLException {
+        int index = 1;
+        for (int r = 0; r < rowNum; r++) {
+            Object[] values = rows[r];
+            for (int c = 0; c < columnNum; c++) {
+                pstmt.setObject(index++, c < values.length ? values[c] : null);
+            }
+        }
+        pstmt.executeUpdate();
+    }
+
+    private String getInsertSql(int rowCount) {
+        StringBuilder sql = new StringBuilder(insertPrefix.length() + rowCount * (rowPlaceholders.length() + 2));
+        sql.append(insertPrefix);
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(rowPlaceholders);
+        }
+        return sql.toString();
+    }
+
+    public long getWrittenRows() {
+        return writtenRows;
+    }
+
+    /**
+     * @return 已经执行的INSERT语句数
+     */
+    public long getWrittenBatches() {
+        return writtenBatches;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (null != fullBatchStatement) {
+            fullBatchStatement.close();
+            fullBatchStatement = null;
+        }
+    }
+}
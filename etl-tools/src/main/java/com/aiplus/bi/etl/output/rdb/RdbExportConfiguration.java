@@ -0,0 +1,189 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.MetadataConfiguration;
+import com.google.gson.GsonBuilder;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Hive表导出到RDB的MapReduce任务的配置，序列化成JSON保存在Hadoop的配置中传递给Map.
+ *
+ * @author dev
+ */
+public class RdbExportConfiguration {
+
+    public static final String RDB_EXPORT_CONFIGURATION_PROPERTY = "etl.export.rdb.configuration";
+
+    /**
+     * 每条INSERT语句最多插入的行数.
+     */
+    public static final String BATCH_ROWS_PROPERTY = "etl.export.rdb.batch.rows";
+
+    /**
+     * 每条INSERT语句的最大字节数（估算），需要小于数据库的max_allowed_packet.
+     */
+    public static final String BATCH_BYTES_PROPERTY = "etl.export.rdb.batch.bytes";
+
+    /**
+     * 写入影子表的时候每执行多少条INSERT语句提交一次事务，小于等于0表示分片全部写完才提交.
+     */
+    public static final String COMMIT_BATCHES_PROPERTY = "etl.export.rdb.commit.batches";
+
+    /**
+     * 同时写入数据库的Map数量.
+     */
+    public static final String WRITERS_PROPERTY = "etl.export.rdb.writers";
+
+    public static final int DEFAULT_BATCH_ROWS = 500;
+
+    public static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
+
+    public static final int DEFAULT_WRITERS = 4;
+
+    public static final int DEFAULT_COMMIT_BATCHES = 100;
+
+    private String url;
+
+    private String user;
+
+    private String password;
+
+    private String targetTable;
+
+    /**
+     * 目标表的列名，为null的时候按照目标表的列顺序插入（和sqoop export一样）.
+     */
+    private String[] columns;
+
+    /**
+     * 导出单个分区的时候分区字段的值，文件中没有分区字段，写入的时候追加在每一行的后面.
+     */
+    private String[] partitionValues;
+
+    /**
+     * Hive的列类型，和Hive文件中的字段顺序一致.
+     */
+    private String[] columnTypes;
+
+    private Format format;
+
+    private char fieldDelimiter;
+
+    private String nullFormat;
+
+    /**
+     * 写入的时候使用严格模式（STRICT_TRANS_TABLES），超过列长度的数据写入失败，而不是截断以后只给出警告.
+     */
+    private boolean strict;
+
+    /**
+     * 目标表是影子表. 影子表在导出失败的时候整张删除，写入的时候可以分批提交，不用把整个分片放在一个事务中.
+     */
+    private boolean staging;
+
+    public static RdbExportConfiguration create(HiveTable hiveTable, MetadataConfiguration.DataSourceConnectionInfo target, String targetTable,
+                                                boolean withColumnNames) {
+        RdbExportConfiguration configuration = new RdbExportConfiguration();
+        configuration.url = target.getUrl();
+        configuration.user = target.getUser();
+        configuration.password = target.getPassword();
+        configuration.targetTable = targetTable;
+        configuration.columns = withColumnNames ? concat(hiveTable.getColumnNames(), hiveTable.getPartitionColumnNames()) : null;
+        configuration.partitionValues = hiveTable.getPartitionValues();
+        configuration.columnTypes = hiveTable.getColumnTypes();
+        configuration.format = hiveTable.getFormat();
+        configuration.fieldDelimiter = hiveTable.getFieldDelimiter();
+        configuration.nullFormat = hiveTable.getNullFormat();
+        return configuration;
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    public static RdbExportConfiguration get(Configuration conf) {
+        String json = conf.get(RDB_EXPORT_CONFIGURATION_PROPERTY);
+        if (null == json) {
+            throw new IllegalStateException("Not found rdb export configuration.");
+        }
+        return new GsonBuilder().serializeNulls().create().fromJson(json, RdbExportConfiguration.class);
+    }
+
+    public void configure(Configuration conf) {
+        conf.set(RDB_EXPORT_CONFIGURATION_PROPERTY, new GsonBuilder().serializeNulls().create().toJson(this));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getTargetTable() {
+        return targetTable;
+    }
+
+    public void setTargetTable(String targetTable) {
+        this.targetTable = targetTable;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public String[] getPartitionValues() {
+        return null == partitionValues ? new String[0] : partitionValues;
+    }
+
+    public String[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public char getFieldDelimiter() {
+        return fieldDelimiter;
+    }
+
+    public String getNullFormat() {
+        return nullFormat;
+    }
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    public boolean isStaging() {
+        return staging;
+    }
+
+    public void setStaging(boolean staging) {
+        this.staging = staging;
+    }
+
+    public enum Format {
+        /**
+         * 分隔符分隔的文本
+         */
+        TEXT,
+
+        /**
+         * ORC文件
+         */
+        ORC
+    }
+}
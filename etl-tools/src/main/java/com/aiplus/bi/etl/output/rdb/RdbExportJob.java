@@ -0,0 +1,324 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import com.aiplus.bi.etl.ConnectionPool;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.serde2.io.DateWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.orc.mapred.OrcStruct;
+import org.apache.orc.mapred.OrcTimestamp;
+import org.apache.orc.mapreduce.OrcInputFormat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 直接读取Hive表的文件导出到RDB的MapReduce任务.
+ * <p>
+ * 每个Map读取一个文件分片，通过多行INSERT写入目标表，所有分片并行写入，同时写入的Map数量由{@link RdbExportConfiguration#WRITERS_PROPERTY}限制.
+ * 每个Map在一个事务中写入自己的分片，分片全部写完才提交，提交之前失败的Map重试的时候不会写入重复的数据；为了同样的原因关闭了推测执行.
+ * <p>
+ * 写入不是幂等的：已经提交的Map不会回滚，提交以后失败的Map（例如提交成功了但是任务被杀掉）重试的时候会重复写入这个分片，
+ * 任务失败的时候已经提交的数据也会留在目标表中. 所以目标表需要在导出之前清理，或者写入影子表，任务成功以后再替换正式表.
+ *
+ * @author dev
+ */
+public class RdbExportJob extends Configured implements Tool {
+
+    private static final Log LOG = LogFactory.getLog(RdbExportJob.class);
+
+    /**
+     * Hadoop 2.7开始支持的同时运行的Map数量上限.
+     */
+    private static final String RUNNING_MAP_LIMIT_PROPERTY = "mapreduce.job.running.map.limit";
+
+    private final RdbExportConfiguration exportConfiguration;
+
+    private final List<Path> inputPaths;
+
+    public RdbExportJob(RdbExportConfiguration exportConfiguration, List<Path> inputPaths) {
+        this.exportConfiguration = exportConfiguration;
+        this.inputPaths = inputPaths;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        Configuration conf = getConf();
+        exportConfiguration.configure(conf);
+        conf.setInt(RUNNING_MAP_LIMIT_PROPERTY, conf.getInt(RdbExportConfiguration.WRITERS_PROPERTY, RdbExportConfiguration.DEFAULT_WRITERS));
+        conf.setBoolean(MRJobConfig.MAP_SPECULATIVE, false);
+        if (exportConfiguration.isStaging()) {
+            // 分批提交的Map重试的时候会重复写入已经提交的数据，Map失败就让任务失败，影子表整张删除
+            conf.setInt(MRJobConfig.MAP_MAX_ATTEMPTS, 1);
+        }
+
+        Job job = Job.getInstance(conf);
+        job.setJobName("ETL-Export(" + inputPaths + " -> " + exportConfiguration.getTargetTable() + ")");
+        job.setJarByClass(RdbExportMapper.class);
+        job.setMapperClass(RdbExportMapper.class);
+        job.setInputFormatClass(exportConfiguration.getFormat() == RdbExportConfiguration.Format.ORC ? OrcInputFormat.class : TextInputFormat.class);
+        for (Path inputPath : inputPaths) {
+            FileInputFormat.addInputPath(job, inputPath);
+        }
+        // 分区表的数据在子目录中
+        FileInputFormat.setInputDirRecursive(job, true);
+        job.setOutputFormatClass(NullOutputFormat.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+        job.setNumReduceTasks(0);
+        LOG.info("Export " + inputPaths + " to rdb table [" + exportConfiguration.getTargetTable() + "]");
+        return job.waitForCompletion(true) ? 0 : 1;
+    }
+
+    public static class RdbExportMapper extends Mapper<Object, Writable, NullWritable, NullWritable> {
+
+        /**
+         * 在当前会话原来的sql_mode上加上STRICT_TRANS_TABLES，连接归还的时候连接池会恢复原来的sql_mode.
+         */
+        private static final String SQL_STRICT_MODE = "SET SESSION sql_mode = IF(@@SESSION.sql_mode = '', 'STRICT_TRANS_TABLES', " +
+                "CONCAT(@@SESSION.sql_mode, ',STRICT_TRANS_TABLES'))";
+
+        private static final String COUNTER_GROUP_EXPORT_TABLE = "ETL Export Table";
+
+        private RdbExportConfiguration exportConfiguration;
+
+        private Connection connection;
+
+        private RdbBatchWriter writer;
+
+        private int columnNum;
+
+        /**
+         * 分区字段的值，追加在每一行的后面.
+         */
+        private String[] partitionValues;
+
+        /**
+         * 事务已经提交，之后的错误不能再让Map失败，否则重试的时候会重复写入.
+         */
+        private boolean committed;
+
+        /**
+         * 每执行多少条INSERT语句提交一次，0表示分片全部写完才提交.
+         */
+        private int commitBatches;
+
+        private long committedBatches;
+
+        private byte delimiter;
+
+        private byte[] nullBytes;
+
+        /**
+         * 非字符串的列，文本中的空字符串按照NULL处理（和Hive一样）.
+         */
+        private boolean[] nonStringColumns;
+
+        private boolean[] booleanColumns;
+
+        @Override
+        public void run(Context context) throws IOException, InterruptedException {
+            setup(context);
+            try {
+                while (context.nextKeyValue()) {
+                    map(context.getCurrentKey(), context.getCurrentValue(), context);
+                }
+                // 最后一次提交，没有分批提交的时候分片全部写完才提交，Map失败的时候连接归还到连接池会回滚
+                writer.flush();
+                connection.commit();
+                committed = true;
+                context.getCounter(COUNTER_GROUP_EXPORT_TABLE, exportConfiguration.getTargetTable()).increment(writer.getWrittenRows());
+            } catch (SQLException e) {
+                throw new IOException(e);
+            } finally {
+                cleanup(context);
+            }
+        }
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            this.exportConfiguration = RdbExportConfiguration.get(conf);
+            String[] columnTypes = exportConfiguration.getColumnTypes();
+            this.columnNum = columnTypes.length;
+            this.partitionValues = exportConfiguration.getPartitionValues();
+            // 写入正式表的时候一个分片一个事务，保证Map重试的时候不会重复写入；影子表分批提交，避免大事务占用过多的undo log和锁
+            this.commitBatches = exportConfiguration.isStaging()
+                    ? Math.max(0, conf.getInt(RdbExportConfiguration.COMMIT_BATCHES_PROPERTY, RdbExportConfiguration.DEFAULT_COMMIT_BATCHES)) : 0;
+            this.delimiter = (byte) exportConfiguration.getFieldDelimiter();
+            this.nullBytes = exportConfiguration.getNullFormat().getBytes(StandardCharsets.UTF_8);
+            this.nonStringColumns = new boolean[columnNum];
+            this.booleanColumns = new boolean[columnNum];
+            for (int i = 0; i < columnNum; i++) {
+                String type = columnTypes[i].toLowerCase();
+                nonStringColumns[i] = !(type.startsWith("string") || type.startsWith("varchar") || type.startsWith("char"));
+                booleanColumns[i] = type.startsWith("boolean");
+            }
+            try {
+                this.connection = ConnectionPool.getConnection(exportConfiguration.getUrl(), exportConfiguration.getUser(),
+                        exportConfiguration.getPassword(), 1);
+                connection.setAutoCommit(false);
+                if (exportConfiguration.isStrict()) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute(SQL_STRICT_MODE);
+                    }
+                }
+                this.writer = new RdbBatchWriter(connection, exportConfiguration.getTargetTable(), exportConfiguration.getColumns(), columnNum + partitionValues.length,
+                        conf.getInt(RdbExportConfiguration.BATCH_ROWS_PROPERTY, RdbExportConfiguration.DEFAULT_BATCH_ROWS),
+                        conf.getInt(RdbExportConfiguration.BATCH_BYTES_PROPERTY, RdbExportConfiguration.DEFAULT_BATCH_BYTES));
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        protected void map(Object key, Writable value, Context context) throws IOException {
+            try {
+                writer.write(value instanceof Text ? parseText((Text) value) : convertOrc((OrcStruct) value));
+                if (commitBatches > 0 && writer.getWrittenBatches() - committedBatches >= commitBatches) {
+                    connection.commit();
+                    committedBatches = writer.getWrittenBatches();
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            try {
+                if (null != writer) {
+                    writer.close();
+                }
+                if (null != connection) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                if (committed) {
+                    LOG.warn(e.getMessage(), e);
+                    return;
+                }
+                throw new IOException(e);
+            }
+        }
+
+        private Object[] newRow() {
+            Object[] values = new Object[columnNum + partitionValues.length];
+            System.arraycopy(partitionValues, 0, values, columnNum, partitionValues.length);
+            return values;
+        }
+
+        /**
+         * 按照分隔符逐个字节切分一行文本，缺少的列按照NULL处理，多出来的列忽略，分区字段追加在最后.
+         */
+        private Object[] parseText(Text line) {
+            byte[] bytes = line.getBytes();
+            int length = line.getLength();
+            Object[] values = newRow();
+            int column = 0;
+            int start = 0;
+            for (int i = 0; i <= length && column < columnNum; i++) {
+                if (i == length || bytes[i] == delimiter) {
+                    values[column] = toValue(column, bytes, start, i - start);
+                    column++;
+                    start = i + 1;
+                }
+            }
+            return values;
+        }
+
+        private Object toValue(int column, byte[] bytes, int start, int length) {
+            if (isNullFormat(bytes, start, length) || (length == 0 && nonStringColumns[column])) {
+                return null;
+            }
+            String value = new String(bytes, start, length, StandardCharsets.UTF_8);
+            return booleanColumns[column] ? Boolean.valueOf(value) : value;
+        }
+
+        private boolean isNullFormat(byte[] bytes, int start, int length) {
+            if (length != nullBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[start + i] != nullBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * ORC读取器会复用字段对象，所以每个值都要复制出来.
+         */
+        private Object[] convertOrc(OrcStruct struct) {
+            Object[] values = newRow();
+            int fieldNum = Math.min(columnNum, struct.getNumFields());
+            for (int i = 0; i < fieldNum; i++) {
+                values[i] = toValue(struct.getFieldValue(i));
+            }
+            return values;
+        }
+
+        private Object toValue(WritableComparable value) {
+            if (null == value) {
+                return null;
+            }
+            if (value instanceof Text) {
+                return value.toString();
+            }
+            if (value instanceof IntWritable) {
+                return ((IntWritable) value).get();
+            }
+            if (value instanceof LongWritable) {
+                return ((LongWritable) value).get();
+            }
+            if (value instanceof ShortWritable) {
+                return ((ShortWritable) value).get();
+            }
+            if (value instanceof ByteWritable) {
+                return ((ByteWritable) value).get();
+            }
+            if (value instanceof DoubleWritable) {
+                return ((DoubleWritable) value).get();
+            }
+            if (value instanceof FloatWritable) {
+                return ((FloatWritable) value).get();
+            }
+            if (value instanceof BooleanWritable) {
+                return ((BooleanWritable) value).get();
+            }
+            if (value instanceof HiveDecimalWritable) {
+                return ((HiveDecimalWritable) value).getHiveDecimal().bigDecimalValue();
+            }
+            if (value instanceof OrcTimestamp) {
+                OrcTimestamp orcTimestamp = (OrcTimestamp) value;
+                Timestamp timestamp = new Timestamp(orcTimestamp.getTime());
+                timestamp.setNanos(orcTimestamp.getNanos());
+                return timestamp;
+            }
+            if (value instanceof DateWritable) {
+                return ((DateWritable) value).get();
+            }
+            if (value instanceof BytesWritable) {
+                return ((BytesWritable) value).copyBytes();
+            }
+            return value.toString();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.aiplus.bi.etl.output.rdb;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 导出到RDB的影子表.
+ * <p>
+ * 数据先写入影子表，写入之前删除影子表的二级索引（主键保留），写完以后一次性重建索引，再通过一条RENAME TABLE把影子表替换成正式表.
+ * RENAME TABLE是原子操作，读取正式表的查询要么看到原来的数据，要么看到完整的新数据，不会看到空表或者写了一半的表.
+ * 注意：导出期间其他程序写入正式表的数据在替换以后会丢失.
+ *
+ * @author dev
+ */
+public class StagingTable {
+
+    private static final Log LOG = LogFactory.getLog(StagingTable.class);
+
+    private static final String STAGING_TABLE_SUFFIX = "__etl_staging";
+
+    private static final String RETIRED_TABLE_SUFFIX = "__etl_retired";
+
+    /**
+     * MySQL表名的最大长度.
+     */
+    private static final int MAX_TABLE_NAME_LENGTH = 64;
+
+    private static final String SQL_QUERY_TABLE_EXISTS = "SELECT COUNT(*) FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+
+    private static final String SQL_QUERY_SECONDARY_INDEXES = "SELECT INDEX_NAME, NON_UNIQUE, INDEX_TYPE, COLUMN_NAME, SUB_PART, COLLATION " +
+            "FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME <> 'PRIMARY' " +
+            "ORDER BY INDEX_NAME, SEQ_IN_INDEX";
+
+    private final String table;
+
+    private final String stagingTable;
+
+    private final String retiredTable;
+
+    /**
+     * 延迟创建的索引，每个元素是ALTER TABLE的一个ADD INDEX子句.
+     */
+    private final List<String> deferredIndexes = new ArrayList<>();
+
+    public StagingTable(String table) {
+        this.table = table;
+        this.stagingTable = deriveName(table, STAGING_TABLE_SUFFIX);
+        this.retiredTable = deriveName(table, RETIRED_TABLE_SUFFIX);
+    }
+
+    /**
+     * 在表名后面加上后缀. 超过MySQL表名长度限制的时候截断表名，再加上完整表名的CRC32区分截断以后相同的表名，
+     * 同一张表每次生成的名称都一样，上次失败留下的影子表还能被删除.
+     */
+    static String deriveName(String table, String suffix) {
+        if (table.length() + suffix.length() <= MAX_TABLE_NAME_LENGTH) {
+            return table + suffix;
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(table.getBytes(StandardCharsets.UTF_8));
+        String hash = String.format("%08x", crc32.getValue());
+        return table.substring(0, MAX_TABLE_NAME_LENGTH - suffix.length() - hash.length() - 1) + "_" + hash + suffix;
+    }
+
+    /**
+     * 创建影子表，并且删除影子表的二级索引.
+     *
+     * @param connection     目标库的连接
+     * @param createTableSql 影子表的建表语句，为null的时候按照正式表的结构创建（CREATE TABLE ... LIKE）
+     * @throws SQLException 创建失败
+     */
+    public void create(Connection connection, String createTableSql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // 上次失败留下的影子表
+            stmt.execute("DROP TABLE IF EXISTS `" + stagingTable + "`");
+            stmt.execute(null == createTableSql ? "CREATE TABLE `" + stagingTable + "` LIKE `" + table + "`" : createTableSql);
+            LOG.info("Create staging table: " + stagingTable);
+        }
+        deferIndexes(connection);
+    }
+
+    /**
+     * 把正式表中需要保留的数据复制到影子表中.
+     *
+     * @param connection 目标库的连接
+     * @param where      保留数据的条件
+     * @throws SQLException 复制失败
+     */
+    public void copyFrom(Connection connection, String where) throws SQLException {
+        long start = System.currentTimeMillis();
+        // INSERT ... SELECT在REPEATABLE READ下会给正式表读到的行加共享锁，READ COMMITTED下使用快照读，不阻塞其他写入
+        int isolation = connection.getTransactionIsolation();
+        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        try (Statement stmt = connection.createStatement()) {
+            int rows = stmt.executeUpdate("INSERT INTO `" + stagingTable + "` SELECT * FROM `" + table + "` WHERE " + where);
+            LOG.info("Copy " + rows + " row(s) from [" + table + "] to staging table use " + (System.currentTimeMillis() - start) + "ms.");
+        } finally {
+            // 连接会归还到连接池，需要恢复原来的隔离级别
+            connection.setTransactionIsolation(isolation);
+        }
+    }
+
+    /**
+     * 数据写完以后重建延迟的索引，所有索引在一条ALTER TABLE中创建，表只需要扫描一次.
+     */
+    public void buildIndexes(Connection connection) throws SQLException {
+        if (deferredIndexes.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE `" + stagingTable + "` " + String.join(", ", deferredIndexes));
+        }
+        LOG.info("Build " + deferredIndexes.size() + " index(es) of staging table use " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * 使用影子表替换正式表，原来的正式表在替换以后删除.
+     */
+    public void swap(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            if (exists(connection, table)) {
+                stmt.execute("DROP TABLE IF EXISTS `" + retiredTable + "`");
+                stmt.execute("RENAME TABLE `" + table + "` TO `" + retiredTable + "`, `" + stagingTable + "` TO `" + table + "`");
+                stmt.execute("DROP TABLE `" + retiredTable + "`");
+            } else {
+                stmt.execute("RENAME TABLE `" + stagingTable + "` TO `" + table + "`");
+            }
+        }
+        LOG.info("Swap staging table into [" + table + "]");
+    }
+
+    /**
+     * 导出失败的时候删除影子表，正式表不受影响.
+     */
+    public void drop(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS `" + stagingTable + "`");
+        }
+    }
+
+    public String getName() {
+        return stagingTable;
+    }
+
+    private void deferIndexes(Connection connection) throws SQLException {
+        Map<String, StringBuilder> indexes = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_QUERY_SECONDARY_INDEXES)) {
+            pstmt.setString(1, stagingTable);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                List<String> skipped = new ArrayList<>();
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    String columnName = rs.getString("COLUMN_NAME");
+                    if (null == columnName || skipped.contains(indexName)) {
+                        // 函数索引没有列名，不能重建，保留在影子表上
+                        skipped.add(indexName);
+                        indexes.remove(indexName);
+                        continue;
+                    }
+                    StringBuilder index = indexes.get(indexName);
+                    if (null == index) {
+                        index = new StringBuilder("ADD ").append(getIndexKind(rs.getInt("NON_UNIQUE"), rs.getString("INDEX_TYPE")))
+                                .append(" `").append(indexName).append("` (");
+                        indexes.put(indexName, index);
+                    } else {
+                        index.append(", ");
+                    }
+                    index.append("`").append(columnName).append("`");
+                    int subPart = rs.getInt("SUB_PART");
+                    if (!rs.wasNull()) {
+                        index.append("(").append(subPart).append(")");
+                    }
+                    if ("D".equals(rs.getString("COLLATION"))) {
+                        index.append(" DESC");
+                    }
+                }
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        List<String> drops = new ArrayList<>();
+        for (Map.Entry<String, StringBuilder> entry : indexes.entrySet()) {
+            drops.add("DROP INDEX `" + entry.getKey() + "`");
+            deferredIndexes.add(entry.getValue().append(")").toString());
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE `" + stagingTable + "` " + String.join(", ", drops));
+        }
+        LOG.info("Defer indexes of staging table: " + deferredIndexes);
+    }
+
+    private String getIndexKind(int nonUnique, String indexType) {
+        if ("FULLTEXT".equals(indexType)) {
+            return "FULLTEXT INDEX";
+        }
+        if ("SPATIAL".equals(indexType)) {
+            return "SPATIAL INDEX";
+        }
+        return nonUnique == 0 ? "UNIQUE INDEX" : "INDEX";
+    }
+
+    private static boolean exists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SQL_QUERY_TABLE_EXISTS)) {
+            pstmt.setString(1, tableName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getLong(1) > 0;
+            }
+        }
+    }
+}
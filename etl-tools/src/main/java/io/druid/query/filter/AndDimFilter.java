@@ -0,0 +1,73 @@
+/*
+ * Licensed to Metamarkets Group Inc. (Metamarkets) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Metamarkets licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *http://www.apache.org/licenses/LICENSE-2.0
+ *Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.druid.query.filter;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import io.druid.segment.filter.AndFilter;
+import io.druid.segment.filter.Filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ */
+public class AndDimFilter implements DimFilter {
+    private static final Joiner AND_JOINER = Joiner.on(" && ");
+
+    private final List<DimFilter> fields;
+
+    @JsonCreator
+    public AndDimFilter(
+            @JsonProperty("fields") List<DimFilter> fields
+    ) {
+        Preconditions.checkArgument(fields != null && !fields.isEmpty(), "And filter requires at least one field");
+        this.fields = fields;
+    }
+
+    @JsonProperty
+    public List<DimFilter> getFields() {
+        return fields;
+    }
+
+    @Override
+    public byte[] getCacheKey() {
+        return DimFilterUtils.computeCacheKey(DimFilterUtils.AND_CACHE_ID, fields);
+    }
+
+    @Override
+    public DimFilter optimize() {
+        List<DimFilter> elements = new ArrayList<>(fields.size());
+        for (DimFilter field : fields) {
+            elements.add(field.optimize());
+        }
+        return elements.size() == 1 ? elements.get(0) : new AndDimFilter(elements);
+    }
+
+    @Override
+    public Filter toFilter() {
+        return new AndFilter(Filters.toFilters(fields));
+    }
+
+    @Override
+    public String toString() {
+        return "(" + AND_JOINER.join(fields) + ")";
+    }
+}
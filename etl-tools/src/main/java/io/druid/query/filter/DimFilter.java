@@ -25,6 +25,11 @@ import io.druid.java.util.common.Cacheable;
  */
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
 @JsonSubTypes(value = {
+        @JsonSubTypes.Type(name = "and", value = AndDimFilter.class),
+        @JsonSubTypes.Type(name = "or", value = OrDimFilter.class),
+        @JsonSubTypes.Type(name = "not", value = NotDimFilter.class),
+        @JsonSubTypes.Type(name = "selector", value = SelectorDimFilter.class),
+        @JsonSubTypes.Type(name = "in", value = InDimFilter.class)
 })
 public interface DimFilter extends Cacheable {
     /**
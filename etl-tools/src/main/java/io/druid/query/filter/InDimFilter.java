@@ -0,0 +1,86 @@
+/*
+ * Licensed to Metamarkets Group Inc. (Metamarkets) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Metamarkets licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *http://www.apache.org/licenses/LICENSE-2.0
+ *Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.druid.query.filter;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.druid.query.cache.CacheKeyBuilder;
+import io.druid.segment.filter.InFilter;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ */
+public class InDimFilter implements DimFilter {
+    private final String dimension;
+    private final List<String> values;
+
+    @JsonCreator
+    public InDimFilter(
+            @JsonProperty("dimension") String dimension,
+            @JsonProperty("values") List<String> values
+    ) {
+        Preconditions.checkNotNull(dimension, "dimension can not be null");
+        Preconditions.checkArgument(values != null && !values.isEmpty(), "values can not be null or empty");
+        this.dimension = dimension;
+        this.values = values;
+    }
+
+    @JsonProperty
+    public String getDimension() {
+        return dimension;
+    }
+
+    @JsonProperty
+    public List<String> getValues() {
+        return values;
+    }
+
+    @Override
+    public byte[] getCacheKey() {
+        return new CacheKeyBuilder(DimFilterUtils.IN_CACHE_ID)
+                .appendString(dimension)
+                .appendByte(DimFilterUtils.STRING_SEPARATOR)
+                .appendStringsIgnoringOrder(values)
+                .build();
+    }
+
+    @Override
+    public DimFilter optimize() {
+        if (values.size() == 1) {
+            return new SelectorDimFilter(dimension, values.get(0));
+        }
+        return this;
+    }
+
+    @Override
+    public Filter toFilter() {
+        LinkedHashSet<String> set = new LinkedHashSet<>(values.size());
+        for (String value : values) {
+            set.add(value == null ? "" : value);
+        }
+        return new InFilter(dimension, set);
+    }
+
+    @Override
+    public String toString() {
+        return dimension + " IN " + values;
+    }
+}
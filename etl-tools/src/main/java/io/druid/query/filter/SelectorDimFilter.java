@@ -0,0 +1,76 @@
+/*
+ * Licensed to Metamarkets Group Inc. (Metamarkets) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Metamarkets licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *http://www.apache.org/licenses/LICENSE-2.0
+ *Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.druid.query.filter;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import io.druid.query.cache.CacheKeyBuilder;
+import io.druid.segment.filter.InFilter;
+
+/**
+ */
+public class SelectorDimFilter implements DimFilter {
+    private final String dimension;
+    private final String value;
+
+    @JsonCreator
+    public SelectorDimFilter(
+            @JsonProperty("dimension") String dimension,
+            @JsonProperty("value") String value
+    ) {
+        Preconditions.checkArgument(dimension != null, "dimension must not be null");
+        this.dimension = dimension;
+        this.value = value;
+    }
+
+    @JsonProperty
+    public String getDimension() {
+        return dimension;
+    }
+
+    @JsonProperty
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public byte[] getCacheKey() {
+        return new CacheKeyBuilder(DimFilterUtils.SELECTOR_CACHE_ID)
+                .appendString(dimension)
+                .appendByte(DimFilterUtils.STRING_SEPARATOR)
+                .appendString(value)
+                .build();
+    }
+
+    @Override
+    public DimFilter optimize() {
+        return this;
+    }
+
+    @Override
+    public Filter toFilter() {
+        return new InFilter(dimension, ImmutableSet.of(value == null ? "" : value));
+    }
+
+    @Override
+    public String toString() {
+        return dimension + " = " + value;
+    }
+}
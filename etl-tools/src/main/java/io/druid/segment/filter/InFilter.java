@@ -0,0 +1,101 @@
+/*
+ * Licensed to Metamarkets Group Inc. (Metamarkets) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Metamarkets licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *http://www.apache.org/licenses/LICENSE-2.0
+ *Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.druid.segment.filter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import io.druid.collections.bitmap.ImmutableBitmap;
+import io.druid.query.BitmapResultFactory;
+import io.druid.query.dimension.DefaultDimensionSpec;
+import io.druid.query.filter.BitmapIndexSelector;
+import io.druid.query.filter.Filter;
+import io.druid.query.filter.ValueMatcher;
+import io.druid.segment.ColumnSelector;
+import io.druid.segment.ColumnSelectorFactory;
+import io.druid.segment.DimensionSelector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches rows whose dimension value is one of the given values. A selector filter is an in filter with one value.
+ */
+public class InFilter implements Filter {
+    private final String dimension;
+    private final Set<String> values;
+
+    public InFilter(String dimension, Set<String> values) {
+        Preconditions.checkNotNull(dimension, "dimension");
+        Preconditions.checkArgument(values != null && !values.isEmpty(), "values can not be empty");
+        this.dimension = dimension;
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (String value : values) {
+            builder.add(Strings.nullToEmpty(value));
+        }
+        this.values = builder.build();
+    }
+
+    @Override
+    public <T> T getBitmapResult(BitmapIndexSelector selector, BitmapResultFactory<T> bitmapResultFactory) {
+        return bitmapResultFactory.unionDimensionValueBitmaps(getBitmaps(selector));
+    }
+
+    private List<ImmutableBitmap> getBitmaps(BitmapIndexSelector selector) {
+        final List<ImmutableBitmap> bitmaps = new ArrayList<>(values.size());
+        for (String value : values) {
+            bitmaps.add(selector.getBitmapIndex(dimension, Strings.emptyToNull(value)));
+        }
+        return bitmaps;
+    }
+
+    @Override
+    public double estimateSelectivity(BitmapIndexSelector indexSelector) {
+        final int numRows = indexSelector.getNumRows();
+        if (numRows == 0) {
+            return 0.;
+        }
+        long matched = 0L;
+        for (ImmutableBitmap bitmap : getBitmaps(indexSelector)) {
+            matched += bitmap.size();
+        }
+        return Math.min(1., matched / (double) numRows);
+    }
+
+    @Override
+    public ValueMatcher makeMatcher(ColumnSelectorFactory factory) {
+        final DimensionSelector selector = factory.makeDimensionSelector(DefaultDimensionSpec.of(dimension));
+        return selector.makeValueMatcher(input -> values.contains(Strings.nullToEmpty(input)));
+    }
+
+    @Override
+    public boolean supportsBitmapIndex(BitmapIndexSelector selector) {
+        return selector.getBitmapIndex(dimension) != null;
+    }
+
+    @Override
+    public boolean supportsSelectivityEstimation(ColumnSelector columnSelector, BitmapIndexSelector indexSelector) {
+        return Filters.supportsSelectivityEstimation(this, dimension, columnSelector, indexSelector);
+    }
+
+    @Override
+    public String toString() {
+        return dimension + " IN " + values;
+    }
+}
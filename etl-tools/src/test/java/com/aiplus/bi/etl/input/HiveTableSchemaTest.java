@@ -0,0 +1,92 @@
+package com.aiplus.bi.etl.input;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 解析DESCRIBE FORMATTED的输出，生成补齐表结构的ALTER语句.
+ *
+ * @author dev
+ */
+public class HiveTableSchemaTest {
+
+    private static final List<String> TEXT_TABLE = Arrays.asList(
+            "# col_name            \tdata_type           \tcomment             ",
+            "\t \t ",
+            "druid_timestamp     \tbigint              \t                    ",
+            "city                \tstring              \t                    ",
+            "pv                  \tbigint              \t                    ",
+            "\t \t ",
+            "# Partition Information\t \t ",
+            "# col_name            \tdata_type           \tcomment             ",
+            "\t \t ",
+            "druid_date          \tstring              \t                    ",
+            "\t \t ",
+            "# Detailed Table Information\t \t ",
+            "Database:           \tods                 \t ",
+            "Table Type:         \tMANAGED_TABLE       \t ",
+            "\t \t ",
+            "# Storage Information\t \t ",
+            "SerDe Library:      \torg.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe\t ",
+            "InputFormat:        \torg.apache.hadoop.mapred.TextInputFormat\t ",
+            "OutputFormat:       \torg.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat\t ");
+
+    @Test
+    public void testParseDescribeFormatted() {
+        HiveTableSchema schema = HiveTableSchema.parseDescribeFormatted(TEXT_TABLE);
+        assertNotNull(schema);
+        assertFalse(schema.isOrc());
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("druid_timestamp", "bigint");
+        expected.put("city", "string");
+        expected.put("pv", "bigint");
+        assertEquals(expected, schema.getColumns());
+
+        List<String> orcTable = Arrays.asList("city\tstring\t", "# Detailed Table Information\t \t ",
+                "InputFormat:        \torg.apache.hadoop.hive.ql.io.orc.OrcInputFormat\t ");
+        assertTrue(HiveTableSchema.parseDescribeFormatted(orcTable).isOrc());
+        assertNull(HiveTableSchema.parseDescribeFormatted(Collections.emptyList()));
+    }
+
+    @Test
+    public void testAlterStatements() throws IOException {
+        HiveTableSchema schema = HiveTableSchema.parseDescribeFormatted(TEXT_TABLE);
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("druid_timestamp", "bigint");
+        columns.put("city", "string");
+        columns.put("pv", "double");
+        columns.put("uv", "bigint");
+        assertEquals(Arrays.asList("ALTER TABLE ods.`t` CHANGE COLUMN `pv` `pv` double;", "ALTER TABLE ods.`t` ADD COLUMNS (`uv` bigint);"),
+                schema.alterStatements("ods.`t`", columns));
+
+        // 表中的类型可以容纳数据的类型，不需要修改
+        columns.remove("uv");
+        columns.put("pv", "int");
+        assertTrue(schema.alterStatements("ods.`t`", columns).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testIncompatibleType() throws IOException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("pv", "array<string>");
+        HiveTableSchema.parseDescribeFormatted(TEXT_TABLE).alterStatements("ods.`t`", columns);
+    }
+
+    @Test
+    public void testCanHold() {
+        assertTrue(HiveTableSchema.canHold("double", "bigint"));
+        assertTrue(HiveTableSchema.canHold("bigint", "int"));
+        assertTrue(HiveTableSchema.canHold("string", "double"));
+        assertFalse(HiveTableSchema.canHold("bigint", "double"));
+        assertFalse(HiveTableSchema.canHold("bigint", "string"));
+        assertFalse(HiveTableSchema.canHold("string", "array<string>"));
+    }
+}
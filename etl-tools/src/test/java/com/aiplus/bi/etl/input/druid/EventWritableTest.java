@@ -0,0 +1,136 @@
+package com.aiplus.bi.etl.input.druid;
+
+import org.apache.hadoop.io.Text;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link EventWritable}的时间计算和UTF-8编码，和Joda-Time、String.getBytes的结果对比.
+ *
+ * @author dev
+ */
+public class EventWritableTest {
+
+    private static final DateTimeZone ZONE = DateTimeZone.forOffsetHours(8);
+
+    private static final long MIN_MILLIS = new DateTime(1900, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    private static final long MAX_MILLIS = new DateTime(2100, 12, 31, 23, 59, DateTimeZone.UTC).getMillis();
+
+    private static List<Long> sampleTimestamps() {
+        List<Long> samples = new ArrayList<>();
+        samples.add(0L);
+        samples.add(-1L);
+        samples.add(1L);
+        // 东八区跨天
+        samples.add(new DateTime(2019, 12, 31, 15, 59, 59, 999, DateTimeZone.UTC).getMillis());
+        samples.add(new DateTime(2019, 12, 31, 16, 0, 0, 0, DateTimeZone.UTC).getMillis());
+        // 闰日和非闰年
+        samples.add(new DateTime(2000, 2, 29, 12, 30, ZONE).getMillis());
+        samples.add(new DateTime(2020, 2, 29, 23, 59, ZONE).getMillis());
+        samples.add(new DateTime(2020, 3, 1, 0, 0, ZONE).getMillis());
+        samples.add(new DateTime(1900, 3, 1, 0, 0, ZONE).getMillis());
+        samples.add(new DateTime(2100, 2, 28, 23, 59, ZONE).getMillis());
+        samples.add(new DateTime(1969, 12, 31, 23, 59, 59, 999, ZONE).getMillis());
+        Random random = new Random(20181018L);
+        for (int i = 0; i < 10000; i++) {
+            samples.add(MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS)));
+        }
+        return samples;
+    }
+
+    @Test
+    public void testLocalTime() {
+        EventWritable event = new EventWritable();
+        for (long ts : sampleTimestamps()) {
+            event.readFields("ds", "interval", ts, new LinkedHashMap<>());
+            DateTime expected = new DateTime(ts, ZONE);
+            String message = "timestamp " + ts;
+            assertEquals(message, expected.getYear(), event.getYear());
+            assertEquals(message, expected.getMonthOfYear(), event.getMonth());
+            assertEquals(message, expected.getDayOfMonth(), event.getDay());
+            assertEquals(message, expected.getHourOfDay(), event.getHour());
+            assertEquals(message, expected.getMinuteOfHour(), event.getMinute());
+        }
+    }
+
+    @Test
+    public void testSameDayUsesCachedDate() {
+        EventWritable event = new EventWritable();
+        long start = new DateTime(2018, 10, 18, 0, 0, ZONE).getMillis();
+        for (long ts = start - 2 * 3600000L; ts < start + 26 * 3600000L; ts += 7 * 60000L) {
+            event.readFields("ds", "interval", ts, new LinkedHashMap<>());
+            DateTime expected = new DateTime(ts, ZONE);
+            assertEquals(expected.getDayOfMonth(), event.getDay());
+            assertEquals(expected.getHourOfDay(), event.getHour());
+            assertEquals(expected.getMinuteOfHour(), event.getMinute());
+        }
+    }
+
+    @Test
+    public void testUtcTimestamp() {
+        EventWritable event = new EventWritable();
+        Text text = new Text();
+        for (long ts : sampleTimestamps()) {
+            event.readFields("ds", "interval", ts, new LinkedHashMap<>());
+            event.writeUtcTimestamp(text);
+            assertEquals("timestamp " + ts, new DateTime(ts, DateTimeZone.UTC).toString(), text.toString());
+        }
+    }
+
+    @Test
+    public void testTextData() {
+        long ts = new DateTime(2018, 10, 18, 9, 5, 30, 123, DateTimeZone.UTC).getMillis();
+        Map<String, Object> dataMap = new LinkedHashMap<>();
+        dataMap.put("timestamp", "ignored");
+        dataMap.put("city", "深圳");
+        dataMap.put("emoji", "a😀b");
+        dataMap.put("broken", "x\uD800y\uDC00");
+        dataMap.put("count", 12345L);
+        dataMap.put("negative", -7);
+        dataMap.put("missing", null);
+        dataMap.put("ratio", 0.5d);
+
+        EventWritable event = new EventWritable();
+        event.readFields("ds", "interval", ts, dataMap);
+
+        String expected = ts + "\001" + "2018\00110\00118\00117\0015\001"
+                + "2018-10-18T09:05:30.123Z\001深圳\001a😀b\001x?y?\00112345\001-7\001\\N\0010.5";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes(event.getData()));
+    }
+
+    @Test
+    public void testBufferGrows() {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            longValue.append("中");
+        }
+        Map<String, Object> dataMap = new LinkedHashMap<>();
+        dataMap.put("text", longValue.toString());
+        EventWritable event = new EventWritable();
+        event.readFields("ds", "interval", 0L, dataMap);
+        String expected = "0\0011970\0011\0011\0018\0010\001" + longValue;
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes(event.getData()));
+
+        // 复用的缓冲区不能留下上一行的数据
+        dataMap.put("text", "short");
+        event.readFields("ds", "interval", 0L, dataMap);
+        assertEquals("0\0011970\0011\0011\0018\0010\001short", event.getDataText());
+    }
+
+    private static byte[] bytes(Text text) {
+        return Arrays.copyOf(text.getBytes(), text.getLength());
+    }
+}
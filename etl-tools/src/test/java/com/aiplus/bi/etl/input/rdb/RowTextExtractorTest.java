@@ -0,0 +1,115 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 查询结果写成文本的格式，和原来逐个字段拼接字符串再getBytes(UTF-8)的结果对比.
+ *
+ * @author dev
+ */
+public class RowTextExtractorTest {
+
+    @Test
+    public void testStringColumns() throws SQLException {
+        RowTextExtractor extractor = new RowTextExtractor(null, null, 1, 5);
+        Text text = new Text();
+        extractor.extract(row("pk1", "k1", "a\r\nb", "中文😀", "x\uD800y", "", "tab\tkept"), text);
+        assertText("pk1\001k1\001ab\001中文😀\001x?y\001\001tab\tkept", text);
+    }
+
+    @Test
+    public void testNullValues() throws SQLException {
+        RowTextExtractor extractor = new RowTextExtractor(new int[]{Types.VARCHAR}, new int[]{Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR},
+                1, 4);
+        Text text = new Text();
+        // table_pk和主键的NULL原样输出成null，字段的NULL和字符串NULL输出成\N
+        extractor.extract(row(null, null, null, "NULL", "null", "Null1"), text);
+        assertText("null\001null\001\\N\001\\N\001\\N\001Null1", text);
+    }
+
+    @Test
+    public void testIntegralColumns() throws SQLException {
+        RowTextExtractor extractor = new RowTextExtractor(new int[]{Types.BIGINT},
+                new int[]{Types.INTEGER, Types.SMALLINT, Types.TINYINT, Types.BIGINT, Types.BIGINT, Types.DECIMAL}, 1, 6);
+        Text text = new Text();
+        extractor.extract(row("7", 7L, -42L, 0L, null, Long.MIN_VALUE, Long.MAX_VALUE, "1.50"), text);
+        assertText("7\0017\001-42\0010\001\\N\001" + Long.MIN_VALUE + "\001" + Long.MAX_VALUE + "\0011.50", text);
+    }
+
+    @Test
+    public void testUnsignedBigintFallsBackToString() throws SQLException {
+        RowTextExtractor extractor = new RowTextExtractor(new int[]{Types.BIGINT}, new int[]{Types.BIGINT}, 1, 1);
+        Text text = new Text();
+        extractor.extract(row("18446744073709551615", "18446744073709551615", "18446744073709551614"), text);
+        assertText("18446744073709551615\00118446744073709551615\00118446744073709551614", text);
+    }
+
+    @Test
+    public void testBufferReused() throws SQLException {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longValue.append("数据");
+        }
+        RowTextExtractor extractor = new RowTextExtractor(null, null, 1, 1);
+        Text text = new Text();
+        extractor.extract(row("1", "1", longValue.toString()), text);
+        assertText("1\0011\001" + longValue, text);
+        extractor.extract(row("2", "2", "short"), text);
+        assertText("2\0012\001short", text);
+    }
+
+    @Test
+    public void testColumnCount() throws SQLException {
+        RowTextExtractor extractor = new RowTextExtractor(null, null, 2, 0);
+        Text text = new Text();
+        extractor.extract(row("a-b", "a", "b"), text);
+        assertEquals("a-b\001a\001b", text.toString());
+    }
+
+    private static void assertText(String expected, Text text) {
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), Arrays.copyOf(text.getBytes(), text.getLength()));
+    }
+
+    /**
+     * 一行数据的结果集，Long按照整数读取，其他值只能按照字符串读取，getLong的时候和驱动一样抛出异常.
+     */
+    private static ResultSet row(Object... values) {
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(RowTextExtractorTest.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getString": {
+                            Object val = values[(Integer) args[0] - 1];
+                            wasNull[0] = null == val;
+                            return null == val ? null : val.toString();
+                        }
+                        case "getLong": {
+                            Object val = values[(Integer) args[0] - 1];
+                            wasNull[0] = null == val;
+                            if (null == val) {
+                                return 0L;
+                            }
+                            if (val instanceof Long) {
+                                return val;
+                            }
+                            throw new SQLException("Out of range value for column " + args[0] + ": " + val);
+                        }
+                        case "wasNull":
+                            return wasNull[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
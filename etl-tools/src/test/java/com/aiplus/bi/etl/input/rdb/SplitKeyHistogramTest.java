@@ -0,0 +1,119 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按照直方图切分拆分键的范围.
+ *
+ * @author dev
+ */
+public class SplitKeyHistogramTest {
+
+    @Test
+    public void testUniformSplit() {
+        List<long[]> ranges = SplitKeyHistogram.uniform(0L, 100L, 1000L).split(250L);
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{0L, 25L, 250L}, ranges.get(0));
+        assertArrayEquals(new long[]{25L, 50L, 250L}, ranges.get(1));
+        assertArrayEquals(new long[]{50L, 75L, 250L}, ranges.get(2));
+        assertArrayEquals(new long[]{75L, 100L, 250L}, ranges.get(3));
+    }
+
+    @Test
+    public void testLastRangeKeepsRemainder() {
+        List<long[]> ranges = SplitKeyHistogram.uniform(0L, 100L, 1000L).split(300L);
+        assertContiguous(ranges, 0L, 100L);
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{90L, 100L, 100L}, ranges.get(3));
+    }
+
+    @Test
+    public void testSkewedBucketsSplitByRows() {
+        // 90%的数据在前1%的ID上
+        SplitKeyHistogram histogram = new SplitKeyHistogram(new long[]{0L, 1000L, 100000L}, new long[]{900L, 100L});
+        List<long[]> ranges = histogram.split(100L);
+        assertContiguous(ranges, 0L, 100000L);
+        assertEquals(10, ranges.size());
+        long total = 0L;
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            // 切分点向上取整到整数的ID，每个范围最多多出一个ID的行数，最后一个范围是剩下的行数
+            if (i < ranges.size() - 1) {
+                assertTrue("rows of range " + range[0], Math.abs(range[2] - 100L) <= 1L);
+            } else {
+                assertTrue("rows of range " + range[0], range[2] > 0L && range[2] <= 100L);
+            }
+            total = total + range[2];
+        }
+        assertTrue(Math.abs(total - 1000L) <= ranges.size());
+        // 密集的桶切成窄的范围，稀疏的桶只有一个范围
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ranges.get(i)[1] <= 1000L);
+        }
+        assertTrue(ranges.get(8)[0] < 1000L && ranges.get(8)[1] > 1000L);
+    }
+
+    @Test
+    public void testRangeAcrossBuckets() {
+        SplitKeyHistogram histogram = new SplitKeyHistogram(new long[]{0L, 10L, 20L, 30L}, new long[]{100L, 100L, 100L});
+        List<long[]> ranges = histogram.split(150L);
+        assertContiguous(ranges, 0L, 30L);
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[]{0L, 15L, 150L}, ranges.get(0));
+        assertArrayEquals(new long[]{15L, 30L, 150L}, ranges.get(1));
+    }
+
+    @Test
+    public void testNonPositiveRowsPerRange() {
+        SplitKeyHistogram histogram = new SplitKeyHistogram(new long[]{5L, 10L, 20L}, new long[]{3L, 4L});
+        for (long rowsPerRange : new long[]{0L, -1L}) {
+            List<long[]> ranges = histogram.split(rowsPerRange);
+            assertEquals(1, ranges.size());
+            assertArrayEquals(new long[]{5L, 20L, 7L}, ranges.get(0));
+        }
+    }
+
+    @Test
+    public void testZeroWidthBucketSkipped() {
+        SplitKeyHistogram histogram = new SplitKeyHistogram(new long[]{0L, 50L, 50L, 100L}, new long[]{500L, 7L, 500L});
+        List<long[]> ranges = histogram.split(250L);
+        assertContiguous(ranges, 0L, 100L);
+        assertEquals(4, ranges.size());
+        for (long[] range : ranges) {
+            assertEquals(250L, range[2]);
+        }
+    }
+
+    @Test
+    public void testEmptyBuckets() {
+        SplitKeyHistogram histogram = new SplitKeyHistogram(new long[]{0L, 100L, 200L}, new long[]{0L, 0L});
+        List<long[]> ranges = histogram.split(10L);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[]{0L, 200L, 0L}, ranges.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundsSizeMismatch() {
+        new SplitKeyHistogram(new long[]{0L, 10L}, new long[]{1L, 2L});
+    }
+
+    /**
+     * 范围首尾相接，覆盖[start, end)，并且每个范围都不为空.
+     */
+    private static void assertContiguous(List<long[]> ranges, long start, long end) {
+        assertEquals(start, ranges.get(0)[0]);
+        for (int i = 0; i < ranges.size(); i++) {
+            assertTrue("empty range " + i, ranges.get(i)[0] < ranges.get(i)[1]);
+            if (i > 0) {
+                assertEquals(ranges.get(i - 1)[1], ranges.get(i)[0]);
+            }
+        }
+        assertEquals(end, ranges.get(ranges.size() - 1)[1]);
+    }
+}
@@ -0,0 +1,264 @@
+package com.aiplus.bi.etl.input.rdb;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 主键分页的条件和分片边界.
+ *
+ * @author dev
+ */
+public class TableHelperTest {
+
+    private static final Pattern OFFSET_PATTERN = Pattern.compile("LIMIT 1 OFFSET (\\d+)$");
+
+    @Test
+    public void testSingleKeyCondition() {
+        StringBuilder sql = new StringBuilder();
+        List<String> params = new ArrayList<>();
+        TableHelper.appendKeyCondition(sql, params, new String[]{"id"}, new String[]{"10"}, true);
+        assertEquals("`id` >= ?", sql.toString());
+        assertEquals(Arrays.asList("10"), params);
+
+        sql = new StringBuilder();
+        params = new ArrayList<>();
+        TableHelper.appendKeyCondition(sql, params, new String[]{"id"}, new String[]{"20"}, false);
+        assertEquals("`id` < ?", sql.toString());
+        assertEquals(Arrays.asList("20"), params);
+    }
+
+    @Test
+    public void testCompoundKeyCondition() {
+        StringBuilder sql = new StringBuilder();
+        List<String> params = new ArrayList<>();
+        TableHelper.appendKeyCondition(sql, params, new String[]{"a", "b"}, new String[]{"1", "2"}, true);
+        assertEquals("`a` >= ? AND ((`a` > ?) OR (`a` = ? AND `b` >= ?))", sql.toString());
+        assertEquals(Arrays.asList("1", "1", "1", "2"), params);
+
+        sql = new StringBuilder();
+        params = new ArrayList<>();
+        TableHelper.appendKeyCondition(sql, params, new String[]{"a", "b"}, new String[]{"1", "2"}, false);
+        assertEquals("`a` <= ? AND ((`a` < ?) OR (`a` = ? AND `b` < ?))", sql.toString());
+        assertEquals(Arrays.asList("1", "1", "1", "2"), params);
+    }
+
+    @Test
+    public void testThreeColumnKeyCondition() {
+        StringBuilder sql = new StringBuilder();
+        List<String> params = new ArrayList<>();
+        TableHelper.appendKeyCondition(sql, params, new String[]{"a", "b", "c"}, new String[]{"1", "2", "3"}, true);
+        assertEquals("`a` >= ? AND ((`a` > ?) OR (`a` = ? AND `b` > ?) OR (`a` = ? AND `b` = ? AND `c` >= ?))", sql.toString());
+        assertEquals(Arrays.asList("1", "1", "1", "2", "1", "2", "3"), params);
+    }
+
+    @Test
+    public void testResolveSingleKeyRanges() throws SQLException {
+        List<long[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 100; id += 3) {
+            rows.add(new long[]{id});
+        }
+        FakeTable table = new FakeTable(rows);
+        List<RdbInputSplit> splits = new ArrayList<>();
+        // 故意打乱顺序，resolveKeyRanges按照开始位置排序
+        splits.add(newSplit(new String[]{"id"}, 20, 30));
+        splits.add(newSplit(new String[]{"id"}, 0, 10));
+        splits.add(newSplit(new String[]{"id"}, 30, 34));
+        splits.add(newSplit(new String[]{"id"}, 10, 20));
+
+        List<RdbInputSplit> emptySplits = TableHelper.resolveKeyRanges(table.connection(), splits);
+
+        assertTrue(emptySplits.isEmpty());
+        assertKeyRange(splits.get(0), null, new String[]{"31"});
+        assertKeyRange(splits.get(1), new String[]{"31"}, new String[]{"61"});
+        assertKeyRange(splits.get(2), new String[]{"61"}, new String[]{"91"});
+        assertKeyRange(splits.get(3), new String[]{"91"}, null);
+        // 每次从上一个边界开始定位，一共只跳过最后一个分片之前的行数
+        assertEquals(Arrays.asList(10L, 10L, 10L), table.offsets);
+    }
+
+    @Test
+    public void testResolveCompoundKeyRanges() throws SQLException {
+        List<long[]> rows = new ArrayList<>();
+        for (long a = 1; a <= 5; a++) {
+            for (long b = 1; b <= 4; b++) {
+                rows.add(new long[]{a, b});
+            }
+        }
+        FakeTable table = new FakeTable(rows);
+        List<RdbInputSplit> splits = new ArrayList<>();
+        splits.add(newSplit(new String[]{"a", "b"}, 0, 7));
+        splits.add(newSplit(new String[]{"a", "b"}, 7, 13));
+        splits.add(newSplit(new String[]{"a", "b"}, 13, 20));
+
+        List<RdbInputSplit> emptySplits = TableHelper.resolveKeyRanges(table.connection(), splits);
+
+        assertTrue(emptySplits.isEmpty());
+        assertKeyRange(splits.get(0), null, new String[]{"2", "4"});
+        assertKeyRange(splits.get(1), new String[]{"2", "4"}, new String[]{"4", "2"});
+        assertKeyRange(splits.get(2), new String[]{"4", "2"}, null);
+    }
+
+    @Test
+    public void testResolveKeyRangesBeyondData() throws SQLException {
+        List<long[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 15; id++) {
+            rows.add(new long[]{id});
+        }
+        FakeTable table = new FakeTable(rows);
+        List<RdbInputSplit> splits = new ArrayList<>();
+        splits.add(newSplit(new String[]{"id"}, 0, 10));
+        splits.add(newSplit(new String[]{"id"}, 10, 20));
+        // 统计的行数比实际的多，这两个分片定位不到开始位置
+        splits.add(newSplit(new String[]{"id"}, 20, 30));
+        splits.add(newSplit(new String[]{"id"}, 30, 40));
+
+        List<RdbInputSplit> emptySplits = TableHelper.resolveKeyRanges(table.connection(), splits);
+
+        assertEquals(2, emptySplits.size());
+        assertEquals(20L, emptySplits.get(0).getStart());
+        assertEquals(30L, emptySplits.get(1).getStart());
+        assertKeyRange(splits.get(0), null, new String[]{"11"});
+        // 最后一个有数据的分片读到表的末尾
+        assertKeyRange(splits.get(1), new String[]{"11"}, null);
+    }
+
+    @Test
+    public void testIndexKeyOrder() {
+        // 主键索引是(b, a)，和列的顺序不一样
+        Table table = new Table("t", "t", null, new ColumnList(null));
+        table.getColumnList().addColumn("a", Types.BIGINT, 1, 2);
+        table.getColumnList().addColumn("b", Types.BIGINT, 2, 1);
+        table.getColumnList().addColumn("v", Types.VARCHAR, 3, 0);
+        table.sortColumns(Table.COLUMN_ASC);
+        table.prepared();
+        assertArrayEquals(new String[]{"a", "b"}, table.getKeyNames());
+        assertArrayEquals(new String[]{"b", "a"}, table.getIndexKeyNames());
+
+        RdbInputSplit split = RdbInputSplit.createFromTableSplit(table, 0, 10, 10);
+        assertArrayEquals(new String[]{"a", "b"}, split.getPrimaryKeys());
+        assertArrayEquals(new String[]{"b", "a"}, split.getIndexKeys());
+        // 直接创建的分片没有索引顺序，和主键的顺序一样
+        assertArrayEquals(new String[]{"a", "b"}, newSplit(new String[]{"a", "b"}, 0, 10).getIndexKeys());
+    }
+
+    private static RdbInputSplit newSplit(String[] keys, long start, long end) {
+        return new RdbInputSplit("t", "t", keys, null, new String[]{"v"}, start, end);
+    }
+
+    private static void assertKeyRange(RdbInputSplit split, String[] lowerKeys, String[] upperKeys) {
+        assertArrayEquals("lower keys of split " + split.getStart(), lowerKeys, split.getLowerKeys());
+        assertArrayEquals("upper keys of split " + split.getStart(), upperKeys, split.getUpperKeys());
+    }
+
+    /**
+     * 按照主键排好序的表，只支持seekKey生成的查询：WHERE后面是appendKeyCondition生成的下界，参数的最后几个是下界的值.
+     */
+    private static class FakeTable {
+
+        private final List<long[]> rows;
+
+        private final List<Long> offsets = new ArrayList<>();
+
+        FakeTable(List<long[]> rows) {
+            this.rows = rows;
+        }
+
+        Connection connection() {
+            return proxy(Connection.class, (method, args) -> {
+                if ("prepareStatement".equals(method)) {
+                    return statement((String) args[0]);
+                }
+                return null;
+            });
+        }
+
+        private PreparedStatement statement(String sql) {
+            Map<Integer, String> params = new HashMap<>();
+            return proxy(PreparedStatement.class, (method, args) -> {
+                if ("setString".equals(method)) {
+                    params.put((Integer) args[0], (String) args[1]);
+                } else if ("executeQuery".equals(method)) {
+                    return query(sql, params);
+                }
+                return null;
+            });
+        }
+
+        private ResultSet query(String sql, Map<Integer, String> params) {
+            Matcher matcher = OFFSET_PATTERN.matcher(sql);
+            assertTrue(sql, matcher.find());
+            long offset = Long.parseLong(matcher.group(1));
+            offsets.add(offset);
+            int keyNum = rows.get(0).length;
+            long[] from = null;
+            if (!params.isEmpty()) {
+                from = new long[keyNum];
+                for (int i = 0; i < keyNum; i++) {
+                    from[i] = Long.parseLong(params.get(params.size() - keyNum + i + 1));
+                }
+            }
+            long[] found = null;
+            long skipped = 0;
+            for (long[] row : rows) {
+                if (null != from && compare(row, from) < 0) {
+                    continue;
+                }
+                if (skipped++ == offset) {
+                    found = row;
+                    break;
+                }
+            }
+            long[] result = found;
+            boolean[] hasNext = {null != result};
+            return proxy(ResultSet.class, (method, args) -> {
+                if ("next".equals(method)) {
+                    boolean next = hasNext[0];
+                    hasNext[0] = false;
+                    return next;
+                }
+                if ("getString".equals(method)) {
+                    return String.valueOf(result[(Integer) args[0] - 1]);
+                }
+                return null;
+            });
+        }
+
+        private static int compare(long[] a, long[] b) {
+            for (int i = 0; i < a.length; i++) {
+                int c = Long.compare(a[i], b[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Throwable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(TableHelperTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+}